@@ -0,0 +1,50 @@
+package cn.sue.spring.test.aot;
+
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.util.ClassUtils;
+
+/**
+ * <p>
+ * 用{@link BeanRegistrationGenerator}构建时生成的代码注册Bean的ApplicationContext，
+ * 相当于new AnnotationConfigApplicationContext(AppConfig.class) + spring.xml，但启动时不解析配置类和XML。
+ * 和普通的GenericApplicationContext一样，注册完以后还要调用refresh()
+ * </p>
+ *
+ * @author Sue
+ * @className AotApplicationContext
+ * @create 2023/5/21
+ **/
+public class AotApplicationContext extends GenericApplicationContext {
+
+    /**
+     * 使用mvn -Paot package生成的{@link BeanRegistrationGenerator#DEFAULT_CLASS_NAME}
+     */
+    public AotApplicationContext() {
+        this(loadGeneratedRegistrations(AotApplicationContext.class.getClassLoader()));
+    }
+
+    public AotApplicationContext(ApplicationContextInitializer<GenericApplicationContext> registrations) {
+        this(new ExtendedBeanFactory(), registrations);
+    }
+
+    public AotApplicationContext(ExtendedBeanFactory beanFactory, ApplicationContextInitializer<GenericApplicationContext> registrations) {
+        super(beanFactory);
+        registrations.initialize(this);
+    }
+
+    /**
+     * 生成的代码不在编译期的源码里，只能按类名加载一次
+     */
+    @SuppressWarnings("unchecked")
+    public static ApplicationContextInitializer<GenericApplicationContext> loadGeneratedRegistrations(ClassLoader classLoader) {
+        if (!ClassUtils.isPresent(BeanRegistrationGenerator.DEFAULT_CLASS_NAME, classLoader)) {
+            throw new IllegalStateException(BeanRegistrationGenerator.DEFAULT_CLASS_NAME +
+                    " not found, build with 'mvn -Paot package' to generate it");
+        }
+        Class<?> registrationsClass = ClassUtils.resolveClassName(BeanRegistrationGenerator.DEFAULT_CLASS_NAME, classLoader);
+        return (ApplicationContextInitializer<GenericApplicationContext>) BeanUtils.instantiateClass(registrationsClass);
+    }
+}
@@ -0,0 +1,684 @@
+package cn.sue.spring.test.aot;
+
+import cn.sue.spring.test.core.AppConfig;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.annotation.ConfigurationClassPostProcessor;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * 构建时把BeanDefinition翻译成Java代码：生成一个ApplicationContextInitializer，
+ * 用instanceSupplier直接new对象/调用@Bean方法，直接调用setter设置XML里的属性，
+ * init-method/destroy-method生成{@link cn.sue.spring.test.factory.BeanLifecycleCallback}。
+ * 运行时用{@link AotApplicationContext}启动，不再解析XML、不再解析配置类(也就没有CGLIB增强)、不再反射找构造器和init/destroy方法。
+ * </p>
+ * <p>
+ * 只支持能直接翻译成代码的BeanDefinition，否则构建时直接报错：
+ * <ul>
+ * <li>类和用到的构造器、工厂方法、setter、init/destroy方法都必须是public的</li>
+ * <li>构造器/工厂方法的参数按类型注入，不支持@Value、@Qualifier、集合和ObjectProvider</li>
+ * <li>XML属性只支持字符串、基本类型、枚举、Class这些可以在构建时确定转换结果的值和ref</li>
+ * </ul>
+ * 字段上的@Autowired/@Resource和@PostConstruct仍然由对应的BeanPostProcessor在运行时处理；
+ * destroy-method是(inferred)时仍在运行时推断
+ * </p>
+ * <p>
+ * mvn -Paot package 会在process-classes阶段用{@link #main}为AppConfig和spring.xml生成{@link #DEFAULT_CLASS_NAME}并一起编译
+ * </p>
+ *
+ * @author Sue
+ * @className BeanRegistrationGenerator
+ * @create 2023/5/21
+ **/
+public class BeanRegistrationGenerator {
+
+    public static final String DEFAULT_CLASS_NAME = "cn.sue.spring.test.aot.generated.ApplicationBeanRegistrations";
+
+    private static final String INDENT = "    ";
+
+    // 注解驱动需要的BeanPostProcessor，运行时直接new；ConfigurationClassPostProcessor的工作已经在构建时做完了
+    private static final Map<String, String> INFRASTRUCTURE_BEANS = new LinkedHashMap<>();
+
+    private static final Set<String> SKIPPED_INFRASTRUCTURE_BEANS = new HashSet<>(Arrays.asList(
+            AnnotationConfigUtils.CONFIGURATION_ANNOTATION_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.CONFIGURATION_BEAN_NAME_GENERATOR));
+
+    static {
+        INFRASTRUCTURE_BEANS.put(AnnotationConfigUtils.AUTOWIRED_ANNOTATION_PROCESSOR_BEAN_NAME,
+                "org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor");
+        INFRASTRUCTURE_BEANS.put(AnnotationConfigUtils.COMMON_ANNOTATION_PROCESSOR_BEAN_NAME,
+                "org.springframework.context.annotation.CommonAnnotationBeanPostProcessor");
+        INFRASTRUCTURE_BEANS.put(AnnotationConfigUtils.EVENT_LISTENER_PROCESSOR_BEAN_NAME,
+                "org.springframework.context.event.EventListenerMethodProcessor");
+        INFRASTRUCTURE_BEANS.put(AnnotationConfigUtils.EVENT_LISTENER_FACTORY_BEAN_NAME,
+                "org.springframework.context.event.DefaultEventListenerFactory");
+    }
+
+    private final String packageName;
+
+    private final String simpleClassName;
+
+    public BeanRegistrationGenerator() {
+        this(DEFAULT_CLASS_NAME);
+    }
+
+    public BeanRegistrationGenerator(String className) {
+        this.packageName = ClassUtils.getPackageName(className);
+        this.simpleClassName = ClassUtils.getShortName(className);
+    }
+
+    /**
+     * 构建时调用：参数为生成代码的根目录，默认target/generated-sources/aot
+     */
+    public static void main(String[] args) throws IOException {
+        Path sourceRoot = Paths.get(args.length > 0 ? args[0] : "target/generated-sources/aot");
+        Path file = new BeanRegistrationGenerator().writeTo(sourceRoot, loadApplicationBeanDefinitions());
+        System.out.println("Generated " + file);
+    }
+
+    /**
+     * 和运行时一样读取AppConfig和spring.xml，并提前执行ConfigurationClassPostProcessor把@Bean方法注册成BeanDefinition，
+     * 但不创建任何Bean
+     */
+    public static DefaultListableBeanFactory loadApplicationBeanDefinitions() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        new AnnotatedBeanDefinitionReader(beanFactory).register(AppConfig.class);
+        new XmlBeanDefinitionReader(beanFactory).loadBeanDefinitions("classpath:spring.xml");
+        processConfigurationClasses(beanFactory);
+        return beanFactory;
+    }
+
+    public static void processConfigurationClasses(DefaultListableBeanFactory beanFactory) {
+        ConfigurationClassPostProcessor processor = new ConfigurationClassPostProcessor();
+        processor.setEnvironment(new StandardEnvironment());
+        processor.setResourceLoader(new DefaultResourceLoader());
+        processor.setBeanClassLoader(beanFactory.getBeanClassLoader());
+        processor.postProcessBeanDefinitionRegistry(beanFactory);
+    }
+
+    public Path writeTo(Path sourceRoot, ConfigurableListableBeanFactory beanFactory) throws IOException {
+        Path file = sourceRoot.resolve(this.packageName.replace('.', '/')).resolve(this.simpleClassName + ".java");
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(generate(beanFactory));
+        }
+        return file;
+    }
+
+    /**
+     * 按注册顺序为每个BeanDefinition生成一个registerXxx方法
+     */
+    public String generate(ConfigurableListableBeanFactory beanFactory) {
+        StringBuilder methods = new StringBuilder();
+        List<String> calls = new ArrayList<>();
+        Set<String> methodNames = new HashSet<>();
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            if (SKIPPED_INFRASTRUCTURE_BEANS.contains(beanName)) {
+                continue;
+            }
+            BeanDefinition bd = beanFactory.getMergedBeanDefinition(beanName);
+            if (bd.isAbstract()) {
+                continue;
+            }
+            String methodName = uniqueMethodName(beanName, methodNames);
+            calls.add(methodName);
+            methods.append('\n');
+            if (INFRASTRUCTURE_BEANS.containsKey(beanName)) {
+                generateInfrastructureBean(methods, methodName, beanName);
+            }
+            else {
+                new BeanCode(beanFactory, beanName, (AbstractBeanDefinition) bd).generate(methods, methodName);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(methods.length() + 2048);
+        sb.append("package ").append(this.packageName).append(";\n\n");
+        sb.append("import cn.sue.spring.test.factory.BeanLifecycleCallback;\n");
+        sb.append("import cn.sue.spring.test.factory.ExtendedBeanFactory;\n");
+        sb.append("import org.springframework.beans.factory.config.BeanDefinition;\n");
+        sb.append("import org.springframework.beans.factory.support.RootBeanDefinition;\n");
+        sb.append("import org.springframework.context.ApplicationContextInitializer;\n");
+        sb.append("import org.springframework.context.support.GenericApplicationContext;\n\n");
+        sb.append("/**\n * 由{@link cn.sue.spring.test.aot.BeanRegistrationGenerator}生成，不要手工修改\n */\n");
+        sb.append("public final class ").append(this.simpleClassName)
+                .append(" implements ApplicationContextInitializer<GenericApplicationContext> {\n\n");
+        sb.append(INDENT).append("@Override\n");
+        sb.append(INDENT).append("public void initialize(GenericApplicationContext context) {\n");
+        sb.append(INDENT).append(INDENT).append("if (!(context.getDefaultListableBeanFactory() instanceof ExtendedBeanFactory)) {\n");
+        sb.append(INDENT).append(INDENT).append(INDENT)
+                .append("throw new IllegalStateException(\"Generated bean registrations require an ExtendedBeanFactory\");\n");
+        sb.append(INDENT).append(INDENT).append("}\n");
+        sb.append(INDENT).append(INDENT)
+                .append("ExtendedBeanFactory beanFactory = (ExtendedBeanFactory) context.getDefaultListableBeanFactory();\n");
+        for (String call : calls) {
+            sb.append(INDENT).append(INDENT).append(call).append("(context, beanFactory);\n");
+        }
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            for (String alias : beanFactory.getAliases(beanName)) {
+                sb.append(INDENT).append(INDENT).append("beanFactory.registerAlias(")
+                        .append(literal(beanName)).append(", ").append(literal(alias)).append(");\n");
+            }
+        }
+        sb.append(INDENT).append("}\n");
+        sb.append(methods);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void generateInfrastructureBean(StringBuilder sb, String methodName, String beanName) {
+        String type = INFRASTRUCTURE_BEANS.get(beanName);
+        appendMethodStart(sb, methodName);
+        line(sb, 2, "RootBeanDefinition bd = new RootBeanDefinition(" + type + ".class);");
+        line(sb, 2, "bd.setInstanceSupplier(" + type + "::new);");
+        line(sb, 2, "bd.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);");
+        line(sb, 2, "beanFactory.registerBeanDefinition(" + literal(beanName) + ", bd);");
+        line(sb, 1, "}");
+    }
+
+    private static void appendMethodStart(StringBuilder sb, String methodName) {
+        line(sb, 1, "private static void " + methodName + "(GenericApplicationContext context, ExtendedBeanFactory beanFactory) {");
+    }
+
+    private static void line(StringBuilder sb, int depth, String code) {
+        for (int i = 0; i < depth; i++) {
+            sb.append(INDENT);
+        }
+        sb.append(code).append('\n');
+    }
+
+    private static String uniqueMethodName(String beanName, Set<String> methodNames) {
+        StringBuilder sb = new StringBuilder("register");
+        boolean upper = true;
+        for (int i = 0; i < beanName.length(); i++) {
+            char c = beanName.charAt(i);
+            if (Character.isJavaIdentifierPart(c)) {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+            else {
+                upper = true;
+            }
+        }
+        String name = sb.toString();
+        for (int i = 2; !methodNames.add(name); i++) {
+            name = sb.toString() + i;
+        }
+        return name;
+    }
+
+    static String literal(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * 生成代码里引用的类型必须是public的，内部类的外部类也要是public的
+     */
+    static String typeName(Class<?> type) {
+        if (type.isArray()) {
+            return typeName(type.getComponentType()) + "[]";
+        }
+        if (type.isPrimitive()) {
+            return type.getName();
+        }
+        for (Class<?> current = type; current != null; current = current.getEnclosingClass()) {
+            if (!Modifier.isPublic(current.getModifiers()) || current.getCanonicalName() == null) {
+                throw new IllegalStateException("Type " + type.getName() + " is not accessible from generated code");
+            }
+        }
+        return type.getCanonicalName();
+    }
+
+
+    /**
+     * 一个BeanDefinition对应的代码
+     */
+    private static final class BeanCode {
+
+        private final ConfigurableListableBeanFactory beanFactory;
+
+        private final String beanName;
+
+        private final AbstractBeanDefinition bd;
+
+        private final Set<String> dependsOn = new LinkedHashSet<>();
+
+        private boolean throwsCheckedException;
+
+        BeanCode(ConfigurableListableBeanFactory beanFactory, String beanName, AbstractBeanDefinition bd) {
+            this.beanFactory = beanFactory;
+            this.beanName = beanName;
+            this.bd = bd;
+            if (bd.getDependsOn() != null) {
+                this.dependsOn.addAll(Arrays.asList(bd.getDependsOn()));
+            }
+        }
+
+        void generate(StringBuilder sb, String methodName) {
+            try {
+                doGenerate(sb, methodName);
+            }
+            catch (IllegalStateException ex) {
+                throw new IllegalStateException("Cannot generate code for bean '" + this.beanName + "': " + ex.getMessage(), ex);
+            }
+        }
+
+        private void doGenerate(StringBuilder sb, String methodName) {
+            Class<?> beanType;
+            String instance;
+            if (this.bd.getFactoryMethodName() != null) {
+                Method factoryMethod = resolveFactoryMethod();
+                beanType = factoryMethod.getReturnType();
+                instance = factoryMethodInvocation(factoryMethod);
+            }
+            else {
+                beanType = resolveBeanClass();
+                Constructor<?> constructor = resolveConstructor(beanType);
+                instance = "new " + typeName(beanType) + "(" + arguments(constructor) + ")";
+            }
+            String type = typeName(beanType);
+            List<String> setters = propertySetters(beanType);
+
+            StringBuilder code = new StringBuilder();
+            appendMethodStart(code, methodName);
+            line(code, 2, "RootBeanDefinition bd = new RootBeanDefinition(" + type + ".class);");
+            if (setters.isEmpty() && !this.throwsCheckedException) {
+                line(code, 2, "bd.setInstanceSupplier(() -> " + instance + ");");
+            }
+            else {
+                int depth = 3;
+                line(code, 2, "bd.setInstanceSupplier(() -> {");
+                if (this.throwsCheckedException) {
+                    line(code, 3, "try {");
+                    depth = 4;
+                }
+                if (setters.isEmpty()) {
+                    line(code, depth, "return " + instance + ";");
+                }
+                else {
+                    line(code, depth, type + " bean = " + instance + ";");
+                    for (String setter : setters) {
+                        line(code, depth, setter);
+                    }
+                    line(code, depth, "return bean;");
+                }
+                if (this.throwsCheckedException) {
+                    line(code, 3, "}");
+                    line(code, 3, "catch (Exception ex) {");
+                    line(code, 4, "throw new org.springframework.beans.factory.BeanCreationException("
+                            + literal(this.beanName) + ", \"Instantiation of bean failed\", ex);");
+                    line(code, 3, "}");
+                }
+                line(code, 2, "});");
+            }
+            appendAttributes(code, beanType);
+            line(code, 2, "beanFactory.registerBeanDefinition(" + literal(this.beanName) + ", bd);");
+            line(code, 1, "}");
+            sb.append(code);
+        }
+
+        private void appendAttributes(StringBuilder code, Class<?> beanType) {
+            if (!BeanDefinition.SCOPE_SINGLETON.equals(this.bd.getScope()) && StringUtils.hasLength(this.bd.getScope())) {
+                line(code, 2, "bd.setScope(" + literal(this.bd.getScope()) + ");");
+            }
+            if (this.bd.isLazyInit()) {
+                line(code, 2, "bd.setLazyInit(true);");
+            }
+            if (this.bd.isPrimary()) {
+                line(code, 2, "bd.setPrimary(true);");
+            }
+            if (!this.bd.isAutowireCandidate()) {
+                line(code, 2, "bd.setAutowireCandidate(false);");
+            }
+            if (this.bd.getRole() != BeanDefinition.ROLE_APPLICATION) {
+                line(code, 2, "bd.setRole(" + this.bd.getRole() + ");");
+            }
+            if (this.bd.isSynthetic()) {
+                line(code, 2, "bd.setSynthetic(true);");
+            }
+            // 按名字/类型自动注入属性仍然在populateBean里做
+            if (this.bd.getFactoryMethodName() == null && (this.bd.getAutowireMode() == AbstractBeanDefinition.AUTOWIRE_BY_NAME ||
+                    this.bd.getAutowireMode() == AbstractBeanDefinition.AUTOWIRE_BY_TYPE)) {
+                line(code, 2, "bd.setAutowireMode(" + this.bd.getAutowireMode() + ");");
+            }
+            if (!this.dependsOn.isEmpty()) {
+                StringBuilder names = new StringBuilder();
+                for (String name : this.dependsOn) {
+                    names.append(names.length() > 0 ? ", " : "").append(literal(name));
+                }
+                line(code, 2, "bd.setDependsOn(" + names + ");");
+            }
+
+            String initMethodName = this.bd.getInitMethodName();
+            if (StringUtils.hasLength(initMethodName)) {
+                Method initMethod = findLifecycleMethod(beanType, initMethodName);
+                if (initMethod == null) {
+                    if (this.bd.isEnforceInitMethod()) {
+                        throw new IllegalStateException("No public no-arg init method '" + initMethodName + "' on " + beanType.getName());
+                    }
+                }
+                else {
+                    line(code, 2, "bd.setInitMethodName(" + literal(initMethodName) + ");");
+                    line(code, 2, "bd.setAttribute(ExtendedBeanFactory.INIT_CALLBACK_ATTRIBUTE, " + callback(beanType, initMethod) + ");");
+                }
+            }
+
+            String destroyMethodName = this.bd.getDestroyMethodName();
+            if (AbstractBeanDefinition.INFER_METHOD.equals(destroyMethodName) || (StringUtils.hasLength(destroyMethodName) && !this.bd.isSingleton())) {
+                line(code, 2, "bd.setDestroyMethodName(" + literal(destroyMethodName) + ");");
+            }
+            else if (StringUtils.hasLength(destroyMethodName)) {
+                Method destroyMethod = findLifecycleMethod(beanType, destroyMethodName);
+                if (destroyMethod == null) {
+                    if (this.bd.isEnforceDestroyMethod()) {
+                        throw new IllegalStateException("No public no-arg destroy method '" + destroyMethodName + "' on " + beanType.getName());
+                    }
+                }
+                else {
+                    line(code, 2, "bd.setAttribute(ExtendedBeanFactory.DESTROY_CALLBACK_ATTRIBUTE, " + callback(beanType, destroyMethod) + ");");
+                }
+            }
+        }
+
+        private static String callback(Class<?> beanType, Method method) {
+            return "(BeanLifecycleCallback) bean -> ((" + typeName(beanType) + ") bean)." + method.getName() + "()";
+        }
+
+        private static Method findLifecycleMethod(Class<?> beanType, String methodName) {
+            Method method = ClassUtils.getMethodIfAvailable(beanType, methodName);
+            if (method == null || method.getParameterCount() != 0 || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                return null;
+            }
+            return method;
+        }
+
+        private Class<?> resolveBeanClass() {
+            if (this.bd.hasBeanClass()) {
+                return this.bd.getBeanClass();
+            }
+            try {
+                return this.bd.resolveBeanClass(this.beanFactory.getBeanClassLoader());
+            }
+            catch (ClassNotFoundException ex) {
+                throw new IllegalStateException("Bean class " + this.bd.getBeanClassName() + " not found", ex);
+            }
+        }
+
+        /**
+         * 一个public构造器时用它；多个时用@Autowired标注的那个，没有就用无参构造器
+         */
+        private Constructor<?> resolveConstructor(Class<?> beanClass) {
+            if (this.bd.hasConstructorArgumentValues()) {
+                throw new IllegalStateException("explicit constructor arguments are not supported");
+            }
+            if (Modifier.isAbstract(beanClass.getModifiers()) || beanClass.isInterface()) {
+                throw new IllegalStateException(beanClass.getName() + " cannot be instantiated");
+            }
+            Constructor<?>[] constructors = beanClass.getConstructors();
+            if (constructors.length == 1) {
+                return constructors[0];
+            }
+            Constructor<?> defaultConstructor = null;
+            for (Constructor<?> constructor : constructors) {
+                if (AnnotatedElementUtils.hasAnnotation(constructor, Autowired.class)) {
+                    return constructor;
+                }
+                if (constructor.getParameterCount() == 0) {
+                    defaultConstructor = constructor;
+                }
+            }
+            if (defaultConstructor == null) {
+                throw new IllegalStateException("no unique public constructor on " + beanClass.getName());
+            }
+            return defaultConstructor;
+        }
+
+        private Method resolveFactoryMethod() {
+            if (this.bd.hasConstructorArgumentValues()) {
+                throw new IllegalStateException("explicit factory method arguments are not supported");
+            }
+            String factoryBeanName = this.bd.getFactoryBeanName();
+            Class<?> factoryClass = (factoryBeanName != null ? this.beanFactory.getType(factoryBeanName) : resolveBeanClass());
+            if (factoryClass == null) {
+                throw new IllegalStateException("cannot determine type of factory bean '" + factoryBeanName + "'");
+            }
+            factoryClass = ClassUtils.getUserClass(factoryClass);
+            Method found = null;
+            for (Method method : factoryClass.getMethods()) {
+                if (method.getName().equals(this.bd.getFactoryMethodName()) &&
+                        Modifier.isStatic(method.getModifiers()) == (factoryBeanName == null)) {
+                    if (found != null) {
+                        throw new IllegalStateException("overloaded factory method " + method.getName() + " is not supported");
+                    }
+                    found = method;
+                }
+            }
+            if (found == null) {
+                throw new IllegalStateException("no public factory method '" + this.bd.getFactoryMethodName() + "' on " + factoryClass.getName());
+            }
+            return found;
+        }
+
+        private String factoryMethodInvocation(Method factoryMethod) {
+            String factoryBeanName = this.bd.getFactoryBeanName();
+            String target;
+            if (factoryBeanName != null) {
+                // 和反射调用工厂方法时一样，工厂Bean先于它的产品创建、后于它销毁
+                this.dependsOn.add(factoryBeanName);
+                target = "beanFactory.getBean(" + literal(factoryBeanName) + ", " + typeName(factoryMethod.getDeclaringClass()) + ".class)";
+            }
+            else {
+                target = typeName(factoryMethod.getDeclaringClass());
+            }
+            return target + "." + factoryMethod.getName() + "(" + arguments(factoryMethod) + ")";
+        }
+
+        /**
+         * 容器自身按类型注入(BeanFactory、ApplicationContext、Environment)，其它参数按类型getBean
+         */
+        private String arguments(Executable executable) {
+            for (Class<?> exceptionType : executable.getExceptionTypes()) {
+                if (!RuntimeException.class.isAssignableFrom(exceptionType) && !Error.class.isAssignableFrom(exceptionType)) {
+                    this.throwsCheckedException = true;
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Class<?> parameterType : executable.getParameterTypes()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                if (BeanFactory.class.isAssignableFrom(parameterType) && parameterType.isAssignableFrom(DefaultListableBeanFactory.class)) {
+                    sb.append("beanFactory");
+                }
+                else if (parameterType != Object.class && parameterType.isAssignableFrom(GenericApplicationContext.class)) {
+                    sb.append("context");
+                }
+                else if (parameterType == Environment.class) {
+                    sb.append("context.getEnvironment()");
+                }
+                else if (parameterType.isPrimitive() || parameterType.isArray() || parameterType == String.class ||
+                        java.util.Collection.class.isAssignableFrom(parameterType) || Map.class.isAssignableFrom(parameterType) ||
+                        java.util.Optional.class == parameterType || org.springframework.beans.factory.ObjectFactory.class.isAssignableFrom(parameterType)) {
+                    throw new IllegalStateException("parameter of type " + parameterType.getName() + " in " + executable + " is not supported");
+                }
+                else {
+                    sb.append("beanFactory.getBean(").append(typeName(parameterType)).append(".class)");
+                }
+            }
+            return sb.toString();
+        }
+
+        private List<String> propertySetters(Class<?> beanType) {
+            List<String> setters = new ArrayList<>();
+            for (PropertyValue pv : this.bd.getPropertyValues().getPropertyValues()) {
+                PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(beanType, pv.getName());
+                Method writeMethod = (pd != null ? pd.getWriteMethod() : null);
+                if (writeMethod == null || !Modifier.isPublic(writeMethod.getDeclaringClass().getModifiers())) {
+                    throw new IllegalStateException("no public setter for property '" + pv.getName() + "' on " + beanType.getName());
+                }
+                for (Class<?> exceptionType : writeMethod.getExceptionTypes()) {
+                    if (!RuntimeException.class.isAssignableFrom(exceptionType) && !Error.class.isAssignableFrom(exceptionType)) {
+                        this.throwsCheckedException = true;
+                    }
+                }
+                setters.add("bean." + writeMethod.getName() + "(" + propertyValue(pv, writeMethod.getParameterTypes()[0]) + ");");
+            }
+            return setters;
+        }
+
+        private String propertyValue(PropertyValue pv, Class<?> type) {
+            Object value = pv.getValue();
+            if (value instanceof RuntimeBeanReference) {
+                String refName = ((RuntimeBeanReference) value).getBeanName();
+                this.dependsOn.add(refName);
+                return "beanFactory.getBean(" + literal(refName) + ", " + typeName(ClassUtils.resolvePrimitiveIfNecessary(type)) + ".class)";
+            }
+            String text;
+            if (value instanceof TypedStringValue) {
+                text = ((TypedStringValue) value).getValue();
+            }
+            else if (value instanceof String) {
+                text = (String) value;
+            }
+            else {
+                throw new IllegalStateException("value of property '" + pv.getName() + "' is not supported: " + value);
+            }
+            if (text == null) {
+                if (type.isPrimitive()) {
+                    throw new IllegalStateException("null value for primitive property '" + pv.getName() + "'");
+                }
+                return "null";
+            }
+            try {
+                return convertedLiteral(text.trim(), text, type);
+            }
+            catch (IllegalArgumentException ex) {
+                throw new IllegalStateException("cannot convert value '" + text + "' of property '" + pv.getName() + "' to " + type.getName(), ex);
+            }
+        }
+
+        /**
+         * 在构建时完成和运行时默认PropertyEditor相同的转换
+         */
+        private static String convertedLiteral(String trimmed, String text, Class<?> type) {
+            Class<?> boxed = ClassUtils.resolvePrimitiveIfNecessary(type);
+            if (type == String.class || type == Object.class) {
+                return literal(text);
+            }
+            if (boxed == Integer.class) {
+                return Integer.toString(Integer.decode(trimmed));
+            }
+            if (boxed == Long.class) {
+                return Long.decode(trimmed) + "L";
+            }
+            if (boxed == Short.class) {
+                return "(short) " + Short.decode(trimmed);
+            }
+            if (boxed == Byte.class) {
+                return "(byte) " + Byte.decode(trimmed);
+            }
+            if (boxed == Double.class) {
+                return Double.parseDouble(trimmed) + "d";
+            }
+            if (boxed == Float.class) {
+                return Float.parseFloat(trimmed) + "f";
+            }
+            if (boxed == Boolean.class) {
+                return Boolean.toString(parseBoolean(trimmed));
+            }
+            if (boxed == Character.class && text.length() == 1) {
+                return "'" + (text.charAt(0) == '\'' || text.charAt(0) == '\\' ? "\\" : "") + text.charAt(0) + "'";
+            }
+            if (type.isEnum()) {
+                for (Object constant : type.getEnumConstants()) {
+                    if (((Enum<?>) constant).name().equals(trimmed)) {
+                        return typeName(type) + "." + trimmed;
+                    }
+                }
+                throw new IllegalArgumentException("No enum constant " + trimmed);
+            }
+            if (type == Class.class) {
+                return typeName(ClassUtils.resolveClassName(trimmed, null)) + ".class";
+            }
+            throw new IllegalArgumentException("Unsupported property type");
+        }
+
+        private static boolean parseBoolean(String text) {
+            String[] trueValues = {"true", "on", "yes", "1"};
+            String[] falseValues = {"false", "off", "no", "0"};
+            if (ObjectUtils.containsElement(trueValues, text.toLowerCase())) {
+                return true;
+            }
+            if (ObjectUtils.containsElement(falseValues, text.toLowerCase())) {
+                return false;
+            }
+            throw new IllegalArgumentException("Invalid boolean value");
+        }
+    }
+}
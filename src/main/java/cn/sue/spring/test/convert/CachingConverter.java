@@ -0,0 +1,150 @@
+package cn.sue.spring.test.convert;
+
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.ConditionalConverter;
+import org.springframework.core.convert.converter.ConditionalGenericConverter;
+import org.springframework.core.convert.converter.GenericConverter;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * 给GenericConverter加一层享元缓存：同一个源字符串转出来的对象复用同一个实例，减少热点路径上的对象分配。
+ * 默认不缓存任何类型，只有通过{@link #setShareableTypes}声明为可共享的目标类型才会缓存。
+ * 只应该声明不可变的类型(值对象、BigDecimal等)；User这种有setter的类型共享以后，一个调用方改了会影响所有拿到它的地方，
+ * 要共享User请转化成不可变的ImmutableUser，AppConfig就是这样注册的：
+ * <pre>
+ * CachingConverter converter = new CachingConverter(new StringToImmutableUserConverter(), 1024);
+ * converter.setShareableTypes(ImmutableUser.class);
+ * conversionServiceFactoryBean.setConverters(Collections.singleton(converter));
+ * </pre>
+ * 缓存按源字符串和完整的目标TypeDescriptor(包括注解)区分；目标类型带泛型参数时不缓存，TypeDescriptor的equals不比较它们
+ * </p>
+ *
+ * @author Sue
+ * @className CachingConverter
+ * @create 2023/5/10
+ **/
+public class CachingConverter implements ConditionalGenericConverter {
+
+    private final GenericConverter delegate;
+
+    private final int maxSize;
+
+    private volatile Map<Class<?>, ConcurrentLruCache<CacheKey, Object>> caches = Collections.emptyMap();
+
+    public CachingConverter(GenericConverter delegate, int maxSize) {
+        Assert.notNull(delegate, "Delegate converter must not be null");
+        Assert.isTrue(maxSize > 0, "Max size must be positive");
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 声明哪些目标类型的实例可以在多次转化之间共享
+     */
+    public void setShareableTypes(Class<?>... shareableTypes) {
+        Map<Class<?>, ConcurrentLruCache<CacheKey, Object>> caches = new HashMap<>();
+        for (Class<?> type : shareableTypes) {
+            caches.put(type, new ConcurrentLruCache<>(this.maxSize));
+        }
+        this.caches = caches;
+    }
+
+    public Set<Class<?>> getShareableTypes() {
+        return Collections.unmodifiableSet(this.caches.keySet());
+    }
+
+    @Override
+    public Set<ConvertiblePair> getConvertibleTypes() {
+        return this.delegate.getConvertibleTypes();
+    }
+
+    @Override
+    public boolean matches(TypeDescriptor sourceType, TypeDescriptor targetType) {
+        return !(this.delegate instanceof ConditionalConverter) ||
+                ((ConditionalConverter) this.delegate).matches(sourceType, targetType);
+    }
+
+    @Override
+    public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+        if (!(source instanceof String)) {
+            return this.delegate.convert(source, sourceType, targetType);
+        }
+        ConcurrentLruCache<CacheKey, Object> cache = this.caches.get(targetType.getObjectType());
+        if (cache == null || targetType.getResolvableType().hasGenerics()) {
+            return this.delegate.convert(source, sourceType, targetType);
+        }
+        return cache.get(new CacheKey((String) source, targetType), key -> this.delegate.convert(source, sourceType, targetType));
+    }
+
+    public long getHitCount() {
+        long count = 0;
+        for (ConcurrentLruCache<CacheKey, Object> cache : this.caches.values()) {
+            count += cache.hitCount();
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+        long count = 0;
+        for (ConcurrentLruCache<CacheKey, Object> cache : this.caches.values()) {
+            count += cache.missCount();
+        }
+        return count;
+    }
+
+    public long getEvictionCount() {
+        long count = 0;
+        for (ConcurrentLruCache<CacheKey, Object> cache : this.caches.values()) {
+            count += cache.evictionCount();
+        }
+        return count;
+    }
+
+    public void clearCache() {
+        for (ConcurrentLruCache<CacheKey, Object> cache : this.caches.values()) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingConverter[" + this.delegate + ", shareableTypes=" + this.caches.keySet() +
+                ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+
+    private static final class CacheKey {
+
+        private final String source;
+
+        private final TypeDescriptor targetType;
+
+        CacheKey(String source, TypeDescriptor targetType) {
+            this.source = source;
+            this.targetType = targetType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) other;
+            return (this.source.equals(that.source) && this.targetType.equals(that.targetType));
+        }
+
+        @Override
+        public int hashCode() {
+            return this.source.hashCode() * 31 + this.targetType.hashCode();
+        }
+    }
+}
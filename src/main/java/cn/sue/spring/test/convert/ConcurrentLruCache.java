@@ -0,0 +1,156 @@
+package cn.sue.spring.test.convert;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * 有界的并发缓存，淘汰策略是CLOCK(二次机会)，近似LRU。
+ * 命中时只读ConcurrentHashMap、打一个访问标记，不加锁也不调整链表；只有未命中写入时才加锁转动时钟指针淘汰
+ * </p>
+ *
+ * @author Sue
+ * @className ConcurrentLruCache
+ * @create 2023/5/10
+ **/
+public class ConcurrentLruCache<K, V> {
+
+    private final int capacity;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    private final Node<K, V>[] ring;
+
+    private final Object ringMonitor = new Object();
+
+    private int hand;
+
+    private int occupied;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int capacity) {
+        Assert.isTrue(capacity > 0, "Capacity must be positive");
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        this.ring = (Node<K, V>[]) new Node[capacity];
+    }
+
+    /**
+     * 取缓存，没有就用loader生成。loader在锁外执行，并发未命中时可能执行多次，但只有一个结果会留在缓存里
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Node<K, V> node = this.map.get(key);
+        if (node != null) {
+            if (!node.referenced) {
+                node.referenced = true;
+            }
+            this.hits.increment();
+            return node.value;
+        }
+        this.misses.increment();
+        V value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        synchronized (this.ringMonitor) {
+            Node<K, V> existing = this.map.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            Node<K, V> added = new Node<>(key, value);
+            this.ring[nextSlot()] = added;
+            this.map.put(key, added);
+            return value;
+        }
+    }
+
+    public V get(K key) {
+        Node<K, V> node = this.map.get(key);
+        if (node == null) {
+            this.misses.increment();
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        this.hits.increment();
+        return node.value;
+    }
+
+    public void clear() {
+        synchronized (this.ringMonitor) {
+            this.map.clear();
+            for (int i = 0; i < this.ring.length; i++) {
+                this.ring[i] = null;
+            }
+            this.occupied = 0;
+            this.hand = 0;
+        }
+    }
+
+    /**
+     * 没满直接用空位；满了就转动指针，跳过(并清掉)最近访问过的，淘汰第一个没被访问过的
+     */
+    private int nextSlot() {
+        if (this.occupied < this.capacity) {
+            return this.occupied++;
+        }
+        while (true) {
+            Node<K, V> candidate = this.ring[this.hand];
+            int slot = this.hand;
+            this.hand = (this.hand + 1) % this.capacity;
+            if (candidate.referenced) {
+                candidate.referenced = false;
+            }
+            else {
+                this.map.remove(candidate.key, candidate);
+                this.evictions.increment();
+                return slot;
+            }
+        }
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public long hitCount() {
+        return this.hits.sum();
+    }
+
+    public long missCount() {
+        return this.misses.sum();
+    }
+
+    public long evictionCount() {
+        return this.evictions.sum();
+    }
+
+
+    private static final class Node<K, V> {
+
+        final K key;
+
+        final V value;
+
+        volatile boolean referenced;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
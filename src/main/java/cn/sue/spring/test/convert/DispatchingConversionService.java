@@ -0,0 +1,367 @@
+package cn.sue.spring.test.convert;
+
+import org.springframework.core.convert.ConversionFailedException;
+import org.springframework.core.convert.ConverterNotFoundException;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.ConditionalConverter;
+import org.springframework.core.convert.converter.GenericConverter;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * 在DefaultConversionService前面加一张预先算好的(源类型, 目标类型) -> 转化器分发表。
+ * 命中分发表的转化不用创建TypeDescriptor、不查转化器缓存、也不再调用matches()，直接交给注册的无状态转化器；
+ * 没命中的照旧走父类。分发表写时复制，读不加锁
+ * </p>
+ * <p>
+ * convertAll批量转化数组、集合、Stream：每种(源类型, 目标类型)只查一次转化器，结果直接写进预先分配好大小的数组；
+ * 元素数量达到{@link #setParallelThreshold 并行阈值}时拆分到ForkJoinPool里并行转化。
+ * 转化器必须线程安全(无状态)，并行时转化顺序不确定，但结果顺序和输入一致
+ * </p>
+ *
+ * @author Sue
+ * @className DispatchingConversionService
+ * @create 2023/5/12
+ **/
+public class DispatchingConversionService extends DefaultConversionService {
+
+    /**
+     * 默认的并行阈值，元素少的时候拆分任务的开销比转化本身还大
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16_384;
+
+    // 并行时每个子任务至少转化这么多个元素
+    private static final int MIN_CHUNK_SIZE = 2_048;
+
+    private volatile Map<Class<?>, Map<Class<?>, Dispatch>> dispatchTable = Collections.emptyMap();
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    @Nullable
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * convertAll的元素数量达到多少时并行转化，Integer.MAX_VALUE表示不并行
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        Assert.isTrue(parallelThreshold > 0, "Parallel threshold must be positive");
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return this.parallelThreshold;
+    }
+
+    /**
+     * 并行转化用的线程池，默认ForkJoinPool.commonPool()
+     */
+    public void setForkJoinPool(@Nullable ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * 注册一条直接分发：converter必须是无状态、线程安全的。条件转化器会在注册时用这两个类型判断一次matches()
+     */
+    public void addDirectConverter(Class<?> sourceType, Class<?> targetType, GenericConverter converter) {
+        Assert.notNull(sourceType, "Source type must not be null");
+        Assert.notNull(targetType, "Target type must not be null");
+        Assert.notNull(converter, "Converter must not be null");
+        TypeDescriptor sourceDescriptor = TypeDescriptor.valueOf(sourceType);
+        TypeDescriptor targetDescriptor = TypeDescriptor.valueOf(targetType);
+        if (converter instanceof ConditionalConverter &&
+                !((ConditionalConverter) converter).matches(sourceDescriptor, targetDescriptor)) {
+            throw new IllegalArgumentException("Converter " + converter + " does not match " +
+                    sourceType.getName() + " -> " + targetType.getName());
+        }
+        synchronized (this) {
+            Map<Class<?>, Map<Class<?>, Dispatch>> table = new HashMap<>(this.dispatchTable);
+            Map<Class<?>, Dispatch> targets = new HashMap<>(table.getOrDefault(sourceType, Collections.emptyMap()));
+            targets.put(targetType, new Dispatch(converter, sourceDescriptor, targetDescriptor));
+            table.put(sourceType, targets);
+            this.dispatchTable = table;
+        }
+    }
+
+    public boolean hasDirectConverter(Class<?> sourceType, Class<?> targetType) {
+        return lookup(sourceType, targetType) != null;
+    }
+
+    @Override
+    public boolean canConvert(@Nullable Class<?> sourceType, Class<?> targetType) {
+        return (sourceType != null && lookup(sourceType, targetType) != null) || super.canConvert(sourceType, targetType);
+    }
+
+    @Override
+    public boolean canConvert(@Nullable TypeDescriptor sourceType, TypeDescriptor targetType) {
+        return (sourceType != null && lookup(sourceType.getObjectType(), targetType.getObjectType()) != null) ||
+                super.canConvert(sourceType, targetType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public <T> T convert(@Nullable Object source, Class<T> targetType) {
+        if (source != null) {
+            Dispatch dispatch = lookup(source.getClass(), targetType);
+            if (dispatch != null) {
+                return (T) checkResult(dispatch.sourceType, dispatch.targetType,
+                        dispatch.converter.convert(source, dispatch.sourceType, dispatch.targetType));
+            }
+        }
+        return super.convert(source, targetType);
+    }
+
+    @Override
+    @Nullable
+    public Object convert(@Nullable Object source, @Nullable TypeDescriptor sourceType, TypeDescriptor targetType) {
+        if (source != null && sourceType != null) {
+            Dispatch dispatch = lookup(sourceType.getObjectType(), targetType.getObjectType());
+            if (dispatch != null) {
+                return checkResult(sourceType, targetType, dispatch.converter.convert(source, sourceType, targetType));
+            }
+        }
+        return super.convert(source, sourceType, targetType);
+    }
+
+    /**
+     * 批量转化数组，返回和sources一样长的targetType数组(基本类型用对应的包装类型)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T[] convertAll(Object[] sources, Class<T> targetType) {
+        Assert.notNull(sources, "Sources must not be null");
+        Assert.notNull(targetType, "Target type must not be null");
+        T[] targets = (T[]) Array.newInstance(ClassUtils.resolvePrimitiveIfNecessary(targetType), sources.length);
+        ElementConverter converter = new ElementConverter(targetType);
+        if (sources.length >= this.parallelThreshold) {
+            ForkJoinPool pool = (this.forkJoinPool != null ? this.forkJoinPool : ForkJoinPool.commonPool());
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, sources.length / (pool.getParallelism() * 4));
+            pool.invoke(new ConvertTask(converter, sources, targets, 0, sources.length, chunkSize));
+        }
+        else {
+            converter.convertRange(sources, targets, 0, sources.length);
+        }
+        return targets;
+    }
+
+    /**
+     * 批量转化集合，返回的ArrayList和sources的迭代顺序一致
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> convertAll(Collection<?> sources, Class<T> targetType) {
+        Assert.notNull(sources, "Sources must not be null");
+        Assert.notNull(targetType, "Target type must not be null");
+        if (sources.size() < this.parallelThreshold) {
+            ElementConverter converter = new ElementConverter(targetType);
+            Class<T> resultType = (Class<T>) ClassUtils.resolvePrimitiveIfNecessary(targetType);
+            List<T> targets = new ArrayList<>(sources.size());
+            if (sources instanceof List && sources instanceof RandomAccess) {
+                List<?> list = (List<?>) sources;
+                for (int i = 0; i < list.size(); i++) {
+                    targets.add(resultType.cast(converter.convert(list.get(i))));
+                }
+            }
+            else {
+                for (Object source : sources) {
+                    targets.add(resultType.cast(converter.convert(source)));
+                }
+            }
+            return targets;
+        }
+        return new ArrayList<>(Arrays.asList(convertAll(sources.toArray(), targetType)));
+    }
+
+    /**
+     * 转化Stream里的每个元素，惰性执行；并行Stream也可以用
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Stream<T> convertAll(Stream<?> sources, Class<T> targetType) {
+        Assert.notNull(sources, "Sources must not be null");
+        Assert.notNull(targetType, "Target type must not be null");
+        ElementConverter converter = new ElementConverter(targetType);
+        Class<T> resultType = (Class<T>) ClassUtils.resolvePrimitiveIfNecessary(targetType);
+        return sources.map(source -> resultType.cast(converter.convert(source)));
+    }
+
+    /**
+     * 和GenericConversionService.handleResult一样：结果是null而目标是基本类型时转化失败
+     */
+    @Nullable
+    private static Object checkResult(@Nullable TypeDescriptor sourceType, TypeDescriptor targetType, @Nullable Object result) {
+        if (result == null && targetType.isPrimitive()) {
+            throw new ConversionFailedException(sourceType, targetType, null,
+                    new IllegalArgumentException("A null value cannot be assigned to a primitive type"));
+        }
+        return result;
+    }
+
+    @Nullable
+    private Dispatch lookup(Class<?> sourceType, Class<?> targetType) {
+        Map<Class<?>, Dispatch> targets = this.dispatchTable.get(sourceType);
+        return (targets != null ? targets.get(targetType) : null);
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchingConversionService: direct " + this.dispatchTable.keySet() + "\n" + super.toString();
+    }
+
+
+    /**
+     * 一次批量转化里，每种源类型对应的转化方式只解析一次。批量转化的元素一般都是同一个类型，
+     * 先比较上一次的类型，不一样再查表
+     */
+    private final class ElementConverter {
+
+        private final Class<?> targetType;
+
+        private final TypeDescriptor targetDescriptor;
+
+        private final Map<Class<?>, ResolvedConverter> resolved = new ConcurrentHashMap<>(4);
+
+        @Nullable
+        private volatile ResolvedConverter last;
+
+        ElementConverter(Class<?> targetType) {
+            this.targetType = targetType;
+            this.targetDescriptor = TypeDescriptor.valueOf(targetType);
+        }
+
+        void convertRange(Object[] sources, Object[] targets, int from, int to) {
+            for (int i = from; i < to; i++) {
+                targets[i] = convert(sources[i]);
+            }
+        }
+
+        @Nullable
+        Object convert(@Nullable Object source) {
+            if (source == null) {
+                return DispatchingConversionService.super.convert(null, TypeDescriptor.valueOf(Object.class), this.targetDescriptor);
+            }
+            ResolvedConverter converter = this.last;
+            if (converter == null || converter.sourceType.getType() != source.getClass()) {
+                converter = this.resolved.computeIfAbsent(source.getClass(), this::resolve);
+                this.last = converter;
+            }
+            return converter.convert(source);
+        }
+
+        private ResolvedConverter resolve(Class<?> sourceClass) {
+            Dispatch dispatch = lookup(sourceClass, this.targetType);
+            if (dispatch != null) {
+                return new ResolvedConverter(dispatch.converter, dispatch.sourceType, dispatch.targetType);
+            }
+            TypeDescriptor sourceDescriptor = TypeDescriptor.valueOf(sourceClass);
+            GenericConverter converter = getConverter(sourceDescriptor, this.targetDescriptor);
+            if (converter == null) {
+                throw new ConverterNotFoundException(sourceDescriptor, this.targetDescriptor);
+            }
+            return new ResolvedConverter(converter, sourceDescriptor, this.targetDescriptor);
+        }
+    }
+
+
+    private static final class ResolvedConverter {
+
+        final GenericConverter converter;
+
+        final TypeDescriptor sourceType;
+
+        final TypeDescriptor targetType;
+
+        ResolvedConverter(GenericConverter converter, TypeDescriptor sourceType, TypeDescriptor targetType) {
+            this.converter = converter;
+            this.sourceType = sourceType;
+            this.targetType = targetType;
+        }
+
+        /**
+         * 异常的包装和对结果的检查都和GenericConversionService.convert一致
+         */
+        @Nullable
+        Object convert(Object source) {
+            Object result;
+            try {
+                result = this.converter.convert(source, this.sourceType, this.targetType);
+            }
+            catch (ConversionFailedException ex) {
+                throw ex;
+            }
+            catch (Throwable ex) {
+                throw new ConversionFailedException(this.sourceType, this.targetType, source, ex);
+            }
+            return checkResult(this.sourceType, this.targetType, result);
+        }
+    }
+
+
+    /**
+     * 按下标范围二分，直到小于chunkSize，每个子任务写targets里自己那一段
+     */
+    private static final class ConvertTask extends RecursiveAction {
+
+        private final ElementConverter converter;
+
+        private final Object[] sources;
+
+        private final Object[] targets;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunkSize;
+
+        ConvertTask(ElementConverter converter, Object[] sources, Object[] targets, int from, int to, int chunkSize) {
+            this.converter = converter;
+            this.sources = sources;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.chunkSize) {
+                this.converter.convertRange(this.sources, this.targets, this.from, this.to);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new ConvertTask(this.converter, this.sources, this.targets, this.from, middle, this.chunkSize),
+                    new ConvertTask(this.converter, this.sources, this.targets, middle, this.to, this.chunkSize));
+        }
+    }
+
+
+    private static final class Dispatch {
+
+        final GenericConverter converter;
+
+        final TypeDescriptor sourceType;
+
+        final TypeDescriptor targetType;
+
+        Dispatch(GenericConverter converter, TypeDescriptor sourceType, TypeDescriptor targetType) {
+            this.converter = converter;
+            this.sourceType = sourceType;
+            this.targetType = targetType;
+        }
+    }
+}
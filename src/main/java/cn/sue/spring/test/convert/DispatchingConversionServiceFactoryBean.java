@@ -0,0 +1,21 @@
+package cn.sue.spring.test.convert;
+
+import org.springframework.context.support.ConversionServiceFactoryBean;
+import org.springframework.core.convert.support.GenericConversionService;
+
+/**
+ * <p>
+ * 用法和ConversionServiceFactoryBean一样，只是创建出来的是{@link DispatchingConversionService}
+ * </p>
+ *
+ * @author Sue
+ * @className DispatchingConversionServiceFactoryBean
+ * @create 2023/5/12
+ **/
+public class DispatchingConversionServiceFactoryBean extends ConversionServiceFactoryBean {
+
+    @Override
+    protected GenericConversionService createConversionService() {
+        return new DispatchingConversionService();
+    }
+}
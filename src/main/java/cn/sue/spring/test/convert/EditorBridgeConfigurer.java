@@ -0,0 +1,124 @@
+package cn.sue.spring.test.convert;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.converter.ConverterRegistry;
+import org.springframework.core.convert.converter.GenericConverter;
+
+import java.beans.PropertyEditor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 把CustomEditorConfigurer注册的PropertyEditor换成无状态的转化器。
+ * PropertyEditor是有状态的(setAsText -> setValue -> getValue)，每个BeanWrapper/TypeConverter都要new一个，也不能跨线程共享；
+ * 这里在CustomEditorConfigurer执行完之后，把配置了替代转化器的编辑器改成在ConversionService的分发表里登记 String -> 目标类型，
+ * 登记完成后才把编辑器从BeanFactory里拿掉，任何时候都有一个能做这个转化；原来的CustomEditorConfigurer配置不用改。
+ * 没有配置替代转化器的编辑器保持原样
+ * </p>
+ *
+ * @author Sue
+ * @className EditorBridgeConfigurer
+ * @create 2023/5/12
+ **/
+public class EditorBridgeConfigurer implements BeanFactoryPostProcessor {
+
+    private static final Log logger = LogFactory.getLog(EditorBridgeConfigurer.class);
+
+    private Map<Class<? extends PropertyEditor>, GenericConverter> replacements = new LinkedHashMap<>();
+
+    /**
+     * key是PropertyEditor的类型，value是做同样事情的无状态转化器
+     */
+    public void setReplacements(Map<Class<? extends PropertyEditor>, GenericConverter> replacements) {
+        this.replacements = replacements;
+    }
+
+    // 没有实现Ordered，保证在CustomEditorConfigurer(Ordered)之后执行
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (!(beanFactory instanceof AbstractBeanFactory)) {
+            return;
+        }
+        Map<Class<?>, Class<? extends PropertyEditor>> customEditors = ((AbstractBeanFactory) beanFactory).getCustomEditors();
+        Map<Class<?>, GenericConverter> bridged = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, Class<? extends PropertyEditor>> entry : customEditors.entrySet()) {
+            GenericConverter converter = this.replacements.get(entry.getValue());
+            if (converter != null) {
+                bridged.put(entry.getKey(), converter);
+            }
+        }
+        if (bridged.isEmpty()) {
+            return;
+        }
+
+        ConversionService conversionService = beanFactory.getConversionService();
+        if (conversionService != null) {
+            registerInto(conversionService, bridged);
+            removeEditors(customEditors, bridged);
+        }
+        else if (beanFactory.containsBean(ConfigurableApplicationContext.CONVERSION_SERVICE_BEAN_NAME)) {
+            // conversionService要到finishBeanFactoryInitialization才创建，在那之前创建的Bean(比如BeanPostProcessor)还得靠编辑器转化，
+            // 所以编辑器留到转化器登记进conversionService之后再拿掉
+            beanFactory.addBeanPostProcessor(new BridgeRegistrar(customEditors, bridged));
+        }
+        else {
+            DispatchingConversionService dispatchingConversionService = new DispatchingConversionService();
+            registerInto(dispatchingConversionService, bridged);
+            beanFactory.setConversionService(dispatchingConversionService);
+            removeEditors(customEditors, bridged);
+        }
+    }
+
+    private static void registerInto(ConversionService conversionService, Map<Class<?>, GenericConverter> bridged) {
+        if (conversionService instanceof DispatchingConversionService) {
+            bridged.forEach((targetType, converter) ->
+                    ((DispatchingConversionService) conversionService).addDirectConverter(String.class, targetType, converter));
+        }
+        else if (conversionService instanceof ConverterRegistry) {
+            bridged.values().forEach(((ConverterRegistry) conversionService)::addConverter);
+        }
+        else {
+            throw new IllegalStateException("Cannot register bridged converters into " + conversionService);
+        }
+    }
+
+    private static void removeEditors(Map<Class<?>, Class<? extends PropertyEditor>> customEditors,
+                                      Map<Class<?>, GenericConverter> bridged) {
+        customEditors.keySet().removeAll(bridged.keySet());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Bridged property editors to stateless converters for " + bridged.keySet());
+        }
+    }
+
+
+    private static class BridgeRegistrar implements BeanPostProcessor {
+
+        private final Map<Class<?>, Class<? extends PropertyEditor>> customEditors;
+
+        private final Map<Class<?>, GenericConverter> bridged;
+
+        BridgeRegistrar(Map<Class<?>, Class<? extends PropertyEditor>> customEditors, Map<Class<?>, GenericConverter> bridged) {
+            this.customEditors = customEditors;
+            this.bridged = bridged;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof ConversionService &&
+                    ConfigurableApplicationContext.CONVERSION_SERVICE_BEAN_NAME.equals(beanName)) {
+                registerInto((ConversionService) bean, this.bridged);
+                removeEditors(this.customEditors, this.bridged);
+            }
+            return bean;
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package cn.sue.spring.test.core;
 
+import cn.sue.spring.test.convert.CachingConverter;
+import cn.sue.spring.test.convert.DispatchingConversionServiceFactoryBean;
+import cn.sue.spring.test.convert.EditorBridgeConfigurer;
+import cn.sue.spring.test.message.PrecompiledMessageSource;
 import org.springframework.beans.factory.config.CustomEditorConfigurer;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.support.ConversionServiceFactoryBean;
-import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.core.convert.converter.GenericConverter;
 import org.springframework.stereotype.Component;
 
 import java.beans.PropertyEditor;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 /**
@@ -28,11 +33,11 @@ public class AppConfig {
 
 
     /**
-     * 国际化
+     * 国际化，启动时加载好所有语言，getMessage不加锁
      */
     @Bean
     public MessageSource messageSource() {
-        ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+        PrecompiledMessageSource messageSource = new PrecompiledMessageSource();
         messageSource.setBasename("message");
         return messageSource;
     }
@@ -60,10 +65,27 @@ public class AppConfig {
         return customEditorConfigurer;
     }
 
+    /**
+     * 把上面注册的StringToUserPropertyEditor换成无状态的StringToUserConverter，不用每次转化都new一个PropertyEditor
+     */
+    @Bean
+    public EditorBridgeConfigurer editorBridgeConfigurer() {
+        EditorBridgeConfigurer editorBridgeConfigurer = new EditorBridgeConfigurer();
+        Map<Class<? extends PropertyEditor>, GenericConverter> replacements = new HashMap<>();
+        replacements.put(StringToUserPropertyEditor.class, new StringToUserConverter());
+        editorBridgeConfigurer.setReplacements(replacements);
+        return editorBridgeConfigurer;
+    }
+
+    /**
+     * String转User每次得到新的User；转成ImmutableUser时同一个用户名共享同一个实例(最多缓存1024个)
+     */
     @Bean
     public ConversionServiceFactoryBean conversionService() {
-        ConversionServiceFactoryBean conversionServiceFactoryBean = new ConversionServiceFactoryBean();
-        conversionServiceFactoryBean.setConverters(Collections.singleton(new StringToUserConverter()));
+        ConversionServiceFactoryBean conversionServiceFactoryBean = new DispatchingConversionServiceFactoryBean();
+        CachingConverter immutableUserConverter = new CachingConverter(new StringToImmutableUserConverter(), 1024);
+        immutableUserConverter.setShareableTypes(ImmutableUser.class);
+        conversionServiceFactoryBean.setConverters(new LinkedHashSet<>(Arrays.asList(new StringToUserConverter(), immutableUserConverter)));
 
         return conversionServiceFactoryBean;
     }
@@ -0,0 +1,30 @@
+package cn.sue.spring.test.core;
+
+/**
+ * <p>
+ * 创建以后不能修改的User，可以在多次类型转化之间共享同一个实例。
+ * 需要共享时转化成这个类型(比如conversionService.convert("sue", ImmutableUser.class))，
+ * 转化成User时照常每次得到一个新的、可以修改的User
+ * </p>
+ *
+ * @author Sue
+ * @className ImmutableUser
+ * @create 2023/5/10
+ **/
+public final class ImmutableUser extends User {
+
+    public ImmutableUser(String userName, String sex) {
+        super.setUserName(userName);
+        super.setSex(sex);
+    }
+
+    @Override
+    public void setUserName(String userName) {
+        throw new UnsupportedOperationException("ImmutableUser cannot be modified");
+    }
+
+    @Override
+    public void setSex(String sex) {
+        throw new UnsupportedOperationException("ImmutableUser cannot be modified");
+    }
+}
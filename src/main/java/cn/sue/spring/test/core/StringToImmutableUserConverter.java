@@ -0,0 +1,30 @@
+package cn.sue.spring.test.core;
+
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.GenericConverter;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * <p>
+ * 和{@link StringToUserConverter}一样按用户名转化，但结果是不可变的{@link ImmutableUser}，
+ * 可以交给CachingConverter缓存共享
+ * </p>
+ *
+ * @author Sue
+ * @className StringToImmutableUserConverter
+ * @create 2023/5/10
+ **/
+public class StringToImmutableUserConverter implements GenericConverter {
+
+    @Override
+    public Set<ConvertiblePair> getConvertibleTypes() {
+        return Collections.singleton(new ConvertiblePair(String.class, ImmutableUser.class));
+    }
+
+    @Override
+    public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+        return new ImmutableUser((String) source, null);
+    }
+}
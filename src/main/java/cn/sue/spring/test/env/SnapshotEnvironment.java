@@ -0,0 +1,218 @@
+package cn.sue.spring.test.env;
+
+import org.springframework.core.convert.support.ConfigurableConversionService;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ObjectUtils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * 缓存属性查询结果的StandardEnvironment。StandardEnvironment每次getProperty都要按顺序查一遍所有PropertySource
+ * (系统环境变量还要试好几种名字的写法)、解析占位符、做类型转换，查不到的key每次都要把整条链走完。
+ * 这里把查询结果(包括查不到)记在一个快照里，之后同一个key直接从快照取。
+ * </p>
+ * <p>
+ * 快照对应某一组PropertySource：getPropertySources()里增删、替换了PropertySource，下次查询时整个快照换成新的空快照，
+ * 正在用旧快照的线程不受影响。修改占位符、转换服务的配置也会换快照。
+ * PropertySource内部的值变化(比如System.setProperty)检测不到，需要手动调用{@link #invalidateSnapshot()}
+ * </p>
+ * <p>
+ * 使用：context.setEnvironment(new SnapshotEnvironment())，在refresh之前
+ * </p>
+ *
+ * @author Sue
+ * @className SnapshotEnvironment
+ * @create 2023/5/25
+ **/
+public class SnapshotEnvironment extends StandardEnvironment {
+
+    /**
+     * 每个快照最多缓存多少个不同的查询，key是拼出来的、数量没有上限时超出的部分不缓存
+     */
+    public static final int DEFAULT_MAX_CACHED_LOOKUPS = 10_000;
+
+    private static final Object NOT_FOUND = new Object();
+
+    private int maxCachedLookups = DEFAULT_MAX_CACHED_LOOKUPS;
+
+    @Nullable
+    private volatile Snapshot snapshot;
+
+    public void setMaxCachedLookups(int maxCachedLookups) {
+        this.maxCachedLookups = maxCachedLookups;
+        invalidateSnapshot();
+    }
+
+    /**
+     * 丢掉当前快照，PropertySource里面的值变了以后调用
+     */
+    public void invalidateSnapshot() {
+        this.snapshot = null;
+    }
+
+    @Override
+    public boolean containsProperty(String key) {
+        Snapshot current = currentSnapshot();
+        Boolean contained = current.presence.get(key);
+        if (contained == null) {
+            contained = super.containsProperty(key);
+            if (current.presence.size() < this.maxCachedLookups) {
+                current.presence.put(key, contained);
+            }
+        }
+        return contained;
+    }
+
+    @Override
+    @Nullable
+    public String getProperty(String key) {
+        return getProperty(key, String.class);
+    }
+
+    @Override
+    public String getProperty(String key, String defaultValue) {
+        String value = getProperty(key);
+        return (value != null ? value : defaultValue);
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(String key, Class<T> targetType) {
+        Snapshot current = currentSnapshot();
+        LookupKey lookupKey = new LookupKey(key, targetType);
+        Object value = current.values.get(lookupKey);
+        if (value == null) {
+            T resolved = super.getProperty(key, targetType);
+            if (current.values.size() < this.maxCachedLookups) {
+                current.values.put(lookupKey, (resolved != null ? resolved : NOT_FOUND));
+            }
+            return resolved;
+        }
+        return (value != NOT_FOUND ? (T) value : null);
+    }
+
+    @Override
+    public <T> T getProperty(String key, Class<T> targetType, T defaultValue) {
+        T value = getProperty(key, targetType);
+        return (value != null ? value : defaultValue);
+    }
+
+    @Override
+    public String getRequiredProperty(String key) throws IllegalStateException {
+        return getRequiredProperty(key, String.class);
+    }
+
+    @Override
+    public <T> T getRequiredProperty(String key, Class<T> targetType) throws IllegalStateException {
+        T value = getProperty(key, targetType);
+        if (value == null) {
+            throw new IllegalStateException("Required key '" + key + "' not found");
+        }
+        return value;
+    }
+
+    @Override
+    public void setConversionService(ConfigurableConversionService conversionService) {
+        super.setConversionService(conversionService);
+        invalidateSnapshot();
+    }
+
+    @Override
+    public void setPlaceholderPrefix(String placeholderPrefix) {
+        super.setPlaceholderPrefix(placeholderPrefix);
+        invalidateSnapshot();
+    }
+
+    @Override
+    public void setPlaceholderSuffix(String placeholderSuffix) {
+        super.setPlaceholderSuffix(placeholderSuffix);
+        invalidateSnapshot();
+    }
+
+    @Override
+    public void setValueSeparator(@Nullable String valueSeparator) {
+        super.setValueSeparator(valueSeparator);
+        invalidateSnapshot();
+    }
+
+    @Override
+    public void setIgnoreUnresolvableNestedPlaceholders(boolean ignoreUnresolvableNestedPlaceholders) {
+        super.setIgnoreUnresolvableNestedPlaceholders(ignoreUnresolvableNestedPlaceholders);
+        invalidateSnapshot();
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = this.snapshot;
+        if (current == null || !current.isFor(this)) {
+            current = new Snapshot(this);
+            this.snapshot = current;
+        }
+        return current;
+    }
+
+
+    private static final class Snapshot {
+
+        private final PropertySource<?>[] propertySources;
+
+        final ConcurrentMap<LookupKey, Object> values = new ConcurrentHashMap<>(64);
+
+        final ConcurrentMap<String, Boolean> presence = new ConcurrentHashMap<>(16);
+
+        Snapshot(SnapshotEnvironment environment) {
+            this.propertySources = environment.getPropertySources().stream().toArray(PropertySource<?>[]::new);
+        }
+
+        /**
+         * MutablePropertySources的增删、替换都会改变列表里的元素，逐个按引用比较就知道它有没有被修改过
+         */
+        boolean isFor(SnapshotEnvironment environment) {
+            if (environment.getPropertySources().size() != this.propertySources.length) {
+                return false;
+            }
+            Iterator<PropertySource<?>> iterator = environment.getPropertySources().iterator();
+            for (PropertySource<?> propertySource : this.propertySources) {
+                if (!iterator.hasNext() || iterator.next() != propertySource) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    private static final class LookupKey {
+
+        private final String key;
+
+        private final Class<?> targetType;
+
+        LookupKey(String key, Class<?> targetType) {
+            this.key = key;
+            this.targetType = targetType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof LookupKey)) {
+                return false;
+            }
+            LookupKey otherKey = (LookupKey) other;
+            return (this.key.equals(otherKey.key) && this.targetType == otherKey.targetType);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode() * 31 + ObjectUtils.nullSafeHashCode(this.targetType);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package cn.sue.spring.test.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.core.ResolvableType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ErrorHandler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 异步的事件广播器(监听器查找沿用{@link IndexedApplicationEventMulticaster}的类型索引)：publishEvent只把(监听器, 事件)放进有界队列就返回，由后台工作线程调用监听器。
+ * 每个监听器固定分到一个工作线程，所以同一个监听器收到事件的顺序和发布顺序一致；
+ * 实现了{@link BatchingApplicationListener}的监听器会把积压的事件合成一批处理。
+ * 队列满了以后按{@link BackpressurePolicy}处理；监听器在工作线程里再发布事件时，BLOCK会让工作线程等它自己(或别的工作线程)的队列，
+ * 所以这时队列满了改为由当前线程直接调用监听器(CALLER_RUNS)。
+ * 以"applicationEventMulticaster"为名注册成Bean即可替换容器默认的广播器：
+ * <pre>
+ * &#64;Bean
+ * public ApplicationEventMulticaster applicationEventMulticaster(BeanFactory beanFactory) {
+ *     AsyncApplicationEventMulticaster multicaster = new AsyncApplicationEventMulticaster(beanFactory);
+ *     multicaster.setBackpressurePolicy(BackpressurePolicy.CALLER_RUNS);
+ *     return multicaster;
+ * }
+ * </pre>
+ * ContextClosedEvent会先等队列清空，再同步广播，保证监听器在Bean销毁前处理完
+ * </p>
+ *
+ * @author Sue
+ * @className AsyncApplicationEventMulticaster
+ * @create 2023/5/15
+ **/
+public class AsyncApplicationEventMulticaster extends IndexedApplicationEventMulticaster implements DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(AsyncApplicationEventMulticaster.class);
+
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+
+    private int queueCapacity = 1024;
+
+    private int maxBatchSize = 64;
+
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+
+    private long shutdownTimeoutMillis = 10_000;
+
+    private volatile Worker[] workers;
+
+    private volatile boolean shutdown;
+
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Object drainMonitor = new Object();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder delivered = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder callerRuns = new LongAdder();
+
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public AsyncApplicationEventMulticaster() {
+    }
+
+    public AsyncApplicationEventMulticaster(BeanFactory beanFactory) {
+        super(beanFactory);
+    }
+
+    public void setWorkerCount(int workerCount) {
+        Assert.isTrue(workerCount > 0, "Worker count must be positive");
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * 每个工作线程队列的容量
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Assert.isTrue(queueCapacity > 0, "Queue capacity must be positive");
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * 工作线程一次最多从队列里取多少个事件
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "Max batch size must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        Assert.notNull(backpressurePolicy, "BackpressurePolicy must not be null");
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    @Override
+    public void multicastEvent(ApplicationEvent event, @Nullable ResolvableType eventType) {
+        if (event instanceof ContextClosedEvent || this.shutdown) {
+            flush(this.shutdownTimeoutMillis);
+            super.multicastEvent(event, eventType);
+            return;
+        }
+        Worker[] workers = obtainWorkers();
+        for (ApplicationListener<?> listener : getIndexedListeners(event, eventType)) {
+            dispatch(workers, listener, event);
+        }
+    }
+
+    protected void dispatch(Worker[] workers, ApplicationListener<?> listener, ApplicationEvent event) {
+        Worker worker = workers[(System.identityHashCode(listener) & Integer.MAX_VALUE) % workers.length];
+        Delivery delivery = new Delivery(listener, event, System.nanoTime());
+        this.published.increment();
+        this.pending.incrementAndGet();
+        boolean queued;
+        BackpressurePolicy policy = this.backpressurePolicy;
+        if (policy == BackpressurePolicy.BLOCK && isWorkerThread(workers)) {
+            policy = BackpressurePolicy.CALLER_RUNS;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    worker.queue.put(delivery);
+                    queued = true;
+                }
+                catch (InterruptedException ex) {
+                    // 发布线程被中断：保留中断标记，不再等队列空位，这个事件算作丢弃
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                    logger.warn("Interrupted while waiting for queue space, dropping " + event + " for " + listener);
+                }
+                break;
+            default:
+                queued = worker.queue.offer(delivery);
+        }
+        if (!queued) {
+            if (policy == BackpressurePolicy.CALLER_RUNS) {
+                this.callerRuns.increment();
+                deliver(delivery);
+            }
+            else {
+                this.dropped.increment();
+                completed(1);
+            }
+        }
+    }
+
+    private static boolean isWorkerThread(Worker[] workers) {
+        Thread current = Thread.currentThread();
+        for (Worker worker : workers) {
+            if (worker == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Worker[] obtainWorkers() {
+        Worker[] workers = this.workers;
+        if (workers == null) {
+            synchronized (this) {
+                workers = this.workers;
+                if (workers == null) {
+                    workers = new Worker[this.workerCount];
+                    for (int i = 0; i < workers.length; i++) {
+                        workers[i] = new Worker(i, new ArrayBlockingQueue<>(this.queueCapacity));
+                        workers[i].start();
+                    }
+                    this.workers = workers;
+                }
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * 处理工作线程取出的一批事件：同一个批量监听器的事件按顺序合成一次回调，其它监听器逐个调用
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected void process(List<Delivery> deliveries) {
+        Map<ApplicationListener<?>, List<Delivery>> batches = null;
+        for (Delivery delivery : deliveries) {
+            if (delivery.listener instanceof BatchingApplicationListener) {
+                if (batches == null) {
+                    batches = new LinkedHashMap<>();
+                }
+                batches.computeIfAbsent(delivery.listener, key -> new ArrayList<>()).add(delivery);
+            }
+            else {
+                deliver(delivery);
+            }
+        }
+        if (batches != null) {
+            for (Map.Entry<ApplicationListener<?>, List<Delivery>> entry : batches.entrySet()) {
+                List<Delivery> batch = entry.getValue();
+                List events = new ArrayList<>(batch.size());
+                for (Delivery delivery : batch) {
+                    events.add(delivery.event);
+                }
+                invokeBatch((BatchingApplicationListener) entry.getKey(), events);
+                for (Delivery delivery : batch) {
+                    recordLatency(delivery);
+                }
+                completed(batch.size());
+            }
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        try {
+            invokeListener(delivery.listener, delivery.event);
+        }
+        catch (Throwable ex) {
+            logger.error("Failed to deliver " + delivery.event + " to " + delivery.listener, ex);
+        }
+        recordLatency(delivery);
+        completed(1);
+    }
+
+    private void invokeBatch(BatchingApplicationListener<ApplicationEvent> listener, List<ApplicationEvent> events) {
+        try {
+            listener.onApplicationEvents(events);
+        }
+        catch (Throwable ex) {
+            ErrorHandler errorHandler = getErrorHandler();
+            if (errorHandler != null) {
+                errorHandler.handleError(ex);
+            }
+            else {
+                logger.error("Failed to deliver " + events.size() + " events to " + listener, ex);
+            }
+        }
+    }
+
+    private void recordLatency(Delivery delivery) {
+        long latency = System.nanoTime() - delivery.enqueuedNanos;
+        this.delivered.increment();
+        this.totalLatencyNanos.add(latency);
+        long max;
+        while (latency > (max = this.maxLatencyNanos.get())) {
+            if (this.maxLatencyNanos.compareAndSet(max, latency)) {
+                break;
+            }
+        }
+    }
+
+    private void completed(int count) {
+        if (this.pending.addAndGet(-count) == 0) {
+            synchronized (this.drainMonitor) {
+                this.drainMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待已发布的事件全部处理完
+     * @return 是否在超时前处理完
+     */
+    public boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this.drainMonitor) {
+            while (this.pending.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    this.drainMonitor.wait(remaining);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        this.shutdown = true;
+        if (!flush(this.shutdownTimeoutMillis)) {
+            logger.warn(this.pending.get() + " application events were not delivered before shutdown");
+        }
+        Worker[] workers = this.workers;
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 所有队列里还没处理的事件数
+     */
+    public int getQueueDepth() {
+        Worker[] workers = this.workers;
+        int depth = 0;
+        if (workers != null) {
+            for (Worker worker : workers) {
+                depth += worker.queue.size();
+            }
+        }
+        return depth;
+    }
+
+    public long getPublishedCount() {
+        return this.published.sum();
+    }
+
+    public long getDeliveredCount() {
+        return this.delivered.sum();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    public long getCallerRunsCount() {
+        return this.callerRuns.sum();
+    }
+
+    /**
+     * 从入队到监听器处理完的平均耗时
+     */
+    public long getAverageLatencyNanos() {
+        long count = this.delivered.sum();
+        return (count > 0 ? this.totalLatencyNanos.sum() / count : 0);
+    }
+
+    public long getMaxLatencyNanos() {
+        return this.maxLatencyNanos.get();
+    }
+
+
+    protected static final class Delivery {
+
+        final ApplicationListener<?> listener;
+
+        final ApplicationEvent event;
+
+        final long enqueuedNanos;
+
+        Delivery(ApplicationListener<?> listener, ApplicationEvent event, long enqueuedNanos) {
+            this.listener = listener;
+            this.event = event;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+
+    protected final class Worker extends Thread {
+
+        final BlockingQueue<Delivery> queue;
+
+        Worker(int index, BlockingQueue<Delivery> queue) {
+            super("event-worker-" + index);
+            this.queue = queue;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Delivery> batch = new ArrayList<>(maxBatchSize);
+            while (true) {
+                try {
+                    batch.add(this.queue.take());
+                }
+                catch (InterruptedException ex) {
+                    if (shutdown) {
+                        return;
+                    }
+                    continue;
+                }
+                this.queue.drainTo(batch, maxBatchSize - 1);
+                try {
+                    process(batch);
+                }
+                catch (Throwable ex) {
+                    logger.error("Unexpected failure in event worker", ex);
+                }
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cn.sue.spring.test.event;
+
+/**
+ * <p>
+ * 事件队列满了以后发布线程怎么办
+ * </p>
+ *
+ * @author Sue
+ * @className BackpressurePolicy
+ * @create 2023/5/15
+ **/
+public enum BackpressurePolicy {
+
+    /**
+     * 阻塞发布线程，直到队列有空位；等待时发布线程被中断则丢弃这个事件(打warn日志，保留中断标记)
+     */
+    BLOCK,
+
+    /**
+     * 丢掉这个事件，记入丢弃计数
+     */
+    DROP,
+
+    /**
+     * 由发布线程自己同步调用监听器。注意这时该事件可能先于队列里更早的事件被处理
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,30 @@
+package cn.sue.spring.test.event;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * 愿意批量接收事件的监听器。在{@link AsyncApplicationEventMulticaster}里，
+ * 同一个监听器积压的多个事件会按发布顺序合成一批，一次回调处理掉
+ * </p>
+ *
+ * @author Sue
+ * @className BatchingApplicationListener
+ * @create 2023/5/15
+ **/
+public interface BatchingApplicationListener<E extends ApplicationEvent> extends ApplicationListener<E> {
+
+    /**
+     * 按发布顺序处理一批事件
+     */
+    void onApplicationEvents(List<E> events);
+
+    @Override
+    default void onApplicationEvent(E event) {
+        onApplicationEvents(Collections.singletonList(event));
+    }
+}
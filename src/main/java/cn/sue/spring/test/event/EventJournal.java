@@ -0,0 +1,466 @@
+package cn.sue.spring.test.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * 追加写的事件日志，按固定大小分段，每段是一个内存映射文件，文件名是这一段第一条记录的偏移量。
+ * 每条记录是[长度][CRC32][序列化后的内容]，偏移量就是记录在整个日志里的字节位置，读的时候直接定位，不用建索引。
+ * 写满一段就开下一段(滚动)；打开时逐条校验，崩溃时写了一半的记录被丢掉。
+ * </p>
+ * <p>
+ * 追加只写映射内存，后台线程每隔{@code flushIntervalMillis}把写过的段force到磁盘一次(批量fsync)，
+ * 间隔为0时每次追加都force；掉电最多丢这么长时间的事件，进程崩溃不丢。
+ * 消费者用名字记录自己处理到的偏移量({@link #commit})，重启后从这里接着读；
+ * {@link #compact()}删除所有消费者都已经处理完的段。
+ * 默认用Java序列化，可以换成别的{@link Serializer}/{@link Deserializer}
+ * </p>
+ *
+ * @author Sue
+ * @className EventJournal
+ * @create 2023/5/31
+ **/
+public class EventJournal implements Closeable {
+
+    private static final Log logger = LogFactory.getLog(EventJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    private static final Pattern CONSUMER_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // 消费者名字 -> 已提交的偏移量
+    private final Map<String, Long> committedOffsets = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    private Serializer<Object> serializer = new DefaultSerializer();
+
+    private Deserializer<Object> deserializer = new DefaultDeserializer();
+
+    // 追加时的锁保护
+    private Segment active;
+
+    // 读的线程只读到这里
+    private volatile long endOffset;
+
+    private volatile boolean closed;
+
+    public EventJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public EventJournal(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        Assert.notNull(directory, "Directory must not be null");
+        Assert.isTrue(segmentSize > HEADER_SIZE, "Segment size must be larger than the record header");
+        Assert.isTrue(flushIntervalMillis >= 0, "Flush interval must not be negative");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        recover();
+        if (flushIntervalMillis > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            this.flusher = null;
+        }
+    }
+
+    public void setSerializer(Serializer<Object> serializer) {
+        Assert.notNull(serializer, "Serializer must not be null");
+        this.serializer = serializer;
+    }
+
+    public void setDeserializer(Deserializer<Object> deserializer) {
+        Assert.notNull(deserializer, "Deserializer must not be null");
+        this.deserializer = deserializer;
+    }
+
+    /**
+     * 打开已有的段，逐条校验，最后一段里第一条不完整或者校验不过的记录以及之后的内容都不要了
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(SEGMENT_SUFFIX)) {
+                    long baseOffset = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                    this.segments.put(baseOffset, Segment.open(file, baseOffset, this.segmentSize));
+                }
+                else if (fileName.endsWith(OFFSET_SUFFIX)) {
+                    ByteBuffer offset = ByteBuffer.wrap(Files.readAllBytes(file));
+                    if (offset.remaining() == Long.BYTES) {
+                        this.committedOffsets.put(fileName.substring(0, fileName.length() - OFFSET_SUFFIX.length()), offset.getLong());
+                    }
+                }
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.active = createSegment(0);
+        }
+        else {
+            this.active = this.segments.lastEntry().getValue();
+        }
+        this.endOffset = this.active.baseOffset + this.active.written;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Opened event journal " + this.directory + " with " + this.segments.size() + " segments, offsets " +
+                    getStartOffset() + " to " + this.endOffset);
+        }
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Segment segment = Segment.open(this.directory.resolve(String.format("%020d", baseOffset) + SEGMENT_SUFFIX),
+                baseOffset, this.segmentSize);
+        this.segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    /**
+     * 序列化并追加一个事件，返回它的偏移量
+     */
+    public long append(Object event) throws IOException {
+        return appendSerialized(serialize(event));
+    }
+
+    /**
+     * 用这个日志的Serializer序列化一个事件，不写入日志
+     */
+    public byte[] serialize(Object event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        this.serializer.serialize(event, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 追加{@link #serialize(Object)}得到的内容，返回它的偏移量
+     */
+    public long appendSerialized(byte[] record) throws IOException {
+        Assert.notNull(record, "Record must not be null");
+        return appendRecord(record);
+    }
+
+    private synchronized long appendRecord(byte[] payload) throws IOException {
+        Assert.state(!this.closed, "Event journal is closed");
+        int size = HEADER_SIZE + payload.length;
+        if (size > this.segmentSize) {
+            throw new IOException("Event of " + payload.length + " bytes does not fit into a segment of " + this.segmentSize + " bytes");
+        }
+        Segment segment = this.active;
+        if (segment.written + size > this.segmentSize) {
+            segment = roll();
+        }
+        int position = segment.written;
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(payload);
+        // 后面清零，打开时在这里停下；长度最后写，读的线程看到长度时内容已经写好
+        if (position + size + Integer.BYTES <= this.segmentSize) {
+            segment.buffer.putInt(position + size, 0);
+        }
+        segment.buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        segment.buffer.putInt(position, payload.length);
+        segment.written = position + size;
+        segment.dirty = true;
+        long offset = segment.baseOffset + position;
+        this.endOffset = offset + size;
+        if (this.flusher == null) {
+            segment.buffer.force();
+            segment.dirty = false;
+        }
+        return offset;
+    }
+
+    /**
+     * 当前段写满了：把它刷到磁盘，新段从当前的结尾开始
+     */
+    private Segment roll() throws IOException {
+        Segment previous = this.active;
+        previous.flush();
+        this.active = createSegment(previous.baseOffset + previous.written);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rolled event journal " + this.directory + " to segment " + this.active.baseOffset);
+        }
+        return this.active;
+    }
+
+    /**
+     * 从offset开始最多读maxEntries条，offset早于{@link #getStartOffset()}(已经被删掉)时从最早的一条开始
+     */
+    public List<Entry> read(long offset, int maxEntries) throws IOException {
+        List<Entry> entries = new ArrayList<>(Math.min(maxEntries, 64));
+        long end = this.endOffset;
+        long position = Math.max(offset, getStartOffset());
+        while (entries.size() < maxEntries && position < end) {
+            Map.Entry<Long, Segment> floor = this.segments.floorEntry(position);
+            if (floor == null) {
+                break;
+            }
+            Segment segment = floor.getValue();
+            int index = (int) (position - segment.baseOffset);
+            if (index >= segment.written) {
+                Long next = this.segments.higherKey(segment.baseOffset);
+                if (next == null) {
+                    break;
+                }
+                position = next;
+                continue;
+            }
+            int length = segment.buffer.getInt(index);
+            byte[] payload = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(index + HEADER_SIZE);
+            buffer.get(payload);
+            long next = position + HEADER_SIZE + length;
+            entries.add(new Entry(position, next, this.deserializer.deserialize(new ByteArrayInputStream(payload))));
+            position = next;
+        }
+        return entries;
+    }
+
+    /**
+     * 把写过的段刷到磁盘
+     */
+    public void flush() {
+        for (Segment segment : this.segments.values()) {
+            if (segment.dirty) {
+                segment.flush();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (Throwable ex) {
+            logger.error("Failed to flush event journal " + this.directory, ex);
+        }
+    }
+
+    /**
+     * 记下消费者处理到的位置(下一条要读的偏移量)，写到磁盘以后才返回
+     */
+    public synchronized void commit(String consumer, long offset) throws IOException {
+        Assert.isTrue(CONSUMER_NAME.matcher(consumer).matches(), "Invalid consumer name '" + consumer + "'");
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(offset);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(this.directory.resolve(consumer + OFFSET_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(buffer, 0);
+            channel.force(false);
+        }
+        this.committedOffsets.put(consumer, offset);
+    }
+
+    /**
+     * 消费者下一条要读的偏移量，没提交过时是{@link #getStartOffset()}
+     */
+    public long getCommittedOffset(String consumer) {
+        Long offset = this.committedOffsets.get(consumer);
+        return (offset != null ? Math.max(offset, getStartOffset()) : getStartOffset());
+    }
+
+    public Map<String, Long> getCommittedOffsets() {
+        return Collections.unmodifiableMap(this.committedOffsets);
+    }
+
+    /**
+     * 删除所有消费者都已经读完的段(当前在写的段不删)；还没有消费者时不删
+     * @return 删除的段数
+     */
+    public synchronized int compact() throws IOException {
+        if (this.committedOffsets.isEmpty()) {
+            return 0;
+        }
+        long lowest = Collections.min(this.committedOffsets.values());
+        int deleted = 0;
+        for (Segment segment : new ArrayList<>(this.segments.values())) {
+            if (segment == this.active || segment.baseOffset + segment.written > lowest) {
+                break;
+            }
+            this.segments.remove(segment.baseOffset);
+            // 映射在GC时才释放，Linux上删除已映射的文件没有问题，正在读它的线程也不受影响
+            Files.deleteIfExists(segment.file);
+            deleted++;
+        }
+        if (deleted > 0 && logger.isDebugEnabled()) {
+            logger.debug("Compacted " + deleted + " segments of event journal " + this.directory + " below offset " + lowest);
+        }
+        return deleted;
+    }
+
+    public long getStartOffset() {
+        Map.Entry<Long, Segment> first = this.segments.firstEntry();
+        return (first != null ? first.getKey() : 0);
+    }
+
+    public long getEndOffset() {
+        return this.endOffset;
+    }
+
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+        }
+        flush();
+    }
+
+
+    /**
+     * 读出来的一条事件，处理完以后提交{@link #getNextOffset()}
+     */
+    public static final class Entry {
+
+        private final long offset;
+
+        private final long nextOffset;
+
+        private final Object event;
+
+        Entry(long offset, long nextOffset, Object event) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.event = event;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public long getNextOffset() {
+            return this.nextOffset;
+        }
+
+        public Object getEvent() {
+            return this.event;
+        }
+    }
+
+
+    private static final class Segment {
+
+        final Path file;
+
+        final long baseOffset;
+
+        final MappedByteBuffer buffer;
+
+        volatile int written;
+
+        volatile boolean dirty;
+
+        private Segment(Path file, long baseOffset, MappedByteBuffer buffer) {
+            this.file = file;
+            this.baseOffset = baseOffset;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path file, long baseOffset, int segmentSize) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // 段大小改小以后，以前写的段保持原来的大小
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+            }
+            Segment segment = new Segment(file, baseOffset, buffer);
+            segment.written = segment.scan();
+            return segment;
+        }
+
+        /**
+         * 最后一条完整、校验通过的记录的结尾
+         */
+        private int scan() {
+            int capacity = this.buffer.capacity();
+            int position = 0;
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = this.buffer.duplicate();
+            byte[] payload = new byte[0];
+            while (position + HEADER_SIZE <= capacity) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > capacity - position - HEADER_SIZE) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                buffer.position(position + HEADER_SIZE);
+                buffer.get(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                    break;
+                }
+                position += HEADER_SIZE + length;
+            }
+            return position;
+        }
+
+        void flush() {
+            this.dirty = false;
+            this.buffer.force();
+        }
+    }
+}
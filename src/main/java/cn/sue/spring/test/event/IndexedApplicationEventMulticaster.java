@@ -0,0 +1,278 @@
+package cn.sue.spring.test.event;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.context.event.GenericApplicationListenerAdapter;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.ResolvableTypeProvider;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * 按事件类型建索引的事件广播器。
+ * 父类每次发布都要new一个缓存key(事件的ResolvableType + source类型)去查缓存，命中后还要复制、排序一遍监听器列表；
+ * 这里按事件的Class(PayloadApplicationEvent再按payload的Class)建索引，每种事件类型第一次发布时算出一个排好序的监听器数组，
+ * 之后每次发布就是一两次map查找加遍历数组，不再对每个监听器做supportsEventType判断。
+ * 注册/移除监听器时索引整体作废，下次发布时重新计算。
+ * SmartApplicationListener/GenericApplicationListener还会按source类型过滤，这一步仍然在每次发布时做
+ * </p>
+ *
+ * @author Sue
+ * @className IndexedApplicationEventMulticaster
+ * @create 2023/5/17
+ **/
+public class IndexedApplicationEventMulticaster extends SimpleApplicationEventMulticaster {
+
+    private final Object indexMonitor = new Object();
+
+    private final Set<ApplicationListener<?>> listeners = new LinkedHashSet<>();
+
+    private final Set<String> listenerBeans = new LinkedHashSet<>();
+
+    // 普通事件：事件Class -> 监听器
+    private volatile ConcurrentHashMap<Class<?>, ListenerArray> byEventClass = new ConcurrentHashMap<>();
+
+    // PayloadApplicationEvent：payload的Class -> 监听器
+    private volatile ConcurrentHashMap<Class<?>, ListenerArray> byPayloadClass = new ConcurrentHashMap<>();
+
+    // 自己提供泛型信息(ResolvableTypeProvider)的事件
+    private volatile ConcurrentHashMap<ResolvableType, ListenerArray> byResolvableType = new ConcurrentHashMap<>();
+
+    @Nullable
+    private ConfigurableBeanFactory beanFactory;
+
+    @Nullable
+    private ClassLoader beanClassLoader;
+
+    public IndexedApplicationEventMulticaster() {
+    }
+
+    public IndexedApplicationEventMulticaster(BeanFactory beanFactory) {
+        setBeanFactory(beanFactory);
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        super.setBeanFactory(beanFactory);
+        this.beanFactory = (ConfigurableBeanFactory) beanFactory;
+    }
+
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        super.setBeanClassLoader(classLoader);
+        this.beanClassLoader = classLoader;
+    }
+
+    @Override
+    public void addApplicationListener(ApplicationListener<?> listener) {
+        super.addApplicationListener(listener);
+        synchronized (this.indexMonitor) {
+            this.listeners.add(listener);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void addApplicationListenerBean(String listenerBeanName) {
+        super.addApplicationListenerBean(listenerBeanName);
+        synchronized (this.indexMonitor) {
+            this.listenerBeans.add(listenerBeanName);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void removeApplicationListener(ApplicationListener<?> listener) {
+        super.removeApplicationListener(listener);
+        synchronized (this.indexMonitor) {
+            this.listeners.remove(listener);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void removeApplicationListenerBean(String listenerBeanName) {
+        super.removeApplicationListenerBean(listenerBeanName);
+        synchronized (this.indexMonitor) {
+            this.listenerBeans.remove(listenerBeanName);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void removeAllListeners() {
+        super.removeAllListeners();
+        synchronized (this.indexMonitor) {
+            this.listeners.clear();
+            this.listenerBeans.clear();
+            invalidate();
+        }
+    }
+
+    private void invalidate() {
+        this.byEventClass = new ConcurrentHashMap<>();
+        this.byPayloadClass = new ConcurrentHashMap<>();
+        this.byResolvableType = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void multicastEvent(ApplicationEvent event, @Nullable ResolvableType eventType) {
+        Executor executor = getTaskExecutor();
+        for (ApplicationListener<?> listener : getIndexedListeners(event, eventType)) {
+            if (executor != null) {
+                executor.execute(() -> invokeListener(listener, event));
+            }
+            else {
+                invokeListener(listener, event);
+            }
+        }
+    }
+
+    /**
+     * 取出支持该事件的监听器，已经按Order排好序。返回的数组不能修改
+     */
+    protected ApplicationListener<?>[] getIndexedListeners(ApplicationEvent event, @Nullable ResolvableType eventType) {
+        ListenerArray array;
+        // PayloadApplicationEvent的子类按它自己的类型查找，监听器可能声明的是子类
+        if (event.getClass() == PayloadApplicationEvent.class &&
+                (eventType == null || eventType.getRawClass() == PayloadApplicationEvent.class)) {
+            Object payload = ((PayloadApplicationEvent<?>) event).getPayload();
+            array = this.byPayloadClass.get(payload.getClass());
+            if (array == null) {
+                array = index(this.byPayloadClass, payload.getClass(), event,
+                        ResolvableType.forClassWithGenerics(PayloadApplicationEvent.class, payload.getClass()));
+            }
+        }
+        else if (eventType == null && !(event instanceof ResolvableTypeProvider)) {
+            array = this.byEventClass.get(event.getClass());
+            if (array == null) {
+                array = index(this.byEventClass, event.getClass(), event, ResolvableType.forClass(event.getClass()));
+            }
+        }
+        else {
+            ResolvableType type = (eventType != null ? eventType : ResolvableType.forInstance(event));
+            array = this.byResolvableType.get(type);
+            if (array == null) {
+                array = index(this.byResolvableType, type, event, type);
+            }
+        }
+        return (array.sourceDependent ? filterBySource(array.listeners, event) : array.listeners);
+    }
+
+    private <K> ListenerArray index(ConcurrentHashMap<K, ListenerArray> index, K key,
+                                    ApplicationEvent event, ResolvableType eventType) {
+        synchronized (this.indexMonitor) {
+            ListenerArray array = index.get(key);
+            if (array != null) {
+                return array;
+            }
+            boolean[] cacheable = {isCacheSafe(event)};
+            array = retrieve(eventType, cacheable);
+            if (cacheable[0]) {
+                index.put(key, array);
+            }
+            return array;
+        }
+    }
+
+    private ListenerArray retrieve(ResolvableType eventType, boolean[] cacheable) {
+        List<ApplicationListener<?>> matched = new ArrayList<>();
+        for (ApplicationListener<?> listener : this.listeners) {
+            if (supportsEventType(listener, eventType)) {
+                matched.add(listener);
+            }
+        }
+        if (!this.listenerBeans.isEmpty() && this.beanFactory != null) {
+            for (String listenerBeanName : this.listenerBeans) {
+                try {
+                    Class<?> listenerType = this.beanFactory.getType(listenerBeanName);
+                    if (listenerType != null && !isSourceAware(listenerType) && !supportsEvent(listenerType, eventType)) {
+                        continue;
+                    }
+                    ApplicationListener<?> listener = this.beanFactory.getBean(listenerBeanName, ApplicationListener.class);
+                    if (!matched.contains(listener) && supportsEventType(listener, eventType)) {
+                        matched.add(listener);
+                        if (!this.beanFactory.isSingleton(listenerBeanName)) {
+                            // 非单例的监听器每次发布都要重新获取，不能缓存
+                            cacheable[0] = false;
+                        }
+                    }
+                }
+                catch (NoSuchBeanDefinitionException ex) {
+                    // 销毁过程中监听器Bean可能已经没了
+                }
+            }
+        }
+        AnnotationAwareOrderComparator.sort(matched);
+        boolean sourceDependent = false;
+        for (ApplicationListener<?> listener : matched) {
+            sourceDependent |= isSourceAware(listener.getClass());
+        }
+        return new ListenerArray(matched.toArray(new ApplicationListener<?>[0]), sourceDependent);
+    }
+
+    /**
+     * 只看事件类型，source类型放到发布时再判断
+     */
+    private static boolean supportsEventType(ApplicationListener<?> listener, ResolvableType eventType) {
+        return new GenericApplicationListenerAdapter(listener).supportsEventType(eventType);
+    }
+
+    private static boolean isSourceAware(Class<?> listenerType) {
+        return (SmartApplicationListener.class.isAssignableFrom(listenerType) ||
+                GenericApplicationListener.class.isAssignableFrom(listenerType));
+    }
+
+    private static ApplicationListener<?>[] filterBySource(ApplicationListener<?>[] listeners, ApplicationEvent event) {
+        Object source = event.getSource();
+        Class<?> sourceType = (source != null ? source.getClass() : null);
+        List<ApplicationListener<?>> filtered = new ArrayList<>(listeners.length);
+        for (ApplicationListener<?> listener : listeners) {
+            if (!isSourceAware(listener.getClass()) ||
+                    new GenericApplicationListenerAdapter(listener).supportsSourceType(sourceType)) {
+                filtered.add(listener);
+            }
+        }
+        return filtered.toArray(new ApplicationListener<?>[0]);
+    }
+
+    private boolean isCacheSafe(ApplicationEvent event) {
+        return (this.beanClassLoader == null || ClassUtils.isCacheSafe(event.getClass(), this.beanClassLoader));
+    }
+
+    /**
+     * 当前索引里的事件类型数，用于观察索引规模
+     */
+    public int getIndexedTypeCount() {
+        return this.byEventClass.size() + this.byPayloadClass.size() + this.byResolvableType.size();
+    }
+
+
+    private static final class ListenerArray {
+
+        final ApplicationListener<?>[] listeners;
+
+        final boolean sourceDependent;
+
+        ListenerArray(ApplicationListener<?>[] listeners, boolean sourceDependent) {
+            this.listeners = listeners;
+            this.sourceDependent = sourceDependent;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package cn.sue.spring.test.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.ResolvableType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * <p>
+ * 先把事件写进{@link EventJournal}再返回的事件广播器，发布线程不等监听器。
+ * 后台线程从这个广播器提交的偏移量开始读日志，调用监听器(监听器查找沿用{@link IndexedApplicationEventMulticaster}的类型索引)，
+ * 一批处理完再提交偏移量，所以进程崩溃后重启会把没处理完的事件再投递一次(至少一次)。
+ * 要写日志的是payload可序列化的publishEvent(Object)和实现了{@link ReplayableEvent}的自定义事件，
+ * 容器自己的事件(ContextRefreshedEvent等)、其它自定义事件和序列化失败的事件照常同步广播。
+ * EventObject的source不会序列化，从日志里读出来的事件source都是EventJournal：
+ * payload包装成新的PayloadApplicationEvent，自定义事件用{@link ReplayableEvent#withSource}重新构造。
+ * </p>
+ * <p>
+ * 以"applicationEventMulticaster"为名注册成Bean即可替换容器默认的广播器：
+ * <pre>
+ * &#64;Bean
+ * public EventJournal eventJournal() throws IOException {
+ *     return new EventJournal(Paths.get("data/events"));
+ * }
+ *
+ * &#64;Bean
+ * public ApplicationEventMulticaster applicationEventMulticaster(BeanFactory beanFactory, EventJournal eventJournal) {
+ *     return new JournalingApplicationEventMulticaster(beanFactory, eventJournal);
+ * }
+ * </pre>
+ * 收到ContextRefreshedEvent(监听器都注册好了)以后开始投递，上次没处理完的事件也在这时重放；
+ * ContextClosedEvent会先等已写入的事件处理完，再同步广播
+ * </p>
+ *
+ * @author Sue
+ * @className JournalingApplicationEventMulticaster
+ * @create 2023/5/31
+ **/
+public class JournalingApplicationEventMulticaster extends IndexedApplicationEventMulticaster implements DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(JournalingApplicationEventMulticaster.class);
+
+    public static final String DEFAULT_CONSUMER_NAME = "applicationEventMulticaster";
+
+    private final EventJournal journal;
+
+    private String consumerName = DEFAULT_CONSUMER_NAME;
+
+    private int maxBatchSize = 256;
+
+    private long shutdownTimeoutMillis = 10_000;
+
+    private final Object monitor = new Object();
+
+    @Nullable
+    private volatile Dispatcher dispatcher;
+
+    public JournalingApplicationEventMulticaster(EventJournal journal) {
+        Assert.notNull(journal, "EventJournal must not be null");
+        this.journal = journal;
+    }
+
+    public JournalingApplicationEventMulticaster(BeanFactory beanFactory, EventJournal journal) {
+        super(beanFactory);
+        Assert.notNull(journal, "EventJournal must not be null");
+        this.journal = journal;
+    }
+
+    /**
+     * 在日志里记录偏移量用的名字，同一个日志给多个广播器用时要各不相同
+     */
+    public void setConsumerName(String consumerName) {
+        Assert.hasText(consumerName, "Consumer name must not be empty");
+        this.consumerName = consumerName;
+    }
+
+    /**
+     * 一次最多读多少个事件，处理完提交一次偏移量
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Assert.isTrue(maxBatchSize > 0, "Max batch size must be positive");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public EventJournal getJournal() {
+        return this.journal;
+    }
+
+    @Override
+    public void multicastEvent(ApplicationEvent event, @Nullable ResolvableType eventType) {
+        if (event instanceof ContextClosedEvent) {
+            if (!flush(this.shutdownTimeoutMillis)) {
+                logger.warn("Journaled application events were not all delivered before shutdown");
+            }
+            super.multicastEvent(event, eventType);
+            return;
+        }
+        Object record = toRecord(event);
+        if (record == null) {
+            super.multicastEvent(event, eventType);
+            if (event instanceof ContextRefreshedEvent) {
+                start();
+            }
+            return;
+        }
+        byte[] serialized;
+        try {
+            serialized = this.journal.serialize(record);
+        }
+        catch (IOException | RuntimeException ex) {
+            // 比如payload里有不能序列化的字段：不写日志，照常同步广播
+            logger.warn("Failed to serialize " + event + ", multicasting it synchronously", ex);
+            super.multicastEvent(event, eventType);
+            return;
+        }
+        try {
+            this.journal.appendSerialized(serialized);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to journal " + event, ex);
+        }
+        synchronized (this.monitor) {
+            this.monitor.notifyAll();
+        }
+    }
+
+    /**
+     * 写进日志的内容：publishEvent(Object)的payload、实现了{@link ReplayableEvent}的自定义事件；返回null表示同步广播
+     */
+    @Nullable
+    protected Object toRecord(ApplicationEvent event) {
+        if (event.getClass() == PayloadApplicationEvent.class) {
+            Object payload = ((PayloadApplicationEvent<?>) event).getPayload();
+            return (payload instanceof Serializable ? payload : null);
+        }
+        if (event instanceof ApplicationContextEvent || !(event instanceof ReplayableEvent)) {
+            return null;
+        }
+        return event;
+    }
+
+    /**
+     * 从日志里读出来的内容还原成事件，source都是EventJournal
+     */
+    protected ApplicationEvent toEvent(Object record) {
+        if (record instanceof ReplayableEvent) {
+            return ((ReplayableEvent) record).withSource(this.journal);
+        }
+        return new PayloadApplicationEvent<>(this.journal, record);
+    }
+
+    /**
+     * 开始投递，容器里用时收到ContextRefreshedEvent会自动调用
+     */
+    public void start() {
+        if (this.dispatcher == null) {
+            synchronized (this) {
+                if (this.dispatcher == null) {
+                    Dispatcher dispatcher = new Dispatcher();
+                    dispatcher.start();
+                    this.dispatcher = dispatcher;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一批事件并提交偏移量
+     * @return 处理了多少个
+     */
+    protected int deliverBatch() throws IOException {
+        List<EventJournal.Entry> entries = this.journal.read(this.journal.getCommittedOffset(this.consumerName), this.maxBatchSize);
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        for (EventJournal.Entry entry : entries) {
+            ApplicationEvent event = toEvent(entry.getEvent());
+            for (ApplicationListener<?> listener : getIndexedListeners(event, null)) {
+                try {
+                    invokeListener(listener, event);
+                }
+                catch (Throwable ex) {
+                    // 和同步广播不同，这里没有发布线程可以抛给它，记日志后接着处理，不然这个事件会一直重放
+                    logger.error("Failed to deliver journaled event at offset " + entry.getOffset() + " to " + listener, ex);
+                }
+            }
+        }
+        this.journal.commit(this.consumerName, entries.get(entries.size() - 1).getNextOffset());
+        synchronized (this.monitor) {
+            this.monitor.notifyAll();
+        }
+        return entries.size();
+    }
+
+    /**
+     * 等待已经写进日志的事件全部处理完；还没有{@link #start()}时直接返回false
+     * @return 是否在超时前处理完
+     */
+    public boolean flush(long timeoutMillis) {
+        if (this.dispatcher == null) {
+            return this.journal.getCommittedOffset(this.consumerName) >= this.journal.getEndOffset();
+        }
+        long target = this.journal.getEndOffset();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this.monitor) {
+            while (this.journal.getCommittedOffset(this.consumerName) < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    this.monitor.wait(remaining);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 还没处理的事件占的字节数
+     */
+    public long getLag() {
+        return this.journal.getEndOffset() - this.journal.getCommittedOffset(this.consumerName);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        Dispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            flush(this.shutdownTimeoutMillis);
+            dispatcher.running = false;
+            dispatcher.interrupt();
+            dispatcher.join(this.shutdownTimeoutMillis);
+            this.dispatcher = null;
+        }
+    }
+
+
+    private final class Dispatcher extends Thread {
+
+        volatile boolean running = true;
+
+        Dispatcher() {
+            super("event-journal-dispatcher");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                try {
+                    if (deliverBatch() == 0) {
+                        synchronized (monitor) {
+                            if (journal.getCommittedOffset(consumerName) >= journal.getEndOffset()) {
+                                monitor.wait(100);
+                            }
+                        }
+                    }
+                }
+                catch (InterruptedException ex) {
+                    // destroy()
+                }
+                catch (Throwable ex) {
+                    logger.error("Failed to read event journal " + journal.getDirectory(), ex);
+                    try {
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException interrupted) {
+                        // destroy()
+                    }
+                }
+            }
+        }
+    }
+}
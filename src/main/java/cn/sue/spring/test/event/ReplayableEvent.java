@@ -0,0 +1,21 @@
+package cn.sue.spring.test.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * <p>
+ * 可以写进{@link EventJournal}的自定义事件。EventObject的source不会序列化，
+ * 从日志里读出来以后用{@link #withSource(Object)}换一个source重新构造
+ * </p>
+ *
+ * @author Sue
+ * @className ReplayableEvent
+ * @create 2023/5/31
+ **/
+public interface ReplayableEvent {
+
+    /**
+     * 同样内容、source换成给定对象的新事件
+     */
+    ApplicationEvent withSource(Object source);
+}
@@ -0,0 +1,173 @@
+package cn.sue.spring.test.factory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Bean之间的依赖图，边从Bean指向它依赖的Bean。
+ * 用Tarjan算法求强连通分量：一个分量里只有一个Bean时可以和其它分量并行创建，
+ * 有多个Bean时说明存在循环依赖，这些Bean要放在同一个线程里按注册顺序创建，和单线程时的结果一致。
+ * 节点和边都按加入的顺序遍历，同一个图每次算出来的结果都一样
+ * </p>
+ *
+ * @author Sue
+ * @className BeanDependencyGraph
+ * @create 2023/5/20
+ **/
+public class BeanDependencyGraph {
+
+    private final Map<String, Set<String>> edges = new LinkedHashMap<>();
+
+    public void addNode(String beanName) {
+        this.edges.computeIfAbsent(beanName, key -> new LinkedHashSet<>());
+    }
+
+    /**
+     * beanName依赖dependency，两个都必须已经是图里的节点
+     */
+    public void addEdge(String beanName, String dependency) {
+        if (!this.edges.containsKey(dependency)) {
+            throw new IllegalArgumentException("Unknown bean '" + dependency + "'");
+        }
+        Set<String> dependencies = this.edges.get(beanName);
+        if (dependencies == null) {
+            throw new IllegalArgumentException("Unknown bean '" + beanName + "'");
+        }
+        dependencies.add(dependency);
+    }
+
+    public boolean containsNode(String beanName) {
+        return this.edges.containsKey(beanName);
+    }
+
+    public Set<String> getNodes() {
+        return Collections.unmodifiableSet(this.edges.keySet());
+    }
+
+    public Set<String> getDependencies(String beanName) {
+        Set<String> dependencies = this.edges.get(beanName);
+        return (dependencies != null ? Collections.unmodifiableSet(dependencies) : Collections.emptySet());
+    }
+
+    /**
+     * 强连通分量，依赖在前(被依赖的分量一定排在依赖它的分量前面)；分量内的Bean按加入图的顺序排列
+     */
+    public List<List<String>> stronglyConnectedComponents() {
+        return new Tarjan().run();
+    }
+
+    /**
+     * 包含循环依赖的分量
+     */
+    public List<List<String>> cycles() {
+        List<List<String>> cycles = new ArrayList<>();
+        for (List<String> component : stronglyConnectedComponents()) {
+            if (component.size() > 1 || getDependencies(component.get(0)).contains(component.get(0))) {
+                cycles.add(component);
+            }
+        }
+        return cycles;
+    }
+
+
+    /**
+     * 非递归的Tarjan算法，Bean很多、依赖链很长时也不会栈溢出
+     */
+    private final class Tarjan {
+
+        private final Map<String, Integer> order = new HashMap<>();
+
+        private final Map<String, Integer> index = new HashMap<>();
+
+        private final Map<String, Integer> lowLink = new HashMap<>();
+
+        private final Deque<String> stack = new ArrayDeque<>();
+
+        private final Set<String> onStack = new LinkedHashSet<>();
+
+        private final List<List<String>> components = new ArrayList<>();
+
+        private int counter;
+
+        List<List<String>> run() {
+            int i = 0;
+            for (String node : edges.keySet()) {
+                this.order.put(node, i++);
+            }
+            for (String node : edges.keySet()) {
+                if (!this.index.containsKey(node)) {
+                    strongConnect(node);
+                }
+            }
+            return this.components;
+        }
+
+        private void strongConnect(String root) {
+            Deque<Frame> callStack = new ArrayDeque<>();
+            visit(root);
+            callStack.push(new Frame(root));
+            while (!callStack.isEmpty()) {
+                Frame frame = callStack.peek();
+                if (frame.dependencies.hasNext()) {
+                    String dependency = frame.dependencies.next();
+                    if (!this.index.containsKey(dependency)) {
+                        visit(dependency);
+                        callStack.push(new Frame(dependency));
+                    }
+                    else if (this.onStack.contains(dependency)) {
+                        this.lowLink.put(frame.node, Math.min(this.lowLink.get(frame.node), this.index.get(dependency)));
+                    }
+                    continue;
+                }
+                callStack.pop();
+                Frame parent = callStack.peek();
+                if (parent != null) {
+                    this.lowLink.put(parent.node, Math.min(this.lowLink.get(parent.node), this.lowLink.get(frame.node)));
+                }
+                if (this.lowLink.get(frame.node).equals(this.index.get(frame.node))) {
+                    List<String> component = new ArrayList<>();
+                    String member;
+                    do {
+                        member = this.stack.pop();
+                        this.onStack.remove(member);
+                        component.add(member);
+                    }
+                    while (!member.equals(frame.node));
+                    component.sort((a, b) -> this.order.get(a) - this.order.get(b));
+                    this.components.add(component);
+                }
+            }
+        }
+
+        private void visit(String node) {
+            this.index.put(node, this.counter);
+            this.lowLink.put(node, this.counter);
+            this.counter++;
+            this.stack.push(node);
+            this.onStack.add(node);
+        }
+    }
+
+
+    private final class Frame {
+
+        final String node;
+
+        final Iterator<String> dependencies;
+
+        Frame(String node) {
+            this.node = node;
+            this.dependencies = edges.get(node).iterator();
+        }
+    }
+}
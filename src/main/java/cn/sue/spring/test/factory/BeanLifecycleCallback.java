@@ -0,0 +1,18 @@
+package cn.sue.spring.test.factory;
+
+/**
+ * <p>
+ * 直接调用Bean的init-method/destroy-method，代替按方法名反射调用。
+ * 放在BeanDefinition的{@link ExtendedBeanFactory#INIT_CALLBACK_ATTRIBUTE}/{@link ExtendedBeanFactory#DESTROY_CALLBACK_ATTRIBUTE}属性里，
+ * 一般由{@link cn.sue.spring.test.aot.BeanRegistrationGenerator}生成
+ * </p>
+ *
+ * @author Sue
+ * @className BeanLifecycleCallback
+ * @create 2023/5/21
+ **/
+@FunctionalInterface
+public interface BeanLifecycleCallback {
+
+    void invoke(Object bean) throws Exception;
+}
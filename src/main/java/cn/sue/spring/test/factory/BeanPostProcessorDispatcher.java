@@ -0,0 +1,160 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.config.SmartInstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.support.MergedBeanDefinitionPostProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * 按Bean的类型缓存要调用的BeanPostProcessor：去掉类型不匹配的{@link TypeTargetedBeanPostProcessor}，
+ * 并提前按子接口分好组，创建Bean时不用再对每个BeanPostProcessor做instanceof判断。
+ * BeanPostProcessor有增减时整个缓存作废
+ * </p>
+ *
+ * @author Sue
+ * @className BeanPostProcessorDispatcher
+ * @create 2023/5/22
+ **/
+class BeanPostProcessorDispatcher {
+
+    private volatile Plans plans = new Plans(Collections.emptyList());
+
+    /**
+     * processors是BeanFactory当前的BeanPostProcessor列表，和缓存时的不一样时重新计算
+     */
+    Plan getPlan(List<BeanPostProcessor> processors, Class<?> beanClass) {
+        Plans plans = this.plans;
+        if (!plans.isFor(processors)) {
+            plans = new Plans(processors);
+            this.plans = plans;
+        }
+        return plans.get(beanClass);
+    }
+
+    void invalidate() {
+        this.plans = new Plans(Collections.emptyList());
+    }
+
+
+    private static final class Plans {
+
+        private final List<BeanPostProcessor> processors;
+
+        private final boolean hasTargetedProcessors;
+
+        private final Map<Class<?>, Plan> byClass = new ConcurrentHashMap<>();
+
+        // 没有TypeTargetedBeanPostProcessor时所有类型共用一个
+        private final Plan shared;
+
+        Plans(List<BeanPostProcessor> processors) {
+            this.processors = new ArrayList<>(processors);
+            boolean targeted = false;
+            for (BeanPostProcessor processor : processors) {
+                if (processor instanceof TypeTargetedBeanPostProcessor) {
+                    targeted = true;
+                    break;
+                }
+            }
+            this.hasTargetedProcessors = targeted;
+            this.shared = (targeted ? null : new Plan(this.processors, Object.class));
+        }
+
+        // addBeanPostProcessor会主动invalidate，这里兜底直接修改getBeanPostProcessors()列表的情况：
+        // 同样的个数也可能换了元素(比如remove之后又add)，所以逐个比较是不是同一个对象
+        boolean isFor(List<BeanPostProcessor> current) {
+            if (current.size() != this.processors.size()) {
+                return false;
+            }
+            Iterator<BeanPostProcessor> it = current.iterator();
+            for (BeanPostProcessor processor : this.processors) {
+                if (!it.hasNext() || it.next() != processor) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Plan get(Class<?> beanClass) {
+            if (!this.hasTargetedProcessors) {
+                return this.shared;
+            }
+            return this.byClass.computeIfAbsent(beanClass, type -> new Plan(this.processors, type));
+        }
+    }
+
+
+    /**
+     * 一个类型的Bean要调用的BeanPostProcessor，按注册顺序
+     */
+    static final class Plan {
+
+        final List<BeanPostProcessor> processors = new ArrayList<>();
+
+        final List<InstantiationAwareBeanPostProcessor> instantiationAware = new ArrayList<>();
+
+        final List<SmartInstantiationAwareBeanPostProcessor> smartInstantiationAware = new ArrayList<>();
+
+        final List<MergedBeanDefinitionPostProcessor> mergedDefinition = new ArrayList<>();
+
+        // 实例化之前只知道BeanDefinition声明的类型(比如工厂方法的返回类型)，实际的类型可能是它的子类，匹配时两个方向都算
+        final List<InstantiationAwareBeanPostProcessor> beforeInstantiation = new ArrayList<>();
+
+        Plan(List<BeanPostProcessor> candidates, Class<?> beanClass) {
+            for (BeanPostProcessor processor : candidates) {
+                if (processor instanceof InstantiationAwareBeanPostProcessor && mayApply(processor, beanClass)) {
+                    this.beforeInstantiation.add((InstantiationAwareBeanPostProcessor) processor);
+                }
+                if (!applies(processor, beanClass)) {
+                    continue;
+                }
+                this.processors.add(processor);
+                if (processor instanceof InstantiationAwareBeanPostProcessor) {
+                    this.instantiationAware.add((InstantiationAwareBeanPostProcessor) processor);
+                }
+                if (processor instanceof SmartInstantiationAwareBeanPostProcessor) {
+                    this.smartInstantiationAware.add((SmartInstantiationAwareBeanPostProcessor) processor);
+                }
+                if (processor instanceof MergedBeanDefinitionPostProcessor) {
+                    this.mergedDefinition.add((MergedBeanDefinitionPostProcessor) processor);
+                }
+            }
+        }
+
+        private static boolean applies(BeanPostProcessor processor, Class<?> beanClass) {
+            if (!(processor instanceof TypeTargetedBeanPostProcessor)) {
+                return true;
+            }
+            Class<?>[] targetTypes = ((TypeTargetedBeanPostProcessor) processor).getTargetTypes();
+            if (targetTypes == null || targetTypes.length == 0) {
+                return true;
+            }
+            for (Class<?> targetType : targetTypes) {
+                if (targetType.isAssignableFrom(beanClass)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean mayApply(BeanPostProcessor processor, Class<?> beanClass) {
+            if (applies(processor, beanClass)) {
+                return true;
+            }
+            for (Class<?> targetType : ((TypeTargetedBeanPostProcessor) processor).getTargetTypes()) {
+                if (beanClass.isAssignableFrom(targetType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
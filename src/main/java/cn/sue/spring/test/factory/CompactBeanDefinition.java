@@ -0,0 +1,598 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 省内存的BeanDefinition：只保存和默认值不一样的属性。GenericBeanDefinition每个实例都带着二十多个字段、
+ * 一个属性Map、一个qualifier Map和MethodOverrides，大部分都是默认值；这里布尔属性压成一个int，
+ * 其余有值的属性按位图紧凑地放在一个数组里，类名、scope、方法名都intern，几十万个定义共用同一批字符串。
+ * </p>
+ * <p>
+ * 用{@link #compact(BeanDefinition)}把BeanDefinitionBuilder构建好的GenericBeanDefinition转换过来，
+ * 再通过{@link ExtendedBeanFactory#registerBeanDefinitions}批量注册。
+ * 合并(getMergedBeanDefinition)时ExtendedBeanFactory会先把它还原成GenericBeanDefinition，
+ * 注册到普通的DefaultListableBeanFactory会丢掉init/destroy方法、自动装配模式等属性。
+ * 没有构造参数、属性值时不占位置，第一次调用getConstructorArgumentValues/getPropertyValues才创建并保存，
+ * 和其它BeanDefinition一样可以直接往返回的对象里添加(比如PropertyOverrideConfigurer)
+ * </p>
+ *
+ * @author Sue
+ * @className CompactBeanDefinition
+ * @create 2023/5/29
+ **/
+public final class CompactBeanDefinition implements BeanDefinition {
+
+    // 布尔属性，都按"不是默认值"记
+    private static final int LAZY_INIT = 1;
+
+    private static final int LAZY_INIT_SET = 1 << 1;
+
+    private static final int PRIMARY = 1 << 2;
+
+    private static final int ABSTRACT = 1 << 3;
+
+    private static final int NOT_AUTOWIRE_CANDIDATE = 1 << 4;
+
+    private static final int NOT_NON_PUBLIC_ACCESS_ALLOWED = 1 << 5;
+
+    private static final int NOT_LENIENT_CONSTRUCTOR_RESOLUTION = 1 << 6;
+
+    private static final int NOT_ENFORCE_INIT_METHOD = 1 << 7;
+
+    private static final int NOT_ENFORCE_DESTROY_METHOD = 1 << 8;
+
+    private static final int SYNTHETIC = 1 << 9;
+
+    // 其余属性在values里的位置
+    private static final int PARENT_NAME = 0;
+
+    private static final int FACTORY_BEAN_NAME = 1;
+
+    private static final int FACTORY_METHOD_NAME = 2;
+
+    private static final int INIT_METHOD_NAME = 3;
+
+    private static final int DESTROY_METHOD_NAME = 4;
+
+    private static final int DEPENDS_ON = 5;
+
+    private static final int DESCRIPTION = 6;
+
+    private static final int CONSTRUCTOR_ARGUMENT_VALUES = 7;
+
+    private static final int PROPERTY_VALUES = 8;
+
+    private static final int ATTRIBUTES = 9;
+
+    private static final int SOURCE = 10;
+
+    private static final int RESOURCE = 11;
+
+    private static final int ROLE = 12;
+
+    private static final int AUTOWIRE_MODE = 13;
+
+    private static final int DEPENDENCY_CHECK = 14;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    // Class或者类名
+    @Nullable
+    private Object beanClass;
+
+    @Nullable
+    private String scope;
+
+    private int flags;
+
+    // 哪些属性有值，values按属性的位置顺序只放有值的
+    private int present;
+
+    private Object[] values = EMPTY;
+
+    public CompactBeanDefinition() {
+    }
+
+    public CompactBeanDefinition(Class<?> beanClass) {
+        this.beanClass = beanClass;
+    }
+
+    /**
+     * 能表示的定义(GenericBeanDefinition，没有instanceSupplier、lookup/replace方法、qualifier)转换成CompactBeanDefinition，
+     * 其他的原样返回
+     */
+    public static BeanDefinition compact(BeanDefinition definition) {
+        Assert.notNull(definition, "BeanDefinition must not be null");
+        if (definition instanceof CompactBeanDefinition) {
+            return definition;
+        }
+        if (definition.getClass() != GenericBeanDefinition.class) {
+            return definition;
+        }
+        GenericBeanDefinition original = (GenericBeanDefinition) definition;
+        if (original.getInstanceSupplier() != null || original.hasMethodOverrides() || !original.getQualifiers().isEmpty()) {
+            return definition;
+        }
+        CompactBeanDefinition compact = new CompactBeanDefinition();
+        if (original.hasBeanClass()) {
+            compact.beanClass = original.getBeanClass();
+        }
+        else {
+            compact.setBeanClassName(original.getBeanClassName());
+        }
+        compact.setScope(original.getScope());
+        if (original.getLazyInit() != null) {
+            compact.setLazyInit(original.isLazyInit());
+        }
+        compact.setFlag(PRIMARY, original.isPrimary());
+        compact.setFlag(ABSTRACT, original.isAbstract());
+        compact.setFlag(NOT_AUTOWIRE_CANDIDATE, !original.isAutowireCandidate());
+        compact.setFlag(NOT_NON_PUBLIC_ACCESS_ALLOWED, !original.isNonPublicAccessAllowed());
+        compact.setFlag(NOT_LENIENT_CONSTRUCTOR_RESOLUTION, !original.isLenientConstructorResolution());
+        compact.setFlag(NOT_ENFORCE_INIT_METHOD, !original.isEnforceInitMethod());
+        compact.setFlag(NOT_ENFORCE_DESTROY_METHOD, !original.isEnforceDestroyMethod());
+        compact.setFlag(SYNTHETIC, original.isSynthetic());
+        compact.setParentName(original.getParentName());
+        compact.setFactoryBeanName(original.getFactoryBeanName());
+        compact.setFactoryMethodName(original.getFactoryMethodName());
+        compact.setInitMethodName(original.getInitMethodName());
+        compact.setDestroyMethodName(original.getDestroyMethodName());
+        compact.setDependsOn(original.getDependsOn());
+        compact.setDescription(original.getDescription());
+        if (original.hasConstructorArgumentValues()) {
+            compact.setConstructorArgumentValues(original.getConstructorArgumentValues());
+        }
+        if (original.hasPropertyValues()) {
+            compact.setPropertyValues(original.getPropertyValues());
+        }
+        for (String name : original.attributeNames()) {
+            compact.setAttribute(name, original.getAttribute(name));
+        }
+        compact.set(SOURCE, original.getSource());
+        compact.set(RESOURCE, original.getResource());
+        compact.setRole(original.getRole());
+        compact.setAutowireMode(original.getAutowireMode());
+        compact.setDependencyCheck(original.getDependencyCheck());
+        return compact;
+    }
+
+    /**
+     * 还原成一个完整的GenericBeanDefinition
+     */
+    public GenericBeanDefinition toBeanDefinition() {
+        GenericBeanDefinition definition = new GenericBeanDefinition();
+        if (this.beanClass instanceof Class) {
+            definition.setBeanClass((Class<?>) this.beanClass);
+        }
+        else {
+            definition.setBeanClassName((String) this.beanClass);
+        }
+        definition.setScope(getScope());
+        if (hasFlag(LAZY_INIT_SET)) {
+            definition.setLazyInit(hasFlag(LAZY_INIT));
+        }
+        definition.setPrimary(hasFlag(PRIMARY));
+        definition.setAbstract(hasFlag(ABSTRACT));
+        definition.setAutowireCandidate(!hasFlag(NOT_AUTOWIRE_CANDIDATE));
+        definition.setNonPublicAccessAllowed(!hasFlag(NOT_NON_PUBLIC_ACCESS_ALLOWED));
+        definition.setLenientConstructorResolution(!hasFlag(NOT_LENIENT_CONSTRUCTOR_RESOLUTION));
+        definition.setEnforceInitMethod(!hasFlag(NOT_ENFORCE_INIT_METHOD));
+        definition.setEnforceDestroyMethod(!hasFlag(NOT_ENFORCE_DESTROY_METHOD));
+        definition.setSynthetic(hasFlag(SYNTHETIC));
+        definition.setParentName(getParentName());
+        definition.setFactoryBeanName(getFactoryBeanName());
+        definition.setFactoryMethodName(getFactoryMethodName());
+        definition.setInitMethodName(getInitMethodName());
+        definition.setDestroyMethodName(getDestroyMethodName());
+        definition.setDependsOn(getDependsOn());
+        definition.setDescription(getDescription());
+        // 合并时会再复制一次，这里直接共用
+        if (hasConstructorArgumentValues()) {
+            definition.setConstructorArgumentValues(getConstructorArgumentValues());
+        }
+        if (hasPropertyValues()) {
+            definition.setPropertyValues(getPropertyValues());
+        }
+        Map<String, Object> attributes = attributes();
+        if (attributes != null) {
+            attributes.forEach(definition::setAttribute);
+        }
+        definition.setSource(getSource());
+        definition.setResource(getResource());
+        definition.setRole(getRole());
+        definition.setAutowireMode(getAutowireMode());
+        definition.setDependencyCheck(getDependencyCheck());
+        return definition;
+    }
+
+    @Override
+    public void setParentName(@Nullable String parentName) {
+        set(PARENT_NAME, parentName);
+    }
+
+    @Override
+    @Nullable
+    public String getParentName() {
+        return (String) get(PARENT_NAME);
+    }
+
+    @Override
+    public void setBeanClassName(@Nullable String beanClassName) {
+        this.beanClass = intern(beanClassName);
+    }
+
+    @Override
+    @Nullable
+    public String getBeanClassName() {
+        return (this.beanClass instanceof Class ? ((Class<?>) this.beanClass).getName() : (String) this.beanClass);
+    }
+
+    @Override
+    public void setScope(@Nullable String scope) {
+        this.scope = (StringUtils.hasLength(scope) ? intern(scope) : null);
+    }
+
+    @Override
+    @Nullable
+    public String getScope() {
+        return (this.scope != null ? this.scope : AbstractBeanDefinition.SCOPE_DEFAULT);
+    }
+
+    @Override
+    public void setLazyInit(boolean lazyInit) {
+        setFlag(LAZY_INIT_SET, true);
+        setFlag(LAZY_INIT, lazyInit);
+    }
+
+    @Override
+    public boolean isLazyInit() {
+        return hasFlag(LAZY_INIT);
+    }
+
+    @Override
+    public void setDependsOn(@Nullable String... dependsOn) {
+        set(DEPENDS_ON, (ObjectUtils.isEmpty(dependsOn) ? null : dependsOn));
+    }
+
+    @Override
+    @Nullable
+    public String[] getDependsOn() {
+        return (String[]) get(DEPENDS_ON);
+    }
+
+    @Override
+    public void setAutowireCandidate(boolean autowireCandidate) {
+        setFlag(NOT_AUTOWIRE_CANDIDATE, !autowireCandidate);
+    }
+
+    @Override
+    public boolean isAutowireCandidate() {
+        return !hasFlag(NOT_AUTOWIRE_CANDIDATE);
+    }
+
+    @Override
+    public void setPrimary(boolean primary) {
+        setFlag(PRIMARY, primary);
+    }
+
+    @Override
+    public boolean isPrimary() {
+        return hasFlag(PRIMARY);
+    }
+
+    @Override
+    public void setFactoryBeanName(@Nullable String factoryBeanName) {
+        set(FACTORY_BEAN_NAME, intern(factoryBeanName));
+    }
+
+    @Override
+    @Nullable
+    public String getFactoryBeanName() {
+        return (String) get(FACTORY_BEAN_NAME);
+    }
+
+    @Override
+    public void setFactoryMethodName(@Nullable String factoryMethodName) {
+        set(FACTORY_METHOD_NAME, intern(factoryMethodName));
+    }
+
+    @Override
+    @Nullable
+    public String getFactoryMethodName() {
+        return (String) get(FACTORY_METHOD_NAME);
+    }
+
+    public void setConstructorArgumentValues(@Nullable ConstructorArgumentValues constructorArgumentValues) {
+        set(CONSTRUCTOR_ARGUMENT_VALUES, constructorArgumentValues);
+    }
+
+    @Override
+    public ConstructorArgumentValues getConstructorArgumentValues() {
+        ConstructorArgumentValues values = (ConstructorArgumentValues) get(CONSTRUCTOR_ARGUMENT_VALUES);
+        if (values == null) {
+            values = new ConstructorArgumentValues();
+            set(CONSTRUCTOR_ARGUMENT_VALUES, values);
+        }
+        return values;
+    }
+
+    @Override
+    public boolean hasConstructorArgumentValues() {
+        ConstructorArgumentValues values = (ConstructorArgumentValues) get(CONSTRUCTOR_ARGUMENT_VALUES);
+        return (values != null && !values.isEmpty());
+    }
+
+    public void setPropertyValues(@Nullable MutablePropertyValues propertyValues) {
+        set(PROPERTY_VALUES, propertyValues);
+    }
+
+    @Override
+    public MutablePropertyValues getPropertyValues() {
+        MutablePropertyValues values = (MutablePropertyValues) get(PROPERTY_VALUES);
+        if (values == null) {
+            values = new MutablePropertyValues();
+            set(PROPERTY_VALUES, values);
+        }
+        return values;
+    }
+
+    @Override
+    public boolean hasPropertyValues() {
+        MutablePropertyValues values = (MutablePropertyValues) get(PROPERTY_VALUES);
+        return (values != null && !values.isEmpty());
+    }
+
+    @Override
+    public void setInitMethodName(@Nullable String initMethodName) {
+        set(INIT_METHOD_NAME, intern(initMethodName));
+    }
+
+    @Override
+    @Nullable
+    public String getInitMethodName() {
+        return (String) get(INIT_METHOD_NAME);
+    }
+
+    @Override
+    public void setDestroyMethodName(@Nullable String destroyMethodName) {
+        set(DESTROY_METHOD_NAME, intern(destroyMethodName));
+    }
+
+    @Override
+    @Nullable
+    public String getDestroyMethodName() {
+        return (String) get(DESTROY_METHOD_NAME);
+    }
+
+    @Override
+    public void setRole(int role) {
+        set(ROLE, (role != ROLE_APPLICATION ? role : null));
+    }
+
+    @Override
+    public int getRole() {
+        Integer role = (Integer) get(ROLE);
+        return (role != null ? role : ROLE_APPLICATION);
+    }
+
+    public void setAutowireMode(int autowireMode) {
+        set(AUTOWIRE_MODE, (autowireMode != AbstractBeanDefinition.AUTOWIRE_NO ? autowireMode : null));
+    }
+
+    public int getAutowireMode() {
+        Integer autowireMode = (Integer) get(AUTOWIRE_MODE);
+        return (autowireMode != null ? autowireMode : AbstractBeanDefinition.AUTOWIRE_NO);
+    }
+
+    public void setDependencyCheck(int dependencyCheck) {
+        set(DEPENDENCY_CHECK, (dependencyCheck != AbstractBeanDefinition.DEPENDENCY_CHECK_NONE ? dependencyCheck : null));
+    }
+
+    public int getDependencyCheck() {
+        Integer dependencyCheck = (Integer) get(DEPENDENCY_CHECK);
+        return (dependencyCheck != null ? dependencyCheck : AbstractBeanDefinition.DEPENDENCY_CHECK_NONE);
+    }
+
+    @Override
+    public void setDescription(@Nullable String description) {
+        set(DESCRIPTION, description);
+    }
+
+    @Override
+    @Nullable
+    public String getDescription() {
+        return (String) get(DESCRIPTION);
+    }
+
+    @Override
+    public ResolvableType getResolvableType() {
+        return (this.beanClass instanceof Class ? ResolvableType.forClass((Class<?>) this.beanClass) : ResolvableType.NONE);
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return (this.scope == null || SCOPE_SINGLETON.equals(this.scope));
+    }
+
+    @Override
+    public boolean isPrototype() {
+        return SCOPE_PROTOTYPE.equals(this.scope);
+    }
+
+    @Override
+    public boolean isAbstract() {
+        return hasFlag(ABSTRACT);
+    }
+
+    @Nullable
+    public Resource getResource() {
+        return (Resource) get(RESOURCE);
+    }
+
+    @Override
+    @Nullable
+    public String getResourceDescription() {
+        Resource resource = getResource();
+        return (resource != null ? resource.getDescription() : null);
+    }
+
+    @Override
+    @Nullable
+    public BeanDefinition getOriginatingBeanDefinition() {
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Object getSource() {
+        return get(SOURCE);
+    }
+
+    @Override
+    public void setAttribute(String name, @Nullable Object value) {
+        Assert.notNull(name, "Name must not be null");
+        if (value == null) {
+            removeAttribute(name);
+            return;
+        }
+        Map<String, Object> attributes = attributes();
+        if (attributes == null) {
+            attributes = new LinkedHashMap<>(4);
+            set(ATTRIBUTES, attributes);
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    @Nullable
+    public Object getAttribute(String name) {
+        Map<String, Object> attributes = attributes();
+        return (attributes != null ? attributes.get(name) : null);
+    }
+
+    @Override
+    @Nullable
+    public Object removeAttribute(String name) {
+        Map<String, Object> attributes = attributes();
+        if (attributes == null) {
+            return null;
+        }
+        Object removed = attributes.remove(name);
+        if (attributes.isEmpty()) {
+            set(ATTRIBUTES, null);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean hasAttribute(String name) {
+        Map<String, Object> attributes = attributes();
+        return (attributes != null && attributes.containsKey(name));
+    }
+
+    @Override
+    public String[] attributeNames() {
+        Map<String, Object> attributes = attributes();
+        return (attributes != null ? StringUtils.toStringArray(attributes.keySet()) : new String[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private Map<String, Object> attributes() {
+        return (Map<String, Object>) get(ATTRIBUTES);
+    }
+
+    private boolean hasFlag(int flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    private void setFlag(int flag, boolean value) {
+        this.flags = (value ? this.flags | flag : this.flags & ~flag);
+    }
+
+    private boolean has(int slot) {
+        return (this.present & (1 << slot)) != 0;
+    }
+
+    @Nullable
+    private Object get(int slot) {
+        return (has(slot) ? this.values[index(slot)] : null);
+    }
+
+    /**
+     * value为null时去掉这个属性
+     */
+    private void set(int slot, @Nullable Object value) {
+        int index = index(slot);
+        if (has(slot)) {
+            if (value != null) {
+                this.values[index] = value;
+                return;
+            }
+            Object[] shrunk = (this.values.length == 1 ? EMPTY : new Object[this.values.length - 1]);
+            System.arraycopy(this.values, 0, shrunk, 0, index);
+            System.arraycopy(this.values, index + 1, shrunk, index, this.values.length - index - 1);
+            this.values = shrunk;
+            this.present &= ~(1 << slot);
+        }
+        else if (value != null) {
+            Object[] grown = new Object[this.values.length + 1];
+            System.arraycopy(this.values, 0, grown, 0, index);
+            grown[index] = value;
+            System.arraycopy(this.values, index, grown, index + 1, this.values.length - index);
+            this.values = grown;
+            this.present |= (1 << slot);
+        }
+    }
+
+    private int index(int slot) {
+        return Integer.bitCount(this.present & ((1 << slot) - 1));
+    }
+
+    @Nullable
+    private static String intern(@Nullable String value) {
+        return (value != null ? value.intern() : null);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CompactBeanDefinition)) {
+            return false;
+        }
+        CompactBeanDefinition that = (CompactBeanDefinition) other;
+        return (ObjectUtils.nullSafeEquals(this.beanClass, that.beanClass) && ObjectUtils.nullSafeEquals(this.scope, that.scope) &&
+                this.flags == that.flags && this.present == that.present && Arrays.deepEquals(this.values, that.values));
+    }
+
+    @Override
+    public int hashCode() {
+        return ObjectUtils.nullSafeHashCode(getBeanClassName()) * 29 + this.present * 31 + this.flags;
+    }
+
+    @Override
+    public String toString() {
+        return "Compact bean definition: class [" + getBeanClassName() + "]; scope=" + getScope() + "; abstract=" + isAbstract() +
+                "; lazyInit=" + isLazyInit() + "; primary=" + isPrimary() + "; factoryBeanName=" + getFactoryBeanName() +
+                "; factoryMethodName=" + getFactoryMethodName() + "; initMethodName=" + getInitMethodName() +
+                "; destroyMethodName=" + getDestroyMethodName() +
+                (getResourceDescription() != null ? "; defined in " + getResourceDescription() : "");
+    }
+}
@@ -0,0 +1,404 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.SimpleAliasRegistry;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationAttributes;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>
+ * 不创建Bean，只根据BeanDefinition和注入点推算Bean之间的依赖，生成{@link BeanDependencyGraph}。
+ * 依赖来源：depends-on、factory-bean、构造参数和属性里的Bean引用、工厂方法和构造方法的参数、
+ * &#64;Autowired/&#64;Inject/&#64;Resource标注的字段和方法、byName/byType自动装配的属性。
+ * 按类型注入时把所有类型匹配的Bean都算作依赖，宁可多算：多出来的边最多让并行度低一点，漏掉的边由创建时的锁兜底。
+ * ObjectFactory、ObjectProvider、Provider和&#64;Lazy注入点是延迟获取的，不算依赖
+ * </p>
+ *
+ * @author Sue
+ * @className DependencyGraphBuilder
+ * @create 2023/5/20
+ **/
+public class DependencyGraphBuilder {
+
+    private static final String INJECT_ANNOTATION = "javax.inject.Inject";
+
+    private static final String PROVIDER_CLASS = "javax.inject.Provider";
+
+    private static final String RESOURCE_ANNOTATION = "javax.annotation.Resource";
+
+    // 和Inject一样按名字匹配，没有javax.annotation-api时不会加载失败
+    private static final boolean jsr250Present =
+            ClassUtils.isPresent(RESOURCE_ANNOTATION, DependencyGraphBuilder.class.getClassLoader());
+
+    private final ConfigurableListableBeanFactory beanFactory;
+
+    private final Map<String, Set<String>> directDependencies = new HashMap<>();
+
+    private final Map<String, Set<String>> explicitDependencies = new HashMap<>();
+
+    public DependencyGraphBuilder(ConfigurableListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * 以beanNames为节点建图。依赖了不在beanNames里的Bean(比如懒加载的Bean)时，沿着它继续往下找，
+     * 这样A -> 懒加载的L -> B也会得到A -> B这条边
+     */
+    public BeanDependencyGraph build(Collection<String> beanNames) {
+        BeanDependencyGraph graph = new BeanDependencyGraph();
+        for (String beanName : beanNames) {
+            graph.addNode(canonicalName(beanName));
+        }
+        for (String beanName : graph.getNodes()) {
+            Set<String> visited = new HashSet<>();
+            visited.add(beanName);
+            addEdges(graph, beanName, beanName, visited);
+        }
+        return graph;
+    }
+
+    private void addEdges(BeanDependencyGraph graph, String beanName, String current, Set<String> visited) {
+        for (String dependency : findDirectDependencies(current)) {
+            if (dependency.equals(beanName)) {
+                graph.addEdge(beanName, beanName);
+            }
+            else if (visited.add(dependency)) {
+                if (graph.containsNode(dependency)) {
+                    graph.addEdge(beanName, dependency);
+                }
+                else {
+                    addEdges(graph, beanName, dependency, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个Bean直接依赖的Bean，按发现的顺序排列
+     */
+    public Set<String> findDirectDependencies(String beanName) {
+        Set<String> dependencies = this.directDependencies.get(beanName);
+        if (dependencies == null) {
+            dependencies = new LinkedHashSet<>();
+            try {
+                collect(beanName, this.beanFactory.getMergedBeanDefinition(beanName), dependencies);
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                // 手动注册的单例没有BeanDefinition，也没有依赖
+            }
+            this.directDependencies.put(beanName, dependencies);
+        }
+        return dependencies;
+    }
+
+    /**
+     * 只看BeanDefinition里写明的依赖：depends-on、factory-bean、构造参数和属性里的Bean引用。
+     * 这些依赖在创建Bean时一定会被创建，不能用延迟代理替代
+     */
+    public Set<String> findExplicitDependencies(String beanName) {
+        Set<String> dependencies = this.explicitDependencies.get(beanName);
+        if (dependencies == null) {
+            dependencies = new LinkedHashSet<>();
+            try {
+                collectExplicit(this.beanFactory.getMergedBeanDefinition(beanName), dependencies);
+            }
+            catch (NoSuchBeanDefinitionException ex) {
+                // 手动注册的单例
+            }
+            dependencies.remove(beanName);
+            this.explicitDependencies.put(beanName, dependencies);
+        }
+        return dependencies;
+    }
+
+    private void collectExplicit(BeanDefinition bd, Set<String> dependencies) {
+        String[] dependsOn = bd.getDependsOn();
+        if (dependsOn != null) {
+            for (String dependency : dependsOn) {
+                dependencies.add(canonicalName(dependency));
+            }
+        }
+        if (bd.getFactoryBeanName() != null) {
+            dependencies.add(canonicalName(bd.getFactoryBeanName()));
+        }
+        collectReferences(bd, dependencies);
+    }
+
+    private void collect(String beanName, BeanDefinition bd, Set<String> dependencies) {
+        collectExplicit(bd, dependencies);
+
+        Class<?> beanClass = (bd instanceof AbstractBeanDefinition && ((AbstractBeanDefinition) bd).hasBeanClass() ?
+                ((AbstractBeanDefinition) bd).getBeanClass() : null);
+        Class<?> beanType;
+        if (bd.getFactoryMethodName() != null) {
+            Class<?> factoryClass = (bd.getFactoryBeanName() != null ?
+                    this.beanFactory.getType(bd.getFactoryBeanName(), false) : beanClass);
+            if (factoryClass != null) {
+                for (Method method : ReflectionUtils.getUniqueDeclaredMethods(ClassUtils.getUserClass(factoryClass))) {
+                    if (method.getName().equals(bd.getFactoryMethodName())) {
+                        collectParameters(method, dependencies);
+                    }
+                }
+            }
+            beanType = this.beanFactory.getType(beanName, false);
+        }
+        else {
+            beanType = beanClass;
+            if (beanClass != null) {
+                collectConstructors(beanClass, bd, dependencies);
+            }
+        }
+        if (beanType != null) {
+            Class<?> userClass = ClassUtils.getUserClass(beanType);
+            collectInjectionPoints(userClass, dependencies);
+            if (bd instanceof AbstractBeanDefinition) {
+                collectAutowiredProperties(userClass, (AbstractBeanDefinition) bd, dependencies);
+            }
+        }
+        dependencies.remove(beanName);
+    }
+
+    private void collectReferences(BeanDefinition bd, Set<String> dependencies) {
+        // 先判断有没有，CompactBeanDefinition没有时调用get会创建空对象
+        if (bd.hasConstructorArgumentValues()) {
+            ConstructorArgumentValues args = bd.getConstructorArgumentValues();
+            for (ConstructorArgumentValues.ValueHolder holder : args.getIndexedArgumentValues().values()) {
+                collectReferences(holder.getValue(), dependencies);
+            }
+            for (ConstructorArgumentValues.ValueHolder holder : args.getGenericArgumentValues()) {
+                collectReferences(holder.getValue(), dependencies);
+            }
+        }
+        if (bd.hasPropertyValues()) {
+            for (PropertyValue pv : bd.getPropertyValues().getPropertyValues()) {
+                collectReferences(pv.getValue(), dependencies);
+            }
+        }
+    }
+
+    private void collectReferences(@Nullable Object value, Set<String> dependencies) {
+        if (value instanceof RuntimeBeanReference) {
+            dependencies.add(canonicalName(((RuntimeBeanReference) value).getBeanName()));
+        }
+        else if (value instanceof BeanDefinitionHolder) {
+            collectReferences(((BeanDefinitionHolder) value).getBeanDefinition(), dependencies);
+        }
+        else if (value instanceof BeanDefinition) {
+            collectReferences((BeanDefinition) value, dependencies);
+        }
+        else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                collectReferences(element, dependencies);
+            }
+        }
+        else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                collectReferences(entry.getKey(), dependencies);
+                collectReferences(entry.getValue(), dependencies);
+            }
+        }
+    }
+
+    /**
+     * 有&#64;Autowired的构造方法就用它们；否则只有一个带参数的构造方法时用它；构造方法自动装配时把所有构造方法都算上
+     */
+    private void collectConstructors(Class<?> beanClass, BeanDefinition bd, Set<String> dependencies) {
+        Constructor<?>[] constructors = beanClass.getDeclaredConstructors();
+        boolean annotated = false;
+        for (Constructor<?> constructor : constructors) {
+            if (isInjectionPoint(constructor)) {
+                collectParameters(constructor, dependencies);
+                annotated = true;
+            }
+        }
+        if (annotated) {
+            return;
+        }
+        boolean autowireConstructor = (bd instanceof AbstractBeanDefinition &&
+                ((AbstractBeanDefinition) bd).getResolvedAutowireMode() == AutowireCapableBeanFactory.AUTOWIRE_CONSTRUCTOR);
+        if (constructors.length == 1 || autowireConstructor) {
+            for (Constructor<?> constructor : constructors) {
+                collectParameters(constructor, dependencies);
+            }
+        }
+    }
+
+    private void collectInjectionPoints(Class<?> beanType, Set<String> dependencies) {
+        Class<?> targetClass = beanType;
+        while (targetClass != null && targetClass != Object.class) {
+            ReflectionUtils.doWithLocalFields(targetClass, field -> {
+                if (Modifier.isStatic(field.getModifiers()) || isLazy(field)) {
+                    return;
+                }
+                AnnotationAttributes resource = findResource(field);
+                if (resource != null) {
+                    collectResource(resource, field.getName(), ResolvableType.forField(field), dependencies);
+                }
+                else if (isInjectionPoint(field)) {
+                    collectCandidates(ResolvableType.forField(field), dependencies);
+                }
+            });
+            ReflectionUtils.doWithLocalMethods(targetClass, method -> {
+                if (Modifier.isStatic(method.getModifiers()) || isLazy(method)) {
+                    return;
+                }
+                AnnotationAttributes resource = findResource(method);
+                if (resource != null && method.getParameterCount() == 1) {
+                    PropertyDescriptor pd = BeanUtils.findPropertyForMethod(method, beanType);
+                    String name = (pd != null ? pd.getName() : method.getName());
+                    collectResource(resource, name, ResolvableType.forMethodParameter(method, 0), dependencies);
+                }
+                else if (isInjectionPoint(method)) {
+                    collectParameters(method, dependencies);
+                }
+            });
+            targetClass = targetClass.getSuperclass();
+        }
+    }
+
+    private void collectAutowiredProperties(Class<?> beanType, AbstractBeanDefinition bd, Set<String> dependencies) {
+        int autowireMode = bd.getResolvedAutowireMode();
+        if (autowireMode != AutowireCapableBeanFactory.AUTOWIRE_BY_NAME && autowireMode != AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE) {
+            return;
+        }
+        for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(beanType)) {
+            Method writeMethod = pd.getWriteMethod();
+            if (writeMethod == null || (bd.hasPropertyValues() && bd.getPropertyValues().contains(pd.getName())) ||
+                    BeanUtils.isSimpleProperty(pd.getPropertyType())) {
+                continue;
+            }
+            if (autowireMode == AutowireCapableBeanFactory.AUTOWIRE_BY_NAME) {
+                if (this.beanFactory.containsBean(pd.getName())) {
+                    dependencies.add(canonicalName(pd.getName()));
+                }
+            }
+            else {
+                collectCandidates(ResolvableType.forMethodParameter(writeMethod, 0), dependencies);
+            }
+        }
+    }
+
+    private void collectResource(AnnotationAttributes resource, String defaultName, ResolvableType type, Set<String> dependencies) {
+        String name = resource.getString("name");
+        if (!StringUtils.hasLength(name)) {
+            name = defaultName;
+        }
+        if (this.beanFactory.containsBean(name)) {
+            dependencies.add(canonicalName(name));
+        }
+        else {
+            collectCandidates(type, dependencies);
+        }
+    }
+
+    private void collectParameters(Executable executable, Set<String> dependencies) {
+        for (int i = 0; i < executable.getParameterCount(); i++) {
+            MethodParameter parameter = MethodParameter.forExecutable(executable, i);
+            if (!parameter.hasParameterAnnotation(Lazy.class)) {
+                collectCandidates(ResolvableType.forMethodParameter(parameter), dependencies);
+            }
+        }
+    }
+
+    /**
+     * 按类型找候选Bean，集合、数组、Map、Optional取元素类型
+     */
+    private void collectCandidates(ResolvableType type, Set<String> dependencies) {
+        Class<?> rawType = type.resolve();
+        if (rawType == null || ObjectFactory.class.isAssignableFrom(rawType) || PROVIDER_CLASS.equals(rawType.getName())) {
+            return;
+        }
+        ResolvableType candidateType = type;
+        if (rawType == Optional.class) {
+            candidateType = type.getGeneric(0);
+        }
+        else if (rawType.isArray()) {
+            candidateType = type.getComponentType();
+        }
+        else if (Collection.class.isAssignableFrom(rawType)) {
+            candidateType = type.asCollection().getGeneric(0);
+        }
+        else if (Map.class.isAssignableFrom(rawType)) {
+            candidateType = type.asMap().getGeneric(1);
+        }
+        Class<?> candidateClass = candidateType.resolve();
+        if (candidateClass == null || candidateClass == Object.class || BeanUtils.isSimpleProperty(candidateClass)) {
+            return;
+        }
+        for (String candidate : this.beanFactory.getBeanNamesForType(candidateClass, true, false)) {
+            dependencies.add(canonicalName(candidate));
+        }
+    }
+
+    private static boolean isInjectionPoint(AnnotatedElement element) {
+        if (AnnotatedElementUtils.hasAnnotation(element, Autowired.class)) {
+            return true;
+        }
+        for (Annotation annotation : element.getAnnotations()) {
+            if (INJECT_ANNOTATION.equals(annotation.annotationType().getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static AnnotationAttributes findResource(AnnotatedElement element) {
+        if (!jsr250Present) {
+            return null;
+        }
+        for (Annotation annotation : element.getAnnotations()) {
+            if (RESOURCE_ANNOTATION.equals(annotation.annotationType().getName())) {
+                return AnnotationUtils.getAnnotationAttributes(annotation, false, false);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLazy(AnnotatedElement element) {
+        return AnnotatedElementUtils.hasAnnotation(element, Lazy.class);
+    }
+
+    private String canonicalName(String name) {
+        String beanName = BeanFactoryUtils.transformedBeanName(name);
+        if (this.beanFactory instanceof SimpleAliasRegistry) {
+            return ((SimpleAliasRegistry) this.beanFactory).canonicalName(beanName);
+        }
+        return beanName;
+    }
+}
@@ -0,0 +1,1549 @@
+package cn.sue.spring.test.factory;
+
+import cn.sue.spring.test.metrics.LifecycleMetrics;
+import cn.sue.spring.test.metrics.LifecyclePhase;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValues;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.TypeConverter;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanCreationNotAllowedException;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.InjectionPoint;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.SmartFactoryBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.UnsatisfiedDependencyException;
+import org.springframework.beans.factory.annotation.InitDestroyAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanExpressionResolver;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.config.Scope;
+import org.springframework.beans.factory.config.SmartInstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionOverrideException;
+import org.springframework.beans.factory.support.BeanDefinitionValidationException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.MergedBeanDefinitionPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.expression.StandardBeanExpressionResolver;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.util.StringValueResolver;
+
+import java.beans.PropertyDescriptor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * 在DefaultListableBeanFactory上加一些可选的功能，不打开时和DefaultListableBeanFactory的行为一样：
+ * <ul>
+ * <li>{@link #setLifecycleMetrics}：记录每个Bean每个生命周期阶段的耗时</li>
+ * <li>{@link #setPreInstantiationParallelism}：按依赖图并行创建非懒加载的单例</li>
+ * <li>{@link TypeTargetedBeanPostProcessor}：按Bean的类型预先算好要调用的BeanPostProcessor，不匹配的不调用</li>
+ * <li>{@link #INIT_CALLBACK_ATTRIBUTE}/{@link #DESTROY_CALLBACK_ATTRIBUTE}：BeanDefinition上带了{@link BeanLifecycleCallback}时直接调用，不再反射查找init/destroy方法</li>
+ * <li>{@link #setCacheInjectionPlans}：原型Bean第一次创建时记下注入计划({@link InjectionPlan})，之后的创建直接照着做</li>
+ * <li>{@link #registerBeanDefinitions}：批量注册BeanDefinition，配合只保存非默认属性的{@link CompactBeanDefinition}</li>
+ * <li>{@link #setDestructionParallelism}/{@link #setDestroyTimeoutMillis}/{@link #setShutdownTimeoutMillis}：
+ * 关闭时按依赖关系的逆序并行销毁单例，带时限，结果见{@link #getShutdownReport}</li>
+ * </ul>
+ * 通过AnnotationConfigApplicationContext(DefaultListableBeanFactory)/GenericApplicationContext(DefaultListableBeanFactory)使用
+ * </p>
+ *
+ * @author Sue
+ * @className ExtendedBeanFactory
+ * @create 2023/5/19
+ **/
+public class ExtendedBeanFactory extends DefaultListableBeanFactory {
+
+    /**
+     * 值为{@link BeanLifecycleCallback}，代替反射调用BeanDefinition的initMethodName，调用时机不变(afterPropertiesSet之后)
+     */
+    public static final String INIT_CALLBACK_ATTRIBUTE = ExtendedBeanFactory.class.getName() + ".initCallback";
+
+    /**
+     * 值为{@link BeanLifecycleCallback}，单例和自定义作用域的Bean销毁时在DisposableBean.destroy()之后调用，相当于destroy-method；
+     * 和destroy-method一样，原型Bean不调用。用它时BeanDefinition不要再设置destroyMethodName
+     */
+    public static final String DESTROY_CALLBACK_ATTRIBUTE = ExtendedBeanFactory.class.getName() + ".destroyCallback";
+
+    // ApplicationContextAwareProcessor是包级私有的，只能按类名识别
+    private static final String APPLICATION_CONTEXT_AWARE_PROCESSOR =
+            "org.springframework.context.support.ApplicationContextAwareProcessor";
+
+    // 工厂方法返回null时的占位对象，同样是包级私有的
+    private static final String NULL_BEAN = "org.springframework.beans.factory.support.NullBean";
+
+    // RootBeanDefinition.allowCaching也是包级私有的，createBean(Class)/autowireBean等对缓存不安全的类会把它设成false
+    @Nullable
+    private static final Field ALLOW_CACHING_FIELD = ReflectionUtils.findField(RootBeanDefinition.class, "allowCaching", boolean.class);
+
+    static {
+        if (ALLOW_CACHING_FIELD != null) {
+            ReflectionUtils.makeAccessible(ALLOW_CACHING_FIELD);
+        }
+    }
+
+    // 等Bean锁时每隔多久检查一次是否死锁
+    private static final long DEADLOCK_CHECK_INTERVAL_MILLIS = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // 父类的同名常量是私有的
+    private static final int SUPPRESSED_EXCEPTIONS_LIMIT = 100;
+
+    @Nullable
+    private volatile LifecycleMetrics lifecycleMetrics;
+
+    private int preInstantiationParallelism = 1;
+
+    // 并行创建单例期间为true，这时单例的创建不再用全局锁，而是每个Bean一把锁
+    private volatile boolean parallelCreation;
+
+    private final Map<String, BeanLock> beanLocks = new ConcurrentHashMap<>();
+
+    // 正在创建的单例 -> 创建它的线程
+    private final Map<String, Thread> creatingThreads = new ConcurrentHashMap<>();
+
+    private final BeanPostProcessorDispatcher postProcessorDispatcher = new BeanPostProcessorDispatcher();
+
+    // registerDisposableBeanIfNecessary里要和父类生成的DisposableBeanAdapter合并的销毁回调
+    private final ThreadLocal<DisposableBean> pendingDestroyCallback = new ThreadLocal<>();
+
+    private volatile boolean cacheInjectionPlans;
+
+    // 原型Bean的名字 -> 注入计划
+    private final Map<String, InjectionPlan> injectionPlans = new ConcurrentHashMap<>();
+
+    // registerResolvableDependency注册的对象(ApplicationContext、BeanFactory等)，注入计划里可以直接复用
+    private final Set<Object> resolvableDependencyValues = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // 批量注册期间推迟的resetBeanDefinition，最后一起处理
+    private final ThreadLocal<Set<String>> deferredResets = new ThreadLocal<>();
+
+    private int destructionParallelism = 1;
+
+    // 有销毁回调的Bean，按注册顺序，和父类的disposableBeans一致
+    private final Set<String> disposableBeanNames = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    // 时限到了被跳过的Bean，父类再销毁它们时不调用销毁回调
+    private final Set<String> skippedDestroyCallbacks = ConcurrentHashMap.newKeySet();
+
+    // 并行销毁期间为true，像父类的destroySingletons一样禁止创建单例
+    private volatile boolean inParallelDestruction;
+
+    // destroySingletons执行期间(包括交给父类的部分)为true；并行创建单例不经过父类的getSingleton，要自己检查
+    private volatile boolean inDestruction;
+
+    // 并行创建单例时每个线程各自收集被压下的异常，相当于父类的suppressedExceptions
+    private final ThreadLocal<Set<Exception>> suppressedExceptions = new ThreadLocal<>();
+
+    private long destroyTimeoutMillis;
+
+    private long shutdownTimeoutMillis;
+
+    @Nullable
+    private volatile ShutdownReport shutdownReport;
+
+    public ExtendedBeanFactory() {
+    }
+
+    public ExtendedBeanFactory(@Nullable BeanFactory parentBeanFactory) {
+        super(parentBeanFactory);
+    }
+
+    /**
+     * 设置以后，之后创建和销毁的Bean都会按{@link LifecyclePhase}分阶段计时；为null时不计时
+     */
+    public void setLifecycleMetrics(@Nullable LifecycleMetrics lifecycleMetrics) {
+        this.lifecycleMetrics = lifecycleMetrics;
+    }
+
+    @Nullable
+    public LifecycleMetrics getLifecycleMetrics() {
+        return this.lifecycleMetrics;
+    }
+
+    /**
+     * 大于1时，preInstantiateSingletons先根据BeanDefinition和注入点建依赖图({@link DependencyGraphBuilder})，
+     * 再用这么多线程的ForkJoinPool并行创建互不依赖的单例：一个Bean的依赖都创建好以后才开始创建它，
+     * 循环依赖的Bean放在同一个线程里按注册顺序创建。默认为1，和DefaultListableBeanFactory一样逐个创建
+     */
+    public void setPreInstantiationParallelism(int preInstantiationParallelism) {
+        Assert.isTrue(preInstantiationParallelism > 0, "Parallelism must be positive");
+        this.preInstantiationParallelism = preInstantiationParallelism;
+    }
+
+    public int getPreInstantiationParallelism() {
+        return this.preInstantiationParallelism;
+    }
+
+    /**
+     * 打开以后，配置冻结(refresh完成)之后创建的原型Bean在第一次创建时记下注入计划：选中的构造方法、
+     * 每个注入点的值(@Value解析完占位符的字符串、单例Bean的名字、ApplicationContext这类固定对象)、init方法，
+     * 之后的创建直接用，不再重新挑构造方法、解析占位符、查找候选Bean。
+     * 带SpEL表达式的@Value、集合/Optional/ObjectProvider注入、原型依赖每次仍然重新解析；
+     * 计划建好以后Environment里属性的变化不会再反映到@Value上。默认关闭
+     */
+    public void setCacheInjectionPlans(boolean cacheInjectionPlans) {
+        this.cacheInjectionPlans = cacheInjectionPlans;
+        this.injectionPlans.clear();
+    }
+
+    public boolean isCacheInjectionPlans() {
+        return this.cacheInjectionPlans;
+    }
+
+    /**
+     * 大于1时，destroySingletons(关闭容器时)按依赖关系的逆序用这么多线程并行销毁单例：
+     * 一个Bean要等依赖它的Bean都销毁完才开始销毁，互不依赖的Bean同时销毁，循环依赖的Bean放在同一个线程里。
+     * 默认为1，这时如果没有设置时限，和DefaultListableBeanFactory一样逐个销毁
+     */
+    public void setDestructionParallelism(int destructionParallelism) {
+        Assert.isTrue(destructionParallelism > 0, "Parallelism must be positive");
+        this.destructionParallelism = destructionParallelism;
+    }
+
+    public int getDestructionParallelism() {
+        return this.destructionParallelism;
+    }
+
+    /**
+     * 单个Bean销毁回调的时限(毫秒)：超时的Bean记为{@link ShutdownReport.Outcome#TIMED_OUT}，不再等它，
+     * 接着销毁它依赖的Bean，回调本身在后台线程上继续执行，整个销毁结束时被中断。0表示不限
+     */
+    public void setDestroyTimeoutMillis(long destroyTimeoutMillis) {
+        Assert.isTrue(destroyTimeoutMillis >= 0, "Timeout must not be negative");
+        this.destroyTimeoutMillis = destroyTimeoutMillis;
+    }
+
+    public long getDestroyTimeoutMillis() {
+        return this.destroyTimeoutMillis;
+    }
+
+    /**
+     * 整个销毁过程的时限(毫秒)：到时间还没开始销毁的Bean不再调用销毁回调(记为{@link ShutdownReport.Outcome#SKIPPED})，
+     * 直接清掉，还在执行的销毁回调会被中断。0表示不限
+     */
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        Assert.isTrue(shutdownTimeoutMillis >= 0, "Timeout must not be negative");
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return this.shutdownTimeoutMillis;
+    }
+
+    /**
+     * 最近一次并行销毁的结果，逐个销毁时为null
+     */
+    @Nullable
+    public ShutdownReport getShutdownReport() {
+        return this.shutdownReport;
+    }
+
+    /**
+     * 批量注册BeanDefinition，效果和按顺序逐个registerBeanDefinition一样(每个定义都经过registerBeanDefinition)，
+     * 但覆盖已有定义、和手动注册的单例同名时要重置的合并定义、单例、子定义攒到最后统一处理，
+     * 查找子定义只遍历一次所有定义。
+     * 注册之前先校验全部定义、检查是否允许覆盖，有一个不合法就一个都不注册。
+     * 注册新名字没有省下什么：Bean开始创建以后父类每注册一个都要复制一遍beanDefinitionNames，
+     * 配置冻结以后每注册一个都要清一次按类型查找的缓存，父类没有批量做这些的方法
+     */
+    public void registerBeanDefinitions(Map<String, ? extends BeanDefinition> beanDefinitions) throws BeanDefinitionStoreException {
+        Assert.notNull(beanDefinitions, "Bean definitions must not be null");
+        for (Map.Entry<String, ? extends BeanDefinition> entry : beanDefinitions.entrySet()) {
+            String beanName = entry.getKey();
+            BeanDefinition beanDefinition = entry.getValue();
+            Assert.hasText(beanName, "Bean name must not be empty");
+            Assert.notNull(beanDefinition, "BeanDefinition must not be null");
+            if (beanDefinition instanceof AbstractBeanDefinition) {
+                try {
+                    ((AbstractBeanDefinition) beanDefinition).validate();
+                }
+                catch (BeanDefinitionValidationException ex) {
+                    throw new BeanDefinitionStoreException(beanDefinition.getResourceDescription(), beanName,
+                            "Validation of bean definition failed", ex);
+                }
+            }
+            if (containsBeanDefinition(beanName) && !isAllowBeanDefinitionOverriding()) {
+                throw new BeanDefinitionOverrideException(beanName, beanDefinition, getBeanDefinition(beanName));
+            }
+        }
+
+        Set<String> resets = new LinkedHashSet<>();
+        this.deferredResets.set(resets);
+        try {
+            beanDefinitions.forEach(this::registerBeanDefinition);
+        }
+        finally {
+            this.deferredResets.remove();
+        }
+        resetBeanDefinitions(resets);
+    }
+
+    /**
+     * 和resetBeanDefinition一样，但所有名字的子定义只找一遍
+     */
+    private void resetBeanDefinitions(Set<String> beanNames) {
+        if (beanNames.isEmpty()) {
+            return;
+        }
+        for (String beanName : beanNames) {
+            this.injectionPlans.remove(beanName);
+            clearMergedBeanDefinition(beanName);
+            destroySingleton(beanName);
+            for (BeanPostProcessor processor : getBeanPostProcessors()) {
+                if (processor instanceof MergedBeanDefinitionPostProcessor) {
+                    ((MergedBeanDefinitionPostProcessor) processor).resetBeanDefinition(beanName);
+                }
+            }
+        }
+        for (String name : getBeanDefinitionNames()) {
+            if (!beanNames.contains(name)) {
+                BeanDefinition definition = getBeanDefinition(name);
+                if (definition.getParentName() != null && beanNames.contains(definition.getParentName())) {
+                    resetBeanDefinition(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * CompactBeanDefinition先还原成GenericBeanDefinition再合并，
+     * RootBeanDefinition复制非AbstractBeanDefinition时会丢掉init/destroy方法、自动装配模式等属性
+     */
+    @Override
+    protected RootBeanDefinition getMergedBeanDefinition(String beanName, BeanDefinition bd, @Nullable BeanDefinition containingBd)
+            throws BeanDefinitionStoreException {
+        if (bd instanceof CompactBeanDefinition) {
+            bd = ((CompactBeanDefinition) bd).toBeanDefinition();
+        }
+        return super.getMergedBeanDefinition(beanName, bd, containingBd);
+    }
+
+    @Override
+    public void preInstantiateSingletons() throws BeansException {
+        if (this.preInstantiationParallelism <= 1) {
+            super.preInstantiateSingletons();
+            return;
+        }
+        List<String> beanNames = new ArrayList<>();
+        for (String beanName : getBeanDefinitionNames()) {
+            RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+            if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+                beanNames.add(beanName);
+            }
+        }
+        BeanDependencyGraph graph = new DependencyGraphBuilder(this).build(beanNames);
+        if (logger.isDebugEnabled()) {
+            for (List<String> cycle : graph.cycles()) {
+                logger.debug("Beans " + cycle + " depend on each other, creating them on one thread in registration order");
+            }
+        }
+        createInParallel(graph);
+
+        for (String beanName : beanNames) {
+            Object singletonInstance = getSingleton(beanName);
+            if (singletonInstance instanceof SmartInitializingSingleton) {
+                ((SmartInitializingSingleton) singletonInstance).afterSingletonsInstantiated();
+            }
+        }
+    }
+
+    private void createInParallel(BeanDependencyGraph graph) {
+        ClassLoader beanClassLoader = getBeanClassLoader();
+        ForkJoinPool pool = new ForkJoinPool(this.preInstantiationParallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("bean-init-" + thread.getPoolIndex());
+            thread.setContextClassLoader(beanClassLoader);
+            return thread;
+        }, null, false);
+        Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        this.parallelCreation = true;
+        try {
+            // 依赖所在的分量一定排在前面，所以这里需要的future都已经建好了
+            for (List<String> component : graph.stronglyConnectedComponents()) {
+                Set<CompletableFuture<Void>> dependencies = new LinkedHashSet<>();
+                for (String beanName : component) {
+                    for (String dependency : graph.getDependencies(beanName)) {
+                        if (!component.contains(dependency)) {
+                            dependencies.add(futures.get(dependency));
+                        }
+                    }
+                }
+                CompletableFuture<Void> ready = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]));
+                CompletableFuture<Void> created = ready.thenRunAsync(() -> {
+                    for (String beanName : component) {
+                        if (!failures.isEmpty()) {
+                            return;
+                        }
+                        try {
+                            preInstantiate(beanName);
+                        }
+                        catch (Throwable ex) {
+                            failures.put(beanName, ex);
+                            throw ex;
+                        }
+                    }
+                }, pool);
+                for (String beanName : component) {
+                    futures.put(beanName, created);
+                }
+            }
+            try {
+                CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+            }
+            catch (CompletionException ex) {
+                // 具体的异常在failures里
+            }
+        }
+        finally {
+            this.parallelCreation = false;
+            this.beanLocks.clear();
+            pool.shutdown();
+        }
+        // 多个Bean失败时，报注册顺序最靠前的那个，每次结果一样
+        for (String beanName : graph.getNodes()) {
+            Throwable failure = failures.get(beanName);
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    /**
+     * 和DefaultListableBeanFactory.preInstantiateSingletons里对单个Bean的处理一样
+     */
+    private void preInstantiate(String beanName) {
+        if (isFactoryBean(beanName)) {
+            Object bean = getBean(FACTORY_BEAN_PREFIX + beanName);
+            if (bean instanceof SmartFactoryBean && ((SmartFactoryBean<?>) bean).isEagerInit()) {
+                getBean(beanName);
+            }
+        }
+        else {
+            getBean(beanName);
+        }
+    }
+
+    /**
+     * 并行创建时，别的线程正在创建的Bean不能直接拿提前暴露的半成品，返回null让调用方走到getSingleton(beanName, singletonFactory)里等它创建完
+     */
+    @Override
+    @Nullable
+    protected Object getSingleton(String beanName, boolean allowEarlyReference) {
+        if (this.parallelCreation) {
+            Thread creator = this.creatingThreads.get(beanName);
+            if (creator != null && creator != Thread.currentThread()) {
+                return null;
+            }
+        }
+        return super.getSingleton(beanName, allowEarlyReference);
+    }
+
+    /**
+     * 父类在创建单例的整个过程中都持有全局锁，并行创建时改成每个Bean一把锁。
+     * 等锁会形成死锁时(两个线程各自创建的Bean互相依赖，依赖图里没分析出来)，和单线程的循环依赖一样返回提前暴露的引用；
+     * 没有提前暴露的引用(构造方法循环依赖)时抛BeanCurrentlyInCreationException。
+     * 其余和父类一样：销毁单例期间不允许创建，创建失败时把过程中被压下的异常附在抛出的BeanCreationException上
+     */
+    @Override
+    public Object getSingleton(String beanName, ObjectFactory<?> singletonFactory) {
+        if (!this.parallelCreation) {
+            return super.getSingleton(beanName, singletonFactory);
+        }
+        BeanLock lock = this.beanLocks.computeIfAbsent(beanName, key -> new BeanLock());
+        if (!acquire(lock, beanName)) {
+            Object earlyReference = super.getSingleton(beanName, true);
+            if (earlyReference != null) {
+                return earlyReference;
+            }
+            throw new BeanCurrentlyInCreationException(beanName, "Circular reference between beans created on different threads " +
+                    "during parallel pre-instantiation: declare the dependency with depends-on or disable parallel pre-instantiation");
+        }
+        Thread previousCreator = null;
+        try {
+            if (containsSingleton(beanName)) {
+                return super.getSingleton(beanName, false);
+            }
+            if (this.inDestruction) {
+                throw new BeanCreationNotAllowedException(beanName,
+                        "Singleton bean creation not allowed while singletons of this factory are in destruction " +
+                        "(Do not request a bean from a BeanFactory in a destroy method implementation!)");
+            }
+            previousCreator = this.creatingThreads.put(beanName, Thread.currentThread());
+            beforeSingletonCreation(beanName);
+            Object singletonObject;
+            boolean newSingleton = false;
+            boolean recordSuppressedExceptions = (this.suppressedExceptions.get() == null);
+            if (recordSuppressedExceptions) {
+                this.suppressedExceptions.set(new LinkedHashSet<>());
+            }
+            try {
+                singletonObject = singletonFactory.getObject();
+                newSingleton = true;
+            }
+            catch (IllegalStateException ex) {
+                singletonObject = super.getSingleton(beanName, false);
+                if (singletonObject == null) {
+                    throw ex;
+                }
+            }
+            catch (BeanCreationException ex) {
+                if (recordSuppressedExceptions) {
+                    for (Exception suppressedException : this.suppressedExceptions.get()) {
+                        ex.addRelatedCause(suppressedException);
+                    }
+                }
+                throw ex;
+            }
+            finally {
+                if (recordSuppressedExceptions) {
+                    this.suppressedExceptions.remove();
+                }
+                afterSingletonCreation(beanName);
+            }
+            if (newSingleton) {
+                addSingleton(beanName, singletonObject);
+            }
+            return singletonObject;
+        }
+        finally {
+            if (previousCreator == null) {
+                this.creatingThreads.remove(beanName);
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 和父类一样最多记100个
+     */
+    @Override
+    protected void onSuppressedException(Exception ex) {
+        Set<Exception> suppressed = this.suppressedExceptions.get();
+        if (suppressed == null) {
+            super.onSuppressedException(ex);
+        }
+        else if (suppressed.size() < SUPPRESSED_EXCEPTIONS_LIMIT) {
+            suppressed.add(ex);
+        }
+    }
+
+    /**
+     * @return 是否拿到了锁，false表示继续等会死锁
+     */
+    private boolean acquire(BeanLock lock, String beanName) {
+        if (lock.tryLock()) {
+            return true;
+        }
+        try {
+            while (!lock.tryLock(DEADLOCK_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (waitWouldDeadlock(lock)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BeanCreationException(beanName, "Interrupted while waiting for another thread to create the bean");
+        }
+    }
+
+    /**
+     * 沿着"持有锁的线程正在等哪个线程"往下找，找回到当前线程就是死锁。
+     * 用ThreadMXBean而不是只看Bean锁，这样在FactoryBean等地方持有全局单例锁的情况也能发现
+     */
+    private static boolean waitWouldDeadlock(BeanLock lock) {
+        Thread owner = lock.getOwnerThread();
+        if (owner == null) {
+            return false;
+        }
+        long self = Thread.currentThread().getId();
+        Set<Long> seen = new HashSet<>();
+        long threadId = owner.getId();
+        while (threadId != -1) {
+            if (threadId == self) {
+                return true;
+            }
+            if (!seen.add(threadId)) {
+                return false;
+            }
+            ThreadInfo info = THREADS.getThreadInfo(threadId);
+            if (info == null) {
+                return false;
+            }
+            threadId = info.getLockOwnerId();
+        }
+        return false;
+    }
+
+    @Override
+    protected Object createBean(String beanName, RootBeanDefinition mbd, @Nullable Object[] args) throws BeanCreationException {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            return super.createBean(beanName, mbd, args);
+        }
+        LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.OTHER);
+        try {
+            return super.createBean(beanName, mbd, args);
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    @Override
+    protected BeanWrapper createBeanInstance(String beanName, RootBeanDefinition mbd, @Nullable Object[] args) {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            return doCreateBeanInstance(beanName, mbd, args);
+        }
+        LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.INSTANTIATION);
+        try {
+            return doCreateBeanInstance(beanName, mbd, args);
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    private BeanWrapper doCreateBeanInstance(String beanName, RootBeanDefinition mbd, @Nullable Object[] args) {
+        InjectionPlan plan = (args == null ? obtainInjectionPlan(beanName, mbd) : null);
+        if (plan == null) {
+            return super.createBeanInstance(beanName, mbd, args);
+        }
+        Constructor<?> constructor = plan.getConstructor();
+        if (constructor != null) {
+            return instantiateWithPlan(beanName, mbd, plan, constructor);
+        }
+        BeanWrapper bw = super.createBeanInstance(beanName, mbd, args);
+        if (!plan.isConstructorDetermined()) {
+            plan.setConstructor(determinePlanConstructor(beanName, mbd, bw.getWrappedClass()));
+        }
+        return bw;
+    }
+
+    /**
+     * 只有父类会直接调用某一个构造方法的情况才能缓存：没有instanceSupplier、工厂方法、lookup方法、显式的构造参数，
+     * 并且BeanPostProcessor只给出了一个候选构造方法(@Autowired或者唯一的构造方法)，或者只用默认构造方法
+     */
+    @Nullable
+    private Constructor<?> determinePlanConstructor(String beanName, RootBeanDefinition mbd, Class<?> instanceClass) {
+        if (mbd.getInstanceSupplier() != null || mbd.getFactoryMethodName() != null || mbd.hasMethodOverrides() ||
+                mbd.hasConstructorArgumentValues() || mbd.getPreferredConstructors() != null ||
+                !mbd.hasBeanClass() || mbd.getBeanClass() != instanceClass) {
+            return null;
+        }
+        Constructor<?>[] candidates = determineConstructorsFromBeanPostProcessors(instanceClass, beanName);
+        if (candidates != null) {
+            return (candidates.length == 1 ? candidates[0] : null);
+        }
+        if (mbd.getResolvedAutowireMode() == AUTOWIRE_CONSTRUCTOR) {
+            return null;
+        }
+        try {
+            return instanceClass.getDeclaredConstructor();
+        }
+        catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private BeanWrapper instantiateWithPlan(String beanName, RootBeanDefinition mbd, InjectionPlan plan, Constructor<?> constructor) {
+        DependencyDescriptor[] parameters = plan.getConstructorParameters();
+        Object[] arguments = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            try {
+                arguments[i] = resolveDependency(parameters[i], beanName, null, null);
+            }
+            catch (BeansException ex) {
+                throw new UnsatisfiedDependencyException(mbd.getResourceDescription(), beanName, new InjectionPoint(parameters[i].getMethodParameter()), ex);
+            }
+        }
+        Object instance;
+        try {
+            instance = getInstantiationStrategy().instantiate(mbd, beanName, this, constructor, arguments);
+        }
+        catch (Throwable ex) {
+            throw new BeanCreationException(mbd.getResourceDescription(), beanName, "Bean instantiation via constructor failed", ex);
+        }
+        BeanWrapper bw = new BeanWrapperImpl(instance);
+        initBeanWrapper(bw);
+        return bw;
+    }
+
+    /**
+     * 配置冻结以后的原型Bean才建注入计划，BeanDefinition重新合并过的换一个新计划
+     */
+    @Nullable
+    private InjectionPlan obtainInjectionPlan(String beanName, RootBeanDefinition mbd) {
+        if (!this.cacheInjectionPlans || !mbd.isPrototype() || !isConfigurationFrozen()) {
+            return null;
+        }
+        InjectionPlan plan = this.injectionPlans.get(beanName);
+        if (plan == null || plan.mbd != mbd) {
+            plan = new InjectionPlan(mbd);
+            this.injectionPlans.put(beanName, plan);
+        }
+        return plan;
+    }
+
+    @Nullable
+    InjectionPlan getInjectionPlan(String beanName) {
+        return this.injectionPlans.get(beanName);
+    }
+
+    @Nullable
+    private InjectionPlan currentInjectionPlan(String beanName, RootBeanDefinition mbd) {
+        InjectionPlan plan = (this.cacheInjectionPlans ? this.injectionPlans.get(beanName) : null);
+        return (plan != null && plan.mbd == mbd ? plan : null);
+    }
+
+    /**
+     * 给原型Bean注入时，能缓存的注入点第一次照常解析，同时记下值从哪来，之后直接取
+     */
+    @Override
+    @Nullable
+    public Object resolveDependency(DependencyDescriptor descriptor, @Nullable String requestingBeanName,
+            @Nullable Set<String> autowiredBeanNames, @Nullable TypeConverter typeConverter) throws BeansException {
+        InjectionPlan plan = (requestingBeanName != null && this.cacheInjectionPlans ? this.injectionPlans.get(requestingBeanName) : null);
+        if (plan == null) {
+            return super.resolveDependency(descriptor, requestingBeanName, autowiredBeanNames, typeConverter);
+        }
+        InjectionPlan.ValueSource valueSource = plan.getValueSource(descriptor);
+        if (valueSource == InjectionPlan.ValueSource.UNCACHEABLE) {
+            return super.resolveDependency(descriptor, requestingBeanName, autowiredBeanNames, typeConverter);
+        }
+        if (valueSource != null) {
+            return valueSource.resolve(autowiredBeanNames, typeConverter);
+        }
+        Set<String> beanNames = (autowiredBeanNames != null ? autowiredBeanNames : new LinkedHashSet<>(2));
+        Object value = super.resolveDependency(descriptor, requestingBeanName, beanNames, typeConverter);
+        plan.addValueSource(descriptor, valueSourceFor(descriptor, value, beanNames));
+        return value;
+    }
+
+    private InjectionPlan.ValueSource valueSourceFor(DependencyDescriptor descriptor, @Nullable Object value, Set<String> autowiredBeanNames) {
+        Class<?> type = descriptor.getDependencyType();
+        if (value == null || !ClassUtils.isAssignableValue(type, value) || Optional.class == type ||
+                ObjectFactory.class.isAssignableFrom(type) || type.getName().equals("javax.inject.Provider")) {
+            return InjectionPlan.ValueSource.UNCACHEABLE;
+        }
+        Object suggestedValue = getAutowireCandidateResolver().getSuggestedValue(descriptor);
+        if (suggestedValue != null) {
+            return valueSourceForValueAnnotation(descriptor, suggestedValue, value);
+        }
+        if (this.resolvableDependencyValues.contains(value)) {
+            return (names, typeConverter) -> value;
+        }
+        if (autowiredBeanNames.size() == 1) {
+            String beanName = autowiredBeanNames.iterator().next();
+            if (containsSingleton(beanName) && isSingleton(beanName) && getBean(beanName) == value) {
+                return (names, typeConverter) -> {
+                    if (names != null) {
+                        names.add(beanName);
+                    }
+                    return getBean(beanName);
+                };
+            }
+        }
+        return InjectionPlan.ValueSource.UNCACHEABLE;
+    }
+
+    /**
+     * 占位符解析的结果直接缓存；SpEL表达式每次求值的结果可能不一样，不缓存。
+     * 字符串、基本类型、枚举这些不可变的值连转换结果一起缓存，其它类型每次都转换出一个新对象，和父类一样
+     */
+    private InjectionPlan.ValueSource valueSourceForValueAnnotation(DependencyDescriptor descriptor, Object suggestedValue, Object value) {
+        BeanExpressionResolver expressionResolver = getBeanExpressionResolver();
+        if (!(suggestedValue instanceof String) || (expressionResolver != null &&
+                (!(expressionResolver instanceof StandardBeanExpressionResolver) ||
+                        ((String) suggestedValue).contains(StandardBeanExpressionResolver.DEFAULT_EXPRESSION_PREFIX)))) {
+            return InjectionPlan.ValueSource.UNCACHEABLE;
+        }
+        Class<?> type = descriptor.getDependencyType();
+        if (String.class == type || ClassUtils.isPrimitiveOrWrapper(type) || type.isEnum()) {
+            return (names, typeConverter) -> value;
+        }
+        String resolvedValue = resolveEmbeddedValue((String) suggestedValue);
+        if (resolvedValue == null) {
+            return InjectionPlan.ValueSource.UNCACHEABLE;
+        }
+        return (names, typeConverter) -> {
+            TypeConverter converter = (typeConverter != null ? typeConverter : getTypeConverter());
+            try {
+                return converter.convertIfNecessary(resolvedValue, type, descriptor.getTypeDescriptor());
+            }
+            catch (UnsupportedOperationException ex) {
+                return (descriptor.getField() != null ?
+                        converter.convertIfNecessary(resolvedValue, type, descriptor.getField()) :
+                        converter.convertIfNecessary(resolvedValue, type, descriptor.getMethodParameter()));
+            }
+        };
+    }
+
+    @Override
+    public void registerResolvableDependency(Class<?> dependencyType, @Nullable Object autowiredValue) {
+        super.registerResolvableDependency(dependencyType, autowiredValue);
+        if (autowiredValue != null) {
+            this.resolvableDependencyValues.add(autowiredValue);
+        }
+        this.injectionPlans.clear();
+    }
+
+    @Override
+    public void addEmbeddedValueResolver(StringValueResolver valueResolver) {
+        super.addEmbeddedValueResolver(valueResolver);
+        this.injectionPlans.clear();
+    }
+
+    @Override
+    protected void resetBeanDefinition(String beanName) {
+        Set<String> deferred = this.deferredResets.get();
+        if (deferred != null) {
+            deferred.add(beanName);
+            return;
+        }
+        this.injectionPlans.remove(beanName);
+        super.resetBeanDefinition(beanName);
+    }
+
+    @Override
+    protected void populateBean(String beanName, RootBeanDefinition mbd, @Nullable BeanWrapper bw) {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            doPopulateBean(beanName, mbd, bw);
+            return;
+        }
+        LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.POPULATION);
+        try {
+            doPopulateBean(beanName, mbd, bw);
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * 和父类的populateBean一样，只是InstantiationAwareBeanPostProcessor换成按Bean类型筛选过的
+     */
+    @SuppressWarnings("deprecation")
+    private void doPopulateBean(String beanName, RootBeanDefinition mbd, @Nullable BeanWrapper bw) {
+        if (bw == null) {
+            if (mbd.hasPropertyValues()) {
+                throw new BeanCreationException(
+                        mbd.getResourceDescription(), beanName, "Cannot apply property values to null instance");
+            }
+            return;
+        }
+        Object bean = bw.getWrappedInstance();
+        List<InstantiationAwareBeanPostProcessor> processors =
+                (hasInstantiationAwareBeanPostProcessors() ? getPostProcessorPlan(bean.getClass()).instantiationAware : null);
+
+        if (!mbd.isSynthetic() && processors != null) {
+            for (InstantiationAwareBeanPostProcessor processor : processors) {
+                if (!processor.postProcessAfterInstantiation(bean, beanName)) {
+                    return;
+                }
+            }
+        }
+
+        PropertyValues pvs = (mbd.hasPropertyValues() ? mbd.getPropertyValues() : null);
+        int resolvedAutowireMode = mbd.getResolvedAutowireMode();
+        if (resolvedAutowireMode == AUTOWIRE_BY_NAME || resolvedAutowireMode == AUTOWIRE_BY_TYPE) {
+            MutablePropertyValues newPvs = new MutablePropertyValues(pvs);
+            if (resolvedAutowireMode == AUTOWIRE_BY_NAME) {
+                autowireByName(beanName, mbd, bw, newPvs);
+            }
+            if (resolvedAutowireMode == AUTOWIRE_BY_TYPE) {
+                autowireByType(beanName, mbd, bw, newPvs);
+            }
+            pvs = newPvs;
+        }
+
+        boolean needsDepCheck = (mbd.getDependencyCheck() != AbstractBeanDefinition.DEPENDENCY_CHECK_NONE);
+        PropertyDescriptor[] filteredPds = null;
+        if (processors != null) {
+            if (pvs == null) {
+                pvs = mbd.getPropertyValues();
+            }
+            for (InstantiationAwareBeanPostProcessor processor : processors) {
+                PropertyValues pvsToUse = processor.postProcessProperties(pvs, bean, beanName);
+                if (pvsToUse == null) {
+                    if (filteredPds == null) {
+                        filteredPds = filterPropertyDescriptorsForDependencyCheck(bw, allowCaching(mbd));
+                    }
+                    pvsToUse = processor.postProcessPropertyValues(pvs, filteredPds, bean, beanName);
+                    if (pvsToUse == null) {
+                        return;
+                    }
+                }
+                pvs = pvsToUse;
+            }
+        }
+        if (needsDepCheck) {
+            if (filteredPds == null) {
+                filteredPds = filterPropertyDescriptorsForDependencyCheck(bw, allowCaching(mbd));
+            }
+            checkDependencies(beanName, mbd, filteredPds, pvs);
+        }
+        if (pvs != null) {
+            applyPropertyValues(beanName, mbd, bw, pvs);
+        }
+    }
+
+    private static boolean allowCaching(RootBeanDefinition mbd) {
+        return (ALLOW_CACHING_FIELD == null || (boolean) ReflectionUtils.getField(ALLOW_CACHING_FIELD, mbd));
+    }
+
+    /**
+     * 和父类的流程一样，只是把Aware回调、初始化前后的BeanPostProcessor、init方法拆开计时
+     */
+    @Override
+    protected Object initializeBean(String beanName, Object bean, @Nullable RootBeanDefinition mbd) {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            return super.initializeBean(beanName, bean, mbd);
+        }
+        LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.AWARE);
+        try {
+            invokeAwareMethods(beanName, bean);
+        }
+        finally {
+            timer.stop();
+        }
+
+        Object wrappedBean = bean;
+        if (mbd == null || !mbd.isSynthetic()) {
+            wrappedBean = applyBeanPostProcessorsBeforeInitialization(wrappedBean, beanName);
+        }
+
+        try {
+            invokeInitMethods(beanName, wrappedBean, mbd);
+        }
+        catch (Throwable ex) {
+            throw new BeanCreationException(
+                    (mbd != null ? mbd.getResourceDescription() : null),
+                    beanName, "Invocation of init method failed", ex);
+        }
+
+        if (mbd == null || !mbd.isSynthetic()) {
+            wrappedBean = applyBeanPostProcessorsAfterInitialization(wrappedBean, beanName);
+        }
+        return wrappedBean;
+    }
+
+    private void invokeAwareMethods(String beanName, Object bean) {
+        if (bean instanceof BeanNameAware) {
+            ((BeanNameAware) bean).setBeanName(beanName);
+        }
+        if (bean instanceof BeanClassLoaderAware) {
+            ClassLoader beanClassLoader = getBeanClassLoader();
+            if (beanClassLoader != null) {
+                ((BeanClassLoaderAware) bean).setBeanClassLoader(beanClassLoader);
+            }
+        }
+        if (bean instanceof BeanFactoryAware) {
+            ((BeanFactoryAware) bean).setBeanFactory(this);
+        }
+    }
+
+    @Override
+    public Object applyBeanPostProcessorsBeforeInitialization(Object existingBean, String beanName) throws BeansException {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        Object result = existingBean;
+        for (BeanPostProcessor processor : getPostProcessorPlan(existingBean.getClass()).processors) {
+            LifecycleMetrics.Timer timer = (metrics != null ? metrics.start(beanName, phaseOf(processor)) : null);
+            Object current;
+            try {
+                current = processor.postProcessBeforeInitialization(result, beanName);
+            }
+            finally {
+                if (timer != null) {
+                    timer.stop();
+                }
+            }
+            if (current == null) {
+                return result;
+            }
+            result = current;
+        }
+        return result;
+    }
+
+    private static LifecyclePhase phaseOf(BeanPostProcessor processor) {
+        if (processor instanceof InitDestroyAnnotationBeanPostProcessor) {
+            return LifecyclePhase.POST_CONSTRUCT;
+        }
+        if (APPLICATION_CONTEXT_AWARE_PROCESSOR.equals(processor.getClass().getName())) {
+            return LifecyclePhase.AWARE;
+        }
+        return LifecyclePhase.BEFORE_INITIALIZATION;
+    }
+
+    @Override
+    public Object applyBeanPostProcessorsAfterInitialization(Object existingBean, String beanName) throws BeansException {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            return doApplyBeanPostProcessorsAfterInitialization(existingBean, beanName);
+        }
+        LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.AFTER_INITIALIZATION);
+        try {
+            return doApplyBeanPostProcessorsAfterInitialization(existingBean, beanName);
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    private Object doApplyBeanPostProcessorsAfterInitialization(Object existingBean, String beanName) {
+        Object result = existingBean;
+        for (BeanPostProcessor processor : getPostProcessorPlan(existingBean.getClass()).processors) {
+            Object current = processor.postProcessAfterInitialization(result, beanName);
+            if (current == null) {
+                return result;
+            }
+            result = current;
+        }
+        return result;
+    }
+
+    @Override
+    @Nullable
+    protected Object applyBeanPostProcessorsBeforeInstantiation(Class<?> beanClass, String beanName) {
+        for (InstantiationAwareBeanPostProcessor processor : getPostProcessorPlan(beanClass).beforeInstantiation) {
+            Object result = processor.postProcessBeforeInstantiation(beanClass, beanName);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    protected Constructor<?>[] determineConstructorsFromBeanPostProcessors(@Nullable Class<?> beanClass, String beanName)
+            throws BeansException {
+        if (beanClass == null || !hasInstantiationAwareBeanPostProcessors()) {
+            return null;
+        }
+        for (SmartInstantiationAwareBeanPostProcessor processor : getPostProcessorPlan(beanClass).smartInstantiationAware) {
+            Constructor<?>[] constructors = processor.determineCandidateConstructors(beanClass, beanName);
+            if (constructors != null) {
+                return constructors;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void applyMergedBeanDefinitionPostProcessors(RootBeanDefinition mbd, Class<?> beanType, String beanName) {
+        for (MergedBeanDefinitionPostProcessor processor : getPostProcessorPlan(beanType).mergedDefinition) {
+            processor.postProcessMergedBeanDefinition(mbd, beanType, beanName);
+        }
+    }
+
+    @Override
+    protected Object getEarlyBeanReference(String beanName, RootBeanDefinition mbd, Object bean) {
+        Object exposedObject = bean;
+        if (!mbd.isSynthetic() && hasInstantiationAwareBeanPostProcessors()) {
+            for (SmartInstantiationAwareBeanPostProcessor processor : getPostProcessorPlan(bean.getClass()).smartInstantiationAware) {
+                exposedObject = processor.getEarlyBeanReference(exposedObject, beanName);
+            }
+        }
+        return exposedObject;
+    }
+
+    @Override
+    public void addBeanPostProcessor(BeanPostProcessor beanPostProcessor) {
+        super.addBeanPostProcessor(beanPostProcessor);
+        this.postProcessorDispatcher.invalidate();
+        this.injectionPlans.clear();
+    }
+
+    /**
+     * 这个类型的Bean要调用的BeanPostProcessor，同一类型的Bean(比如同一个原型Bean的多次创建)共用一份
+     */
+    BeanPostProcessorDispatcher.Plan getPostProcessorPlan(Class<?> beanClass) {
+        return this.postProcessorDispatcher.getPlan(getBeanPostProcessors(), beanClass);
+    }
+
+    /**
+     * 和父类一样先afterPropertiesSet再init-method，分开计时
+     */
+    @Override
+    protected void invokeInitMethods(String beanName, Object bean, @Nullable RootBeanDefinition mbd) throws Throwable {
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        if (metrics == null) {
+            super.invokeInitMethods(beanName, bean, mbd);
+            return;
+        }
+        boolean isInitializingBean = (bean instanceof InitializingBean);
+        if (isInitializingBean && (mbd == null || !mbd.isExternallyManagedInitMethod("afterPropertiesSet"))) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Invoking afterPropertiesSet() on bean with name '" + beanName + "'");
+            }
+            LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.AFTER_PROPERTIES_SET);
+            try {
+                ((InitializingBean) bean).afterPropertiesSet();
+            }
+            finally {
+                timer.stop();
+            }
+        }
+        if (mbd != null && !NULL_BEAN.equals(bean.getClass().getName())) {
+            String initMethodName = mbd.getInitMethodName();
+            if (StringUtils.hasLength(initMethodName) &&
+                    !(isInitializingBean && "afterPropertiesSet".equals(initMethodName)) &&
+                    !mbd.isExternallyManagedInitMethod(initMethodName)) {
+                LifecycleMetrics.Timer timer = metrics.start(beanName, LifecyclePhase.INIT_METHOD);
+                try {
+                    invokeCustomInitMethod(beanName, bean, mbd);
+                }
+                finally {
+                    timer.stop();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void invokeCustomInitMethod(String beanName, Object bean, RootBeanDefinition mbd) throws Throwable {
+        Object callback = mbd.getAttribute(INIT_CALLBACK_ATTRIBUTE);
+        if (!(callback instanceof BeanLifecycleCallback)) {
+            InjectionPlan plan = currentInjectionPlan(beanName, mbd);
+            if (plan == null || !plan.invokeInitMethod(bean)) {
+                super.invokeCustomInitMethod(beanName, bean, mbd);
+            }
+            return;
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Invoking init method callback '" + mbd.getInitMethodName() + "' on bean with name '" + beanName + "'");
+        }
+        ((BeanLifecycleCallback) callback).invoke(bean);
+    }
+
+    /**
+     * 带{@link #DESTROY_CALLBACK_ATTRIBUTE}的单例：父类需要注册DisposableBeanAdapter(DisposableBean、@PreDestroy等)时和它合并，
+     * 先执行父类的销毁逻辑再执行回调；不需要时只注册回调。自定义作用域的Bean同样合并后登记到作用域的销毁回调里
+     */
+    @Override
+    protected void registerDisposableBeanIfNecessary(String beanName, Object bean, RootBeanDefinition mbd) {
+        Object callback = mbd.getAttribute(DESTROY_CALLBACK_ATTRIBUTE);
+        if (!(callback instanceof BeanLifecycleCallback) || mbd.isPrototype()) {
+            super.registerDisposableBeanIfNecessary(beanName, bean, mbd);
+            return;
+        }
+        DisposableBean destroyCallback = () -> ((BeanLifecycleCallback) callback).invoke(bean);
+        if (!mbd.isSingleton()) {
+            registerScopedDestructionCallback(beanName, bean, mbd, destroyCallback);
+            return;
+        }
+        if (!requiresDestruction(bean, mbd)) {
+            registerDisposableBean(beanName, destroyCallback);
+            return;
+        }
+        this.pendingDestroyCallback.set(destroyCallback);
+        try {
+            super.registerDisposableBeanIfNecessary(beanName, bean, mbd);
+        }
+        finally {
+            this.pendingDestroyCallback.remove();
+        }
+    }
+
+    private void registerScopedDestructionCallback(String beanName, Object bean, RootBeanDefinition mbd,
+                                                   DisposableBean destroyCallback) {
+        Scope scope = getRegisteredScope(mbd.getScope());
+        if (scope == null) {
+            throw new IllegalStateException("No Scope registered for scope name '" + mbd.getScope() + "'");
+        }
+        boolean requiresDestruction = requiresDestruction(bean, mbd);
+        scope.registerDestructionCallback(beanName, () -> {
+            if (requiresDestruction) {
+                destroyBean(beanName, bean, mbd);
+            }
+            // 和DisposableBeanAdapter一样，销毁失败只记日志
+            try {
+                destroyCallback.destroy();
+            }
+            catch (Throwable ex) {
+                logger.warn("Invocation of destroy callback failed on bean with name '" + beanName + "'", ex);
+            }
+        });
+    }
+
+    @Override
+    public void registerDisposableBean(String beanName, DisposableBean bean) {
+        DisposableBean disposableBean = bean;
+        DisposableBean destroyCallback = this.pendingDestroyCallback.get();
+        if (destroyCallback != null) {
+            this.pendingDestroyCallback.remove();
+            disposableBean = () -> {
+                bean.destroy();
+                destroyCallback.destroy();
+            };
+        }
+        LifecycleMetrics metrics = this.lifecycleMetrics;
+        super.registerDisposableBean(beanName,
+                (metrics != null ? new TimedDisposableBean(beanName, disposableBean, metrics) : disposableBean));
+        this.disposableBeanNames.add(beanName);
+    }
+
+    @Override
+    protected void destroyBean(String beanName, @Nullable DisposableBean bean) {
+        this.disposableBeanNames.remove(beanName);
+        super.destroyBean(beanName, (this.skippedDestroyCallbacks.remove(beanName) ? null : bean));
+    }
+
+    @Override
+    protected void beforeSingletonCreation(String beanName) {
+        if (this.inParallelDestruction) {
+            throw new BeanCreationNotAllowedException(beanName,
+                    "Singleton bean creation not allowed while singletons of this factory are in destruction " +
+                    "(Do not request a bean from a BeanFactory in a destroy method implementation!)");
+        }
+        super.beforeSingletonCreation(beanName);
+    }
+
+    @Override
+    public void destroySingletons() {
+        this.inDestruction = true;
+        try {
+            doDestroySingletons();
+        }
+        finally {
+            this.inDestruction = false;
+        }
+    }
+
+    private void doDestroySingletons() {
+        if (this.destructionParallelism <= 1 && this.destroyTimeoutMillis <= 0 && this.shutdownTimeoutMillis <= 0) {
+            super.destroySingletons();
+            return;
+        }
+        long start = System.nanoTime();
+        List<ShutdownReport.BeanShutdown> beans;
+        this.inParallelDestruction = true;
+        try {
+            beans = destroyInParallel(start);
+        }
+        finally {
+            this.inParallelDestruction = false;
+        }
+        long destroyed = System.nanoTime();
+        // 剩下的清理(以及时限到了被跳过的Bean的单例)交给父类
+        try {
+            super.destroySingletons();
+        }
+        finally {
+            this.skippedDestroyCallbacks.clear();
+        }
+        ShutdownReport report = new ShutdownReport(beans, destroyed - start, System.nanoTime() - destroyed);
+        this.shutdownReport = report;
+        List<String> timedOut = report.getBeanNames(ShutdownReport.Outcome.TIMED_OUT);
+        List<String> skipped = report.getBeanNames(ShutdownReport.Outcome.SKIPPED);
+        if (!timedOut.isEmpty() || !skipped.isEmpty()) {
+            logger.warn("Shutdown did not finish in time: beans " + timedOut + " timed out, beans " + skipped +
+                    " were not destroyed");
+        }
+        else if (logger.isDebugEnabled()) {
+            logger.debug(report);
+        }
+    }
+
+    private List<ShutdownReport.BeanShutdown> destroyInParallel(long start) {
+        List<String> beanNames;
+        synchronized (this.disposableBeanNames) {
+            beanNames = new ArrayList<>(this.disposableBeanNames);
+        }
+        // 边从Bean指向依赖它的Bean，这样依赖它的Bean所在的分量排在前面；
+        // 依赖它的Bean没有销毁回调时也要加进来，顺序才能传递下去
+        Collections.reverse(beanNames);
+        BeanDependencyGraph graph = new BeanDependencyGraph();
+        Deque<String> queue = new ArrayDeque<>(beanNames);
+        while (!queue.isEmpty()) {
+            String beanName = queue.poll();
+            if (!graph.containsNode(beanName)) {
+                graph.addNode(beanName);
+                Collections.addAll(queue, getDependentBeans(beanName));
+            }
+        }
+        for (String beanName : graph.getNodes()) {
+            for (String dependent : getDependentBeans(beanName)) {
+                graph.addEdge(beanName, dependent);
+            }
+        }
+
+        long deadline = (this.shutdownTimeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(this.shutdownTimeoutMillis) : 0);
+        ClassLoader beanClassLoader = getBeanClassLoader();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(this.destructionParallelism, this.destructionParallelism,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            // 超时的销毁回调可能一直不返回，不能让它挡住JVM退出
+            Thread thread = new Thread(runnable, "bean-destroy-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(beanClassLoader);
+            return thread;
+        });
+        ScheduledExecutorService watchdog = null;
+        if (this.destroyTimeoutMillis > 0) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bean-destroy-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Set<String> disposable = new HashSet<>(beanNames);
+        Map<String, ShutdownReport.BeanShutdown> outcomes = new ConcurrentHashMap<>();
+        Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+        List<DestroyTask> tasks = new ArrayList<>();
+        try {
+            for (List<String> component : graph.stronglyConnectedComponents()) {
+                Set<CompletableFuture<Void>> dependents = new LinkedHashSet<>();
+                for (String beanName : component) {
+                    for (String dependent : graph.getDependencies(beanName)) {
+                        if (!component.contains(dependent)) {
+                            dependents.add(futures.get(dependent));
+                        }
+                    }
+                }
+                List<String> reported = new ArrayList<>();
+                for (String beanName : component) {
+                    if (disposable.contains(beanName)) {
+                        reported.add(beanName);
+                    }
+                }
+                DestroyTask task = new DestroyTask(component, reported, outcomes, start, deadline, pool, watchdog);
+                CompletableFuture.allOf(dependents.toArray(new CompletableFuture<?>[0])).thenRunAsync(task, pool);
+                for (String beanName : component) {
+                    futures.put(beanName, task.done);
+                }
+                tasks.add(task);
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]));
+            if (deadline == 0) {
+                all.join();
+            }
+            else {
+                all.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+        catch (TimeoutException | ExecutionException ex) {
+            // 没完成的在下面处理
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (DestroyTask task : tasks) {
+                task.skip();
+            }
+            pool.shutdownNow();
+            if (watchdog != null) {
+                watchdog.shutdownNow();
+            }
+        }
+        return new ArrayList<>(outcomes.values());
+    }
+
+
+    /**
+     * 销毁依赖图里的一个分量，只有第一个认领它的线程(执行的线程或者时限到了要跳过它的线程)会处理
+     */
+    private final class DestroyTask implements Runnable {
+
+        private final List<String> beanNames;
+
+        // 只报告有销毁回调的Bean
+        private final List<String> reportedBeanNames;
+
+        private final Map<String, ShutdownReport.BeanShutdown> outcomes;
+
+        private final long shutdownStart;
+
+        private final long deadline;
+
+        private final ThreadPoolExecutor pool;
+
+        @Nullable
+        private final ScheduledExecutorService watchdog;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        // 销毁完、超时或者被跳过时完成，依赖的Bean等的是它
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        DestroyTask(List<String> beanNames, List<String> reportedBeanNames, Map<String, ShutdownReport.BeanShutdown> outcomes,
+                    long shutdownStart, long deadline, ThreadPoolExecutor pool, @Nullable ScheduledExecutorService watchdog) {
+            this.beanNames = beanNames;
+            this.reportedBeanNames = reportedBeanNames;
+            this.outcomes = outcomes;
+            this.shutdownStart = shutdownStart;
+            this.deadline = deadline;
+            this.pool = pool;
+            this.watchdog = watchdog;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            if (this.deadline != 0 && begin - this.deadline >= 0) {
+                return;
+            }
+            if (!this.claimed.compareAndSet(false, true)) {
+                return;
+            }
+            ScheduledFuture<?> timer = null;
+            if (this.watchdog != null) {
+                timer = this.watchdog.schedule(() -> {
+                    if (finish(ShutdownReport.Outcome.TIMED_OUT, begin, null)) {
+                        addThread();
+                    }
+                }, destroyTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            Throwable failure = null;
+            try {
+                // 循环依赖的Bean，销毁第一个时父类会连带销毁其它的
+                for (String beanName : this.beanNames) {
+                    destroySingleton(beanName);
+                }
+            }
+            catch (Throwable ex) {
+                failure = ex;
+            }
+            finally {
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            finish(failure == null ? ShutdownReport.Outcome.DESTROYED : ShutdownReport.Outcome.FAILED, begin, failure);
+        }
+
+        /**
+         * 时限到了还没开始的不再销毁，记下来，父类的destroySingletons就不会再调用它们的销毁回调
+         */
+        void skip() {
+            if (!this.claimed.compareAndSet(false, true)) {
+                return;
+            }
+            skippedDestroyCallbacks.addAll(this.beanNames);
+            finish(ShutdownReport.Outcome.SKIPPED, System.nanoTime(), null);
+        }
+
+        /**
+         * 超时的回调还占着一个线程，补一个线程，其它Bean的并行度不受影响
+         */
+        private void addThread() {
+            synchronized (this.pool) {
+                this.pool.setMaximumPoolSize(this.pool.getMaximumPoolSize() + 1);
+                this.pool.setCorePoolSize(this.pool.getCorePoolSize() + 1);
+            }
+        }
+
+        private synchronized boolean finish(ShutdownReport.Outcome outcome, long begin, @Nullable Throwable failure) {
+            if (this.done.isDone()) {
+                return false;
+            }
+            long end = System.nanoTime();
+            for (String beanName : this.reportedBeanNames) {
+                this.outcomes.put(beanName, new ShutdownReport.BeanShutdown(beanName, outcome, begin - this.shutdownStart,
+                        end - begin, failure));
+            }
+            this.done.complete(null);
+            return true;
+        }
+    }
+
+
+    private static final class BeanLock extends ReentrantLock {
+
+        @Nullable
+        Thread getOwnerThread() {
+            return getOwner();
+        }
+    }
+
+
+    /**
+     * 给销毁回调计时
+     */
+    private static final class TimedDisposableBean implements DisposableBean {
+
+        private final String beanName;
+
+        private final DisposableBean delegate;
+
+        private final LifecycleMetrics metrics;
+
+        TimedDisposableBean(String beanName, DisposableBean delegate, LifecycleMetrics metrics) {
+            this.beanName = beanName;
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void destroy() throws Exception {
+            LifecycleMetrics.Timer timer = this.metrics.start(this.beanName, LifecyclePhase.DESTROY);
+            try {
+                this.delegate.destroy();
+            }
+            finally {
+                timer.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package cn.sue.spring.test.factory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.SmartFactoryBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionVisitor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.util.Assert;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * 增量刷新：替换、新增、删除一部分BeanDefinition，只销毁受影响的单例(改动的Bean和直接、间接依赖它们的Bean)，
+ * 再按注册顺序重新创建其中非懒加载的单例，其它单例原样保留，不用重启整个容器。
+ * 依赖关系用容器创建Bean时记录的依赖(@Autowired、构造参数、&lt;property ref&gt;、depends-on)，
+ * 在init方法里自己getBean拿到的Bean不算。
+ * </p>
+ * <p>
+ * 销毁走的是容器正常的销毁流程，DisposableBean.destroy()、destroy-method、@PreDestroy都会调用；
+ * 重建的Bean如果实现了SmartInitializingSingleton会再回调一次。
+ * 新定义里的占位符用容器的占位符解析器解析(和PropertySourcesPlaceholderConfigurer一样)，
+ * 其它BeanFactoryPostProcessor不会重新执行。容器是ExtendedBeanFactory时用批量注册，重置只做一次
+ * </p>
+ *
+ * @author Sue
+ * @className IncrementalRefresher
+ * @create 2023/5/30
+ **/
+public class IncrementalRefresher {
+
+    private static final Log logger = LogFactory.getLog(IncrementalRefresher.class);
+
+    private final DefaultListableBeanFactory beanFactory;
+
+    public IncrementalRefresher(DefaultListableBeanFactory beanFactory) {
+        Assert.notNull(beanFactory, "BeanFactory must not be null");
+        this.beanFactory = beanFactory;
+    }
+
+    public Result refresh(String beanName, BeanDefinition beanDefinition) {
+        return refresh(Collections.singletonMap(beanName, beanDefinition), Collections.emptySet());
+    }
+
+    /**
+     * @param beanDefinitions 新增或者替换的定义，和原来的定义相等(equals)的跳过
+     * @param removedBeanNames 要删除的定义
+     */
+    public Result refresh(Map<String, ? extends BeanDefinition> beanDefinitions, Collection<String> removedBeanNames) throws BeansException {
+        Assert.notNull(beanDefinitions, "Bean definitions must not be null");
+        Assert.notNull(removedBeanNames, "Removed bean names must not be null");
+        long start = System.nanoTime();
+        Map<String, BeanDefinition> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends BeanDefinition> entry : beanDefinitions.entrySet()) {
+            BeanDefinition beanDefinition = entry.getValue();
+            resolvePlaceholders(beanDefinition);
+            if (!this.beanFactory.containsBeanDefinition(entry.getKey()) ||
+                    !this.beanFactory.getBeanDefinition(entry.getKey()).equals(beanDefinition)) {
+                changed.put(entry.getKey(), beanDefinition);
+            }
+        }
+        Set<String> removed = new LinkedHashSet<>();
+        for (String beanName : removedBeanNames) {
+            if (this.beanFactory.containsBeanDefinition(beanName) && !changed.containsKey(beanName)) {
+                removed.add(beanName);
+            }
+        }
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return new Result(Collections.emptySet(), Collections.emptySet(), Collections.emptyList(), Collections.emptyList(),
+                    System.nanoTime() - start);
+        }
+
+        // 改动之前先记下会被连带销毁的单例，改动以后就查不到依赖关系了
+        Set<String> affected = new LinkedHashSet<>();
+        collectDependents(changed.keySet(), affected);
+        collectDependents(removed, affected);
+        List<String> destroyed = new ArrayList<>();
+        for (String beanName : affected) {
+            if (this.beanFactory.containsSingleton(beanName)) {
+                destroyed.add(beanName);
+            }
+        }
+
+        for (String beanName : removed) {
+            this.beanFactory.removeBeanDefinition(beanName);
+        }
+        if (this.beanFactory instanceof ExtendedBeanFactory) {
+            ((ExtendedBeanFactory) this.beanFactory).registerBeanDefinitions(changed);
+        }
+        else {
+            changed.forEach(this.beanFactory::registerBeanDefinition);
+        }
+
+        List<String> recreated = recreate(affected);
+        long elapsed = System.nanoTime() - start;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Incremental refresh of " + changed.keySet() + " (removed " + removed + ") destroyed " +
+                    destroyed + " and recreated " + recreated + " in " + elapsed / 1_000_000 + " ms");
+        }
+        return new Result(changed.keySet(), removed, destroyed, recreated, elapsed);
+    }
+
+    /**
+     * PropertySourcesPlaceholderConfigurer在BeanFactory上注册了占位符解析器，用它解析新定义里的${...}
+     */
+    private void resolvePlaceholders(BeanDefinition beanDefinition) {
+        if (this.beanFactory.hasEmbeddedValueResolver()) {
+            new BeanDefinitionVisitor(this.beanFactory::resolveEmbeddedValue).visitBeanDefinition(beanDefinition);
+        }
+    }
+
+    /**
+     * beanNames本身和所有直接、间接依赖它们的Bean
+     */
+    private void collectDependents(Collection<String> beanNames, Set<String> result) {
+        Deque<String> queue = new ArrayDeque<>(beanNames);
+        while (!queue.isEmpty()) {
+            String beanName = queue.poll();
+            if (result.add(beanName)) {
+                Collections.addAll(queue, this.beanFactory.getDependentBeans(beanName));
+            }
+        }
+    }
+
+    /**
+     * 和preInstantiateSingletons一样，按注册顺序创建非懒加载的单例，最后回调SmartInitializingSingleton
+     */
+    private List<String> recreate(Set<String> affected) {
+        List<String> candidates = new ArrayList<>();
+        for (String beanName : this.beanFactory.getBeanDefinitionNames()) {
+            if (affected.contains(beanName)) {
+                candidates.add(beanName);
+            }
+        }
+        for (String beanName : candidates) {
+            BeanDefinition mbd = this.beanFactory.getMergedBeanDefinition(beanName);
+            if (mbd.isAbstract() || !mbd.isSingleton() || mbd.isLazyInit() || this.beanFactory.containsSingleton(beanName)) {
+                continue;
+            }
+            if (this.beanFactory.isFactoryBean(beanName)) {
+                Object factoryBean = this.beanFactory.getBean(BeanFactory.FACTORY_BEAN_PREFIX + beanName);
+                if (factoryBean instanceof SmartFactoryBean && ((SmartFactoryBean<?>) factoryBean).isEagerInit()) {
+                    this.beanFactory.getBean(beanName);
+                }
+            }
+            else {
+                this.beanFactory.getBean(beanName);
+            }
+        }
+        // 作为别的Bean的依赖被创建出来的也算
+        List<String> recreated = new ArrayList<>();
+        for (String beanName : candidates) {
+            if (this.beanFactory.containsSingleton(beanName)) {
+                recreated.add(beanName);
+            }
+        }
+        for (String beanName : recreated) {
+            Object singleton = this.beanFactory.getSingleton(beanName);
+            if (singleton instanceof SmartInitializingSingleton) {
+                ((SmartInitializingSingleton) singleton).afterSingletonsInstantiated();
+            }
+        }
+        return recreated;
+    }
+
+
+    /**
+     * 一次增量刷新的结果
+     */
+    public static final class Result {
+
+        private final Set<String> changed;
+
+        private final Set<String> removed;
+
+        private final List<String> destroyed;
+
+        private final List<String> recreated;
+
+        private final long elapsedNanos;
+
+        Result(Set<String> changed, Set<String> removed, List<String> destroyed, List<String> recreated, long elapsedNanos) {
+            this.changed = Collections.unmodifiableSet(new LinkedHashSet<>(changed));
+            this.removed = Collections.unmodifiableSet(new LinkedHashSet<>(removed));
+            this.destroyed = Collections.unmodifiableList(destroyed);
+            this.recreated = Collections.unmodifiableList(recreated);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * 新增和替换的定义(和原来相同的不算)
+         */
+        public Set<String> getChanged() {
+            return this.changed;
+        }
+
+        public Set<String> getRemoved() {
+            return this.removed;
+        }
+
+        /**
+         * 被销毁的单例
+         */
+        public List<String> getDestroyed() {
+            return this.destroyed;
+        }
+
+        /**
+         * 重新创建的单例，按注册顺序
+         */
+        public List<String> getRecreated() {
+            return this.recreated;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public boolean isEmpty() {
+            return this.changed.isEmpty() && this.removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "changed " + this.changed + ", removed " + this.removed + ", destroyed " + this.destroyed +
+                    ", recreated " + this.recreated + " in " + this.elapsedNanos / 1_000 + " us";
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.TypeConverter;
+import org.springframework.beans.factory.InjectionPoint;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * 一个原型BeanDefinition的注入计划：第一次创建时记下选中的构造方法、每个注入点的值从哪来({@link ValueSource})、
+ * init方法，之后的创建直接照着做，不再挑构造方法、解析@Value占位符、查找候选Bean、反射查找init方法。
+ * 计划绑定在某个合并后的RootBeanDefinition上，BeanDefinition重新合并(修改、重新注册)以后就不再使用
+ * </p>
+ *
+ * @author Sue
+ * @className InjectionPlan
+ * @create 2023/5/26
+ **/
+final class InjectionPlan {
+
+    final RootBeanDefinition mbd;
+
+    private volatile boolean constructorDetermined;
+
+    // 第一次创建完成后才确定，null表示不能直接调用构造方法(交给父类)
+    @Nullable
+    private volatile Constructor<?> constructor;
+
+    @Nullable
+    private volatile DependencyDescriptor[] constructorParameters;
+
+    private final Map<DependencyDescriptor, ValueSource> valueSources = new ConcurrentHashMap<>();
+
+    @Nullable
+    private volatile ResolvedInitMethod initMethod;
+
+    InjectionPlan(RootBeanDefinition mbd) {
+        this.mbd = mbd;
+    }
+
+    @Nullable
+    Constructor<?> getConstructor() {
+        return this.constructor;
+    }
+
+    boolean isConstructorDetermined() {
+        return this.constructorDetermined;
+    }
+
+    DependencyDescriptor[] getConstructorParameters() {
+        DependencyDescriptor[] parameters = this.constructorParameters;
+        return (parameters != null ? parameters : new DependencyDescriptor[0]);
+    }
+
+    /**
+     * 参数里有InjectionPoint的构造方法要知道当前注入点，不能缓存
+     */
+    void setConstructor(@Nullable Constructor<?> constructor) {
+        this.constructorDetermined = true;
+        if (constructor == null) {
+            return;
+        }
+        DependencyDescriptor[] parameters = new DependencyDescriptor[constructor.getParameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            MethodParameter parameter = MethodParameter.forExecutable(constructor, i);
+            if (InjectionPoint.class.isAssignableFrom(parameter.getParameterType())) {
+                return;
+            }
+            parameters[i] = new DependencyDescriptor(parameter, true);
+        }
+        this.constructorParameters = parameters;
+        this.constructor = constructor;
+    }
+
+    @Nullable
+    ValueSource getValueSource(DependencyDescriptor descriptor) {
+        return this.valueSources.get(descriptor);
+    }
+
+    void addValueSource(DependencyDescriptor descriptor, ValueSource valueSource) {
+        this.valueSources.putIfAbsent(descriptor, valueSource);
+    }
+
+    /**
+     * 和AbstractAutowireCapableBeanFactory.invokeCustomInitMethod一样查找init方法，找到以后缓存；
+     * 找不到时返回false，交给父类处理(报错或者忽略)
+     */
+    boolean invokeInitMethod(Object bean) throws Throwable {
+        ResolvedInitMethod resolved = this.initMethod;
+        Method method;
+        if (resolved != null && resolved.beanClass == bean.getClass()) {
+            method = resolved.method;
+        }
+        else {
+            String initMethodName = this.mbd.getInitMethodName();
+            if (initMethodName == null) {
+                return false;
+            }
+            Method found = (this.mbd.isNonPublicAccessAllowed() ?
+                    BeanUtils.findMethod(bean.getClass(), initMethodName) : ClassUtils.getMethodIfAvailable(bean.getClass(), initMethodName));
+            if (found == null) {
+                return false;
+            }
+            method = ClassUtils.getInterfaceMethodIfPossible(found);
+            ReflectionUtils.makeAccessible(method);
+            this.initMethod = new ResolvedInitMethod(bean.getClass(), method);
+        }
+        try {
+            method.invoke(bean);
+        }
+        catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        }
+        return true;
+    }
+
+
+    private static final class ResolvedInitMethod {
+
+        final Class<?> beanClass;
+
+        final Method method;
+
+        ResolvedInitMethod(Class<?> beanClass, Method method) {
+            this.beanClass = beanClass;
+            this.method = method;
+        }
+    }
+
+
+    /**
+     * 一个注入点的值从哪来
+     */
+    interface ValueSource {
+
+        /**
+         * 不能缓存的注入点，每次都交给父类解析
+         */
+        ValueSource UNCACHEABLE = (autowiredBeanNames, typeConverter) -> {
+            throw new IllegalStateException("Uncacheable value source must not be resolved");
+        };
+
+        @Nullable
+        Object resolve(@Nullable Set<String> autowiredBeanNames, @Nullable TypeConverter typeConverter);
+    }
+}
@@ -0,0 +1,403 @@
+package cn.sue.spring.test.factory;
+
+import cn.sue.spring.test.metrics.StartupReport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.annotation.ContextAnnotationAutowireCandidateResolver;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>
+ * 启动分析：找出没有任何非懒加载Bean依赖的单例，自动设置成懒加载，不用像testBeanDefinition那样手动setLazyInit(true)。
+ * 必须在启动时创建的Bean(根)：基础设施Bean、Lifecycle、ApplicationListener、SmartInitializingSingleton、
+ * 有&#64;EventListener/&#64;Scheduled方法的Bean、有初始化或销毁回调的Bean(init-method、&#64;PostConstruct、InitializingBean、
+ * destroy-method、&#64;PreDestroy、DisposableBean/AutoCloseable)、{@link #setEagerBeanNames}/{@link #setEagerTypes}指定的Bean、
+ * 推断不出类型的Bean；根以及根依赖的Bean({@link DependencyGraphBuilder}分析)保持原样，其余的改成懒加载。
+ * 打开{@link #setLazyResolutionProxies}后，根通过&#64;Autowired等注入点依赖的Bean也可以推迟：
+ * 注入点是接口、并且候选Bean都被推迟了时，注入一个延迟代理，第一次调用时才创建目标Bean。
+ * 推迟会改变创建时机：懒加载的Bean要到第一次用到时才创建，构造器和回调里的副作用跟着推迟，从没用到就一直不发生。
+ * 回调默认不推迟，确认回调没有必须在启动时发生的副作用后，可以用{@link #setDeferLifecycleCallbacks}把这些Bean也交给分析。
+ * 容器刷新完成后会统计推迟的Bean里有多少在启动过程中还是被创建了
+ * </p>
+ *
+ * @author Sue
+ * @className LazyInitAnalyzer
+ * @create 2023/5/21
+ **/
+public class LazyInitAnalyzer implements BeanFactoryPostProcessor, ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Log logger = LogFactory.getLog(LazyInitAnalyzer.class);
+
+    private static final List<Class<?>> ROOT_TYPES = Arrays.asList(Lifecycle.class, ApplicationListener.class,
+            SmartInitializingSingleton.class, BeanPostProcessor.class, BeanFactoryPostProcessor.class);
+
+    private final Set<String> eagerBeanNames = new LinkedHashSet<>();
+
+    private final List<Class<?>> eagerTypes = new ArrayList<>();
+
+    private boolean lazyResolutionProxies;
+
+    private boolean deferLifecycleCallbacks;
+
+    @Nullable
+    private StartupReport baselineReport;
+
+    private long defaultBeanCostNanos;
+
+    @Nullable
+    private ConfigurableListableBeanFactory beanFactory;
+
+    @Nullable
+    private volatile LazyInitReport report;
+
+    /**
+     * 这些Bean一定在启动时创建
+     */
+    public void setEagerBeanNames(String... eagerBeanNames) {
+        this.eagerBeanNames.clear();
+        this.eagerBeanNames.addAll(Arrays.asList(eagerBeanNames));
+    }
+
+    /**
+     * 这些类型(及其子类)的Bean一定在启动时创建
+     */
+    public void setEagerTypes(Class<?>... eagerTypes) {
+        this.eagerTypes.clear();
+        this.eagerTypes.addAll(Arrays.asList(eagerTypes));
+    }
+
+    /**
+     * 是否在接口类型的注入点用延迟代理，让根依赖的Bean也能推迟创建，默认false
+     */
+    public void setLazyResolutionProxies(boolean lazyResolutionProxies) {
+        this.lazyResolutionProxies = lazyResolutionProxies;
+    }
+
+    /**
+     * 有初始化/销毁回调的Bean是否也可以推迟，默认false(当作根)。推迟后初始化回调在第一次用到时才执行，从没用到就不执行，
+     * 销毁回调也只对创建过的Bean执行
+     */
+    public void setDeferLifecycleCallbacks(boolean deferLifecycleCallbacks) {
+        this.deferLifecycleCallbacks = deferLifecycleCallbacks;
+    }
+
+    /**
+     * 上一次启动的耗时报告(见{@link cn.sue.spring.test.metrics.LifecycleMetrics})，用来估算推迟这些Bean能省多少时间
+     */
+    public void setBaselineReport(@Nullable StartupReport baselineReport) {
+        this.baselineReport = baselineReport;
+    }
+
+    /**
+     * 报告里没有的Bean按多少纳秒估算，默认0(不计入)
+     */
+    public void setDefaultBeanCostNanos(long defaultBeanCostNanos) {
+        this.defaultBeanCostNanos = defaultBeanCostNanos;
+    }
+
+    /**
+     * 分析结果，postProcessBeanFactory之前为null
+     */
+    @Nullable
+    public LazyInitReport getReport() {
+        return this.report;
+    }
+
+    // 没有实现Ordered，在其它BeanFactoryPostProcessor(包括注册@Bean的ConfigurationClassPostProcessor)之后执行
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+        DependencyGraphBuilder graphBuilder = new DependencyGraphBuilder(beanFactory);
+        List<String> candidates = new ArrayList<>();
+        Deque<String> roots = new ArrayDeque<>();
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition bd = beanFactory.getMergedBeanDefinition(beanName);
+            if (bd.isAbstract() || !bd.isSingleton() || bd.isLazyInit()) {
+                continue;
+            }
+            candidates.add(beanName);
+            if (isRoot(beanFactory, beanName, bd)) {
+                roots.add(beanName);
+            }
+        }
+
+        Set<String> eager = new LinkedHashSet<>(roots);
+        while (!roots.isEmpty()) {
+            String beanName = roots.poll();
+            Set<String> dependencies = (this.lazyResolutionProxies ?
+                    graphBuilder.findExplicitDependencies(beanName) : graphBuilder.findDirectDependencies(beanName));
+            for (String dependency : dependencies) {
+                if (eager.add(dependency)) {
+                    roots.add(dependency);
+                }
+            }
+        }
+
+        List<String> deferred = new ArrayList<>();
+        for (String beanName : candidates) {
+            if (!eager.contains(beanName)) {
+                beanFactory.getBeanDefinition(beanName).setLazyInit(true);
+                deferred.add(beanName);
+            }
+        }
+        // 建图时缓存的合并BeanDefinition还是非懒加载的
+        beanFactory.clearMetadataCache();
+
+        if (this.lazyResolutionProxies && !deferred.isEmpty() && beanFactory instanceof DefaultListableBeanFactory) {
+            DefaultListableBeanFactory dlbf = (DefaultListableBeanFactory) beanFactory;
+            if (dlbf.getAutowireCandidateResolver().getClass() == ContextAnnotationAutowireCandidateResolver.class) {
+                DeferringAutowireCandidateResolver resolver = new DeferringAutowireCandidateResolver(new LinkedHashSet<>(deferred));
+                resolver.setBeanFactory(dlbf);
+                dlbf.setAutowireCandidateResolver(resolver);
+            }
+        }
+
+        LazyInitReport report = estimate(candidates.size() - deferred.size(), deferred);
+        this.report = report;
+        if (logger.isInfoEnabled()) {
+            logger.info(report);
+        }
+    }
+
+    private boolean isRoot(ConfigurableListableBeanFactory beanFactory, String beanName, BeanDefinition bd) {
+        if (bd.getRole() == BeanDefinition.ROLE_INFRASTRUCTURE || this.eagerBeanNames.contains(beanName) ||
+                beanFactory.containsSingleton(beanName)) {
+            return true;
+        }
+        Class<?> beanType;
+        try {
+            beanType = beanFactory.getType(beanName, false);
+        }
+        catch (NoSuchBeanDefinitionException ex) {
+            return true;
+        }
+        if (beanType == null) {
+            return true;
+        }
+        for (Class<?> rootType : ROOT_TYPES) {
+            if (rootType.isAssignableFrom(beanType)) {
+                return true;
+            }
+        }
+        for (Class<?> eagerType : this.eagerTypes) {
+            if (eagerType.isAssignableFrom(beanType)) {
+                return true;
+            }
+        }
+        if (!this.deferLifecycleCallbacks && hasLifecycleCallbacks(bd, beanType)) {
+            return true;
+        }
+        return hasCallbackMethods(ClassUtils.getUserClass(beanType), !this.deferLifecycleCallbacks);
+    }
+
+    /**
+     * 和DisposableBeanAdapter判断有没有销毁方法的规则一致，另外加上初始化回调
+     */
+    private static boolean hasLifecycleCallbacks(BeanDefinition bd, Class<?> beanType) {
+        if (InitializingBean.class.isAssignableFrom(beanType) || DisposableBean.class.isAssignableFrom(beanType) ||
+                AutoCloseable.class.isAssignableFrom(beanType) || StringUtils.hasLength(bd.getInitMethodName())) {
+            return true;
+        }
+        String destroyMethodName = bd.getDestroyMethodName();
+        if (AbstractBeanDefinition.INFER_METHOD.equals(destroyMethodName)) {
+            return ClassUtils.hasMethod(beanType, "close") || ClassUtils.hasMethod(beanType, "shutdown");
+        }
+        return StringUtils.hasLength(destroyMethodName);
+    }
+
+    private static boolean hasCallbackMethods(Class<?> beanType, boolean lifecycleCallbacks) {
+        for (Method method : ReflectionUtils.getUniqueDeclaredMethods(beanType, ReflectionUtils.USER_DECLARED_METHODS)) {
+            if (AnnotatedElementUtils.hasAnnotation(method, EventListener.class) ||
+                    AnnotatedElementUtils.hasAnnotation(method, Scheduled.class)) {
+                return true;
+            }
+            if (lifecycleCallbacks && (AnnotatedElementUtils.hasAnnotation(method, PostConstruct.class) ||
+                    AnnotatedElementUtils.hasAnnotation(method, PreDestroy.class))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private LazyInitReport estimate(int eagerCount, List<String> deferred) {
+        long savedNanos = 0;
+        int estimated = 0;
+        for (String beanName : deferred) {
+            StartupReport.BeanTiming timing = (this.baselineReport != null ? this.baselineReport.getBean(beanName) : null);
+            if (timing != null) {
+                savedNanos += timing.getTotalNanos();
+                estimated++;
+            }
+            else {
+                savedNanos += this.defaultBeanCostNanos;
+            }
+        }
+        return new LazyInitReport(eagerCount, deferred, savedNanos, estimated);
+    }
+
+    /**
+     * 刷新完成后统计推迟的Bean里有多少已经被创建了
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        LazyInitReport report = this.report;
+        ConfigurableListableBeanFactory beanFactory = this.beanFactory;
+        if (report == null || beanFactory == null) {
+            return;
+        }
+        List<String> created = new ArrayList<>();
+        for (String beanName : report.getDeferredBeanNames()) {
+            if (beanFactory.containsSingleton(beanName)) {
+                created.add(beanName);
+            }
+        }
+        report.setCreatedDuringStartup(created);
+        if (logger.isInfoEnabled() && !created.isEmpty()) {
+            logger.info(created.size() + " of " + report.getDeferredBeanNames().size() +
+                    " deferred beans were created during startup anyway: " + created);
+        }
+    }
+
+
+    /**
+     * 候选Bean全部被推迟、并且注入点是接口时，注入延迟代理
+     */
+    private static class DeferringAutowireCandidateResolver extends ContextAnnotationAutowireCandidateResolver {
+
+        private final Set<String> deferred;
+
+        DeferringAutowireCandidateResolver(Set<String> deferred) {
+            this.deferred = deferred;
+        }
+
+        @Override
+        protected boolean isLazy(DependencyDescriptor descriptor) {
+            if (super.isLazy(descriptor)) {
+                return true;
+            }
+            Class<?> type = descriptor.getDependencyType();
+            if (!type.isInterface() || ObjectFactory.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type) ||
+                    Map.class.isAssignableFrom(type) || type == Optional.class) {
+                return false;
+            }
+            ConfigurableListableBeanFactory beanFactory = (ConfigurableListableBeanFactory) getBeanFactory();
+            if (beanFactory == null) {
+                return false;
+            }
+            String[] candidates = beanFactory.getBeanNamesForType(type, true, false);
+            if (candidates.length == 0) {
+                return false;
+            }
+            for (String candidate : candidates) {
+                if (!this.deferred.contains(candidate) || beanFactory.containsSingleton(candidate)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * 分析结果
+     */
+    public static class LazyInitReport {
+
+        private final int eagerBeanCount;
+
+        private final List<String> deferredBeanNames;
+
+        private final long estimatedSavedNanos;
+
+        private final int estimatedBeanCount;
+
+        private volatile List<String> createdDuringStartup = Collections.emptyList();
+
+        LazyInitReport(int eagerBeanCount, List<String> deferredBeanNames, long estimatedSavedNanos, int estimatedBeanCount) {
+            this.eagerBeanCount = eagerBeanCount;
+            this.deferredBeanNames = Collections.unmodifiableList(deferredBeanNames);
+            this.estimatedSavedNanos = estimatedSavedNanos;
+            this.estimatedBeanCount = estimatedBeanCount;
+        }
+
+        /**
+         * 仍然在启动时创建的单例数
+         */
+        public int getEagerBeanCount() {
+            return this.eagerBeanCount;
+        }
+
+        public List<String> getDeferredBeanNames() {
+            return this.deferredBeanNames;
+        }
+
+        /**
+         * 估算省下的启动时间，按基线报告里这些Bean的创建耗时累加
+         */
+        public long getEstimatedSavedNanos() {
+            return this.estimatedSavedNanos;
+        }
+
+        /**
+         * 推迟的Bean里有多少在基线报告里找到了耗时
+         */
+        public int getEstimatedBeanCount() {
+            return this.estimatedBeanCount;
+        }
+
+        /**
+         * 推迟了但在启动过程中还是被创建了的Bean，容器刷新完成后才有值
+         */
+        public List<String> getCreatedDuringStartup() {
+            return this.createdDuringStartup;
+        }
+
+        void setCreatedDuringStartup(List<String> createdDuringStartup) {
+            this.createdDuringStartup = Collections.unmodifiableList(createdDuringStartup);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Deferred %d of %d singletons to lazy initialization, estimated startup time saved: %.3f ms " +
+                            "(%d beans estimated from baseline)", this.deferredBeanNames.size(),
+                    this.eagerBeanCount + this.deferredBeanNames.size(), this.estimatedSavedNanos / 1_000_000.0, this.estimatedBeanCount);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * {@link ExtendedBeanFactory}一次并行销毁的结果：每个有销毁回调的Bean是销毁完成、抛了异常、超时还是因为整体时限到了被跳过，
+ * 等依赖它的Bean销毁用了多久、自己的销毁回调用了多久；以及并行销毁和最后清理两个阶段各自的耗时
+ * </p>
+ *
+ * @author Sue
+ * @className ShutdownReport
+ * @create 2023/5/31
+ **/
+public class ShutdownReport {
+
+    private final List<BeanShutdown> beans;
+
+    private final long parallelNanos;
+
+    private final long cleanupNanos;
+
+    ShutdownReport(List<BeanShutdown> beans, long parallelNanos, long cleanupNanos) {
+        beans.sort(Comparator.comparingLong(BeanShutdown::getDestroyNanos).reversed());
+        this.beans = Collections.unmodifiableList(beans);
+        this.parallelNanos = parallelNanos;
+        this.cleanupNanos = cleanupNanos;
+    }
+
+    /**
+     * 按销毁回调耗时从大到小排序
+     */
+    public List<BeanShutdown> getBeans() {
+        return this.beans;
+    }
+
+    @Nullable
+    public BeanShutdown getBean(String beanName) {
+        for (BeanShutdown bean : this.beans) {
+            if (bean.getBeanName().equals(beanName)) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    public List<String> getBeanNames(Outcome outcome) {
+        List<String> beanNames = new ArrayList<>();
+        for (BeanShutdown bean : this.beans) {
+            if (bean.getOutcome() == outcome) {
+                beanNames.add(bean.getBeanName());
+            }
+        }
+        return beanNames;
+    }
+
+    /**
+     * 按依赖关系并行调用销毁回调的阶段
+     */
+    public long getParallelNanos() {
+        return this.parallelNanos;
+    }
+
+    /**
+     * 之后清理单例缓存、依赖关系等的阶段
+     */
+    public long getCleanupNanos() {
+        return this.cleanupNanos;
+    }
+
+    public long getTotalNanos() {
+        return this.parallelNanos + this.cleanupNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128 + this.beans.size() * 64);
+        sb.append("Shutdown took ").append(getTotalNanos() / 1_000_000).append(" ms (destroy ")
+                .append(this.parallelNanos / 1_000_000).append(" ms, cleanup ").append(this.cleanupNanos / 1_000_000).append(" ms)");
+        for (BeanShutdown bean : this.beans) {
+            sb.append("\n  ").append(bean);
+        }
+        return sb.toString();
+    }
+
+
+    public enum Outcome {
+
+        DESTROYED,
+
+        /**
+         * 销毁时抛了异常(DisposableBeanAdapter自己捕获的异常只记日志，不在这里)
+         */
+        FAILED,
+
+        /**
+         * 超过了单个Bean的时限，不再等它，回调可能还在执行
+         */
+        TIMED_OUT,
+
+        /**
+         * 整体时限到了还没开始销毁，销毁回调没有调用
+         */
+        SKIPPED
+    }
+
+
+    public static final class BeanShutdown {
+
+        private final String beanName;
+
+        private final Outcome outcome;
+
+        private final long waitNanos;
+
+        private final long destroyNanos;
+
+        @Nullable
+        private final Throwable failure;
+
+        BeanShutdown(String beanName, Outcome outcome, long waitNanos, long destroyNanos, @Nullable Throwable failure) {
+            this.beanName = beanName;
+            this.outcome = outcome;
+            this.waitNanos = waitNanos;
+            this.destroyNanos = destroyNanos;
+            this.failure = failure;
+        }
+
+        public String getBeanName() {
+            return this.beanName;
+        }
+
+        public Outcome getOutcome() {
+            return this.outcome;
+        }
+
+        /**
+         * 从开始关闭到开始销毁这个Bean，主要是在等依赖它的Bean销毁完
+         */
+        public long getWaitNanos() {
+            return this.waitNanos;
+        }
+
+        /**
+         * 销毁回调(@PreDestroy、DisposableBean.destroy()、destroy-method)的耗时，超时的是到超时为止
+         */
+        public long getDestroyNanos() {
+            return this.destroyNanos;
+        }
+
+        @Nullable
+        public Throwable getFailure() {
+            return this.failure;
+        }
+
+        @Override
+        public String toString() {
+            return this.beanName + " " + this.outcome + " after waiting " + this.waitNanos / 1_000_000 + " ms, destroy " +
+                    this.destroyNanos / 1_000_000 + " ms";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package cn.sue.spring.test.factory;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * <p>
+ * 只处理某些类型Bean的BeanPostProcessor。{@link ExtendedBeanFactory}按Bean的类型预先算好要调用哪些BeanPostProcessor，
+ * 类型不匹配的Bean不会再调用它的任何回调(包括InstantiationAwareBeanPostProcessor等子接口的回调)，
+ * 实现类里不用再判断bean.getClass()。在普通的DefaultListableBeanFactory里仍然对所有Bean调用
+ * </p>
+ *
+ * @author Sue
+ * @className TypeTargetedBeanPostProcessor
+ * @create 2023/5/22
+ **/
+public interface TypeTargetedBeanPostProcessor extends BeanPostProcessor {
+
+    /**
+     * Bean是其中某个类型(或子类型)的实例时才调用；返回空数组表示对所有Bean调用
+     */
+    Class<?>[] getTargetTypes();
+}
@@ -0,0 +1,413 @@
+package cn.sue.spring.test.io;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * 带索引和缓存的ResourcePatternResolver，用来代替PathMatchingResourcePatternResolver处理classpath:和classpath*:的通配符查询。
+ * PathMatchingResourcePatternResolver每次查询都要重新遍历目录、打开jar枚举全部条目；这里第一次查询时把ClassLoader
+ * 能看到的类路径建成索引(jar通过内存映射中央目录读出条目名，见{@link JarEntryIndex})，之后的查询在索引里匹配，
+ * 同一个pattern的结果也缓存起来。
+ * </p>
+ * <p>
+ * jar在运行期间不会变，索引只建一次；目录(target/classes这类展开的类路径)会变，缓存结果时记下匹配时看过的目录的修改时间，
+ * 目录里增删了文件修改时间就会变，下次查询时重新匹配。
+ * 不是file:的类路径、ClassLoader不是URLClassLoader、根目录为空的pattern以及非classpath的pattern交给PathMatchingResourcePatternResolver
+ * </p>
+ * <p>
+ * 在容器里使用：GenericApplicationContext.setResourceLoader(new IndexedResourcePatternResolver())，
+ * context.getResources和组件扫描都会走这里
+ * </p>
+ *
+ * @author Sue
+ * @className IndexedResourcePatternResolver
+ * @create 2023/5/24
+ **/
+public class IndexedResourcePatternResolver implements ResourcePatternResolver {
+
+    private static final Log logger = LogFactory.getLog(IndexedResourcePatternResolver.class);
+
+    private static final String PLATFORM_CLASS_LOADER_NAME = "jdk.internal.loader.ClassLoaders$PlatformClassLoader";
+
+    private final ResourceLoader resourceLoader;
+
+    private final PathMatchingResourcePatternResolver fallback;
+
+    private PathMatcher pathMatcher = new AntPathMatcher();
+
+    // null表示还没建索引，建不了索引时是空列表并且indexable=false
+    private volatile List<ClassPathRoot> roots;
+
+    private volatile boolean indexable = true;
+
+    private final ConcurrentMap<String, CachedResult> resultCache = new ConcurrentHashMap<>(64);
+
+    public IndexedResourcePatternResolver() {
+        this(new DefaultResourceLoader());
+    }
+
+    public IndexedResourcePatternResolver(ClassLoader classLoader) {
+        this(new DefaultResourceLoader(classLoader));
+    }
+
+    /**
+     * 非通配符的资源交给这个ResourceLoader。不能传容器本身，容器的getResource会再委托回来
+     */
+    public IndexedResourcePatternResolver(ResourceLoader resourceLoader) {
+        Assert.notNull(resourceLoader, "ResourceLoader must not be null");
+        this.resourceLoader = resourceLoader;
+        this.fallback = new PathMatchingResourcePatternResolver(resourceLoader);
+    }
+
+    public void setPathMatcher(PathMatcher pathMatcher) {
+        Assert.notNull(pathMatcher, "PathMatcher must not be null");
+        this.pathMatcher = pathMatcher;
+        this.fallback.setPathMatcher(pathMatcher);
+        this.resultCache.clear();
+    }
+
+    public PathMatcher getPathMatcher() {
+        return this.pathMatcher;
+    }
+
+    /**
+     * 丢掉索引和缓存的结果，ClassLoader的类路径变了(比如热部署)时调用
+     */
+    public void clearCache() {
+        synchronized (this.resultCache) {
+            this.roots = null;
+            this.indexable = true;
+            this.resultCache.clear();
+        }
+    }
+
+    @Override
+    public Resource getResource(String location) {
+        return this.resourceLoader.getResource(location);
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return this.resourceLoader.getClassLoader();
+    }
+
+    @Override
+    public Resource[] getResources(String locationPattern) throws IOException {
+        Assert.notNull(locationPattern, "Location pattern must not be null");
+        boolean allRoots;
+        String path;
+        if (locationPattern.startsWith(CLASSPATH_ALL_URL_PREFIX)) {
+            allRoots = true;
+            path = locationPattern.substring(CLASSPATH_ALL_URL_PREFIX.length());
+        }
+        else if (locationPattern.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)) {
+            allRoots = false;
+            path = locationPattern.substring(ResourceUtils.CLASSPATH_URL_PREFIX.length());
+        }
+        else {
+            return this.fallback.getResources(locationPattern);
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        String rootDir = determineRootDir(path);
+        if (!getPathMatcher().isPattern(path) || rootDir.isEmpty()) {
+            return this.fallback.getResources(locationPattern);
+        }
+        List<ClassPathRoot> classPathRoots = getRoots();
+        if (!this.indexable) {
+            return this.fallback.getResources(locationPattern);
+        }
+
+        CachedResult cached = this.resultCache.get(locationPattern);
+        if (cached == null || !cached.isValid()) {
+            cached = find(classPathRoots, rootDir, path, allRoots);
+            this.resultCache.put(locationPattern, cached);
+        }
+        return cached.resources.clone();
+    }
+
+    private CachedResult find(List<ClassPathRoot> classPathRoots, String rootDir, String pattern, boolean allRoots) throws IOException {
+        List<Resource> result = new ArrayList<>();
+        Map<Path, FileTime> stamps = new LinkedHashMap<>();
+        for (ClassPathRoot root : classPathRoots) {
+            // classpath:只看第一个包含rootDir的类路径，和ClassLoader.getResource一样
+            if (root.find(rootDir, pattern, result, stamps) && !allRoots) {
+                break;
+            }
+        }
+        return new CachedResult(result.toArray(new Resource[0]), stamps);
+    }
+
+    /**
+     * 和PathMatchingResourcePatternResolver.determineRootDir一样：第一个带通配符的路径段之前的部分
+     */
+    protected String determineRootDir(String path) {
+        int rootDirEnd = path.length();
+        while (rootDirEnd > 0 && getPathMatcher().isPattern(path.substring(0, rootDirEnd))) {
+            rootDirEnd = path.lastIndexOf('/', rootDirEnd - 2) + 1;
+        }
+        return path.substring(0, rootDirEnd);
+    }
+
+    private List<ClassPathRoot> getRoots() {
+        List<ClassPathRoot> result = this.roots;
+        if (result == null) {
+            synchronized (this.resultCache) {
+                result = this.roots;
+                if (result == null) {
+                    long start = System.nanoTime();
+                    result = buildRoots();
+                    this.roots = result;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Indexed " + result.size() + " class path roots in " +
+                                (System.nanoTime() - start) / 1_000_000 + " ms");
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<ClassPathRoot> buildRoots() {
+        ClassLoader classLoader = getClassLoader();
+        if (classLoader == null) {
+            classLoader = ClassUtils.getDefaultClassLoader();
+        }
+        // ClassLoader.getResources是父加载器优先，按同样的顺序排类路径
+        Deque<ClassLoader> chain = new ArrayDeque<>();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            chain.push(loader);
+        }
+        List<URL> urls = new ArrayList<>();
+        for (ClassLoader loader : chain) {
+            if (loader instanceof URLClassLoader) {
+                urls.addAll(Arrays.asList(((URLClassLoader) loader).getURLs()));
+            }
+            else if (loader == ClassLoader.getSystemClassLoader()) {
+                // Java 9以后的AppClassLoader不是URLClassLoader
+                for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                    if (!entry.isEmpty()) {
+                        urls.add(toUrl(new File(entry)));
+                    }
+                }
+            }
+            else if (!PLATFORM_CLASS_LOADER_NAME.equals(loader.getClass().getName())) {
+                return notIndexable("class loader " + loader + " does not expose its class path");
+            }
+        }
+
+        List<ClassPathRoot> result = new ArrayList<>();
+        Set<File> seen = new HashSet<>();
+        for (URL url : urls) {
+            if (!ResourceUtils.URL_PROTOCOL_FILE.equals(url.getProtocol())) {
+                return notIndexable("class path entry " + url + " is not a file");
+            }
+            try {
+                addRoot(ResourceUtils.getFile(url), seen, result);
+            }
+            catch (IOException ex) {
+                return notIndexable("class path entry " + url + " cannot be read: " + ex);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private void addRoot(File file, Set<File> seen, List<ClassPathRoot> result) throws IOException {
+        if (!seen.add(file.getAbsoluteFile())) {
+            return;
+        }
+        if (file.isDirectory()) {
+            result.add(new DirectoryRoot(file));
+        }
+        else if (file.isFile()) {
+            JarEntryIndex index;
+            try {
+                index = JarEntryIndex.load(file);
+            }
+            catch (IOException ex) {
+                // ClassLoader也会跳过读不了的jar
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Skipping unreadable class path entry " + file + ": " + ex);
+                }
+                return;
+            }
+            result.add(new JarRoot(index));
+            // URLClassPath紧接着这个jar搜索它Class-Path里的条目
+            URL base = toUrl(file);
+            for (String entry : index.manifestClassPath()) {
+                URL url = new URL(base, entry);
+                if (ResourceUtils.URL_PROTOCOL_FILE.equals(url.getProtocol())) {
+                    addRoot(ResourceUtils.getFile(url), seen, result);
+                }
+            }
+        }
+    }
+
+    private List<ClassPathRoot> notIndexable(String reason) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Not indexing class path, " + reason + "; using PathMatchingResourcePatternResolver");
+        }
+        this.indexable = false;
+        return Collections.emptyList();
+    }
+
+    private static URL toUrl(File file) {
+        try {
+            return file.toURI().toURL();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    private interface ClassPathRoot {
+
+        /**
+         * 把rootDir下和pattern匹配的资源加到result，返回这个类路径里有没有rootDir
+         */
+        boolean find(String rootDir, String pattern, List<Resource> result, Map<Path, FileTime> stamps) throws IOException;
+    }
+
+
+    private final class JarRoot implements ClassPathRoot {
+
+        private final JarEntryIndex index;
+
+        private final String urlPrefix;
+
+        JarRoot(JarEntryIndex index) {
+            this.index = index;
+            this.urlPrefix = ResourceUtils.JAR_URL_PREFIX + toUrl(index.file) + ResourceUtils.JAR_URL_SEPARATOR;
+        }
+
+        @Override
+        public boolean find(String rootDir, String pattern, List<Resource> result, Map<Path, FileTime> stamps) throws IOException {
+            // 没有目录条目的jar，ClassLoader.getResources(rootDir)也找不到
+            if (!this.index.contains(rootDir)) {
+                return false;
+            }
+            int[] range = this.index.prefixRange(rootDir);
+            for (int i = range[0]; i < range[1]; i++) {
+                String name = this.index.entryNames[i];
+                if (getPathMatcher().match(pattern, name)) {
+                    result.add(new UrlResource(this.urlPrefix + name));
+                }
+            }
+            return true;
+        }
+    }
+
+
+    private final class DirectoryRoot implements ClassPathRoot {
+
+        private final File base;
+
+        DirectoryRoot(File base) {
+            this.base = base;
+        }
+
+        @Override
+        public boolean find(String rootDir, String pattern, List<Resource> result, Map<Path, FileTime> stamps) throws IOException {
+            File dir = new File(this.base, rootDir);
+            if (!dir.isDirectory()) {
+                // 以后新建了rootDir，离它最近的上级目录的修改时间会变
+                File parent = dir.getParentFile();
+                while (parent != null && !parent.isDirectory() && !parent.equals(this.base)) {
+                    parent = parent.getParentFile();
+                }
+                if (parent != null && parent.isDirectory()) {
+                    stamp(parent, stamps);
+                }
+                return false;
+            }
+            walk(dir, rootDir, pattern, result, stamps);
+            return true;
+        }
+
+        private void walk(File dir, String dirPath, String pattern, List<Resource> result, Map<Path, FileTime> stamps) throws IOException {
+            stamp(dir, stamps);
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                String path = dirPath + file.getName();
+                if (file.isDirectory() && getPathMatcher().matchStart(pattern, path + "/")) {
+                    walk(file, path + "/", pattern, result, stamps);
+                }
+                if (getPathMatcher().match(pattern, path)) {
+                    result.add(new FileSystemResource(file));
+                }
+            }
+        }
+
+        private void stamp(File dir, Map<Path, FileTime> stamps) throws IOException {
+            Path path = dir.toPath();
+            stamps.put(path, Files.getLastModifiedTime(path));
+        }
+    }
+
+
+    private static final class CachedResult {
+
+        final Resource[] resources;
+
+        private final Map<Path, FileTime> directoryStamps;
+
+        CachedResult(Resource[] resources, Map<Path, FileTime> directoryStamps) {
+            this.resources = resources;
+            this.directoryStamps = directoryStamps;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<Path, FileTime> entry : this.directoryStamps.entrySet()) {
+                try {
+                    if (!Files.getLastModifiedTime(entry.getKey()).equals(entry.getValue())) {
+                        return false;
+                    }
+                }
+                catch (IOException ex) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
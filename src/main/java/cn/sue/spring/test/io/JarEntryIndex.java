@@ -0,0 +1,154 @@
+package cn.sue.spring.test.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * <p>
+ * 一个jar里所有条目名(按名字排序)。直接把jar末尾的中央目录映射到内存里读条目名，
+ * 不用JarFile：不解压、不建ZipEntry对象，几百个jar也只要读几页文件。
+ * zip64或者格式读不懂的jar退回到JarFile
+ * </p>
+ *
+ * @author Sue
+ * @className JarEntryIndex
+ * @create 2023/5/24
+ **/
+final class JarEntryIndex {
+
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+
+    private static final int END_HEADER_SIZE = 22;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    final File file;
+
+    final String[] entryNames;
+
+    private JarEntryIndex(File file, String[] entryNames) {
+        this.file = file;
+        this.entryNames = entryNames;
+    }
+
+    static JarEntryIndex load(File file) throws IOException {
+        String[] names = readCentralDirectory(file);
+        if (names == null) {
+            names = readWithJarFile(file);
+        }
+        Arrays.sort(names);
+        return new JarEntryIndex(file, names);
+    }
+
+    boolean contains(String entryName) {
+        return Arrays.binarySearch(this.entryNames, entryName) >= 0;
+    }
+
+    /**
+     * 以prefix开头的条目在entryNames里的下标范围[from, to)
+     */
+    int[] prefixRange(String prefix) {
+        int from = Arrays.binarySearch(this.entryNames, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < this.entryNames.length && this.entryNames[to].startsWith(prefix)) {
+            to++;
+        }
+        return new int[] {from, to};
+    }
+
+    /**
+     * MANIFEST.MF里的Class-Path，surefire之类的启动器会把整个类路径放在一个只有清单的jar里
+     */
+    String[] manifestClassPath() throws IOException {
+        if (!contains(MANIFEST_NAME)) {
+            return new String[0];
+        }
+        try (JarFile jarFile = new JarFile(this.file)) {
+            Manifest manifest = jarFile.getManifest();
+            String classPath = (manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null);
+            return (classPath != null && !classPath.trim().isEmpty() ? classPath.trim().split("\\s+") : new String[0]);
+        }
+    }
+
+    private static String[] readCentralDirectory(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < END_HEADER_SIZE) {
+                return null;
+            }
+            // 结束记录在文件最后，后面最多跟一个64K的注释
+            int tailSize = (int) Math.min(size, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+            MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, size - tailSize, tailSize);
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+            int end = -1;
+            for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return null;
+            }
+            int entryCount = tail.getShort(end + 10) & 0xffff;
+            long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+            long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+            if (entryCount == 0xffff || directoryOffset == 0xffffffffL || directoryOffset + directorySize > size) {
+                // zip64
+                return null;
+            }
+
+            MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+            directory.order(ByteOrder.LITTLE_ENDIAN);
+            String[] names = new String[entryCount];
+            int position = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (position + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    return null;
+                }
+                int nameLength = directory.getShort(position + 28) & 0xffff;
+                int extraLength = directory.getShort(position + 30) & 0xffff;
+                int commentLength = directory.getShort(position + 32) & 0xffff;
+                byte[] name = new byte[nameLength];
+                directory.position(position + CENTRAL_HEADER_SIZE);
+                directory.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return names;
+        }
+    }
+
+    private static String[] readWithJarFile(File file) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (JarFile jarFile = new JarFile(file)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,607 @@
+package cn.sue.spring.test.io;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.ProtocolResolver;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.UrlResource;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * http:/https:资源的本地磁盘缓存。作为ProtocolResolver加到容器上以后，context.getResource("https://...")返回的资源
+ * 第一次读内容时下载到缓存目录，之后contentLength()、getInputStream()都读本地文件(内存映射)，不再每次建网络连接。
+ * 缓存的内容超过{@code revalidateAfterMillis}以后带If-None-Match/If-Modified-Since重新请求，
+ * 服务器返回304时继续用本地文件，返回200时替换；请求失败时先用旧的内容。
+ * 同一个URL同时只有一个请求，其它线程等它的结果。
+ * 缓存总大小超过{@code maxSize}时删除最久没用的。缓存目录里记着每个URL的ETag等信息，重启以后接着用
+ * </p>
+ * <p>
+ * 使用：context.addProtocolResolver(new UrlResourceCache(Paths.get("cache/resources")))
+ * </p>
+ *
+ * @author Sue
+ * @className UrlResourceCache
+ * @create 2023/6/1
+ **/
+public class UrlResourceCache implements ProtocolResolver {
+
+    private static final Log logger = LogFactory.getLog(UrlResourceCache.class);
+
+    private static final String BODY_SUFFIX = ".body";
+
+    private static final String META_SUFFIX = ".properties";
+
+    // 一次映射最多Integer.MAX_VALUE字节，更大的文件分段映射
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final Path directory;
+
+    private long maxSize = 256 * 1024 * 1024;
+
+    private long revalidateAfterMillis = 60_000;
+
+    private int connectTimeoutMillis = 10_000;
+
+    private int readTimeoutMillis = 30_000;
+
+    // URL -> 缓存的内容，按访问顺序排列，最前面的最久没用；用它自己做锁
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalSize;
+
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder downloads = new LongAdder();
+
+    private final LongAdder revalidations = new LongAdder();
+
+    private final LongAdder sharedFetches = new LongAdder();
+
+    private final LongAdder staleHits = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public UrlResourceCache(Path directory) throws IOException {
+        Assert.notNull(directory, "Directory must not be null");
+        this.directory = directory;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * 缓存文件的总大小上限(字节)
+     */
+    public void setMaxSize(long maxSize) {
+        Assert.isTrue(maxSize > 0, "Max size must be positive");
+        this.maxSize = maxSize;
+        synchronized (this.entries) {
+            evict();
+        }
+    }
+
+    /**
+     * 缓存的内容在这么长时间内直接用，超过以后重新验证；0表示每次读内容都验证(内容没变时不会重新下载)
+     */
+    public void setRevalidateAfterMillis(long revalidateAfterMillis) {
+        Assert.isTrue(revalidateAfterMillis >= 0, "Revalidation interval must not be negative");
+        this.revalidateAfterMillis = revalidateAfterMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    @Nullable
+    public Resource resolve(String location, ResourceLoader resourceLoader) {
+        if (!location.regionMatches(true, 0, "http:", 0, 5) && !location.regionMatches(true, 0, "https:", 0, 6)) {
+            return null;
+        }
+        try {
+            return new CachedUrlResource(new URL(location));
+        }
+        catch (MalformedURLException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 读出缓存目录里上次留下的内容，最近验证过的排在后面
+     */
+    private void load() throws IOException {
+        List<Entry> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + META_SUFFIX)) {
+            for (Path meta : files) {
+                Entry entry = readMeta(meta);
+                if (entry != null) {
+                    loaded.add(entry);
+                }
+                else {
+                    Files.deleteIfExists(meta);
+                }
+            }
+        }
+        loaded.sort(Comparator.comparingLong(entry -> entry.validatedAt));
+        synchronized (this.entries) {
+            for (Entry entry : loaded) {
+                this.entries.put(entry.url, entry);
+                this.totalSize += entry.length;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * 拿到URL的缓存内容，需要时下载或者重新验证
+     */
+    Entry obtain(URL url) throws IOException {
+        String key = url.toExternalForm();
+        Entry cached;
+        synchronized (this.entries) {
+            cached = this.entries.get(key);
+        }
+        if (cached != null && System.currentTimeMillis() - cached.validatedAt < this.revalidateAfterMillis) {
+            this.hits.increment();
+            return cached;
+        }
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = this.inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            this.sharedFetches.increment();
+            return await(existing);
+        }
+        try {
+            Entry entry = fetch(url, key, cached);
+            future.complete(entry);
+            return entry;
+        }
+        catch (IOException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+        finally {
+            this.inFlight.remove(key, future);
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a concurrent fetch", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private Entry fetch(URL url, String key, @Nullable Entry cached) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(this.connectTimeoutMillis);
+        connection.setReadTimeout(this.readTimeoutMillis);
+        connection.setUseCaches(false);
+        if (cached != null) {
+            if (cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified > 0) {
+                connection.setIfModifiedSince(cached.lastModified);
+            }
+        }
+        try {
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) connection;
+                int status = http.getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                    this.revalidations.increment();
+                    cached.validatedAt = System.currentTimeMillis();
+                    writeMeta(cached);
+                    return cached;
+                }
+                if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                    remove(key);
+                    throw new FileNotFoundException(url + " returned HTTP " + status);
+                }
+                if (status >= 400) {
+                    throw new IOException(url + " returned HTTP " + status);
+                }
+            }
+            return download(connection, key);
+        }
+        catch (FileNotFoundException ex) {
+            throw ex;
+        }
+        catch (IOException ex) {
+            if (cached == null) {
+                throw ex;
+            }
+            this.staleHits.increment();
+            logger.warn("Failed to revalidate " + url + ", using the cached copy: " + ex);
+            return cached;
+        }
+    }
+
+    /**
+     * 先写临时文件，映射好以后再改名。Entry发布出去之前内容就已经映射了，之后同一个URL重新下载替换了文件、
+     * 或者这个Entry被淘汰删掉了文件，已经拿到它的线程读到的还是这次下载的内容
+     */
+    private Entry download(URLConnection connection, String key) throws IOException {
+        String name = DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8));
+        Path body = this.directory.resolve(name + BODY_SUFFIX);
+        Path temp = Files.createTempFile(this.directory, name, ".tmp");
+        long length;
+        ByteBuffer[] content;
+        try {
+            try (InputStream in = connection.getInputStream()) {
+                length = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            content = map(temp, length);
+            Files.move(temp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        Entry entry = new Entry(key, body, length, connection.getHeaderField("ETag"), connection.getLastModified(),
+                System.currentTimeMillis(), content);
+        writeMeta(entry);
+        this.downloads.increment();
+        synchronized (this.entries) {
+            Entry previous = this.entries.put(key, entry);
+            if (previous != null) {
+                this.totalSize -= previous.length;
+            }
+            this.totalSize += entry.length;
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * 映射建立以后就和文件路径无关了，文件被替换或删除都不影响映射的内容
+     */
+    private static ByteBuffer[] map(Path file, long length) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, (length + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * MAX_SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_SEGMENT_SIZE, length - position));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 超过上限时从最久没用的开始删，刚放进来的那个(排在最后)至少留下
+     */
+    private void evict() {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.totalSize > this.maxSize && this.entries.size() > 1) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            this.totalSize -= eldest.length;
+            this.evictions.increment();
+            deleteFiles(eldest);
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this.entries) {
+            Entry entry = this.entries.remove(key);
+            if (entry != null) {
+                this.totalSize -= entry.length;
+                deleteFiles(entry);
+            }
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        try {
+            Files.deleteIfExists(metaFile(entry));
+            Files.deleteIfExists(entry.body);
+        }
+        catch (IOException ex) {
+            logger.warn("Failed to delete cached copy of " + entry.url, ex);
+        }
+    }
+
+    private Path metaFile(Entry entry) {
+        String fileName = entry.body.getFileName().toString();
+        return this.directory.resolve(fileName.substring(0, fileName.length() - BODY_SUFFIX.length()) + META_SUFFIX);
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        properties.setProperty("body", entry.body.getFileName().toString());
+        properties.setProperty("length", Long.toString(entry.length));
+        properties.setProperty("lastModified", Long.toString(entry.lastModified));
+        properties.setProperty("validatedAt", Long.toString(entry.validatedAt));
+        if (entry.etag != null) {
+            properties.setProperty("etag", entry.etag);
+        }
+        Path meta = metaFile(entry);
+        Path temp = Files.createTempFile(this.directory, meta.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 元数据和内容文件对得上时返回映射好的Entry
+     */
+    @Nullable
+    private Entry readMeta(Path meta) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            Path body = this.directory.resolve(properties.getProperty("body"));
+            long length = Long.parseLong(properties.getProperty("length"));
+            if (!Files.isRegularFile(body) || Files.size(body) != length) {
+                return null;
+            }
+            return new Entry(properties.getProperty("url"), body, length, properties.getProperty("etag"),
+                    Long.parseLong(properties.getProperty("lastModified")), Long.parseLong(properties.getProperty("validatedAt")),
+                    map(body, length));
+        }
+        catch (IOException | RuntimeException ex) {
+            logger.debug("Ignoring unreadable cache metadata " + meta, ex);
+            return null;
+        }
+    }
+
+    public long getSize() {
+        synchronized (this.entries) {
+            return this.totalSize;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * 没有访问网络，直接用了缓存的次数
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getDownloadCount() {
+        return this.downloads.sum();
+    }
+
+    /**
+     * 服务器返回304的次数
+     */
+    public long getRevalidationCount() {
+        return this.revalidations.sum();
+    }
+
+    /**
+     * 同一个URL正在请求，等它结果的次数
+     */
+    public long getSharedFetchCount() {
+        return this.sharedFetches.sum();
+    }
+
+    /**
+     * 重新验证失败，用了旧内容的次数
+     */
+    public long getStaleHitCount() {
+        return this.staleHits.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+
+    static final class Entry {
+
+        final String url;
+
+        final Path body;
+
+        final long length;
+
+        @Nullable
+        final String etag;
+
+        final long lastModified;
+
+        volatile long validatedAt;
+
+        private final ByteBuffer[] content;
+
+        Entry(String url, Path body, long length, @Nullable String etag, long lastModified, long validatedAt,
+              ByteBuffer[] content) {
+            this.url = url;
+            this.body = body;
+            this.length = length;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+            this.content = content;
+        }
+
+        /**
+         * 每次读都是映射内容的一个视图
+         */
+        InputStream openStream() {
+            ByteBuffer[] buffers = new ByteBuffer[this.content.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = this.content[i].duplicate();
+            }
+            return new ByteBufferInputStream(buffers);
+        }
+    }
+
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer[] buffers;
+
+        private int index;
+
+        ByteBufferInputStream(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        @Nullable
+        private ByteBuffer current() {
+            while (this.index < this.buffers.length && !this.buffers[this.index].hasRemaining()) {
+                this.index++;
+            }
+            return (this.index < this.buffers.length ? this.buffers[this.index] : null);
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = current();
+            return (buffer != null ? buffer.get() & 0xFF : -1);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = current();
+            if (buffer == null) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            ByteBuffer buffer;
+            while (skipped < n && (buffer = current()) != null) {
+                int count = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + count);
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long remaining = 0;
+            for (int i = this.index; i < this.buffers.length; i++) {
+                remaining += this.buffers[i].remaining();
+            }
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+
+    /**
+     * 读内容、长度、修改时间都走缓存的UrlResource
+     */
+    private final class CachedUrlResource extends UrlResource {
+
+        CachedUrlResource(URL url) {
+            super(url);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return obtain(getURL()).openStream();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return obtain(getURL()).length;
+        }
+
+        @Override
+        public long lastModified() throws IOException {
+            return obtain(getURL()).lastModified;
+        }
+
+        @Override
+        public boolean exists() {
+            try {
+                obtain(getURL());
+                return true;
+            }
+            catch (IOException ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean isReadable() {
+            return exists();
+        }
+
+        @Override
+        public Resource createRelative(String relativePath) throws MalformedURLException {
+            if (relativePath.startsWith("/")) {
+                relativePath = relativePath.substring(1);
+            }
+            return new CachedUrlResource(new URL(getURL(), relativePath));
+        }
+
+        @Override
+        public String getDescription() {
+            return "Cached URL [" + getURL() + "]";
+        }
+    }
+}
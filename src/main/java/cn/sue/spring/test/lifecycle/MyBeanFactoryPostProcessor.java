@@ -1,5 +1,7 @@
 package cn.sue.spring.test.lifecycle;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
@@ -7,7 +9,7 @@ import org.springframework.stereotype.Component;
 
 /**
  * <p>
- *
+ * 生命周期跟踪用debug日志输出，耗时统计见{@link cn.sue.spring.test.metrics.LifecycleMetrics}
  * </p>
  *
  * @author Sue
@@ -16,22 +18,27 @@ import org.springframework.stereotype.Component;
  **/
 @Component
 public class MyBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+
+    private static final Log logger = LogFactory.getLog(MyBeanFactoryPostProcessor.class);
+
     public MyBeanFactoryPostProcessor() {
         super();
-        System.out.println("BeanFactoryPostProcessor{}实现类MyBeanFactoryPostProcessor{}的构造函数");
+        logger.debug("BeanFactoryPostProcessor{}实现类MyBeanFactoryPostProcessor{}的构造函数");
     }
 
     // 允许我们在工厂里所有的bean被加载进来后但是还没初始化前，对所有bean的属性进行修改也可以add属性值，该操作在对应bean的构造函数执行前
     @Override
     public void postProcessBeanFactory(ConfigurableListableBeanFactory arg0) throws BeansException {
-        System.out.println("BeanFactoryPostProcessor.postProcessBeanFactory()，来自MyBeanFactoryPostProcessor");
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        logger.debug("BeanFactoryPostProcessor.postProcessBeanFactory()，来自MyBeanFactoryPostProcessor");
         //获取到Spring中所有的beanName
         String[] beanStr = arg0.getBeanDefinitionNames();
         //循环打印
         for (String beanName : beanStr) {
-            System.out.print("已加载的bean name:" + beanName + ";" + "\n");
+            logger.debug("已加载的bean name:" + beanName + ";");
         }
-        System.out.println();
     }
 
-}
\ No newline at end of file
+}
@@ -1,12 +1,16 @@
 package cn.sue.spring.test.lifecycle;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import cn.sue.spring.test.factory.TypeTargetedBeanPostProcessor;
 import org.springframework.beans.BeansException;
-import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
 
 /**
  * <p>
- *
+ * 生命周期跟踪用debug日志输出，耗时统计见{@link cn.sue.spring.test.metrics.LifecycleMetrics}。
+ * 只跟踪TestBeanA和TestBeanB；在ExtendedBeanFactory里其它Bean不会调用到这里，普通的BeanFactory里靠isTraced过滤
  * </p>
  *
  * @author Sue
@@ -14,10 +18,20 @@ import org.springframework.stereotype.Component;
  * @create 2023/4/25
  **/
 @Component
-public class MyBeanPostProcessor implements BeanPostProcessor {
+public class MyBeanPostProcessor implements TypeTargetedBeanPostProcessor {
+
+    private static final Log logger = LogFactory.getLog(MyBeanPostProcessor.class);
+
     public MyBeanPostProcessor() {
         super();
-        System.out.println("BeanPostProcessor{}实现类MyBeanPostProcessor{}的构造函数");
+        logger.debug("BeanPostProcessor{}实现类MyBeanPostProcessor{}的构造函数");
+    }
+
+    private static final Class<?>[] TARGET_TYPES = {TestBeanA.class, TestBeanB.class};
+
+    @Override
+    public Class<?>[] getTargetTypes() {
+        return TARGET_TYPES.clone();
     }
 
     // 实例化、依赖注入完毕，在调用显示的初始化之前完成一些定制的业务
@@ -25,9 +39,8 @@ public class MyBeanPostProcessor implements BeanPostProcessor {
     public Object postProcessAfterInitialization(Object arg0, String arg1)
             throws BeansException {
 
-        if (arg0.getClass() == TestBeanA.class || arg0.getClass() == TestBeanB.class) {
-            System.out
-                    .println("BeanPostProcessor.postProcessAfterInitialization() 来自MyBeanPostProcessor，beanName:" + arg1);
+        if (isTraced(arg0)) {
+            logger.debug("BeanPostProcessor.postProcessAfterInitialization() 来自MyBeanPostProcessor，beanName:" + arg1);
         }
         return arg0;
     }
@@ -37,11 +50,14 @@ public class MyBeanPostProcessor implements BeanPostProcessor {
     public Object postProcessBeforeInitialization(Object arg0, String arg1)
             throws BeansException {
 
-        if (arg0.getClass() == TestBeanA.class || arg0.getClass() == TestBeanB.class) {
-            System.out
-                    .println("BeanPostProcessor.postProcessBeforeInitialization() 来自MyBeanPostProcessor，beanName:" + arg1);
+        if (isTraced(arg0)) {
+            logger.debug("BeanPostProcessor.postProcessBeforeInitialization() 来自MyBeanPostProcessor，beanName:" + arg1);
         }
         return arg0;
     }
 
-}
\ No newline at end of file
+    private static boolean isTraced(Object bean) {
+        return logger.isDebugEnabled() && ObjectUtils.containsElement(TARGET_TYPES, bean.getClass());
+    }
+
+}
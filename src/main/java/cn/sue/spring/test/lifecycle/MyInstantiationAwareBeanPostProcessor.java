@@ -1,15 +1,20 @@
 package cn.sue.spring.test.lifecycle;
 
+import cn.sue.spring.test.factory.TypeTargetedBeanPostProcessor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.PropertyValues;
 import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
 
 import java.beans.PropertyDescriptor;
 
 /**
  * <p>
- *
+ * 生命周期跟踪用debug日志输出，耗时统计见{@link cn.sue.spring.test.metrics.LifecycleMetrics}。
+ * 只跟踪TestBeanA和TestBeanB；在ExtendedBeanFactory里其它Bean不会调用到这里，普通的BeanFactory里靠isTraced过滤
  * </p>
  *
  * @author Sue
@@ -17,21 +22,28 @@ import java.beans.PropertyDescriptor;
  * @create 2023/4/25
  **/
 @Component
-public class MyInstantiationAwareBeanPostProcessor implements InstantiationAwareBeanPostProcessor {
+public class MyInstantiationAwareBeanPostProcessor implements InstantiationAwareBeanPostProcessor, TypeTargetedBeanPostProcessor {
+
+    private static final Log logger = LogFactory.getLog(MyInstantiationAwareBeanPostProcessor.class);
+
     public MyInstantiationAwareBeanPostProcessor() {
         super();
-        System.out
-                .println("InstantiationAwareBeanPostProcessorAdapter{}实现类MyInstantiationAwareBeanPostProcessor{}的构造函数");
+        logger.debug("InstantiationAwareBeanPostProcessorAdapter{}实现类MyInstantiationAwareBeanPostProcessor{}的构造函数");
+    }
+
+    private static final Class<?>[] TARGET_TYPES = {TestBeanA.class, TestBeanB.class};
+
+    @Override
+    public Class<?>[] getTargetTypes() {
+        return TARGET_TYPES.clone();
     }
 
     // 接口方法、实例化Bean之前调用
     @Override
     public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
 
-        if (bean.getClass() == TestBeanA.class || bean.getClass() == TestBeanB.class) {
-            System.out
-                    .println("InstantiationAwareBeanPostProcessorAdapter.postProcessBeforeInitialization() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
-
+        if (isTraced(bean)) {
+            logger.debug("InstantiationAwareBeanPostProcessorAdapter.postProcessBeforeInitialization() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
         }
         return bean;
     }
@@ -40,9 +52,8 @@ public class MyInstantiationAwareBeanPostProcessor implements InstantiationAware
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName)
             throws BeansException {
-        if (bean.getClass() == TestBeanA.class || bean.getClass() == TestBeanB.class) {
-            System.out
-                    .println("InstantiationAwareBeanPostProcessorAdapter.postProcessAfterInitialization() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
+        if (isTraced(bean)) {
+            logger.debug("InstantiationAwareBeanPostProcessorAdapter.postProcessAfterInitialization() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
         }
 
         return bean;
@@ -54,12 +65,15 @@ public class MyInstantiationAwareBeanPostProcessor implements InstantiationAware
                                                     PropertyDescriptor[] pds, Object bean, String beanName)
             throws BeansException {
 
-        if (bean.getClass() == TestBeanA.class || bean.getClass() == TestBeanB.class) {
-            System.out
-                    .println("InstantiationAwareBeanPostProcessorAdapter.postProcessPropertyValues() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
+        if (isTraced(bean)) {
+            logger.debug("InstantiationAwareBeanPostProcessorAdapter.postProcessPropertyValues() 来自MyInstantiationAwareBeanPostProcessor，beanName:" + beanName);
         }
 
         return pvs;
     }
 
-}
\ No newline at end of file
+    private static boolean isTraced(Object bean) {
+        return logger.isDebugEnabled() && ObjectUtils.containsElement(TARGET_TYPES, bean.getClass());
+    }
+
+}
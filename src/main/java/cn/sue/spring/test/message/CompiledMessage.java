@@ -0,0 +1,156 @@
+package cn.sue.spring.test.message;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ * 预编译好的一条消息。
+ * 只含{0}、{1}这种简单占位符的消息在加载时就拆成"文本片段 + 参数下标"，格式化时直接拼字符串；
+ * 带格式类型的占位符({0,number,#.##}、choice等)或者参数是数字、日期时，交给当前线程自己的MessageFormat，
+ * 不会像AbstractMessageSource那样在共享的MessageFormat上加锁。
+ * 每个线程只有一个缓存，按消息弱引用，重新加载以后旧消息的MessageFormat跟着回收
+ * </p>
+ *
+ * @author Sue
+ * @className CompiledMessage
+ * @create 2023/5/18
+ **/
+final class CompiledMessage {
+
+    // 当前线程用过的复杂消息 -> 它的MessageFormat
+    private static final ThreadLocal<Map<CompiledMessage, MessageFormat>> MESSAGE_FORMATS =
+            ThreadLocal.withInitial(WeakHashMap::new);
+
+    private final String pattern;
+
+    private final Locale locale;
+
+    // 简单消息：literals比argIndexes多一个；复杂消息为null
+    private final String[] literals;
+
+    private final int[] argIndexes;
+
+    CompiledMessage(String pattern, Locale locale) {
+        this.pattern = pattern;
+        this.locale = locale;
+        List<String> literals = new ArrayList<>();
+        List<Integer> argIndexes = new ArrayList<>();
+        if (parse(pattern, literals, argIndexes)) {
+            this.literals = literals.toArray(new String[0]);
+            this.argIndexes = argIndexes.stream().mapToInt(Integer::intValue).toArray();
+        }
+        else {
+            this.literals = null;
+            this.argIndexes = null;
+            // 格式不合法时和MessageFormat一样在加载时就报错
+            new MessageFormat(pattern, locale);
+        }
+    }
+
+    String getPattern() {
+        return this.pattern;
+    }
+
+    /**
+     * 和AbstractMessageSource一致：没有参数时原样返回，不做MessageFormat的转义处理
+     */
+    String format(Object[] args) {
+        if (args == null || args.length == 0) {
+            return this.pattern;
+        }
+        if (this.literals == null || !isPlain(args)) {
+            return MESSAGE_FORMATS.get().computeIfAbsent(this, message -> new MessageFormat(message.pattern, message.locale))
+                    .format(args);
+        }
+        StringBuilder sb = new StringBuilder(this.pattern.length() + 16 * this.argIndexes.length);
+        for (int i = 0; i < this.argIndexes.length; i++) {
+            sb.append(this.literals[i]);
+            int index = this.argIndexes[i];
+            if (index < args.length) {
+                sb.append(args[index]);
+            }
+            else {
+                // MessageFormat对缺少的参数原样输出占位符
+                sb.append('{').append(index).append('}');
+            }
+        }
+        return sb.append(this.literals[this.argIndexes.length]).toString();
+    }
+
+    /**
+     * 数字和日期要按Locale格式化，交给MessageFormat
+     */
+    private boolean isPlain(Object[] args) {
+        for (int index : this.argIndexes) {
+            if (index < args.length && (args[index] instanceof Number || args[index] instanceof Date)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按MessageFormat的规则拆分：''是单引号，'...'里的内容原样输出，{n}是占位符
+     * @return 是否只包含简单占位符
+     */
+    private static boolean parse(String pattern, List<String> literals, List<Integer> argIndexes) {
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i += 2;
+                    continue;
+                }
+                i++;
+                while (i < pattern.length()) {
+                    char q = pattern.charAt(i);
+                    if (q == '\'') {
+                        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                            literal.append('\'');
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(q);
+                    i++;
+                }
+                i++;
+            }
+            else if (c == '{') {
+                int end = pattern.indexOf('}', i);
+                if (end < 0) {
+                    return false;
+                }
+                String argument = pattern.substring(i + 1, end).trim();
+                if (argument.isEmpty() || argument.length() > 9) {
+                    return false;
+                }
+                for (int j = 0; j < argument.length(); j++) {
+                    if (!Character.isDigit(argument.charAt(j))) {
+                        return false;
+                    }
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                argIndexes.add(Integer.parseInt(argument));
+                i = end + 1;
+            }
+            else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+package cn.sue.spring.test.message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.HierarchicalMessageSource;
+import org.springframework.context.MessageSource;
+import org.springframework.context.MessageSourceResolvable;
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * 启动时把所有语言的properties一次性加载好的MessageSource。
+ * ResourceBundleMessageSource每次getMessage都要经过加锁的bundle缓存和MessageFormat缓存，
+ * 格式化时还要在共享的MessageFormat上synchronized，核数多了以后锁竞争很明显；
+ * 这里每个Locale对应一张不可变的表(已经按ResourceBundle的规则合并好父语言)，消息在加载时预编译成{@link CompiledMessage}，
+ * 查询时只有一次ConcurrentHashMap的读，不加锁。
+ * reloadable为true时(默认不开)监听properties所在目录，文件变化后重新加载，整体替换成新的表；
+ * 监听启动失败(比如inotify数量到了上限)时只记警告，继续用启动时加载的表
+ * </p>
+ *
+ * @author Sue
+ * @className PrecompiledMessageSource
+ * @create 2023/5/18
+ **/
+public class PrecompiledMessageSource implements HierarchicalMessageSource, ResourceLoaderAware, InitializingBean, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(PrecompiledMessageSource.class);
+
+    private static final String PROPERTIES_SUFFIX = ".properties";
+
+    private final Set<String> basenames = new LinkedHashSet<>();
+
+    @Nullable
+    private String defaultEncoding;
+
+    private boolean fallbackToSystemLocale = true;
+
+    private boolean useCodeAsDefaultMessage;
+
+    private boolean reloadable;
+
+    @Nullable
+    private MessageSource parentMessageSource;
+
+    private ResourcePatternResolver resourcePatternResolver = new PathMatchingResourcePatternResolver();
+
+    private volatile Snapshot snapshot;
+
+    @Nullable
+    private WatchService watchService;
+
+    /**
+     * 和ResourceBundleMessageSource一样，"message"对应类路径下的message.properties、message_zh.properties等；
+     * 也可以带前缀，比如"file:/etc/app/message"
+     */
+    public void setBasename(String basename) {
+        setBasenames(basename);
+    }
+
+    public void setBasenames(String... basenames) {
+        this.basenames.clear();
+        for (String basename : basenames) {
+            Assert.hasText(basename, "Basename must not be empty");
+            this.basenames.add(basename.trim());
+        }
+    }
+
+    /**
+     * 不设置时按ISO-8859-1读取，和java.util.Properties一致
+     */
+    public void setDefaultEncoding(@Nullable String defaultEncoding) {
+        this.defaultEncoding = defaultEncoding;
+    }
+
+    public void setFallbackToSystemLocale(boolean fallbackToSystemLocale) {
+        this.fallbackToSystemLocale = fallbackToSystemLocale;
+    }
+
+    public void setUseCodeAsDefaultMessage(boolean useCodeAsDefaultMessage) {
+        this.useCodeAsDefaultMessage = useCodeAsDefaultMessage;
+    }
+
+    /**
+     * 是否监听properties文件的变化，默认false；每个开启的实例占一个WatchService和一个线程，
+     * 只对文件系统里的文件有效(jar包里的不会变)
+     */
+    public void setReloadable(boolean reloadable) {
+        this.reloadable = reloadable;
+    }
+
+    @Override
+    public void setParentMessageSource(@Nullable MessageSource parent) {
+        this.parentMessageSource = parent;
+    }
+
+    @Override
+    @Nullable
+    public MessageSource getParentMessageSource() {
+        return this.parentMessageSource;
+    }
+
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        this.resourcePatternResolver = ResourcePatternUtils.getResourcePatternResolver(resourceLoader);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        this.snapshot = load();
+        if (this.reloadable) {
+            try {
+                startWatching();
+            }
+            catch (IOException ex) {
+                logger.warn("Cannot watch messages for basenames " + this.basenames + ", changes will not be reloaded", ex);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            this.watchService = null;
+            watchService.close();
+        }
+    }
+
+    /**
+     * 重新加载所有properties，加载成功后整体替换；失败时保留原来的表
+     */
+    public void reload() {
+        try {
+            this.snapshot = load();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reloaded messages for basenames " + this.basenames);
+            }
+        }
+        catch (Exception ex) {
+            logger.warn("Failed to reload messages for basenames " + this.basenames + ", keeping previous messages", ex);
+        }
+    }
+
+    @Override
+    public String getMessage(String code, @Nullable Object[] args, @Nullable String defaultMessage, Locale locale) {
+        String message = resolve(code, args, locale);
+        if (message != null) {
+            return message;
+        }
+        if (defaultMessage != null) {
+            return renderDefaultMessage(defaultMessage, args, locale);
+        }
+        return (this.useCodeAsDefaultMessage ? code : null);
+    }
+
+    @Override
+    public String getMessage(String code, @Nullable Object[] args, Locale locale) throws NoSuchMessageException {
+        String message = resolve(code, args, locale);
+        if (message != null) {
+            return message;
+        }
+        if (this.useCodeAsDefaultMessage) {
+            return code;
+        }
+        throw new NoSuchMessageException(code, locale);
+    }
+
+    @Override
+    public String getMessage(MessageSourceResolvable resolvable, Locale locale) throws NoSuchMessageException {
+        String[] codes = resolvable.getCodes();
+        if (codes != null) {
+            for (String code : codes) {
+                String message = resolve(code, resolvable.getArguments(), locale);
+                if (message != null) {
+                    return message;
+                }
+            }
+        }
+        String defaultMessage = resolvable.getDefaultMessage();
+        if (defaultMessage != null) {
+            return renderDefaultMessage(defaultMessage, resolvable.getArguments(), locale);
+        }
+        if (this.useCodeAsDefaultMessage && !ObjectUtils.isEmpty(codes)) {
+            return codes[0];
+        }
+        throw new NoSuchMessageException(!ObjectUtils.isEmpty(codes) ? codes[codes.length - 1] : "", locale);
+    }
+
+    @Nullable
+    private String resolve(String code, @Nullable Object[] args, Locale locale) {
+        CompiledMessage message = this.snapshot.getTable(locale).get(code);
+        if (message != null) {
+            return message.format(resolveArguments(args, locale));
+        }
+        if (this.parentMessageSource != null) {
+            return this.parentMessageSource.getMessage(code, args, null, locale);
+        }
+        return null;
+    }
+
+    private String renderDefaultMessage(String defaultMessage, @Nullable Object[] args, Locale locale) {
+        if (ObjectUtils.isEmpty(args)) {
+            return defaultMessage;
+        }
+        return new CompiledMessage(defaultMessage, locale).format(resolveArguments(args, locale));
+    }
+
+    /**
+     * 参数本身是MessageSourceResolvable时先解析成字符串
+     */
+    @Nullable
+    private Object[] resolveArguments(@Nullable Object[] args, Locale locale) {
+        if (ObjectUtils.isEmpty(args)) {
+            return args;
+        }
+        Object[] resolved = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof MessageSourceResolvable) {
+                if (resolved == null) {
+                    resolved = args.clone();
+                }
+                resolved[i] = getMessage((MessageSourceResolvable) args[i], locale);
+            }
+        }
+        return (resolved != null ? resolved : args);
+    }
+
+    private Snapshot load() throws IOException {
+        // 先按basename的先后顺序收集每个Locale的原始消息，前面的basename优先
+        Map<Locale, Map<String, String>> rawTables = new HashMap<>();
+        for (String basename : this.basenames) {
+            for (Resource resource : findResources(basename)) {
+                Locale locale = parseLocale(basename, resource);
+                if (locale == null) {
+                    continue;
+                }
+                Map<String, String> rawTable = rawTables.computeIfAbsent(locale, key -> new HashMap<>());
+                loadProperties(resource).forEach((key, value) -> rawTable.putIfAbsent((String) key, (String) value));
+            }
+        }
+        Snapshot snapshot = new Snapshot(rawTables, this.fallbackToSystemLocale);
+        // 已知的语言在启动时就编译好
+        for (Locale locale : rawTables.keySet()) {
+            snapshot.getTable(locale);
+        }
+        return snapshot;
+    }
+
+    private Resource[] findResources(String basename) throws IOException {
+        String location = basename;
+        if (!location.contains(ResourceUtils.URL_PROTOCOL_FILE + ":") && !location.startsWith(ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX)) {
+            location = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX +
+                    StringUtils.delete(location, ResourceUtils.CLASSPATH_URL_PREFIX);
+        }
+        return this.resourcePatternResolver.getResources(location + "*" + PROPERTIES_SUFFIX);
+    }
+
+    /**
+     * message.properties -> Locale.ROOT，message_zh_CN.properties -> zh_CN；不是这个basename的文件(比如messages.properties)返回null
+     */
+    @Nullable
+    private static Locale parseLocale(String basename, Resource resource) {
+        String filename = resource.getFilename();
+        String name = StringUtils.getFilename(StringUtils.cleanPath(basename));
+        if (filename == null || name == null || !filename.startsWith(name) || !filename.endsWith(PROPERTIES_SUFFIX)) {
+            return null;
+        }
+        String suffix = filename.substring(name.length(), filename.length() - PROPERTIES_SUFFIX.length());
+        if (suffix.isEmpty()) {
+            return Locale.ROOT;
+        }
+        if (suffix.charAt(0) != '_' || suffix.length() == 1) {
+            return null;
+        }
+        try {
+            return StringUtils.parseLocale(suffix.substring(1));
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private Properties loadProperties(Resource resource) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = resource.getInputStream()) {
+            if (this.defaultEncoding != null) {
+                properties.load(new InputStreamReader(is, Charset.forName(this.defaultEncoding)));
+            }
+            else {
+                properties.load(is);
+            }
+        }
+        return properties;
+    }
+
+    private void startWatching() throws IOException {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (String basename : this.basenames) {
+            for (Resource resource : findResources(basename)) {
+                if (resource.isFile()) {
+                    File file = resource.getFile();
+                    directories.add(file.getAbsoluteFile().getParentFile().toPath());
+                }
+            }
+        }
+        if (directories.isEmpty()) {
+            return;
+        }
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            watchService.close();
+            throw ex;
+        }
+        this.watchService = watchService;
+        Thread watcher = new Thread(() -> watch(watchService), "message-source-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object context = event.context();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                        (context != null && context.toString().endsWith(PROPERTIES_SUFFIX))) {
+                    changed = true;
+                }
+            }
+            key.reset();
+            if (changed) {
+                reload();
+            }
+        }
+    }
+
+
+    /**
+     * 一次加载的结果：原始消息不变，每个Locale合并后的表第一次用到时编译一次
+     */
+    private static final class Snapshot {
+
+        private final Map<Locale, Map<String, String>> rawTables;
+
+        private final boolean fallbackToSystemLocale;
+
+        private final ConcurrentHashMap<Locale, Map<String, CompiledMessage>> tables = new ConcurrentHashMap<>();
+
+        Snapshot(Map<Locale, Map<String, String>> rawTables, boolean fallbackToSystemLocale) {
+            this.rawTables = rawTables;
+            this.fallbackToSystemLocale = fallbackToSystemLocale;
+        }
+
+        Map<String, CompiledMessage> getTable(Locale locale) {
+            Map<String, CompiledMessage> table = this.tables.get(locale);
+            if (table == null) {
+                table = this.tables.computeIfAbsent(locale, this::compile);
+            }
+            return table;
+        }
+
+        /**
+         * 和ResourceBundle一样：zh_CN -> zh -> 基础文件；请求的语言一个文件都没有时改用系统默认语言
+         */
+        private Map<String, CompiledMessage> compile(Locale locale) {
+            List<Locale> candidates = existingCandidates(locale);
+            if (candidates.isEmpty() && this.fallbackToSystemLocale && !locale.equals(Locale.getDefault())) {
+                candidates = existingCandidates(Locale.getDefault());
+            }
+            Map<String, String> merged = new HashMap<>(this.rawTables.getOrDefault(Locale.ROOT, Collections.emptyMap()));
+            for (int i = candidates.size() - 1; i >= 0; i--) {
+                merged.putAll(this.rawTables.get(candidates.get(i)));
+            }
+            Map<String, CompiledMessage> table = new HashMap<>(merged.size() * 4 / 3 + 1);
+            merged.forEach((code, pattern) -> table.put(code, new CompiledMessage(pattern, locale)));
+            return Collections.unmodifiableMap(table);
+        }
+
+        private List<Locale> existingCandidates(Locale locale) {
+            List<Locale> candidates = new ArrayList<>(3);
+            String language = locale.getLanguage();
+            String country = locale.getCountry();
+            String variant = locale.getVariant();
+            if (!variant.isEmpty()) {
+                candidates.add(new Locale(language, country, variant));
+            }
+            if (!country.isEmpty()) {
+                candidates.add(new Locale(language, country));
+            }
+            if (!language.isEmpty()) {
+                candidates.add(new Locale(language));
+            }
+            candidates.removeIf(candidate -> !this.rawTables.containsKey(candidate));
+            return candidates;
+        }
+    }
+}
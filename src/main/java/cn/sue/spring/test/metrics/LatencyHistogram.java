@@ -0,0 +1,144 @@
+package cn.sue.spring.test.metrics;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 记录耗时分布的直方图，可以多线程同时record，不加锁。
+ * 按2的幂分段，每段再均分成8个桶，桶的宽度不超过所在值的1/8，所以算出来的百分位数误差在12.5%以内；
+ * 整个直方图固定488个计数器，和记录了多少次无关
+ * </p>
+ *
+ * @author Sue
+ * @className LatencyHistogram
+ * @create 2023/5/19
+ **/
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时，负数按0算
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.counts.incrementAndGet(bucketIndex(value));
+        this.count.increment();
+        this.total.add(value);
+        long current;
+        while (value > (current = this.max.get())) {
+            if (this.max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 把另一个直方图的记录合并进来。每个线程记自己的直方图、最后合并，可以避免很多线程同时record同一个计数器
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = other.counts.get(i);
+            if (bucketCount > 0) {
+                this.counts.addAndGet(i, bucketCount);
+            }
+        }
+        this.count.add(other.getCount());
+        this.total.add(other.getTotalNanos());
+        long otherMax = other.getMaxNanos();
+        long current;
+        while (otherMax > (current = this.max.get())) {
+            if (this.max.compareAndSet(current, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getTotalNanos() {
+        return this.total.sum();
+    }
+
+    public long getMaxNanos() {
+        return this.max.get();
+    }
+
+    public long getMeanNanos() {
+        long count = getCount();
+        return (count > 0 ? getTotalNanos() / count : 0);
+    }
+
+    /**
+     * 百分位数，比如getPercentileNanos(99)。返回所在桶的上界(不超过最大值)
+     */
+    public long getPercentileNanos(double percentile) {
+        Assert.isTrue(percentile >= 0 && percentile <= 100, "Percentile must be between 0 and 100");
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.total.reset();
+        this.max.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [count=" + getCount() + ", mean=" + getMeanNanos() + "ns, p50=" + getPercentileNanos(50) +
+                "ns, p99=" + getPercentileNanos(99) + "ns, max=" + getMaxNanos() + "ns]";
+    }
+}
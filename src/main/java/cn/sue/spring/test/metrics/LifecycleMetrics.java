@@ -0,0 +1,167 @@
+package cn.sue.spring.test.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 记录每个Bean每个生命周期阶段的耗时。
+ * 阶段可以嵌套(实例化A时要先创建依赖B)，记录的是扣掉嵌套阶段之后的自身耗时，所以B的创建时间不会算到A头上。
+ * 每个阶段有一个全局的{@link LatencyHistogram}；每个Bean每个阶段只记次数、总耗时和最大值，Bean多了也不会占多少内存。
+ * 用法：
+ * <pre>
+ * LifecycleMetrics metrics = new LifecycleMetrics();
+ * ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+ * beanFactory.setLifecycleMetrics(metrics);
+ * AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+ * ...
+ * System.out.println(metrics.getReport());
+ * </pre>
+ * </p>
+ *
+ * @author Sue
+ * @className LifecycleMetrics
+ * @create 2023/5/19
+ **/
+public class LifecycleMetrics {
+
+    private static final LifecyclePhase[] PHASES = LifecyclePhase.values();
+
+    private final Map<LifecyclePhase, LatencyHistogram> phaseHistograms = new EnumMap<>(LifecyclePhase.class);
+
+    private final ConcurrentHashMap<String, BeanStats> beanStats = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Timer> currentTimer = new ThreadLocal<>();
+
+    public LifecycleMetrics() {
+        for (LifecyclePhase phase : PHASES) {
+            this.phaseHistograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * 开始计时，必须在finally里调用返回值的stop()
+     */
+    public Timer start(String beanName, LifecyclePhase phase) {
+        Timer timer = new Timer(beanName, phase, this.currentTimer.get());
+        this.currentTimer.set(timer);
+        return timer;
+    }
+
+    /**
+     * 直接记录一次耗时，不参与嵌套扣除
+     */
+    public void record(String beanName, LifecyclePhase phase, long nanos) {
+        this.phaseHistograms.get(phase).record(nanos);
+        BeanStats stats = this.beanStats.get(beanName);
+        if (stats == null) {
+            stats = this.beanStats.computeIfAbsent(beanName, key -> new BeanStats());
+        }
+        stats.record(phase, nanos);
+    }
+
+    public LatencyHistogram getPhaseHistogram(LifecyclePhase phase) {
+        return this.phaseHistograms.get(phase);
+    }
+
+    /**
+     * 当前数据的快照，Bean按总耗时从大到小排序
+     */
+    public StartupReport getReport() {
+        List<StartupReport.BeanTiming> beans = new ArrayList<>(this.beanStats.size());
+        this.beanStats.forEach((beanName, stats) -> beans.add(stats.toTiming(beanName)));
+        return new StartupReport(beans, this.phaseHistograms);
+    }
+
+    public void reset() {
+        this.beanStats.clear();
+        this.phaseHistograms.values().forEach(LatencyHistogram::reset);
+    }
+
+
+    /**
+     * 一次计时，结束时把自身耗时记下来，并把总耗时累加到外层的计时上
+     */
+    public final class Timer {
+
+        private final String beanName;
+
+        private final LifecyclePhase phase;
+
+        private final Timer outer;
+
+        private final long startNanos = System.nanoTime();
+
+        private long nestedNanos;
+
+        Timer(String beanName, LifecyclePhase phase, Timer outer) {
+            this.beanName = beanName;
+            this.phase = phase;
+            this.outer = outer;
+        }
+
+        public void stop() {
+            long elapsed = System.nanoTime() - this.startNanos;
+            if (this.outer != null) {
+                this.outer.nestedNanos += elapsed;
+                currentTimer.set(this.outer);
+            }
+            else {
+                currentTimer.remove();
+            }
+            record(this.beanName, this.phase, elapsed - this.nestedNanos);
+        }
+    }
+
+
+    private static final class BeanStats {
+
+        private final LongAdder[] counts = new LongAdder[PHASES.length];
+
+        private final LongAdder[] totals = new LongAdder[PHASES.length];
+
+        private final AtomicLongArray maxes = new AtomicLongArray(PHASES.length);
+
+        private final AtomicLong creations = new AtomicLong();
+
+        BeanStats() {
+            for (int i = 0; i < PHASES.length; i++) {
+                this.counts[i] = new LongAdder();
+                this.totals[i] = new LongAdder();
+            }
+        }
+
+        void record(LifecyclePhase phase, long nanos) {
+            int i = phase.ordinal();
+            this.counts[i].increment();
+            this.totals[i].add(nanos);
+            long max;
+            while (nanos > (max = this.maxes.get(i))) {
+                if (this.maxes.compareAndSet(i, max, nanos)) {
+                    break;
+                }
+            }
+            if (phase == LifecyclePhase.INSTANTIATION) {
+                this.creations.incrementAndGet();
+            }
+        }
+
+        StartupReport.BeanTiming toTiming(String beanName) {
+            Map<LifecyclePhase, StartupReport.PhaseTiming> phases = new EnumMap<>(LifecyclePhase.class);
+            for (LifecyclePhase phase : PHASES) {
+                long count = this.counts[phase.ordinal()].sum();
+                if (count > 0) {
+                    phases.put(phase, new StartupReport.PhaseTiming(count,
+                            this.totals[phase.ordinal()].sum(), this.maxes.get(phase.ordinal())));
+                }
+            }
+            return new StartupReport.BeanTiming(beanName, this.creations.get(), phases);
+        }
+    }
+}
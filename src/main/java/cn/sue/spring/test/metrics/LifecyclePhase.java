@@ -0,0 +1,63 @@
+package cn.sue.spring.test.metrics;
+
+/**
+ * <p>
+ * Bean生命周期里单独计时的阶段
+ * </p>
+ *
+ * @author Sue
+ * @className LifecyclePhase
+ * @create 2023/5/19
+ **/
+public enum LifecyclePhase {
+
+    /**
+     * 推断构造方法并实例化(createBeanInstance)
+     */
+    INSTANTIATION,
+
+    /**
+     * 属性填充，包括@Autowired和postProcessPropertyValues(populateBean)
+     */
+    POPULATION,
+
+    /**
+     * BeanNameAware、BeanFactoryAware、ApplicationContextAware等回调
+     */
+    AWARE,
+
+    /**
+     * &#64;PostConstruct
+     */
+    POST_CONSTRUCT,
+
+    /**
+     * 其它BeanPostProcessor的postProcessBeforeInitialization
+     */
+    BEFORE_INITIALIZATION,
+
+    /**
+     * InitializingBean.afterPropertiesSet()
+     */
+    AFTER_PROPERTIES_SET,
+
+    /**
+     * 自定义的init-method，比如TestBeanA.myInit
+     */
+    INIT_METHOD,
+
+    /**
+     * BeanPostProcessor的postProcessAfterInitialization，AOP代理在这里生成
+     */
+    AFTER_INITIALIZATION,
+
+    /**
+     * &#64;PreDestroy、DisposableBean.destroy()和destroy-method
+     */
+    DESTROY,
+
+    /**
+     * createBean里不属于上面任何阶段的耗时，比如合并BeanDefinition、postProcessBeforeInstantiation
+     */
+    OTHER
+}
@@ -0,0 +1,325 @@
+package cn.sue.spring.test.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * {@link LifecycleMetrics}某一时刻的快照：哪些Bean的创建最耗时、每个阶段的耗时分布。
+ * toString()输出耗时最多的前20个Bean，toJson()导出全部数据
+ * </p>
+ *
+ * @author Sue
+ * @className StartupReport
+ * @create 2023/5/19
+ **/
+public class StartupReport {
+
+    private static final int TOP_BEANS = 20;
+
+    private final List<BeanTiming> beans;
+
+    private final Map<LifecyclePhase, PhaseSummary> phases = new EnumMap<>(LifecyclePhase.class);
+
+    StartupReport(List<BeanTiming> beans, Map<LifecyclePhase, LatencyHistogram> histograms) {
+        beans.sort(Comparator.comparingLong(BeanTiming::getTotalNanos).reversed());
+        this.beans = Collections.unmodifiableList(beans);
+        histograms.forEach((phase, histogram) -> this.phases.put(phase, new PhaseSummary(histogram)));
+    }
+
+    /**
+     * 按总耗时从大到小排序
+     */
+    public List<BeanTiming> getBeans() {
+        return this.beans;
+    }
+
+    public List<BeanTiming> getTopBeans(int limit) {
+        return this.beans.subList(0, Math.min(limit, this.beans.size()));
+    }
+
+    public BeanTiming getBean(String beanName) {
+        for (BeanTiming bean : this.beans) {
+            if (bean.getBeanName().equals(beanName)) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    public PhaseSummary getPhase(LifecyclePhase phase) {
+        return this.phases.get(phase);
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (PhaseSummary summary : this.phases.values()) {
+            total += summary.getTotalNanos();
+        }
+        return total;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(256 + this.beans.size() * 128);
+        sb.append("{\"totalNanos\":").append(getTotalNanos()).append(",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<LifecyclePhase, PhaseSummary> entry : this.phases.entrySet()) {
+            PhaseSummary summary = entry.getValue();
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(entry.getKey().name()).append("\":{\"count\":").append(summary.getCount())
+                    .append(",\"totalNanos\":").append(summary.getTotalNanos())
+                    .append(",\"meanNanos\":").append(summary.getMeanNanos())
+                    .append(",\"p50Nanos\":").append(summary.getP50Nanos())
+                    .append(",\"p90Nanos\":").append(summary.getP90Nanos())
+                    .append(",\"p99Nanos\":").append(summary.getP99Nanos())
+                    .append(",\"maxNanos\":").append(summary.getMaxNanos()).append('}');
+        }
+        sb.append("},\"beans\":[");
+        for (int i = 0; i < this.beans.size(); i++) {
+            BeanTiming bean = this.beans.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            appendJsonString(sb, bean.getBeanName());
+            sb.append(",\"creations\":").append(bean.getCreations())
+                    .append(",\"totalNanos\":").append(bean.getTotalNanos()).append(",\"phases\":{");
+            first = true;
+            for (Map.Entry<LifecyclePhase, PhaseTiming> entry : bean.getPhases().entrySet()) {
+                PhaseTiming timing = entry.getValue();
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(entry.getKey().name()).append("\":{\"count\":").append(timing.getCount())
+                        .append(",\"totalNanos\":").append(timing.getTotalNanos())
+                        .append(",\"maxNanos\":").append(timing.getMaxNanos()).append('}');
+            }
+            sb.append("}}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        writer.write(toJson());
+        writer.flush();
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Bean lifecycle timings: %d beans, %.3f ms in total%n",
+                this.beans.size(), getTotalNanos() / 1_000_000.0));
+        sb.append(String.format("%-24s %8s %12s %12s %12s %12s%n", "phase", "count", "total(ms)", "p50(us)", "p99(us)", "max(us)"));
+        this.phases.forEach((phase, summary) -> {
+            if (summary.getCount() > 0) {
+                sb.append(String.format("%-24s %8d %12.3f %12.1f %12.1f %12.1f%n", phase, summary.getCount(),
+                        summary.getTotalNanos() / 1_000_000.0, summary.getP50Nanos() / 1000.0,
+                        summary.getP99Nanos() / 1000.0, summary.getMaxNanos() / 1000.0));
+            }
+        });
+        sb.append(String.format("%-48s %8s %12s  %s%n", "bean", "created", "total(ms)", "slowest phase"));
+        for (BeanTiming bean : getTopBeans(TOP_BEANS)) {
+            LifecyclePhase slowest = bean.getSlowestPhase();
+            sb.append(String.format("%-48s %8d %12.3f  %s%n", bean.getBeanName(), bean.getCreations(),
+                    bean.getTotalNanos() / 1_000_000.0, (slowest != null ? slowest : "-")));
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * 一个Bean的耗时
+     */
+    public static class BeanTiming {
+
+        private final String beanName;
+
+        private final long creations;
+
+        private final Map<LifecyclePhase, PhaseTiming> phases;
+
+        private final long totalNanos;
+
+        BeanTiming(String beanName, long creations, Map<LifecyclePhase, PhaseTiming> phases) {
+            this.beanName = beanName;
+            this.creations = creations;
+            this.phases = Collections.unmodifiableMap(phases);
+            long total = 0;
+            for (PhaseTiming timing : phases.values()) {
+                total += timing.getTotalNanos();
+            }
+            this.totalNanos = total;
+        }
+
+        public String getBeanName() {
+            return this.beanName;
+        }
+
+        /**
+         * 实例化了几次，原型Bean会大于1
+         */
+        public long getCreations() {
+            return this.creations;
+        }
+
+        public Map<LifecyclePhase, PhaseTiming> getPhases() {
+            return this.phases;
+        }
+
+        public PhaseTiming getPhase(LifecyclePhase phase) {
+            return this.phases.get(phase);
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        public LifecyclePhase getSlowestPhase() {
+            LifecyclePhase slowest = null;
+            long max = -1;
+            for (Map.Entry<LifecyclePhase, PhaseTiming> entry : this.phases.entrySet()) {
+                if (entry.getValue().getTotalNanos() > max) {
+                    max = entry.getValue().getTotalNanos();
+                    slowest = entry.getKey();
+                }
+            }
+            return slowest;
+        }
+
+        @Override
+        public String toString() {
+            return "BeanTiming [" + this.beanName + ", creations=" + this.creations + ", totalNanos=" + this.totalNanos + "]";
+        }
+    }
+
+
+    /**
+     * 一个Bean某个阶段的耗时
+     */
+    public static class PhaseTiming {
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long maxNanos;
+
+        PhaseTiming(long count, long totalNanos, long maxNanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return this.maxNanos;
+        }
+    }
+
+
+    /**
+     * 某个阶段所有Bean的耗时分布
+     */
+    public static class PhaseSummary {
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long meanNanos;
+
+        private final long p50Nanos;
+
+        private final long p90Nanos;
+
+        private final long p99Nanos;
+
+        private final long maxNanos;
+
+        PhaseSummary(LatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.totalNanos = histogram.getTotalNanos();
+            this.meanNanos = histogram.getMeanNanos();
+            this.p50Nanos = histogram.getPercentileNanos(50);
+            this.p90Nanos = histogram.getPercentileNanos(90);
+            this.p99Nanos = histogram.getPercentileNanos(99);
+            this.maxNanos = histogram.getMaxNanos();
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return this.meanNanos;
+        }
+
+        public long getP50Nanos() {
+            return this.p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return this.p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return this.p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return this.maxNanos;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cn.sue.spring.test.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * 组件索引的class文件清单(META-INF/spring.components.classes)：记录生成索引那次构建里每个class文件的大小和修改时间。
+ * 由 mvn -Pindex 在编译完成后调用main方法写出，IndexedClassPathBeanDefinitionScanner用它判断索引是否还对应当前的class文件，
+ * 任何一个class文件被重新编译、新增或删除，清单就对不上，扫描器退回到ASM扫描
+ * </p>
+ *
+ * @author Sue
+ * @className ComponentIndexManifest
+ * @create 2023/5/8
+ **/
+public final class ComponentIndexManifest {
+
+    public static final String MANIFEST_RESOURCE_LOCATION = "META-INF/spring.components.classes";
+
+    private ComponentIndexManifest() {
+    }
+
+    /**
+     * 参数是编译输出目录，比如target/classes
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: ComponentIndexManifest <classes directory>");
+        }
+        write(new File(args[0]));
+    }
+
+    /**
+     * 把classesRoot下所有class文件的大小和修改时间写进清单
+     */
+    public static void write(File classesRoot) throws IOException {
+        Properties manifest = new Properties();
+        for (Map.Entry<String, String> entry : describe(classesRoot, "").entrySet()) {
+            manifest.setProperty(entry.getKey(), entry.getValue());
+        }
+        File file = new File(classesRoot, MANIFEST_RESOURCE_LOCATION);
+        Files.createDirectories(file.getParentFile().toPath());
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            manifest.store(out, null);
+        }
+    }
+
+    /**
+     * 包目录下(含子包)的class文件是否和清单里记录的完全一致；没有清单时返回false
+     *
+     * @param packagePath 相对classesRoot的包路径，以'/'结尾，比如cn/sue/spring/test/
+     */
+    public static boolean matches(File classesRoot, File packageDir, String packagePath) throws IOException {
+        File file = new File(classesRoot, MANIFEST_RESOURCE_LOCATION);
+        if (!file.isFile()) {
+            return false;
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            manifest.load(in);
+        }
+        Map<String, String> recorded = new TreeMap<>();
+        for (String name : manifest.stringPropertyNames()) {
+            if (name.startsWith(packagePath)) {
+                recorded.put(name, manifest.getProperty(name));
+            }
+        }
+        return recorded.equals(describe(packageDir, packagePath));
+    }
+
+    private static Map<String, String> describe(File dir, String path) {
+        Map<String, String> classFiles = new TreeMap<>();
+        collect(dir, path, classFiles);
+        return classFiles;
+    }
+
+    private static void collect(File dir, String path, Map<String, String> classFiles) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, path + file.getName() + "/", classFiles);
+            }
+            else if (file.getName().endsWith(".class")) {
+                classFiles.put(path + file.getName(), file.length() + "," + file.lastModified());
+            }
+        }
+    }
+
+}
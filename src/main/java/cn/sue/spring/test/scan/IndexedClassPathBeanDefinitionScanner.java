@@ -0,0 +1,194 @@
+package cn.sue.spring.test.scan;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.context.index.CandidateComponentsIndexLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+/**
+ * <p>
+ * 优先读取编译期生成的组件索引(META-INF/spring.components，由 mvn -Pindex 生成)的扫描器。
+ * Spring自带的扫描器只要发现索引就只读索引，索引过期(比如IDE增量编译后新加了@Component类)时会漏掉Bean；
+ * 这里在使用索引前先检查一下：包所在的类路径根目录没有索引，或者包下的class文件和生成索引时记下的清单
+ * (ComponentIndexManifest)对不上，就退回到原来的ASM扫描。
+ * 默认构建不生成索引，Spring自带的扫描器(spring.xml里的component-scan等)不受影响
+ * </p>
+ *
+ * @author Sue
+ * @className IndexedClassPathBeanDefinitionScanner
+ * @create 2023/5/8
+ **/
+public class IndexedClassPathBeanDefinitionScanner extends ClassPathBeanDefinitionScanner {
+
+    private boolean scanningFallback;
+
+    public IndexedClassPathBeanDefinitionScanner(BeanDefinitionRegistry registry) {
+        super(registry);
+    }
+
+    public IndexedClassPathBeanDefinitionScanner(BeanDefinitionRegistry registry, boolean useDefaultFilters) {
+        super(registry, useDefaultFilters);
+    }
+
+    @Override
+    public Set<BeanDefinition> findCandidateComponents(String basePackage) {
+        if (!this.scanningFallback && !isIndexUpToDate(basePackage)) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Component index is missing or stale for package '" + basePackage + "', falling back to classpath scanning");
+            }
+            this.scanningFallback = true;
+            // 换成看不到索引文件的ClassLoader，父类就会走扫描逻辑
+            setResourceLoader(new IndexHidingResourcePatternResolver(
+                    ResourcePatternUtils.getResourcePatternResolver(getResourceLoader())));
+        }
+        return super.findCandidateComponents(basePackage);
+    }
+
+    /**
+     * 当前是否已经退回到扫描模式
+     */
+    public boolean isScanningFallback() {
+        return this.scanningFallback;
+    }
+
+    /**
+     * 检查包所在的每一个类路径根：jar包里必须带索引；目录里必须带索引，并且包下的class文件和清单里记录的大小、修改时间完全一致
+     */
+    protected boolean isIndexUpToDate(String basePackage) {
+        ClassLoader classLoader = getResourceLoader().getClassLoader();
+        if (classLoader == null) {
+            return false;
+        }
+        String packagePath = rootPath(resolveBasePackage(basePackage));
+        try {
+            Enumeration<URL> roots = classLoader.getResources(packagePath);
+            while (roots.hasMoreElements()) {
+                URL url = roots.nextElement();
+                if (ResourceUtils.isJarURL(url)) {
+                    if (!jarContainsIndex(url)) {
+                        return false;
+                    }
+                }
+                else if (ResourceUtils.URL_PROTOCOL_FILE.equals(url.getProtocol())) {
+                    File packageDir = ResourceUtils.getFile(url);
+                    File classesRoot = classesRoot(packageDir, packagePath);
+                    File index = new File(classesRoot, CandidateComponentsIndexLoader.COMPONENTS_RESOURCE_LOCATION);
+                    if (!index.isFile() || !ComponentIndexManifest.matches(classesRoot, packageDir, packagePath)) {
+                        return false;
+                    }
+                }
+                else {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 包路径里带通配符时，只取通配符之前的目录部分
+     */
+    private static String rootPath(String packagePath) {
+        for (int i = 0; i < packagePath.length(); i++) {
+            char c = packagePath.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                return packagePath.substring(0, packagePath.lastIndexOf('/', i) + 1);
+            }
+        }
+        return packagePath.endsWith("/") ? packagePath : packagePath + "/";
+    }
+
+    private static File classesRoot(File packageDir, String packagePath) {
+        File root = packageDir;
+        for (String segment : packagePath.split("/")) {
+            if (!segment.isEmpty() && root != null) {
+                root = root.getParentFile();
+            }
+        }
+        return root;
+    }
+
+    private static boolean jarContainsIndex(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return false;
+        }
+        connection.setUseCaches(false);
+        try (JarFile jarFile = ((JarURLConnection) connection).getJarFile()) {
+            return jarFile.getEntry(CandidateComponentsIndexLoader.COMPONENTS_RESOURCE_LOCATION) != null;
+        }
+    }
+
+
+    /**
+     * 除了ClassLoader，其它都交给原来的ResourcePatternResolver
+     */
+    private static class IndexHidingResourcePatternResolver implements ResourcePatternResolver {
+
+        private final ResourcePatternResolver delegate;
+
+        private final ClassLoader classLoader;
+
+        IndexHidingResourcePatternResolver(ResourcePatternResolver delegate) {
+            this.delegate = delegate;
+            this.classLoader = new IndexHidingClassLoader(delegate.getClassLoader());
+        }
+
+        @Override
+        public Resource[] getResources(String locationPattern) throws IOException {
+            return this.delegate.getResources(locationPattern);
+        }
+
+        @Override
+        public Resource getResource(String location) {
+            return this.delegate.getResource(location);
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return this.classLoader;
+        }
+    }
+
+
+    private static class IndexHidingClassLoader extends ClassLoader {
+
+        IndexHidingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            if (CandidateComponentsIndexLoader.COMPONENTS_RESOURCE_LOCATION.equals(name)) {
+                return null;
+            }
+            return super.getResource(name);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            if (CandidateComponentsIndexLoader.COMPONENTS_RESOURCE_LOCATION.equals(name)) {
+                return Collections.emptyEnumeration();
+            }
+            return super.getResources(name);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package cn.sue.spring.test.scope;
+
+/**
+ * <p>
+ * {@link PooledScope}里的Bean可以实现这个接口：还回池子时清理上一次使用留下的状态，再次借出前检查还能不能用
+ * </p>
+ *
+ * @author Sue
+ * @className PooledBean
+ * @create 2023/6/1
+ **/
+public interface PooledBean {
+
+    /**
+     * 还回池子时调用，清理上一次使用留下的状态；抛异常时这个实例被销毁，不再复用
+     */
+    default void resetForReuse() {
+    }
+
+    /**
+     * 从池子里再次借出前调用，返回false时这个实例被销毁，换一个实例
+     */
+    default boolean isReusable() {
+        return true;
+    }
+}
@@ -0,0 +1,735 @@
+package cn.sue.spring.test.scope;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.Scope;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * 池化作用域：创建代价大、每次只用一小会儿的Bean不用每次getBean都重新实例化、注入、执行init，
+ * 而是从每个Bean名字一个的池子里借一个，用完调用{@link #release}还回去。
+ * 池子里的实例都放在一个共享列表里，用CAS抢占；每个线程还记着自己最近还回去的几个实例，先试这几个，
+ * 同一个线程借了还、还了借时基本不会和别的线程竞争。实例数到了上限并且都借出去了，getBean等待，超时抛{@link BeanCreationException}。
+ * </p>
+ * <p>
+ * Bean实现{@link PooledBean}时，还回去时调用resetForReuse()，再次借出前调用isReusable()。
+ * 空闲超过{@code idleTimeoutMillis}的实例由后台线程销毁，但至少保留{@code minSize}个。
+ * 销毁池子里的实例时调用它的销毁回调(@PreDestroy、DisposableBean等)。
+ * </p>
+ * <p>
+ * 作为BeanFactoryPostProcessor加到容器上(或者声明成static的&#64;Bean)，它会注册成"pooled"作用域，
+ * 并把自己登记为容器的销毁回调：容器关闭时销毁池子里的实例、停掉回收线程。
+ * 直接用registerScope注册时容器不会销毁作用域，要自己调用{@link #destroy()}。使用：
+ * <pre>
+ * PooledScope pooledScope = new PooledScope();
+ * context.addBeanFactoryPostProcessor(pooledScope);
+ * beanDefinition.setScope(PooledScope.SCOPE_NAME);
+ *
+ * UserService userService = context.getBean(UserService.class);
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     pooledScope.release(userService);
+ * }
+ * </pre>
+ * 忘了release的实例一直算作借出，池子满了以后getBean会等待超时
+ * </p>
+ *
+ * @author Sue
+ * @className PooledScope
+ * @create 2023/6/1
+ **/
+public class PooledScope implements Scope, BeanFactoryPostProcessor, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(PooledScope.class);
+
+    public static final String SCOPE_NAME = "pooled";
+
+    private static final int IDLE = 0;
+
+    private static final int IN_USE = 1;
+
+    private static final int REMOVED = 2;
+
+    // 正在还回池子(重置状态)，其它线程借不到也回收不了
+    private static final int RELEASING = 3;
+
+    private int minSize = 0;
+
+    private int maxSize = Runtime.getRuntime().availableProcessors() * 2;
+
+    private long maxWaitMillis = 1000;
+
+    private long idleTimeoutMillis = 60_000;
+
+    private int threadCacheSize = 4;
+
+    private final Map<String, InstancePool> pools = new ConcurrentHashMap<>();
+
+    // 已经关闭、还有实例没还回来的池子
+    private final List<InstancePool> closedPools = new CopyOnWriteArrayList<>();
+
+    // 正在创建实例的线程上，registerDestructionCallback收到的回调先放在这里
+    private final ThreadLocal<Runnable> pendingDestructionCallback = new ThreadLocal<>();
+
+    @Nullable
+    private volatile ScheduledExecutorService evictor;
+
+    private volatile boolean destroyed;
+
+    /**
+     * 每个Bean至少保留的实例数，第一次getBean时创建够，空闲回收也不会低于这个数
+     */
+    public void setMinSize(int minSize) {
+        Assert.isTrue(minSize >= 0, "Min size must not be negative");
+        this.minSize = minSize;
+    }
+
+    /**
+     * 每个Bean最多的实例数(借出的加空闲的)，默认CPU数的两倍
+     */
+    public void setMaxSize(int maxSize) {
+        Assert.isTrue(maxSize > 0, "Max size must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 实例都借出去了时getBean最多等多久
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        Assert.isTrue(maxWaitMillis >= 0, "Max wait must not be negative");
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * 空闲超过这么久的实例被销毁，0表示不回收
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        Assert.isTrue(idleTimeoutMillis >= 0, "Idle timeout must not be negative");
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * 每个线程记住自己最近还回去的几个实例
+     */
+    public void setThreadCacheSize(int threadCacheSize) {
+        Assert.isTrue(threadCacheSize >= 0, "Thread cache size must not be negative");
+        this.threadCacheSize = threadCacheSize;
+    }
+
+    /**
+     * 注册作用域，并登记容器关闭时的销毁回调
+     */
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        beanFactory.registerScope(SCOPE_NAME, this);
+        if (beanFactory instanceof DefaultSingletonBeanRegistry) {
+            ((DefaultSingletonBeanRegistry) beanFactory).registerDisposableBean(
+                    PooledScope.class.getName() + "#" + ObjectUtils.getIdentityHexString(this), this);
+        }
+        else {
+            logger.warn("Cannot register destruction of PooledScope with " + beanFactory.getClass().getName() +
+                    "; call destroy() when closing it");
+        }
+    }
+
+    @Override
+    public Object get(String name, ObjectFactory<?> objectFactory) {
+        Assert.state(!this.destroyed, "PooledScope has been destroyed");
+        InstancePool pool = this.pools.get(name);
+        if (pool == null) {
+            pool = this.pools.computeIfAbsent(name, InstancePool::new);
+            startEvictor();
+        }
+        return pool.borrow(objectFactory);
+    }
+
+    /**
+     * 把借出的实例还回池子
+     * @return 是否是这个作用域借出的实例
+     */
+    public boolean release(Object bean) {
+        for (InstancePool pool : this.pools.values()) {
+            if (pool.release(bean)) {
+                return true;
+            }
+        }
+        for (InstancePool pool : this.closedPools) {
+            if (pool.release(bean)) {
+                if (pool.size.get() == 0) {
+                    this.closedPools.remove(pool);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 销毁这个Bean的池子，借出去的实例还回来时销毁
+     */
+    @Override
+    @Nullable
+    public Object remove(String name) {
+        InstancePool pool = this.pools.remove(name);
+        if (pool != null) {
+            pool.close();
+            if (pool.size.get() > 0) {
+                this.closedPools.add(pool);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 创建实例的过程中容器会调用这里登记销毁回调，记到正在创建的实例上
+     */
+    @Override
+    public void registerDestructionCallback(String name, Runnable callback) {
+        this.pendingDestructionCallback.set(callback);
+    }
+
+    @Override
+    @Nullable
+    public Object resolveContextualObject(String key) {
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public String getConversationId() {
+        return null;
+    }
+
+    @Nullable
+    public PoolStats getStats(String name) {
+        InstancePool pool = this.pools.get(name);
+        return (pool != null ? pool.stats() : null);
+    }
+
+    public Map<String, PoolStats> getStats() {
+        Map<String, PoolStats> stats = new LinkedHashMap<>();
+        this.pools.forEach((name, pool) -> stats.put(name, pool.stats()));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public void destroy() {
+        if (this.destroyed) {
+            return;
+        }
+        this.destroyed = true;
+        ScheduledExecutorService evictor = this.evictor;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        for (String name : this.pools.keySet()) {
+            remove(name);
+        }
+    }
+
+    private void startEvictor() {
+        if (this.evictor != null || this.idleTimeoutMillis <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (this.evictor == null) {
+                ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "pooled-scope-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long interval = Math.max(this.idleTimeoutMillis / 2, 10);
+                evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+                this.evictor = evictor;
+            }
+        }
+    }
+
+    private void evictIdle() {
+        for (InstancePool pool : this.pools.values()) {
+            try {
+                pool.evictIdle();
+            }
+            catch (Throwable ex) {
+                logger.warn("Failed to evict idle instances of pooled bean '" + pool.beanName + "'", ex);
+            }
+        }
+    }
+
+
+    private static final class Entry {
+
+        final Object instance;
+
+        @Nullable
+        final Runnable destructionCallback;
+
+        final AtomicInteger state = new AtomicInteger(IN_USE);
+
+        volatile long idleSinceNanos;
+
+        Entry(Object instance, @Nullable Runnable destructionCallback) {
+            this.instance = instance;
+            this.destructionCallback = destructionCallback;
+        }
+    }
+
+
+    /**
+     * 一个Bean名字的池子
+     */
+    private final class InstancePool {
+
+        final String beanName;
+
+        private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+
+        private final ThreadLocal<ArrayDeque<Entry>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+
+        // 已经创建和正在创建的实例数
+        private final AtomicInteger size = new AtomicInteger();
+
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition available = this.lock.newCondition();
+
+        @Nullable
+        private volatile ObjectFactory<?> objectFactory;
+
+        private volatile boolean closed;
+
+        private final LongAdder borrows = new LongAdder();
+
+        private final LongAdder threadHits = new LongAdder();
+
+        private final LongAdder sharedHits = new LongAdder();
+
+        private final LongAdder creations = new LongAdder();
+
+        private final LongAdder waits = new LongAdder();
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final LongAdder evictions = new LongAdder();
+
+        private final LongAdder invalidations = new LongAdder();
+
+        InstancePool(String beanName) {
+            this.beanName = beanName;
+        }
+
+        Object borrow(ObjectFactory<?> objectFactory) {
+            if (this.objectFactory == null) {
+                this.objectFactory = objectFactory;
+                fillToMinSize();
+            }
+            this.objectFactory = objectFactory;
+            this.borrows.increment();
+            while (true) {
+                Entry entry = acquireIdle();
+                if (entry == null) {
+                    if (reserve()) {
+                        return create(objectFactory).instance;
+                    }
+                    entry = await();
+                    if (entry == null) {
+                        continue;
+                    }
+                }
+                if (isReusable(entry)) {
+                    return entry.instance;
+                }
+                invalidate(entry);
+            }
+        }
+
+        /**
+         * 先试当前线程最近还回来的，再扫一遍所有实例
+         */
+        @Nullable
+        private Entry acquireIdle() {
+            ArrayDeque<Entry> cache = this.threadCache.get();
+            Entry entry;
+            while ((entry = cache.pollFirst()) != null) {
+                if (entry.state.compareAndSet(IDLE, IN_USE)) {
+                    this.threadHits.increment();
+                    return entry;
+                }
+            }
+            for (Entry candidate : this.entries) {
+                if (candidate.state.get() == IDLE && candidate.state.compareAndSet(IDLE, IN_USE)) {
+                    this.sharedHits.increment();
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private boolean reserve() {
+            int current;
+            while ((current = this.size.get()) < maxSize) {
+                if (this.size.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 已经占了一个名额，创建失败时要还回去
+         */
+        private Entry create(ObjectFactory<?> objectFactory) {
+            Object instance;
+            Runnable destructionCallback;
+            try {
+                instance = objectFactory.getObject();
+                destructionCallback = pendingDestructionCallback.get();
+            }
+            catch (RuntimeException | Error ex) {
+                this.size.decrementAndGet();
+                signal();
+                throw ex;
+            }
+            finally {
+                pendingDestructionCallback.remove();
+            }
+            Entry entry = new Entry(instance, destructionCallback);
+            this.entries.add(entry);
+            this.creations.increment();
+            return entry;
+        }
+
+        /**
+         * 池子满了：等别的线程还回来一个，或者有实例被销毁腾出名额(返回null)
+         */
+        @Nullable
+        private Entry await() {
+            long start = System.nanoTime();
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            this.waits.increment();
+            this.waiters.incrementAndGet();
+            this.lock.lock();
+            try {
+                while (true) {
+                    Entry entry = acquireIdle();
+                    if (entry != null || this.size.get() < maxSize) {
+                        return entry;
+                    }
+                    if (remaining <= 0) {
+                        this.timeouts.increment();
+                        throw new BeanCreationException(this.beanName, "Pool exhausted: all " + maxSize +
+                                " instances are in use after waiting " + maxWaitMillis + " ms");
+                    }
+                    remaining = this.available.awaitNanos(remaining);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new BeanCreationException(this.beanName, "Interrupted while waiting for a pooled instance", ex);
+            }
+            finally {
+                this.lock.unlock();
+                this.waiters.decrementAndGet();
+                this.waitNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        private void signal() {
+            if (this.waiters.get() > 0) {
+                this.lock.lock();
+                try {
+                    this.available.signal();
+                }
+                finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+
+        boolean release(Object bean) {
+            Entry entry = null;
+            for (Entry candidate : this.entries) {
+                if (candidate.instance == bean) {
+                    entry = candidate;
+                    break;
+                }
+            }
+            if (entry == null) {
+                return false;
+            }
+            // 重复还回来的只有第一次生效
+            if (!entry.state.compareAndSet(IN_USE, RELEASING)) {
+                return true;
+            }
+            if (this.closed) {
+                invalidate(entry);
+                return true;
+            }
+            if (bean instanceof PooledBean) {
+                try {
+                    ((PooledBean) bean).resetForReuse();
+                }
+                catch (Throwable ex) {
+                    logger.debug("Discarding pooled bean '" + this.beanName + "' that failed to reset", ex);
+                    invalidate(entry);
+                    return true;
+                }
+            }
+            entry.idleSinceNanos = System.nanoTime();
+            entry.state.set(IDLE);
+            // close()可能在上面检查closed之后执行，那时这个实例还不是空闲的，没被销毁
+            if (this.closed) {
+                if (entry.state.compareAndSet(IDLE, REMOVED)) {
+                    discard(entry);
+                }
+                return true;
+            }
+            if (threadCacheSize > 0) {
+                ArrayDeque<Entry> cache = this.threadCache.get();
+                if (cache.size() >= threadCacheSize) {
+                    cache.pollLast();
+                }
+                cache.addFirst(entry);
+            }
+            signal();
+            return true;
+        }
+
+        private boolean isReusable(Entry entry) {
+            if (!(entry.instance instanceof PooledBean)) {
+                return true;
+            }
+            try {
+                return ((PooledBean) entry.instance).isReusable();
+            }
+            catch (Throwable ex) {
+                logger.debug("Discarding pooled bean '" + this.beanName + "' that failed validation", ex);
+                return false;
+            }
+        }
+
+        /**
+         * 销毁一个已经抢占(借出或者正在还回)的实例，腾出名额
+         */
+        private void invalidate(Entry entry) {
+            entry.state.set(REMOVED);
+            this.invalidations.increment();
+            discard(entry);
+        }
+
+        private void discard(Entry entry) {
+            this.entries.remove(entry);
+            this.size.decrementAndGet();
+            signal();
+            if (entry.destructionCallback != null) {
+                try {
+                    entry.destructionCallback.run();
+                }
+                catch (Throwable ex) {
+                    logger.warn("Destruction of pooled bean '" + this.beanName + "' threw an exception", ex);
+                }
+            }
+        }
+
+        private void fillToMinSize() {
+            ObjectFactory<?> objectFactory = this.objectFactory;
+            while (objectFactory != null && !this.closed && this.size.get() < minSize && reserve()) {
+                Entry entry = create(objectFactory);
+                entry.idleSinceNanos = System.nanoTime();
+                entry.state.set(IDLE);
+            }
+        }
+
+        void evictIdle() {
+            long now = System.nanoTime();
+            long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            for (Entry entry : this.entries) {
+                if (this.size.get() <= minSize) {
+                    break;
+                }
+                if (entry.state.get() == IDLE && now - entry.idleSinceNanos > timeout &&
+                        entry.state.compareAndSet(IDLE, REMOVED)) {
+                    this.evictions.increment();
+                    discard(entry);
+                }
+            }
+            fillToMinSize();
+        }
+
+        void close() {
+            this.closed = true;
+            for (Entry entry : this.entries) {
+                if (entry.state.compareAndSet(IDLE, REMOVED)) {
+                    discard(entry);
+                }
+            }
+        }
+
+        PoolStats stats() {
+            int idle = 0;
+            for (Entry entry : this.entries) {
+                if (entry.state.get() == IDLE) {
+                    idle++;
+                }
+            }
+            return new PoolStats(this.beanName, this.size.get(), idle, this.borrows.sum(), this.threadHits.sum(),
+                    this.sharedHits.sum(), this.creations.sum(), this.waits.sum(), this.waitNanos.sum(), this.timeouts.sum(),
+                    this.evictions.sum(), this.invalidations.sum());
+        }
+    }
+
+
+    /**
+     * 一个Bean池子某一时刻的统计
+     */
+    public static final class PoolStats {
+
+        private final String beanName;
+
+        private final int size;
+
+        private final int idle;
+
+        private final long borrows;
+
+        private final long threadHits;
+
+        private final long sharedHits;
+
+        private final long creations;
+
+        private final long waits;
+
+        private final long waitNanos;
+
+        private final long timeouts;
+
+        private final long evictions;
+
+        private final long invalidations;
+
+        PoolStats(String beanName, int size, int idle, long borrows, long threadHits, long sharedHits, long creations,
+                  long waits, long waitNanos, long timeouts, long evictions, long invalidations) {
+            this.beanName = beanName;
+            this.size = size;
+            this.idle = idle;
+            this.borrows = borrows;
+            this.threadHits = threadHits;
+            this.sharedHits = sharedHits;
+            this.creations = creations;
+            this.waits = waits;
+            this.waitNanos = waitNanos;
+            this.timeouts = timeouts;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public String getBeanName() {
+            return this.beanName;
+        }
+
+        /**
+         * 现有的实例数，包括借出去的
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        public int getIdle() {
+            return this.idle;
+        }
+
+        public long getBorrows() {
+            return this.borrows;
+        }
+
+        /**
+         * 借到的是当前线程最近还回去的实例
+         */
+        public long getThreadHits() {
+            return this.threadHits;
+        }
+
+        /**
+         * 借到的是别的线程还回去的实例
+         */
+        public long getSharedHits() {
+            return this.sharedHits;
+        }
+
+        /**
+         * 新创建的实例数，包括补足最小实例数时创建的
+         */
+        public long getCreations() {
+            return this.creations;
+        }
+
+        public double getHitRatio() {
+            return (this.borrows > 0 ? (double) (this.threadHits + this.sharedHits) / this.borrows : 0);
+        }
+
+        /**
+         * 池子满了需要等待的次数
+         */
+        public long getWaits() {
+            return this.waits;
+        }
+
+        public long getWaitNanos() {
+            return this.waitNanos;
+        }
+
+        public long getTimeouts() {
+            return this.timeouts;
+        }
+
+        public long getEvictions() {
+            return this.evictions;
+        }
+
+        /**
+         * 重置失败或者检查不通过被销毁的实例数
+         */
+        public long getInvalidations() {
+            return this.invalidations;
+        }
+
+        @Override
+        public String toString() {
+            return this.beanName + ": size " + this.size + " (idle " + this.idle + "), borrows " + this.borrows +
+                    ", hits " + (this.threadHits + this.sharedHits) + " (thread " + this.threadHits + "), creations " +
+                    this.creations + ", waits " + this.waits + " (" + this.waitNanos / 1_000_000 + " ms, timeouts " +
+                    this.timeouts + "), evictions " + this.evictions + ", invalidations " + this.invalidations;
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package cn.sue.spring.test.xml;
+
+import org.springframework.beans.BeanMetadataAttribute;
+import org.springframework.beans.BeanMetadataAttributeAccessor;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanNameReference;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.AutowireCandidateQualifier;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.ManagedArray;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.beans.factory.support.ManagedProperties;
+import org.springframework.beans.factory.support.ManagedSet;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * XML解析出来的BeanDefinition的二进制快照。只记录BeanDefinition本身的配置(类名、作用域、构造参数、属性、init/destroy方法等)，
+ * 属性值支持XML里能写出来的那些类型(字符串、ref、内部Bean、list/set/map/props/array)；
+ * 遇到lookup-method、instanceSupplier或者命名空间处理器放进来的其它对象时写快照会抛{@link NotSerializableException}，
+ * 这时只能每次都解析XML
+ * </p>
+ * <p>
+ * dependencies记录快照依赖的其它内容(import进来的XML、component-scan扫到的class文件和所在目录)的摘要，
+ * 读快照时任何一个变了快照就作废
+ * </p>
+ *
+ * @author Sue
+ * @className BeanDefinitionSnapshot
+ * @create 2023/5/23
+ **/
+final class BeanDefinitionSnapshot {
+
+    private static final int MAGIC = 0x53424453;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte KIND_GENERIC = 0;
+
+    private static final byte KIND_ROOT = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_TYPED_STRING = 2;
+    private static final byte VALUE_BEAN_REFERENCE = 3;
+    private static final byte VALUE_BEAN_NAME_REFERENCE = 4;
+    private static final byte VALUE_BEAN_DEFINITION_HOLDER = 5;
+    private static final byte VALUE_BEAN_DEFINITION = 6;
+    private static final byte VALUE_LIST = 7;
+    private static final byte VALUE_SET = 8;
+    private static final byte VALUE_MAP = 9;
+    private static final byte VALUE_PROPERTIES = 10;
+    private static final byte VALUE_ARRAY = 11;
+    private static final byte VALUE_BOOLEAN = 12;
+    private static final byte VALUE_INTEGER = 13;
+    private static final byte VALUE_LONG = 14;
+    private static final byte VALUE_CLASS = 15;
+
+    /**
+     * 依赖的资源：location是资源的URL，digest是内容摘要
+     */
+    static final byte DEPENDENCY_CONTENT = 0;
+
+    /**
+     * 依赖的目录：location是classpath*:开头的模式，digest是匹配到的每个文件的URL和内容的摘要
+     */
+    static final byte DEPENDENCY_LISTING = 1;
+
+    final List<Dependency> dependencies = new ArrayList<>();
+
+    // component-scan/annotation-config注册的那些后处理器排在第几个BeanDefinition前面，-1表示没有；读的时候在同样的位置重新用AnnotationConfigUtils注册
+    int annotationConfigPosition = -1;
+
+    final Map<String, BeanDefinition> beanDefinitions = new LinkedHashMap<>();
+
+    final Map<String, List<String>> aliases = new LinkedHashMap<>();
+
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(this.dependencies.size());
+        for (Dependency dependency : this.dependencies) {
+            out.writeByte(dependency.kind);
+            writeString(out, dependency.location);
+            writeString(out, dependency.digest);
+        }
+        out.writeInt(this.annotationConfigPosition);
+        out.writeInt(this.beanDefinitions.size());
+        for (Map.Entry<String, BeanDefinition> entry : this.beanDefinitions.entrySet()) {
+            writeString(out, entry.getKey());
+            writeDefinition(out, entry.getValue());
+        }
+        out.writeInt(this.aliases.size());
+        for (Map.Entry<String, List<String>> entry : this.aliases.entrySet()) {
+            writeString(out, entry.getKey());
+            writeStrings(out, entry.getValue().toArray(new String[0]));
+        }
+    }
+
+    static BeanDefinitionSnapshot read(DataInputStream in, @Nullable ClassLoader classLoader) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Not a bean definition snapshot or unsupported format version");
+        }
+        BeanDefinitionSnapshot snapshot = new BeanDefinitionSnapshot();
+        Reader reader = new Reader(in, classLoader);
+        int dependencyCount = in.readInt();
+        for (int i = 0; i < dependencyCount; i++) {
+            snapshot.dependencies.add(new Dependency(in.readByte(), readString(in), readString(in)));
+        }
+        snapshot.annotationConfigPosition = in.readInt();
+        int definitionCount = in.readInt();
+        for (int i = 0; i < definitionCount; i++) {
+            snapshot.beanDefinitions.put(readString(in), reader.readDefinition());
+        }
+        int aliasCount = in.readInt();
+        for (int i = 0; i < aliasCount; i++) {
+            String name = readString(in);
+            String[] aliases = readStrings(in);
+            snapshot.aliases.put(name, (aliases != null ? Arrays.asList(aliases) : Collections.emptyList()));
+        }
+        return snapshot;
+    }
+
+
+    private static void writeDefinition(DataOutputStream out, BeanDefinition definition) throws IOException {
+        if (!(definition instanceof AbstractBeanDefinition)) {
+            throw new NotSerializableException(definition.getClass().getName());
+        }
+        AbstractBeanDefinition bd = (AbstractBeanDefinition) definition;
+        if (bd.getInstanceSupplier() != null) {
+            throw new NotSerializableException("Bean definition with instance supplier: " + bd);
+        }
+        if (bd.hasMethodOverrides()) {
+            throw new NotSerializableException("Bean definition with lookup or replaced methods: " + bd);
+        }
+        out.writeByte(bd instanceof RootBeanDefinition ? KIND_ROOT : KIND_GENERIC);
+        writeString(out, bd.getBeanClassName());
+        writeString(out, bd.getParentName());
+        writeString(out, bd.getScope());
+        out.writeBoolean(bd.isAbstract());
+        Boolean lazyInit = bd.getLazyInit();
+        out.writeByte(lazyInit == null ? -1 : (lazyInit ? 1 : 0));
+        out.writeInt(bd.getAutowireMode());
+        out.writeInt(bd.getDependencyCheck());
+        writeStrings(out, bd.getDependsOn());
+        out.writeBoolean(bd.isAutowireCandidate());
+        out.writeBoolean(bd.isPrimary());
+        out.writeInt(bd.getQualifiers().size());
+        for (AutowireCandidateQualifier qualifier : bd.getQualifiers()) {
+            writeString(out, qualifier.getTypeName());
+            writeAttributes(out, qualifier);
+        }
+        out.writeBoolean(bd.isNonPublicAccessAllowed());
+        out.writeBoolean(bd.isLenientConstructorResolution());
+        writeString(out, bd.getFactoryBeanName());
+        writeString(out, bd.getFactoryMethodName());
+
+        ConstructorArgumentValues args = bd.getConstructorArgumentValues();
+        out.writeInt(args.getIndexedArgumentValues().size());
+        for (Map.Entry<Integer, ConstructorArgumentValues.ValueHolder> entry : args.getIndexedArgumentValues().entrySet()) {
+            out.writeInt(entry.getKey());
+            writeValueHolder(out, entry.getValue());
+        }
+        out.writeInt(args.getGenericArgumentValues().size());
+        for (ConstructorArgumentValues.ValueHolder holder : args.getGenericArgumentValues()) {
+            writeValueHolder(out, holder);
+        }
+
+        PropertyValue[] pvs = bd.getPropertyValues().getPropertyValues();
+        out.writeInt(pvs.length);
+        for (PropertyValue pv : pvs) {
+            writeString(out, pv.getName());
+            out.writeBoolean(pv.isOptional());
+            writeValue(out, pv.getValue());
+        }
+
+        writeString(out, bd.getInitMethodName());
+        out.writeBoolean(bd.isEnforceInitMethod());
+        writeString(out, bd.getDestroyMethodName());
+        out.writeBoolean(bd.isEnforceDestroyMethod());
+        out.writeBoolean(bd.isSynthetic());
+        out.writeInt(bd.getRole());
+        writeString(out, bd.getDescription());
+        writeAttributes(out, bd);
+    }
+
+    private static void writeValueHolder(DataOutputStream out, ConstructorArgumentValues.ValueHolder holder) throws IOException {
+        writeValue(out, holder.getValue());
+        writeString(out, holder.getType());
+        writeString(out, holder.getName());
+    }
+
+    private static void writeAttributes(DataOutputStream out, BeanMetadataAttributeAccessor accessor) throws IOException {
+        String[] names = accessor.attributeNames();
+        out.writeInt(names.length);
+        for (String name : names) {
+            BeanMetadataAttribute metadata = accessor.getMetadataAttribute(name);
+            writeString(out, name);
+            out.writeBoolean(metadata != null);
+            writeValue(out, (metadata != null ? metadata.getValue() : accessor.getAttribute(name)));
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, @Nullable Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        }
+        else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof TypedStringValue) {
+            TypedStringValue typed = (TypedStringValue) value;
+            out.writeByte(VALUE_TYPED_STRING);
+            writeString(out, typed.getValue());
+            writeString(out, typed.getTargetTypeName());
+            writeString(out, typed.getSpecifiedTypeName());
+            out.writeBoolean(typed.isDynamic());
+        }
+        else if (value instanceof RuntimeBeanReference) {
+            out.writeByte(VALUE_BEAN_REFERENCE);
+            writeString(out, ((RuntimeBeanReference) value).getBeanName());
+            out.writeBoolean(((RuntimeBeanReference) value).isToParent());
+        }
+        else if (value instanceof RuntimeBeanNameReference) {
+            out.writeByte(VALUE_BEAN_NAME_REFERENCE);
+            writeString(out, ((RuntimeBeanNameReference) value).getBeanName());
+        }
+        else if (value instanceof BeanDefinitionHolder) {
+            BeanDefinitionHolder holder = (BeanDefinitionHolder) value;
+            out.writeByte(VALUE_BEAN_DEFINITION_HOLDER);
+            writeString(out, holder.getBeanName());
+            writeStrings(out, holder.getAliases());
+            writeDefinition(out, holder.getBeanDefinition());
+        }
+        else if (value instanceof BeanDefinition) {
+            out.writeByte(VALUE_BEAN_DEFINITION);
+            writeDefinition(out, (BeanDefinition) value);
+        }
+        else if (value instanceof ManagedArray) {
+            out.writeByte(VALUE_ARRAY);
+            writeString(out, ((ManagedArray) value).getElementTypeName());
+            writeElements(out, ((ManagedArray) value).isMergeEnabled(), (ManagedArray) value);
+        }
+        else if (value instanceof ManagedList) {
+            out.writeByte(VALUE_LIST);
+            writeString(out, ((ManagedList<?>) value).getElementTypeName());
+            writeElements(out, ((ManagedList<?>) value).isMergeEnabled(), (ManagedList<?>) value);
+        }
+        else if (value instanceof ManagedSet) {
+            out.writeByte(VALUE_SET);
+            writeString(out, ((ManagedSet<?>) value).getElementTypeName());
+            writeElements(out, ((ManagedSet<?>) value).isMergeEnabled(), (ManagedSet<?>) value);
+        }
+        else if (value instanceof ManagedMap) {
+            ManagedMap<?, ?> map = (ManagedMap<?, ?>) value;
+            out.writeByte(VALUE_MAP);
+            writeString(out, map.getKeyTypeName());
+            writeString(out, map.getValueTypeName());
+            writeEntries(out, map.isMergeEnabled(), map);
+        }
+        else if (value instanceof ManagedProperties) {
+            out.writeByte(VALUE_PROPERTIES);
+            writeEntries(out, ((ManagedProperties) value).isMergeEnabled(), (ManagedProperties) value);
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Class) {
+            out.writeByte(VALUE_CLASS);
+            writeString(out, ((Class<?>) value).getName());
+        }
+        else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    private static void writeElements(DataOutputStream out, boolean mergeEnabled, Collection<?> elements) throws IOException {
+        out.writeBoolean(mergeEnabled);
+        out.writeInt(elements.size());
+        for (Object element : elements) {
+            writeValue(out, element);
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, boolean mergeEnabled, Map<?, ?> map) throws IOException {
+        out.writeBoolean(mergeEnabled);
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, @Nullable String[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    @Nullable
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+
+    // writeUTF最长只能写64K，XML里的长文本(比如内联脚本)会超
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    static final class Dependency {
+
+        final byte kind;
+
+        final String location;
+
+        final String digest;
+
+        Dependency(byte kind, String location, String digest) {
+            this.kind = kind;
+            this.location = location;
+            this.digest = digest;
+        }
+    }
+
+
+    private static final class Reader {
+
+        private final DataInputStream in;
+
+        @Nullable
+        private final ClassLoader classLoader;
+
+        Reader(DataInputStream in, @Nullable ClassLoader classLoader) {
+            this.in = in;
+            this.classLoader = classLoader;
+        }
+
+        AbstractBeanDefinition readDefinition() throws IOException {
+            byte kind = this.in.readByte();
+            AbstractBeanDefinition bd;
+            if (kind == KIND_ROOT) {
+                bd = new RootBeanDefinition();
+            }
+            else if (kind == KIND_GENERIC) {
+                bd = new GenericBeanDefinition();
+            }
+            else {
+                throw new StreamCorruptedException("Unknown bean definition kind " + kind);
+            }
+            bd.setBeanClassName(readString(this.in));
+            String parentName = readString(this.in);
+            if (parentName != null) {
+                bd.setParentName(parentName);
+            }
+            bd.setScope(readString(this.in));
+            bd.setAbstract(this.in.readBoolean());
+            byte lazyInit = this.in.readByte();
+            if (lazyInit >= 0) {
+                bd.setLazyInit(lazyInit == 1);
+            }
+            bd.setAutowireMode(this.in.readInt());
+            bd.setDependencyCheck(this.in.readInt());
+            bd.setDependsOn(readStrings(this.in));
+            bd.setAutowireCandidate(this.in.readBoolean());
+            bd.setPrimary(this.in.readBoolean());
+            int qualifierCount = this.in.readInt();
+            for (int i = 0; i < qualifierCount; i++) {
+                AutowireCandidateQualifier qualifier = new AutowireCandidateQualifier(readString(this.in));
+                readAttributes(qualifier);
+                bd.addQualifier(qualifier);
+            }
+            bd.setNonPublicAccessAllowed(this.in.readBoolean());
+            bd.setLenientConstructorResolution(this.in.readBoolean());
+            bd.setFactoryBeanName(readString(this.in));
+            bd.setFactoryMethodName(readString(this.in));
+
+            ConstructorArgumentValues args = bd.getConstructorArgumentValues();
+            int indexedCount = this.in.readInt();
+            for (int i = 0; i < indexedCount; i++) {
+                args.addIndexedArgumentValue(this.in.readInt(), readValueHolder());
+            }
+            int genericCount = this.in.readInt();
+            for (int i = 0; i < genericCount; i++) {
+                args.addGenericArgumentValue(readValueHolder());
+            }
+
+            int propertyCount = this.in.readInt();
+            MutablePropertyValues pvs = bd.getPropertyValues();
+            for (int i = 0; i < propertyCount; i++) {
+                String name = readString(this.in);
+                boolean optional = this.in.readBoolean();
+                PropertyValue pv = new PropertyValue(name, readValue());
+                pv.setOptional(optional);
+                pvs.addPropertyValue(pv);
+            }
+
+            bd.setInitMethodName(readString(this.in));
+            bd.setEnforceInitMethod(this.in.readBoolean());
+            bd.setDestroyMethodName(readString(this.in));
+            bd.setEnforceDestroyMethod(this.in.readBoolean());
+            bd.setSynthetic(this.in.readBoolean());
+            bd.setRole(this.in.readInt());
+            bd.setDescription(readString(this.in));
+            readAttributes(bd);
+            return bd;
+        }
+
+        private ConstructorArgumentValues.ValueHolder readValueHolder() throws IOException {
+            Object value = readValue();
+            return new ConstructorArgumentValues.ValueHolder(value, readString(this.in), readString(this.in));
+        }
+
+        private void readAttributes(BeanMetadataAttributeAccessor accessor) throws IOException {
+            int count = this.in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = readString(this.in);
+                boolean metadata = this.in.readBoolean();
+                Object value = readValue();
+                if (metadata) {
+                    accessor.addMetadataAttribute(new BeanMetadataAttribute(name, value));
+                }
+                else {
+                    accessor.setAttribute(name, value);
+                }
+            }
+        }
+
+        @Nullable
+        private Object readValue() throws IOException {
+            byte type = this.in.readByte();
+            switch (type) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return readString(this.in);
+                case VALUE_TYPED_STRING: {
+                    TypedStringValue typed = new TypedStringValue(readString(this.in));
+                    typed.setTargetTypeName(readString(this.in));
+                    typed.setSpecifiedTypeName(readString(this.in));
+                    if (this.in.readBoolean()) {
+                        typed.setDynamic();
+                    }
+                    return typed;
+                }
+                case VALUE_BEAN_REFERENCE: {
+                    String beanName = readString(this.in);
+                    return new RuntimeBeanReference(beanName, this.in.readBoolean());
+                }
+                case VALUE_BEAN_NAME_REFERENCE:
+                    return new RuntimeBeanNameReference(readString(this.in));
+                case VALUE_BEAN_DEFINITION_HOLDER: {
+                    String beanName = readString(this.in);
+                    String[] aliases = readStrings(this.in);
+                    return new BeanDefinitionHolder(readDefinition(), beanName, aliases);
+                }
+                case VALUE_BEAN_DEFINITION:
+                    return readDefinition();
+                case VALUE_ARRAY: {
+                    String elementTypeName = readString(this.in);
+                    boolean mergeEnabled = this.in.readBoolean();
+                    int size = this.in.readInt();
+                    ManagedArray array = new ManagedArray(elementTypeName, size);
+                    array.setMergeEnabled(mergeEnabled);
+                    for (int i = 0; i < size; i++) {
+                        array.add(readValue());
+                    }
+                    return array;
+                }
+                case VALUE_LIST: {
+                    ManagedList<Object> list = new ManagedList<>();
+                    list.setElementTypeName(readString(this.in));
+                    list.setMergeEnabled(this.in.readBoolean());
+                    int size = this.in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case VALUE_SET: {
+                    ManagedSet<Object> set = new ManagedSet<>();
+                    set.setElementTypeName(readString(this.in));
+                    set.setMergeEnabled(this.in.readBoolean());
+                    int size = this.in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        set.add(readValue());
+                    }
+                    return set;
+                }
+                case VALUE_MAP: {
+                    ManagedMap<Object, Object> map = new ManagedMap<>();
+                    map.setKeyTypeName(readString(this.in));
+                    map.setValueTypeName(readString(this.in));
+                    map.setMergeEnabled(this.in.readBoolean());
+                    int size = this.in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                }
+                case VALUE_PROPERTIES: {
+                    ManagedProperties properties = new ManagedProperties();
+                    properties.setMergeEnabled(this.in.readBoolean());
+                    int size = this.in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        properties.put(key, readValue());
+                    }
+                    return properties;
+                }
+                case VALUE_BOOLEAN:
+                    return this.in.readBoolean();
+                case VALUE_INTEGER:
+                    return this.in.readInt();
+                case VALUE_LONG:
+                    return this.in.readLong();
+                case VALUE_CLASS: {
+                    String className = readString(this.in);
+                    try {
+                        return ClassUtils.forName(className, this.classLoader);
+                    }
+                    catch (ClassNotFoundException ex) {
+                        throw new StreamCorruptedException("Class " + className + " in snapshot not found");
+                    }
+                }
+                default:
+                    throw new StreamCorruptedException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cn.sue.spring.test.xml;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.ResourceEntityResolver;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * 用{@link SnapshotXmlBeanDefinitionReader}加载XML的ClassPathXmlApplicationContext，
+ * 配置没变时重启不再解析XML
+ * </p>
+ *
+ * @author Sue
+ * @className SnapshotXmlApplicationContext
+ * @create 2023/5/23
+ **/
+public class SnapshotXmlApplicationContext extends ClassPathXmlApplicationContext {
+
+    private final Path snapshotDirectory;
+
+    public SnapshotXmlApplicationContext(Path snapshotDirectory, String... configLocations) {
+        super(configLocations, false, null);
+        this.snapshotDirectory = snapshotDirectory;
+        refresh();
+    }
+
+    /**
+     * 和AbstractXmlApplicationContext一样，只是换成了带快照的reader
+     */
+    @Override
+    protected void loadBeanDefinitions(DefaultListableBeanFactory beanFactory) throws IOException {
+        SnapshotXmlBeanDefinitionReader beanDefinitionReader = new SnapshotXmlBeanDefinitionReader(beanFactory);
+        beanDefinitionReader.setSnapshotDirectory(this.snapshotDirectory);
+        beanDefinitionReader.setEnvironment(getEnvironment());
+        beanDefinitionReader.setResourceLoader(this);
+        beanDefinitionReader.setEntityResolver(new ResourceEntityResolver(this));
+        initBeanDefinitionReader(beanDefinitionReader);
+        loadBeanDefinitions(beanDefinitionReader);
+    }
+}
@@ -0,0 +1,531 @@
+package cn.sue.spring.test.xml;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.xml.BeanDefinitionParserDelegate;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.SpringVersion;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.StringUtils;
+import org.springframework.util.SystemPropertyUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * 带快照缓存的XmlBeanDefinitionReader：第一次加载某个XML时照常解析(DOM + XSD校验)，
+ * 然后把这次注册的BeanDefinition写成二进制快照({@link BeanDefinitionSnapshot})；
+ * 之后再加载时直接读快照，不再解析XML。
+ * </p>
+ * <p>
+ * 快照文件名是XML内容、类路径上所有META-INF/spring.handlers和spring.schemas(命名空间处理器)、Spring版本、
+ * Environment里激活的和默认的profile的SHA-256，任何一个变了就会重新解析。import进来的XML、component-scan扫到的class文件记录在快照里，
+ * component-scan的base-package(包括子包)下所有class文件的内容也记一个摘要，读之前校验，
+ * 新增、删除、修改(比如加上&#64;Component)任何一个class都会重新解析。
+ * 解析结果还依赖profile以外的Environment时不写快照：import的resource或者base-package里有${...}占位符，
+ * 或者扫描的包里有&#64;Profile以外的&#64;Conditional
+ * </p>
+ * <p>
+ * 只有BeanDefinition会进快照，命名空间处理器对BeanFactory做的其它修改不会重放，
+ * 已知的annotation-config(component-scan也会做)在读快照时按原来的顺序重新调用AnnotationConfigUtils注册
+ * </p>
+ * <p>
+ * 读快照等于按快照里的类名创建Bean，快照目录必须用{@link #setSnapshotDirectory}明确指定，而且只能当前用户可写：
+ * 不存在时按rwx------创建，组或其他用户可写的目录(比如共享的java.io.tmpdir)不读也不写快照，照常解析XML
+ * </p>
+ *
+ * @author Sue
+ * @className SnapshotXmlBeanDefinitionReader
+ * @create 2023/5/23
+ **/
+public class SnapshotXmlBeanDefinitionReader extends XmlBeanDefinitionReader {
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String[] NAMESPACE_MAPPINGS = {"META-INF/spring.handlers", "META-INF/spring.schemas"};
+
+    private static final Set<String> ANNOTATION_CONFIG_BEAN_NAMES = new HashSet<>(Arrays.asList(
+            AnnotationConfigUtils.CONFIGURATION_ANNOTATION_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.AUTOWIRED_ANNOTATION_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.COMMON_ANNOTATION_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.PERSISTENCE_ANNOTATION_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.EVENT_LISTENER_PROCESSOR_BEAN_NAME,
+            AnnotationConfigUtils.EVENT_LISTENER_FACTORY_BEAN_NAME));
+
+    @Nullable
+    private Path snapshotDirectory;
+
+    // 快照目录是否检查过、能不能用
+    @Nullable
+    private volatile Boolean snapshotDirectoryUsable;
+
+    private static final String CONTEXT_NAMESPACE_URI = "http://www.springframework.org/schema/context";
+
+    private static final String PROFILE_CONDITION_CLASS_NAME = "org.springframework.context.annotation.ProfileCondition";
+
+    // 不为null时说明正在解析一个顶层XML，记录import进来的资源和component-scan的包
+    private final ThreadLocal<ParseRecord> parseRecord = new ThreadLocal<>();
+
+    private volatile String namespaceMappingsDigest;
+
+    private volatile int snapshotHits;
+
+    public SnapshotXmlBeanDefinitionReader(BeanDefinitionRegistry registry) {
+        super(registry);
+    }
+
+    /**
+     * 存放快照的目录，不能是其他用户可写的共享目录
+     */
+    public void setSnapshotDirectory(Path snapshotDirectory) {
+        Assert.notNull(snapshotDirectory, "Snapshot directory must not be null");
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotDirectoryUsable = null;
+    }
+
+    @Nullable
+    public Path getSnapshotDirectory() {
+        return this.snapshotDirectory;
+    }
+
+    /**
+     * 从快照加载(没有解析XML)的次数
+     */
+    public int getSnapshotHits() {
+        return this.snapshotHits;
+    }
+
+    @Override
+    public int loadBeanDefinitions(EncodedResource encodedResource) throws BeanDefinitionStoreException {
+        ParseRecord record = this.parseRecord.get();
+        if (record != null) {
+            record.importedResources.add(encodedResource.getResource());
+            return super.loadBeanDefinitions(encodedResource);
+        }
+
+        Assert.state(this.snapshotDirectory != null, "Snapshot directory must be set");
+        if (!isSnapshotDirectoryUsable()) {
+            return super.loadBeanDefinitions(encodedResource);
+        }
+        Path snapshotFile;
+        try {
+            snapshotFile = this.snapshotDirectory.resolve(snapshotKey(encodedResource.getResource()) + SNAPSHOT_SUFFIX);
+        }
+        catch (IOException ex) {
+            // 读不到XML，交给父类报错
+            return super.loadBeanDefinitions(encodedResource);
+        }
+        if (Files.isRegularFile(snapshotFile)) {
+            int count = loadSnapshot(snapshotFile, encodedResource.getResource());
+            if (count >= 0) {
+                this.snapshotHits++;
+                return count;
+            }
+        }
+        return parseAndSnapshot(encodedResource, snapshotFile);
+    }
+
+    /**
+     * 目录不存在时只给当前用户权限创建；已存在时只要组或其他用户可写就不用它，
+     * 别人放进去的快照会被当成BeanDefinition加载
+     */
+    private boolean isSnapshotDirectoryUsable() {
+        Boolean usable = this.snapshotDirectoryUsable;
+        if (usable == null) {
+            usable = checkSnapshotDirectory(this.snapshotDirectory);
+            this.snapshotDirectoryUsable = usable;
+        }
+        return usable;
+    }
+
+    private boolean checkSnapshotDirectory(Path directory) {
+        try {
+            boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+            if (!Files.exists(directory)) {
+                if (posix) {
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                }
+                else {
+                    Files.createDirectories(directory);
+                }
+                return true;
+            }
+            if (posix) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    logger.warn("Not using bean definition snapshots: " + directory + " is writable by other users");
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (IOException ex) {
+            logger.warn("Not using bean definition snapshots: cannot prepare " + directory + ": " + ex);
+            return false;
+        }
+    }
+
+    private int parseAndSnapshot(EncodedResource encodedResource, Path snapshotFile) {
+        BeanDefinitionRegistry registry = getRegistry();
+        // 按对象比较，覆盖了已有名字的定义也要进快照，否则加载到空的容器里会少这些Bean
+        Map<String, BeanDefinition> existing = new HashMap<>();
+        for (String beanName : registry.getBeanDefinitionNames()) {
+            existing.put(beanName, registry.getBeanDefinition(beanName));
+        }
+        ParseRecord record = new ParseRecord();
+        this.parseRecord.set(record);
+        int count;
+        try {
+            count = super.loadBeanDefinitions(encodedResource);
+        }
+        finally {
+            this.parseRecord.remove();
+        }
+
+        if (record.environmentDependent) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not writing bean definition snapshot for " + encodedResource.getResource() +
+                        ": its imports or component-scan packages contain placeholders");
+            }
+            return count;
+        }
+        BeanDefinitionSnapshot snapshot = new BeanDefinitionSnapshot();
+        try {
+            for (Resource resource : record.importedResources) {
+                snapshot.dependencies.add(contentDependency(resource));
+            }
+            Set<String> scannedPackages = new TreeSet<>();
+            for (String beanName : registry.getBeanDefinitionNames()) {
+                BeanDefinition bd = registry.getBeanDefinition(beanName);
+                if (existing.get(beanName) == bd) {
+                    continue;
+                }
+                if (ANNOTATION_CONFIG_BEAN_NAMES.contains(beanName)) {
+                    if (snapshot.annotationConfigPosition < 0) {
+                        snapshot.annotationConfigPosition = snapshot.beanDefinitions.size();
+                    }
+                    continue;
+                }
+                Resource classFile = (bd instanceof AnnotatedBeanDefinition ? ((AbstractBeanDefinition) bd).getResource() : null);
+                if (classFile != null) {
+                    snapshot.dependencies.add(contentDependency(classFile));
+                    String packageName = ClassUtils.getPackageName(bd.getBeanClassName());
+                    if (!isInBasePackage(packageName, record.basePackages)) {
+                        // 不是XML里的component-scan扫到的(比如自定义命名空间)，至少校验它所在的包
+                        scannedPackages.add(ClassUtils.convertClassNameToResourcePath(packageName) + "/*.class");
+                    }
+                }
+                snapshot.beanDefinitions.put(beanName, bd);
+                String[] aliases = registry.getAliases(beanName);
+                if (aliases.length > 0) {
+                    snapshot.aliases.put(beanName, Arrays.asList(aliases));
+                }
+            }
+            for (String basePackage : record.basePackages) {
+                String location = ClassUtils.convertClassNameToResourcePath(basePackage) + "/**/*.class";
+                String conditional = findConditionalClass(ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + location);
+                if (conditional != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Not writing bean definition snapshot for " + encodedResource.getResource() +
+                                ": scanned class " + conditional + " is @Conditional");
+                    }
+                    return count;
+                }
+                scannedPackages.add(location);
+            }
+            for (String location : scannedPackages) {
+                String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + location;
+                snapshot.dependencies.add(new BeanDefinitionSnapshot.Dependency(
+                        BeanDefinitionSnapshot.DEPENDENCY_LISTING, pattern, listingDigest(pattern)));
+            }
+            writeSnapshot(snapshot, snapshotFile);
+        }
+        catch (IOException ex) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not writing bean definition snapshot for " + encodedResource.getResource(), ex);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 解析每个XML(包括import进来的)时记下component-scan的base-package
+     */
+    @Override
+    public int registerBeanDefinitions(Document doc, Resource resource) throws BeanDefinitionStoreException {
+        ParseRecord record = this.parseRecord.get();
+        if (record != null) {
+            NodeList imports = doc.getElementsByTagNameNS(BeanDefinitionParserDelegate.BEANS_NAMESPACE_URI, "import");
+            for (int i = 0; i < imports.getLength(); i++) {
+                if (((Element) imports.item(i)).getAttribute("resource").contains(SystemPropertyUtils.PLACEHOLDER_PREFIX)) {
+                    record.environmentDependent = true;
+                }
+            }
+            NodeList scans = doc.getElementsByTagNameNS(CONTEXT_NAMESPACE_URI, "component-scan");
+            for (int i = 0; i < scans.getLength(); i++) {
+                String basePackage = ((Element) scans.item(i)).getAttribute("base-package");
+                if (basePackage.contains(SystemPropertyUtils.PLACEHOLDER_PREFIX)) {
+                    record.environmentDependent = true;
+                }
+                basePackage = getEnvironment().resolvePlaceholders(basePackage);
+                Collections.addAll(record.basePackages, StringUtils.tokenizeToStringArray(basePackage,
+                        ConfigurableApplicationContext.CONFIG_LOCATION_DELIMITERS));
+            }
+        }
+        return super.registerBeanDefinitions(doc, resource);
+    }
+
+    /**
+     * 扫描的包里第一个带&#64;Profile以外的&#64;Conditional的类；&#64;Profile已经算进了快照文件名
+     */
+    @Nullable
+    private String findConditionalClass(String pattern) throws IOException {
+        ResourcePatternResolver resolver = getResourcePatternResolver();
+        MetadataReaderFactory metadataReaderFactory = new SimpleMetadataReaderFactory(resolver);
+        for (Resource resource : resolver.getResources(pattern)) {
+            AnnotationMetadata metadata = metadataReaderFactory.getMetadataReader(resource).getAnnotationMetadata();
+            MultiValueMap<String, Object> conditions = metadata.getAllAnnotationAttributes(Conditional.class.getName(), true);
+            if (conditions == null) {
+                continue;
+            }
+            for (Object value : conditions.getOrDefault("value", Collections.emptyList())) {
+                for (String conditionClassName : (String[]) value) {
+                    if (!PROFILE_CONDITION_CLASS_NAME.equals(conditionClassName)) {
+                        return metadata.getClassName();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInBasePackage(String packageName, Set<String> basePackages) {
+        for (String basePackage : basePackages) {
+            if (packageName.equals(basePackage) || packageName.startsWith(basePackage + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeSnapshot(BeanDefinitionSnapshot snapshot, Path snapshotFile) throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        // 先写临时文件再改名，并发启动的实例不会读到写了一半的快照
+        Path tempFile = Files.createTempFile(snapshotFile.getParent(), snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                snapshot.write(out);
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Wrote snapshot of " + snapshot.beanDefinitions.size() + " bean definitions to " + snapshotFile);
+        }
+    }
+
+    /**
+     * 快照损坏或者过期时返回-1
+     */
+    private int loadSnapshot(Path snapshotFile, Resource resource) {
+        BeanDefinitionSnapshot snapshot;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            snapshot = BeanDefinitionSnapshot.read(in, getBeanClassLoader());
+        }
+        catch (IOException | RuntimeException ex) {
+            logger.warn("Ignoring unreadable bean definition snapshot " + snapshotFile + ": " + ex);
+            return -1;
+        }
+        try {
+            for (BeanDefinitionSnapshot.Dependency dependency : snapshot.dependencies) {
+                String digest = (dependency.kind == BeanDefinitionSnapshot.DEPENDENCY_LISTING ?
+                        listingDigest(dependency.location) : contentDigest(getResourcePatternResolver().getResource(dependency.location)));
+                if (!digest.equals(dependency.digest)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Bean definition snapshot " + snapshotFile + " is stale: " + dependency.location + " changed");
+                    }
+                    return -1;
+                }
+            }
+        }
+        catch (IOException ex) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Bean definition snapshot " + snapshotFile + " is stale", ex);
+            }
+            return -1;
+        }
+
+        BeanDefinitionRegistry registry = getRegistry();
+        int countBefore = registry.getBeanDefinitionCount();
+        String resourceDescription = resource.getDescription();
+        int position = 0;
+        for (Map.Entry<String, BeanDefinition> entry : snapshot.beanDefinitions.entrySet()) {
+            if (position++ == snapshot.annotationConfigPosition) {
+                AnnotationConfigUtils.registerAnnotationConfigProcessors(registry);
+            }
+            ((AbstractBeanDefinition) entry.getValue()).setResourceDescription(resourceDescription);
+            registry.registerBeanDefinition(entry.getKey(), entry.getValue());
+        }
+        if (snapshot.annotationConfigPosition >= snapshot.beanDefinitions.size()) {
+            AnnotationConfigUtils.registerAnnotationConfigProcessors(registry);
+        }
+        snapshot.aliases.forEach((beanName, aliases) -> aliases.forEach(alias -> registry.registerAlias(beanName, alias)));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded " + snapshot.beanDefinitions.size() + " bean definitions for " + resource + " from snapshot " + snapshotFile);
+        }
+        return registry.getBeanDefinitionCount() - countBefore;
+    }
+
+    private String snapshotKey(Resource resource) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(String.valueOf(SpringVersion.getVersion()).getBytes(StandardCharsets.UTF_8));
+        digest.update(namespaceMappingsDigest().getBytes(StandardCharsets.UTF_8));
+        // <beans profile>和扫描到的@Profile按profile过滤
+        Environment environment = getEnvironment();
+        digest.update(("active=" + new TreeSet<>(Arrays.asList(environment.getActiveProfiles())) +
+                ";default=" + new TreeSet<>(Arrays.asList(environment.getDefaultProfiles())) + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(readAll(resource));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 命名空间处理器不会在运行期间变化，只算一次
+     */
+    private String namespaceMappingsDigest() throws IOException {
+        String result = this.namespaceMappingsDigest;
+        if (result == null) {
+            ClassLoader classLoader = (getBeanClassLoader() != null ? getBeanClassLoader() : ClassUtils.getDefaultClassLoader());
+            MessageDigest digest = sha256();
+            for (String location : NAMESPACE_MAPPINGS) {
+                List<URL> urls = new ArrayList<>();
+                Enumeration<URL> resources = (classLoader != null ? classLoader.getResources(location) : ClassLoader.getSystemResources(location));
+                urls.addAll(Collections.list(resources));
+                urls.sort((a, b) -> a.toString().compareTo(b.toString()));
+                for (URL url : urls) {
+                    digest.update(url.toString().getBytes(StandardCharsets.UTF_8));
+                    try (InputStream in = url.openStream()) {
+                        digest.update(FileCopyUtils.copyToByteArray(in));
+                    }
+                }
+            }
+            result = toHex(digest.digest());
+            this.namespaceMappingsDigest = result;
+        }
+        return result;
+    }
+
+    private static BeanDefinitionSnapshot.Dependency contentDependency(Resource resource) throws IOException {
+        return new BeanDefinitionSnapshot.Dependency(
+                BeanDefinitionSnapshot.DEPENDENCY_CONTENT, resource.getURL().toString(), contentDigest(resource));
+    }
+
+    private static String contentDigest(Resource resource) throws IOException {
+        return toHex(sha256().digest(readAll(resource)));
+    }
+
+    /**
+     * 匹配到的每个文件的URL和内容，按URL排序；只看文件名的话，已有的类加上&#64;Component检测不到
+     */
+    private String listingDigest(String pattern) throws IOException {
+        Map<String, Resource> resources = new TreeMap<>();
+        for (Resource resource : getResourcePatternResolver().getResources(pattern)) {
+            resources.put(resource.getURL().toString(), resource);
+        }
+        MessageDigest digest = sha256();
+        for (Map.Entry<String, Resource> entry : resources.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update(readAll(entry.getValue()));
+        }
+        return toHex(digest.digest());
+    }
+
+    private ResourcePatternResolver getResourcePatternResolver() {
+        return ResourcePatternUtils.getResourcePatternResolver(
+                getResourceLoader() != null ? getResourceLoader() : new DefaultResourceLoader(getBeanClassLoader()));
+    }
+
+    private static byte[] readAll(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return FileCopyUtils.copyToByteArray(in);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+
+    private static final class ParseRecord {
+
+        final Set<Resource> importedResources = new LinkedHashSet<>();
+
+        final Set<String> basePackages = new TreeSet<>();
+
+        // import或者component-scan的包用了占位符
+        boolean environmentDependent;
+    }
+}
@@ -0,0 +1,89 @@
+package cn.sue.spring.test.xml;
+
+import cn.sue.spring.test.factory.IncrementalRefresher;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.ResourceEntityResolver;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * XML改了以后增量刷新容器：重新解析XML，和上一次解析的结果比较，只把新增、修改、删除的&lt;bean&gt;交给
+ * {@link IncrementalRefresher}，其它Bean不受影响。
+ * 比较的是两次解析出来的原始定义，不是容器里被BeanFactoryPostProcessor处理过的定义，
+ * 所以没改的Bean(包括component-scan扫描到的)不会因为被后置处理过而被当成修改了
+ * </p>
+ * <p>
+ * 使用：容器refresh以后new XmlDefinitionReloader(context, "classpath:spring.xml")，文件改了调用{@link #reload()}
+ * </p>
+ *
+ * @author Sue
+ * @className XmlDefinitionReloader
+ * @create 2023/5/30
+ **/
+public class XmlDefinitionReloader {
+
+    private final ConfigurableApplicationContext context;
+
+    private final String[] locations;
+
+    private final IncrementalRefresher refresher;
+
+    private Map<String, BeanDefinition> loaded;
+
+    public XmlDefinitionReloader(ConfigurableApplicationContext context, String... locations) {
+        Assert.notNull(context, "ApplicationContext must not be null");
+        Assert.notEmpty(locations, "At least one location is required");
+        ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        Assert.isInstanceOf(DefaultListableBeanFactory.class, beanFactory, "Incremental refresh requires a DefaultListableBeanFactory");
+        this.context = context;
+        this.locations = locations.clone();
+        this.refresher = new IncrementalRefresher((DefaultListableBeanFactory) beanFactory);
+        this.loaded = load();
+    }
+
+    /**
+     * 重新解析XML并应用变化
+     */
+    public synchronized IncrementalRefresher.Result reload() {
+        Map<String, BeanDefinition> current = load();
+        Map<String, BeanDefinition> changed = new LinkedHashMap<>();
+        current.forEach((beanName, beanDefinition) -> {
+            if (!beanDefinition.equals(this.loaded.get(beanName))) {
+                // 解析结果留着下次比较，容器拿到的是拷贝(解析占位符会修改定义)
+                changed.put(beanName, ((AbstractBeanDefinition) beanDefinition).cloneBeanDefinition());
+            }
+        });
+        Set<String> removed = new LinkedHashSet<>(this.loaded.keySet());
+        removed.removeAll(current.keySet());
+        IncrementalRefresher.Result result = this.refresher.refresh(changed, removed);
+        this.loaded = current;
+        return result;
+    }
+
+    /**
+     * 解析到一个临时的BeanFactory里，和AbstractXmlApplicationContext的设置一致
+     */
+    private Map<String, BeanDefinition> load() {
+        DefaultListableBeanFactory registry = new DefaultListableBeanFactory();
+        XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(registry);
+        reader.setEnvironment(this.context.getEnvironment());
+        reader.setResourceLoader(this.context);
+        reader.setEntityResolver(new ResourceEntityResolver(this.context));
+        reader.loadBeanDefinitions(this.locations);
+        Map<String, BeanDefinition> definitions = new LinkedHashMap<>();
+        for (String beanName : registry.getBeanDefinitionNames()) {
+            definitions.put(beanName, registry.getBeanDefinition(beanName));
+        }
+        return definitions;
+    }
+}
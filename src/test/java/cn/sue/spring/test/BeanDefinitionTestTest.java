@@ -1,5 +1,6 @@
 package cn.sue.spring.test;
 
+import cn.sue.spring.test.context.ContextCache;
 import cn.sue.spring.test.core.*;
 import org.junit.Test;
 import org.springframework.beans.SimpleTypeConverter;
@@ -112,7 +113,7 @@ public class BeanDefinitionTestTest {
 
     @Test
     public void testMessageSource() {
-        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        AnnotationConfigApplicationContext context = ContextCache.shared().get(AppConfig.class);
         System.out.println(context.getMessage("test", null, new Locale("en")));
     }
 
@@ -121,7 +122,7 @@ public class BeanDefinitionTestTest {
      */
     @Test
     public void testResource() throws IOException {
-        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        AnnotationConfigApplicationContext context = ContextCache.shared().get(AppConfig.class);
         Resource resource = context.getResource("file:///Users/sue/code/spring-code-study/src/main/java/cn/sue/spring/test/User.java");
         System.out.println(resource.contentLength());
 
@@ -147,7 +148,7 @@ public class BeanDefinitionTestTest {
      */
     @Test
     public void testEnv() {
-        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        AnnotationConfigApplicationContext context = ContextCache.shared().get(AppConfig.class);
 
         Map<String, Object> systemEnvironment = context.getEnvironment().getSystemEnvironment();
         System.out.println(systemEnvironment);
@@ -0,0 +1,181 @@
+package cn.sue.spring.test.aot;
+
+import cn.sue.spring.test.core.User;
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import cn.sue.spring.test.lifecycle.TestBeanA;
+import cn.sue.spring.test.lifecycle.TestBeanB;
+import cn.sue.spring.test.message.PrecompiledMessageSource;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.MessageSource;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.io.ResourceLoader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BeanRegistrationGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBootFromGeneratedCode() throws Exception {
+        String className = "cn.sue.spring.test.aot.generated.AppConfigRegistrations";
+        ApplicationContextInitializer<GenericApplicationContext> registrations =
+                compile(className, BeanRegistrationGenerator.loadApplicationBeanDefinitions());
+
+        AotApplicationContext context = new AotApplicationContext(registrations);
+        context.refresh();
+
+        // 配置类在构建时已经处理过，运行时不再注册ConfigurationClassPostProcessor
+        assertFalse(context.containsBeanDefinition(AnnotationConfigUtils.CONFIGURATION_ANNOTATION_PROCESSOR_BEAN_NAME));
+        assertTrue(context.getBean(MessageSource.class) instanceof PrecompiledMessageSource);
+        assertEquals("Sue.test", context.getBean(TestBeanA.class).getName());
+        assertNotNull(context.getBean(TestBeanB.class));
+        User user = context.getBean("conversionService", ConversionService.class).convert("sue", User.class);
+        assertEquals("sue", user.getUserName());
+        RootBeanDefinition testBeanA = (RootBeanDefinition) context.getBeanFactory().getMergedBeanDefinition("testBeanA");
+        assertNull(testBeanA.getDestroyMethodName());
+        assertNotNull(testBeanA.getAttribute(ExtendedBeanFactory.DESTROY_CALLBACK_ATTRIBUTE));
+        context.close();
+    }
+
+    @Test
+    public void testInitAndDestroyCallbacksKeepLifecycleOrder() throws Exception {
+        DefaultListableBeanFactory source = new DefaultListableBeanFactory();
+        source.registerBeanDefinition("lifecycle", BeanDefinitionBuilder.genericBeanDefinition(LifecycleBean.class)
+                .addPropertyValue("name", "a\"b")
+                .addPropertyValue("count", "3")
+                .addPropertyReference("resourceLoader", "loader")
+                .setInitMethodName("start")
+                .setDestroyMethodName("stop")
+                .getBeanDefinition());
+        source.registerBeanDefinition("loader", new RootBeanDefinition(Loader.class));
+        ApplicationContextInitializer<GenericApplicationContext> registrations =
+                compile("cn.sue.spring.test.aot.generated.LifecycleRegistrations", source);
+
+        LifecycleBean.events.clear();
+        AotApplicationContext context = new AotApplicationContext(registrations);
+        context.refresh();
+        LifecycleBean bean = context.getBean(LifecycleBean.class);
+        assertEquals("a\"b", bean.getName());
+        assertEquals(3, bean.getCount());
+        assertSame(context.getBean("loader"), bean.getResourceLoader());
+        assertSame(context, bean.context);
+        context.close();
+        assertEquals(Arrays.asList("afterPropertiesSet", "start", "destroy", "stop"), LifecycleBean.events);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ApplicationContextInitializer<GenericApplicationContext> compile(String className, DefaultListableBeanFactory beanFactory)
+            throws Exception {
+        Path sourceRoot = this.folder.newFolder("src").toPath();
+        File classes = this.folder.newFolder("classes");
+        Path source = new BeanRegistrationGenerator(className).writeTo(sourceRoot, beanFactory);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null, "-encoding", "UTF-8", "-classpath", classpath(),
+                "-d", classes.getPath(), source.toString());
+        assertEquals("generated code does not compile", 0, result);
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        return (ApplicationContextInitializer<GenericApplicationContext>) classLoader.loadClass(className).newInstance();
+    }
+
+    // surefire的java.class.path可能只有一个manifest jar，按用到的类拼出编译用的classpath
+    private static String classpath() throws Exception {
+        Set<String> entries = new LinkedHashSet<>();
+        List<Class<?>> classes = new ArrayList<>(Arrays.asList(ExtendedBeanFactory.class, BeanRegistrationGeneratorTest.class,
+                DefaultListableBeanFactory.class, GenericApplicationContext.class, ConversionService.class, LogFactory.class));
+        for (Class<?> type : classes) {
+            entries.add(Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+
+    public static class LifecycleBean implements InitializingBean, DisposableBean {
+
+        static final List<String> events = new ArrayList<>();
+
+        private final GenericApplicationContext context;
+
+        private String name;
+
+        private int count;
+
+        private ResourceLoader resourceLoader;
+
+        public LifecycleBean(GenericApplicationContext context) {
+            this.context = context;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return this.count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public ResourceLoader getResourceLoader() {
+            return this.resourceLoader;
+        }
+
+        public void setResourceLoader(ResourceLoader resourceLoader) {
+            this.resourceLoader = resourceLoader;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            events.add("afterPropertiesSet");
+        }
+
+        public void start() {
+            events.add("start");
+        }
+
+        @Override
+        public void destroy() {
+            events.add("destroy");
+        }
+
+        public void stop() {
+            events.add("stop");
+        }
+    }
+
+
+    public static class Loader extends org.springframework.core.io.DefaultResourceLoader {
+    }
+}
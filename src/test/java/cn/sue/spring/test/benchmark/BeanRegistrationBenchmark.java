@@ -0,0 +1,74 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.core.User;
+import cn.sue.spring.test.factory.CompactBeanDefinition;
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Bean已经开始创建以后，再注册definitions个BeanDefinitionBuilder构建的定义：
+ * oneByOne和testBeanFactory一样逐个registerBeanDefinition，bulk用registerBeanDefinitions批量注册，
+ * bulkCompact再把定义换成CompactBeanDefinition(-prof gc看分配量)。
+ * bulk也是逐个经过registerBeanDefinition，每次都复制名字列表，耗时和oneByOne差不多，
+ * 它省下的是覆盖已有定义时的重置；bulkCompact主要看分配量
+ * </p>
+ *
+ * @author Sue
+ * @className BeanRegistrationBenchmark
+ * @create 2023/5/29
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeanRegistrationBenchmark {
+
+    @Param({"oneByOne", "bulk", "bulkCompact"})
+    public String registration;
+
+    @Param({"20000"})
+    public int definitions;
+
+    private Map<String, BeanDefinition> beanDefinitions;
+
+    private ExtendedBeanFactory beanFactory;
+
+    @Setup(Level.Trial)
+    public void setupDefinitions() {
+        beanDefinitions = new LinkedHashMap<>();
+        for (int i = 0; i < definitions; i++) {
+            BeanDefinition beanDefinition = BeanDefinitionBuilder.genericBeanDefinition(User.class)
+                    .addPropertyValue("userName", "user" + i).setLazyInit(true).getBeanDefinition();
+            beanDefinitions.put("user" + i, ("bulkCompact".equals(registration) ?
+                    CompactBeanDefinition.compact(beanDefinition) : beanDefinition));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupBeanFactory() {
+        beanFactory = new ExtendedBeanFactory();
+        beanFactory.registerSingleton("started", new Object());
+        beanFactory.registerBeanDefinition("first", BeanDefinitionBuilder.genericBeanDefinition(User.class).getBeanDefinition());
+        beanFactory.getBean("first");
+    }
+
+    @Benchmark
+    public ExtendedBeanFactory register() {
+        if ("oneByOne".equals(registration)) {
+            beanDefinitions.forEach(beanFactory::registerBeanDefinition);
+        }
+        else {
+            beanFactory.registerBeanDefinitions(beanDefinitions);
+        }
+        return beanFactory;
+    }
+}
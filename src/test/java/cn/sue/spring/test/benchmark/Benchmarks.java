@@ -0,0 +1,37 @@
+package cn.sue.spring.test.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * <p>
+ * 基准测试公共工具：容器中的Bean会在构造、初始化时打印日志，测量时把标准输出丢弃，避免println的开销混进结果
+ * </p>
+ *
+ * @author Sue
+ * @className Benchmarks
+ * @create 2023/5/6
+ **/
+final class Benchmarks {
+
+    private static final PrintStream ORIGINAL_OUT = System.out;
+
+    private Benchmarks() {
+    }
+
+    static void silenceStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    static void restoreStdout() {
+        System.setOut(ORIGINAL_OUT);
+    }
+}
@@ -0,0 +1,50 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.core.AppConfig;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 容器启动耗时：注解配置和XML配置两种方式的完整refresh + close
+ * </p>
+ *
+ * @author Sue
+ * @className ContainerStartupBenchmark
+ * @create 2023/5/6
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContainerStartupBenchmark {
+
+    @Setup
+    public void setup() {
+        Benchmarks.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Benchmarks.restoreStdout();
+    }
+
+    @Benchmark
+    public Object annotationConfigRefresh() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        context.close();
+        return context;
+    }
+
+    @Benchmark
+    public Object classPathXmlRefresh() {
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("spring.xml");
+        context.close();
+        return context;
+    }
+}
@@ -0,0 +1,96 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.convert.DispatchingConversionService;
+import cn.sue.spring.test.core.StringToUserConverter;
+import cn.sue.spring.test.core.StringToUserPropertyEditor;
+import cn.sue.spring.test.core.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * String -> User 的几种转化方式：ConversionService、PropertyEditor、SimpleTypeConverter，
+ * 以及逐个convert和convertAll批量转化BATCH_SIZE个元素的对比(按每个元素计算吞吐量)
+ * </p>
+ *
+ * @author Sue
+ * @className ConversionBenchmark
+ * @create 2023/5/6
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private static final int BATCH_SIZE = 100_000;
+
+    private DefaultConversionService conversionService;
+
+    private DispatchingConversionService dispatchingConversionService;
+
+    @Param({"1"})
+    public String source;
+
+    private Object[] batch;
+
+    @Setup
+    public void setup() {
+        conversionService = new DefaultConversionService();
+        conversionService.addConverter(new StringToUserConverter());
+        dispatchingConversionService = new DispatchingConversionService();
+        dispatchingConversionService.addDirectConverter(String.class, User.class, new StringToUserConverter());
+        batch = new Object[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = Integer.toString(i);
+        }
+    }
+
+    @Benchmark
+    public User conversionService() {
+        return conversionService.convert(source, User.class);
+    }
+
+    @Benchmark
+    public User dispatchingConversionService() {
+        return dispatchingConversionService.convert(source, User.class);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public User[] conversionServiceLoop() {
+        User[] users = new User[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            users[i] = conversionService.convert(batch[i], User.class);
+        }
+        return users;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public User[] convertAll() {
+        return dispatchingConversionService.convertAll(batch, User.class);
+    }
+
+    /**
+     * 和BeanWrapper一样，每次转化都新建一个PropertyEditor
+     */
+    @Benchmark
+    public Object propertyEditor() {
+        StringToUserPropertyEditor propertyEditor = new StringToUserPropertyEditor();
+        propertyEditor.setAsText(source);
+        return propertyEditor.getValue();
+    }
+
+    @Benchmark
+    public User simpleTypeConverter() {
+        SimpleTypeConverter typeConverter = new SimpleTypeConverter();
+        typeConverter.registerCustomEditor(User.class, new StringToUserPropertyEditor());
+        return typeConverter.convertIfNecessary(source, User.class);
+    }
+}
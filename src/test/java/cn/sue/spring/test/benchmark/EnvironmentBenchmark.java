@@ -0,0 +1,51 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.env.SnapshotEnvironment;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 多线程同时getProperty，包括查不到的key：StandardEnvironment和SnapshotEnvironment
+ * </p>
+ *
+ * @author Sue
+ * @className EnvironmentBenchmark
+ * @create 2023/5/25
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class EnvironmentBenchmark {
+
+    @Param({"standard", "snapshot"})
+    public String environmentType;
+
+    private StandardEnvironment environment;
+
+    @Setup
+    public void setup() {
+        environment = ("snapshot".equals(environmentType) ? new SnapshotEnvironment() : new StandardEnvironment());
+    }
+
+    @Benchmark
+    public String systemProperty() {
+        return environment.getProperty("sun.jnu.encoding");
+    }
+
+    @Benchmark
+    public String missingKey() {
+        return environment.getProperty("zhouyu");
+    }
+
+    @Benchmark
+    public Integer convertedProperty() {
+        return environment.getProperty("java.class.version", Integer.class, 0);
+    }
+}
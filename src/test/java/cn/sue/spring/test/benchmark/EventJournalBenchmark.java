@@ -0,0 +1,102 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.event.EventJournal;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 事件日志的吞吐：追加一个事件(每次force和每100ms批量force两种)、从日志里按批读事件。
+ * append4Threads是4个线程同时发布
+ * </p>
+ *
+ * @author Sue
+ * @className EventJournalBenchmark
+ * @create 2023/5/31
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventJournalBenchmark {
+
+    private static final int READ_BATCH = 256;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    @Param({"0", "100"})
+    public long flushIntervalMillis;
+
+    private Path directory;
+
+    private EventJournal journal;
+
+    private OrderPlaced event;
+
+    private long readOffset;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("event-journal-benchmark");
+        journal = new EventJournal(directory, EventJournal.DEFAULT_SEGMENT_SIZE, flushIntervalMillis);
+        byte[] data = new byte[payloadSize];
+        Arrays.fill(data, (byte) 'x');
+        event = new OrderPlaced(42, data);
+        for (int i = 0; i < READ_BATCH; i++) {
+            journal.append(event);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        return journal.append(event);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long append4Threads() throws IOException {
+        return journal.append(event);
+    }
+
+    /**
+     * 每次调用读一批，ops/ms乘以256是每毫秒读出的事件数
+     */
+    @Benchmark
+    public List<EventJournal.Entry> readBatch() throws IOException {
+        List<EventJournal.Entry> entries = journal.read(readOffset, READ_BATCH);
+        readOffset = (entries.size() == READ_BATCH ? entries.get(READ_BATCH - 1).getNextOffset() : 0);
+        return entries;
+    }
+
+
+    static class OrderPlaced implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final long orderId;
+
+        final byte[] data;
+
+        OrderPlaced(long orderId, byte[] data) {
+            this.orderId = orderId;
+            this.data = data;
+        }
+    }
+}
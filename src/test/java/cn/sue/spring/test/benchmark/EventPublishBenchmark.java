@@ -0,0 +1,82 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.event.IndexedApplicationEventMulticaster;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.AbstractApplicationEventMulticaster;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 发布一个事件的耗时随监听器数量的变化：只有一个监听器关心该事件，其余监听器监听别的事件类型
+ * </p>
+ *
+ * @author Sue
+ * @className EventPublishBenchmark
+ * @create 2023/5/17
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventPublishBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int listenerCount;
+
+    @Param({"simple", "indexed"})
+    public String multicasterType;
+
+    private AbstractApplicationEventMulticaster multicaster;
+
+    private PayloadApplicationEvent<String> event;
+
+    @Setup
+    public void setup() {
+        multicaster = "indexed".equals(multicasterType) ?
+                new IndexedApplicationEventMulticaster() : new SimpleApplicationEventMulticaster();
+        multicaster.addApplicationListener(new PayloadListener());
+        for (int i = 1; i < listenerCount; i++) {
+            multicaster.addApplicationListener(new OtherEventListener());
+        }
+        event = new PayloadApplicationEvent<>(this, "payload");
+    }
+
+    @Benchmark
+    public void publish() {
+        ((SimpleApplicationEventMulticaster) multicaster).multicastEvent(event);
+    }
+
+
+    static class PayloadListener implements ApplicationListener<PayloadApplicationEvent<String>> {
+
+        int count;
+
+        @Override
+        public void onApplicationEvent(PayloadApplicationEvent<String> event) {
+            count++;
+        }
+    }
+
+
+    static class OtherEvent extends ApplicationEvent {
+
+        OtherEvent(Object source) {
+            super(source);
+        }
+    }
+
+
+    static class OtherEventListener implements ApplicationListener<OtherEvent> {
+
+        @Override
+        public void onApplicationEvent(OtherEvent event) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.UserService;
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import cn.sue.spring.test.scope.PooledScope;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 原型Bean的getBean耗时，Bean定义和BeanDefinitionTestTest.testBeanDefinition中的一致；
+ * injectionPlans用打开了注入计划缓存的ExtendedBeanFactory，pooled把作用域换成{@link PooledScope}，每次getBean之后还回去
+ * </p>
+ *
+ * @author Sue
+ * @className GetBeanBenchmark
+ * @create 2023/5/6
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetBeanBenchmark {
+
+    @Param({"default", "injectionPlans", "pooled"})
+    public String beanFactoryType;
+
+    private AnnotationConfigApplicationContext context;
+
+    private PooledScope pooledScope;
+
+    @Setup
+    public void setup() {
+        Benchmarks.silenceStdout();
+        if ("injectionPlans".equals(beanFactoryType)) {
+            ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+            beanFactory.setCacheInjectionPlans(true);
+            context = new AnnotationConfigApplicationContext(beanFactory);
+        }
+        else {
+            context = new AnnotationConfigApplicationContext();
+        }
+        context.register(AppConfig.class);
+        context.refresh();
+        AbstractBeanDefinition beanDefinition = BeanDefinitionBuilder.genericBeanDefinition().getBeanDefinition();
+        beanDefinition.setBeanClass(UserService.class);
+        if ("pooled".equals(beanFactoryType)) {
+            pooledScope = new PooledScope();
+            pooledScope.postProcessBeanFactory(context.getBeanFactory());
+            beanDefinition.setScope(PooledScope.SCOPE_NAME);
+        }
+        else {
+            beanDefinition.setScope("prototype");
+        }
+        beanDefinition.setInitMethodName("init");
+        beanDefinition.setLazyInit(true);
+        context.registerBeanDefinition("beanName", beanDefinition);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        Benchmarks.restoreStdout();
+    }
+
+    @Benchmark
+    public Object prototypeGetBean() {
+        Object bean = context.getBean("beanName");
+        if (pooledScope != null) {
+            pooledScope.release(bean);
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,494 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.User;
+import cn.sue.spring.test.core.UserService;
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import cn.sue.spring.test.lifecycle.TestBeanA;
+import cn.sue.spring.test.lifecycle.TestBeanB;
+import cn.sue.spring.test.metrics.LatencyHistogram;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.convert.ConversionService;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 多线程压测：对refresh好的AppConfig容器按比例混合执行原型getBean("userService")、单例getBean(TestBeanB.class)、
+ * UserService.testListener()发布事件、getMessage、ConversionService.convert，线程数从1逐步加到64，
+ * 每一档输出每种操作的吞吐量和p50/p99/p999延迟。
+ * 压测期间每隔几毫秒对工作线程采样一次，统计线程被阻塞在哪个锁、哪个Spring方法上，用来找出单例注册表、
+ * 监听器查找等地方的锁从几个线程开始串行化。
+ * </p>
+ * <p>
+ * mvn -Pload verify，参数见pom.xml里的load profile；也可以直接运行main，参数形如threads=1,8,64 seconds=5 warmup=2
+ * mix=prototypeGetBean:30,singletonGetBean:30,publishEvent:10,getMessage:15,convert:15 factory=default|extended report=xxx.csv
+ * </p>
+ *
+ * @author Sue
+ * @className LoadHarness
+ * @create 2023/5/27
+ **/
+public final class LoadHarness {
+
+    private static final int SAMPLE_INTERVAL_MILLIS = 5;
+
+    private static final int SAMPLE_STACK_DEPTH = 32;
+
+    private static final int TOP_BLOCKED_SITES = 5;
+
+    private static final Object[] MESSAGE_ARGS = {"sue"};
+
+    enum Operation {
+
+        PROTOTYPE_GET_BEAN("prototypeGetBean") {
+            @Override
+            Object execute(Worker worker) {
+                return worker.context.getBean("userService");
+            }
+        },
+        SINGLETON_GET_BEAN("singletonGetBean") {
+            @Override
+            Object execute(Worker worker) {
+                return worker.context.getBean(TestBeanB.class);
+            }
+        },
+        PUBLISH_EVENT("publishEvent") {
+            @Override
+            Object execute(Worker worker) {
+                worker.userService.testListener();
+                return worker.userService;
+            }
+        },
+        GET_MESSAGE("getMessage") {
+            @Override
+            Object execute(Worker worker) {
+                return worker.context.getMessage("test", MESSAGE_ARGS, Locale.CHINA);
+            }
+        },
+        CONVERT("convert") {
+            @Override
+            Object execute(Worker worker) {
+                return worker.conversionService.convert("sue", User.class);
+            }
+        };
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        abstract Object execute(Worker worker);
+
+        static Operation forLabel(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation '" + label + "', expected one of " + Arrays.toString(labels()));
+        }
+
+        static String[] labels() {
+            return Arrays.stream(values()).map(operation -> operation.label).toArray(String[]::new);
+        }
+    }
+
+    private final int[] threadCounts;
+
+    private final int seconds;
+
+    private final int warmupSeconds;
+
+    // 按权重展开成100个格子，随机挑一个
+    private final Operation[] mix;
+
+    private final String factory;
+
+    private final Path report;
+
+    private final PrintStream out = System.out;
+
+    private AnnotationConfigApplicationContext context;
+
+    private LoadHarness(Map<String, String> options) {
+        this.threadCounts = Arrays.stream(options.getOrDefault("threads", "1,2,4,8,16,32,64").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        this.seconds = Integer.parseInt(options.getOrDefault("seconds", "5"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        this.mix = parseMix(options.getOrDefault("mix", "prototypeGetBean:30,singletonGetBean:30,publishEvent:10,getMessage:15,convert:15"));
+        this.factory = options.getOrDefault("factory", "default");
+        this.report = Paths.get(options.getOrDefault("report", "target/load-report.csv"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got '" + arg + "'");
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadHarness(options).run();
+    }
+
+    private static Operation[] parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = Integer.parseInt(parts[1].trim());
+            weights.put(Operation.forLabel(parts[0].trim()), weight);
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix must have a positive total weight: " + mix);
+        }
+        List<Operation> slots = new ArrayList<>(100);
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            long count = Math.round(entry.getValue() * 100.0 / total);
+            for (long i = 0; i < Math.max(count, entry.getValue() > 0 ? 1 : 0); i++) {
+                slots.add(entry.getKey());
+            }
+        }
+        return slots.toArray(new Operation[0]);
+    }
+
+    private void run() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isThreadContentionMonitoringSupported()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+        Benchmarks.silenceStdout();
+        List<StepResult> results = new ArrayList<>();
+        try {
+            this.context = createContext();
+            for (int threadCount : this.threadCounts) {
+                runStep(threadCount, this.warmupSeconds);
+                StepResult result = runStep(threadCount, this.seconds);
+                results.add(result);
+                print(result, results.get(0));
+            }
+        }
+        finally {
+            if (this.context != null) {
+                this.context.close();
+            }
+            Benchmarks.restoreStdout();
+        }
+        writeReport(results);
+        this.out.println("Report written to " + this.report.toAbsolutePath());
+    }
+
+    /**
+     * 和BeanDefinitionTestTest里的用法一致：AppConfig + 原型的userService + 单例的TestBeanA/TestBeanB
+     */
+    private AnnotationConfigApplicationContext createContext() {
+        AnnotationConfigApplicationContext context;
+        if ("extended".equals(this.factory)) {
+            ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+            beanFactory.setCacheInjectionPlans(true);
+            context = new AnnotationConfigApplicationContext(beanFactory);
+        }
+        else if ("default".equals(this.factory)) {
+            context = new AnnotationConfigApplicationContext();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown factory '" + this.factory + "', expected default or extended");
+        }
+        context.register(AppConfig.class, TestBeanB.class);
+        context.registerBeanDefinition("testBeanA", BeanDefinitionBuilder.genericBeanDefinition(TestBeanA.class)
+                .addPropertyValue("name", "Sue.test").getBeanDefinition());
+        AbstractBeanDefinition userService = BeanDefinitionBuilder.genericBeanDefinition(UserService.class).getBeanDefinition();
+        userService.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        userService.setInitMethodName("init");
+        context.registerBeanDefinition("userService", userService);
+        context.refresh();
+        return context;
+    }
+
+    private StepResult runStep(int threadCount, int durationSeconds) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<>(threadCount);
+        List<Thread> workerThreads = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            Worker worker = new Worker(this.context, this.mix, ready, start);
+            Thread thread = new Thread(worker, "load-worker-" + i);
+            thread.setDaemon(true);
+            workers.add(worker);
+            workerThreads.add(thread);
+            thread.start();
+        }
+        ready.await();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long[] threadIds = workerThreads.stream().mapToLong(Thread::getId).toArray();
+        ContentionSampler sampler = new ContentionSampler(threads, threadIds);
+        Thread samplerThread = new Thread(sampler, "load-sampler");
+        samplerThread.setDaemon(true);
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        samplerThread.start();
+        long deadline = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        sampler.running = false;
+        samplerThread.join();
+
+        long blockedMillis = 0;
+        Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+        for (Worker worker : workers) {
+            blockedMillis += worker.blockedMillis;
+            worker.histograms.forEach((operation, histogram) ->
+                    histograms.computeIfAbsent(operation, key -> new LatencyHistogram()).add(histogram));
+        }
+        return new StepResult(threadCount, elapsedNanos, histograms, blockedMillis, sampler.samples.sum(), sampler.blockedSites);
+    }
+
+    private void print(StepResult result, StepResult baseline) {
+        this.out.printf("%n=== %d thread(s), %.1f s, %,.0f ops/s total, scaling %.2fx (%.0f%% per thread), blocked %.1f%% of thread time ===%n",
+                result.threadCount, result.elapsedNanos / 1e9, result.totalThroughput(),
+                result.totalThroughput() / baseline.totalThroughput(),
+                100 * result.totalThroughput() / baseline.totalThroughput() / (result.threadCount / (double) baseline.threadCount),
+                result.blockedPercent());
+        this.out.printf("%-18s %14s %12s %12s %12s %12s%n", "operation", "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+        result.histograms.forEach((operation, histogram) -> this.out.printf("%-18s %,14.0f %12.2f %12.2f %12.2f %12.2f%n",
+                operation.label, histogram.getCount() * 1e9 / result.elapsedNanos,
+                histogram.getPercentileNanos(50) / 1e3, histogram.getPercentileNanos(99) / 1e3,
+                histogram.getPercentileNanos(99.9) / 1e3, histogram.getMaxNanos() / 1e3));
+        if (!result.blockedSites.isEmpty()) {
+            this.out.println("blocked samples (share of worker samples, lock @ first Spring frame):");
+            result.blockedSites.entrySet().stream()
+                    .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                    .limit(TOP_BLOCKED_SITES)
+                    .forEach(entry -> this.out.printf("  %5.1f%%  %s%n", 100.0 * entry.getValue().sum() / result.samples, entry.getKey()));
+        }
+    }
+
+    private void writeReport(List<StepResult> results) throws IOException {
+        if (this.report.getParent() != null) {
+            Files.createDirectories(this.report.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(this.report, StandardCharsets.UTF_8)) {
+            writer.write("threads,operation,count,opsPerSecond,p50Nanos,p99Nanos,p999Nanos,maxNanos,blockedPercent\n");
+            for (StepResult result : results) {
+                for (Map.Entry<Operation, LatencyHistogram> entry : result.histograms.entrySet()) {
+                    LatencyHistogram histogram = entry.getValue();
+                    writer.write(String.format(Locale.ROOT, "%d,%s,%d,%.1f,%d,%d,%d,%d,%.2f%n", result.threadCount, entry.getKey().label,
+                            histogram.getCount(), histogram.getCount() * 1e9 / result.elapsedNanos,
+                            histogram.getPercentileNanos(50), histogram.getPercentileNanos(99),
+                            histogram.getPercentileNanos(99.9), histogram.getMaxNanos(), result.blockedPercent()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 一个压测线程，延迟记在自己的直方图里，最后合并，避免记录本身成为争用点
+     */
+    static final class Worker implements Runnable {
+
+        final AnnotationConfigApplicationContext context;
+
+        final ConversionService conversionService;
+
+        private final Operation[] mix;
+
+        private final CountDownLatch ready;
+
+        private final CountDownLatch start;
+
+        final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+
+        UserService userService;
+
+        volatile boolean running = true;
+
+        // 防止JIT把没用到的结果优化掉
+        long sink;
+
+        // 压测期间阻塞在synchronized上的时间，线程结束后ThreadMXBean就查不到了，由线程自己在结束前记下
+        long blockedMillis;
+
+        Worker(AnnotationConfigApplicationContext context, Operation[] mix, CountDownLatch ready, CountDownLatch start) {
+            this.context = context;
+            this.conversionService = context.getBean("conversionService", ConversionService.class);
+            this.mix = mix;
+            this.ready = ready;
+            this.start = start;
+            for (Operation operation : mix) {
+                this.histograms.putIfAbsent(operation, new LatencyHistogram());
+            }
+        }
+
+        @Override
+        public void run() {
+            this.userService = this.context.getBean("userService", UserService.class);
+            LatencyHistogram[] byOperation = new LatencyHistogram[Operation.values().length];
+            this.histograms.forEach((operation, histogram) -> byOperation[operation.ordinal()] = histogram);
+            this.ready.countDown();
+            try {
+                this.start.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long blockedBefore = currentBlockedMillis();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (this.running) {
+                Operation operation = this.mix[random.nextInt(this.mix.length)];
+                long startNanos = System.nanoTime();
+                Object result = operation.execute(this);
+                byOperation[operation.ordinal()].record(System.nanoTime() - startNanos);
+                this.sink += System.identityHashCode(result);
+            }
+            this.blockedMillis = Math.max(0, currentBlockedMillis() - blockedBefore);
+        }
+
+        private static long currentBlockedMillis() {
+            ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(Thread.currentThread().getId());
+            return (info != null ? Math.max(0, info.getBlockedTime()) : 0);
+        }
+    }
+
+
+    /**
+     * 定时抓工作线程的栈，阻塞在锁上的线程按"锁的类型 @ 第一个Spring方法"计数
+     */
+    static final class ContentionSampler implements Runnable {
+
+        private final ThreadMXBean threads;
+
+        private final long[] threadIds;
+
+        final LongAdder samples = new LongAdder();
+
+        final Map<String, LongAdder> blockedSites = new ConcurrentHashMap<>();
+
+        volatile boolean running = true;
+
+        ContentionSampler(ThreadMXBean threads, long[] threadIds) {
+            this.threads = threads;
+            this.threadIds = threadIds;
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                // 先等一个间隔，刚放行的线程还停在CountDownLatch上
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (ThreadInfo info : this.threads.getThreadInfo(this.threadIds, SAMPLE_STACK_DEPTH)) {
+                    if (info == null) {
+                        continue;
+                    }
+                    this.samples.increment();
+                    Thread.State state = info.getThreadState();
+                    if (info.getLockName() != null && (state == Thread.State.BLOCKED || state == Thread.State.WAITING ||
+                            state == Thread.State.TIMED_WAITING)) {
+                        this.blockedSites.computeIfAbsent(site(info), key -> new LongAdder()).increment();
+                    }
+                }
+            }
+        }
+
+        private static String site(ThreadInfo info) {
+            String lock = info.getLockName();
+            int hash = lock.indexOf('@');
+            String lockType = (hash > 0 ? lock.substring(0, hash) : lock);
+            for (StackTraceElement frame : info.getStackTrace()) {
+                if (frame.getClassName().startsWith("org.springframework.")) {
+                    return lockType + " @ " + frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+                }
+            }
+            StackTraceElement[] stack = info.getStackTrace();
+            return lockType + (stack.length > 0 ? " @ " + stack[0] : "");
+        }
+    }
+
+
+    private static final class StepResult {
+
+        final int threadCount;
+
+        final long elapsedNanos;
+
+        final Map<Operation, LatencyHistogram> histograms;
+
+        final long blockedMillis;
+
+        final long samples;
+
+        final Map<String, LongAdder> blockedSites;
+
+        StepResult(int threadCount, long elapsedNanos, Map<Operation, LatencyHistogram> histograms, long blockedMillis,
+                   long samples, Map<String, LongAdder> blockedSites) {
+            this.threadCount = threadCount;
+            this.elapsedNanos = elapsedNanos;
+            this.histograms = histograms;
+            this.blockedMillis = blockedMillis;
+            this.samples = samples;
+            this.blockedSites = blockedSites;
+        }
+
+        double totalThroughput() {
+            long count = 0;
+            for (LatencyHistogram histogram : this.histograms.values()) {
+                count += histogram.getCount();
+            }
+            return count * 1e9 / this.elapsedNanos;
+        }
+
+        /**
+         * 阻塞在synchronized上的时间占全部工作线程时间的比例(需要JVM支持线程争用监控)
+         */
+        double blockedPercent() {
+            return 100.0 * this.blockedMillis / (this.threadCount * (this.elapsedNanos / 1e6));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.message.PrecompiledMessageSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.MessageSource;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 多线程同时getMessage：ResourceBundleMessageSource和PrecompiledMessageSource
+ * </p>
+ *
+ * @author Sue
+ * @className MessageSourceBenchmark
+ * @create 2023/5/18
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class MessageSourceBenchmark {
+
+    private static final Object[] ARGS = {"sue"};
+
+    @Param({"resourceBundle", "precompiled"})
+    public String messageSourceType;
+
+    private MessageSource messageSource;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("precompiled".equals(messageSourceType)) {
+            PrecompiledMessageSource precompiled = new PrecompiledMessageSource();
+            precompiled.setBasename("message");
+            precompiled.afterPropertiesSet();
+            messageSource = precompiled;
+        }
+        else {
+            ResourceBundleMessageSource resourceBundle = new ResourceBundleMessageSource();
+            resourceBundle.setBasename("message");
+            messageSource = resourceBundle;
+        }
+    }
+
+    @Benchmark
+    public String withoutArguments() {
+        return messageSource.getMessage("test", null, Locale.CHINA);
+    }
+
+    @Benchmark
+    public String withArguments() {
+        return messageSource.getMessage("test", ARGS, Locale.CHINA);
+    }
+}
@@ -0,0 +1,48 @@
+package cn.sue.spring.test.benchmark;
+
+import cn.sue.spring.test.io.IndexedResourcePatternResolver;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 反复查询同一批通配符资源(插件发现的场景)：PathMatchingResourcePatternResolver和IndexedResourcePatternResolver
+ * </p>
+ *
+ * @author Sue
+ * @className ResourcePatternBenchmark
+ * @create 2023/5/24
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourcePatternBenchmark {
+
+    @Param({"pathMatching", "indexed"})
+    public String resolverType;
+
+    private ResourcePatternResolver resolver;
+
+    @Setup
+    public void setup() {
+        resolver = ("indexed".equals(resolverType) ? new IndexedResourcePatternResolver() : new PathMatchingResourcePatternResolver());
+    }
+
+    @Benchmark
+    public Resource[] classesInJars() throws IOException {
+        return resolver.getResources("classpath*:org/springframework/context/**/*.class");
+    }
+
+    @Benchmark
+    public Resource[] classesInDirectory() throws IOException {
+        return resolver.getResources("classpath*:cn/sue/spring/**/*.class");
+    }
+}
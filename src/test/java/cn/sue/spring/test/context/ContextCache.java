@@ -0,0 +1,276 @@
+package cn.sue.spring.test.context;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 测试用的容器缓存：按{@link ContextKey}(配置类、XML资源、profile)缓存refresh好的容器，
+ * 同样配置的测试共用一个容器，不用每个测试都重新扫描、执行后置处理器、创建单例。
+ * 超过容量时关闭最久没用的容器(LRU)。
+ * </p>
+ * <p>
+ * 测试修改了容器的话要把它标记为脏的，之后的测试会拿到重新创建的容器：
+ * 容器上的registerBeanDefinition、removeBeanDefinition、registerAlias、removeAlias(包括AnnotatedBeanDefinitionReader、
+ * XmlBeanDefinitionReader、扫描器通过容器注册)会自动标记；直接改BeanFactory、改Environment、改单例Bean内部状态检测不到，
+ * 需要调用{@link #markDirty(ApplicationContext)}。脏容器先从缓存里拿掉，等到下一次{@link #get}时再关闭，
+ * 当前测试还可以接着用。
+ * </p>
+ * <p>
+ * 使用：ContextCache.shared().get(AppConfig.class)，不要自己close(关了也没关系，会从缓存里拿掉)。
+ * 共享实例的容量可以用系统属性{@value #MAX_SIZE_PROPERTY}配置，JVM退出时关闭所有容器
+ * </p>
+ *
+ * @author Sue
+ * @className ContextCache
+ * @create 2023/5/28
+ **/
+public class ContextCache {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    public static final String MAX_SIZE_PROPERTY = "sue.test.context.cache.maxSize";
+
+    private static final Log logger = LogFactory.getLog(ContextCache.class);
+
+    private static volatile ContextCache shared;
+
+    private final int maxSize;
+
+    // 按访问顺序排列，第一个就是最久没用的
+    private final Map<ContextKey, CachedApplicationContext> contexts = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 已经标记为脏、还没关闭的容器
+    private final List<CachedApplicationContext> retired = new ArrayList<>();
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public ContextCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ContextCache(int maxSize) {
+        Assert.isTrue(maxSize > 0, "Max size must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 整个测试JVM共用的缓存
+     */
+    public static ContextCache shared() {
+        ContextCache cache = shared;
+        if (cache == null) {
+            synchronized (ContextCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    cache = new ContextCache(Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+                    Runtime.getRuntime().addShutdownHook(new Thread(cache::clear, "context-cache-shutdown"));
+                    shared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public AnnotationConfigApplicationContext get(Class<?>... componentClasses) {
+        return get(ContextKey.of(componentClasses));
+    }
+
+    public synchronized AnnotationConfigApplicationContext get(ContextKey key) {
+        closeRetired();
+        CachedApplicationContext context = this.contexts.get(key);
+        if (context != null && context.isActive()) {
+            this.hitCount++;
+            return context;
+        }
+        this.missCount++;
+        context = createContext(key);
+        this.contexts.put(key, context);
+        evictIfNecessary();
+        return context;
+    }
+
+    /**
+     * 容器被测试修改过，不能再给别的测试用
+     */
+    public synchronized void markDirty(ApplicationContext context) {
+        Iterator<CachedApplicationContext> iterator = this.contexts.values().iterator();
+        while (iterator.hasNext()) {
+            CachedApplicationContext cached = iterator.next();
+            if (cached == context) {
+                iterator.remove();
+                this.retired.add(cached);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Marked context for " + cached.key + " dirty");
+                }
+                return;
+            }
+        }
+    }
+
+    public synchronized void markDirty(ContextKey key) {
+        CachedApplicationContext context = this.contexts.remove(key);
+        if (context != null) {
+            this.retired.add(context);
+        }
+    }
+
+    public synchronized boolean contains(ContextKey key) {
+        return this.contexts.containsKey(key);
+    }
+
+    /**
+     * 关闭所有容器
+     */
+    public synchronized void clear() {
+        closeRetired();
+        List<CachedApplicationContext> open = new ArrayList<>(this.contexts.values());
+        this.contexts.clear();
+        open.forEach(ContextCache::closeQuietly);
+    }
+
+    public synchronized int size() {
+        return this.contexts.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    private CachedApplicationContext createContext(ContextKey key) {
+        CachedApplicationContext context = new CachedApplicationContext(this, key);
+        // profile要在注册配置类之前设置，@Profile、@Conditional在注册时就判断
+        context.getEnvironment().setActiveProfiles(key.getActiveProfiles());
+        if (key.getComponentClasses().length > 0) {
+            context.register(key.getComponentClasses());
+        }
+        if (key.getLocations().length > 0) {
+            XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(context);
+            reader.setEnvironment(context.getEnvironment());
+            reader.loadBeanDefinitions(key.getLocations());
+        }
+        context.refresh();
+        context.trackMutations = true;
+        return context;
+    }
+
+    private void evictIfNecessary() {
+        Iterator<CachedApplicationContext> iterator = this.contexts.values().iterator();
+        while (this.contexts.size() > this.maxSize && iterator.hasNext()) {
+            CachedApplicationContext eldest = iterator.next();
+            iterator.remove();
+            this.evictionCount++;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Evicting context for " + eldest.key + " (max size " + this.maxSize + ")");
+            }
+            closeQuietly(eldest);
+        }
+    }
+
+    private void closeRetired() {
+        if (this.retired.isEmpty()) {
+            return;
+        }
+        List<CachedApplicationContext> toClose = new ArrayList<>(this.retired);
+        this.retired.clear();
+        toClose.forEach(ContextCache::closeQuietly);
+    }
+
+    private static void closeQuietly(CachedApplicationContext context) {
+        try {
+            context.close();
+        }
+        catch (RuntimeException ex) {
+            logger.warn("Failed to close cached context for " + context.key, ex);
+        }
+    }
+
+    /**
+     * 容器被关闭(测试自己关的)时从缓存里拿掉
+     */
+    private synchronized void discard(CachedApplicationContext context) {
+        this.contexts.remove(context.key, context);
+        this.retired.remove(context);
+    }
+
+
+    /**
+     * 缓存里的容器，refresh之后再通过容器注册、删除BeanDefinition和别名就自动标记为脏
+     */
+    private static final class CachedApplicationContext extends AnnotationConfigApplicationContext {
+
+        private final ContextCache cache;
+
+        private final ContextKey key;
+
+        volatile boolean trackMutations;
+
+        CachedApplicationContext(ContextCache cache, ContextKey key) {
+            this.cache = cache;
+            this.key = key;
+        }
+
+        @Override
+        public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException {
+            mutated();
+            super.registerBeanDefinition(beanName, beanDefinition);
+        }
+
+        @Override
+        public void removeBeanDefinition(String beanName) throws NoSuchBeanDefinitionException {
+            mutated();
+            super.removeBeanDefinition(beanName);
+        }
+
+        @Override
+        public void registerAlias(String beanName, String alias) {
+            mutated();
+            super.registerAlias(beanName, alias);
+        }
+
+        @Override
+        public void removeAlias(String alias) {
+            mutated();
+            super.removeAlias(alias);
+        }
+
+        @Override
+        public void close() {
+            this.trackMutations = false;
+            this.cache.discard(this);
+            super.close();
+        }
+
+        private void mutated() {
+            if (this.trackMutations) {
+                this.trackMutations = false;
+                this.cache.markDirty(this);
+            }
+        }
+    }
+}
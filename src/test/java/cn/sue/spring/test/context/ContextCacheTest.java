@@ -0,0 +1,83 @@
+package cn.sue.spring.test.context;
+
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.UserService;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
+
+import static org.junit.Assert.*;
+
+public class ContextCacheTest {
+
+    private final ContextCache cache = new ContextCache(2);
+
+    @After
+    public void clear() {
+        this.cache.clear();
+    }
+
+    @Test
+    public void testReusesAndEvicts() {
+        AnnotationConfigApplicationContext appConfig = this.cache.get(AppConfig.class);
+        assertSame(appConfig, this.cache.get(AppConfig.class));
+        assertEquals(1, this.cache.getHitCount());
+        assertEquals(1, this.cache.getMissCount());
+
+        AnnotationConfigApplicationContext dev = this.cache.get(ContextKey.of(ProfileConfig.class).withActiveProfiles("dev"));
+        assertEquals("dev", dev.getBean("name"));
+        AnnotationConfigApplicationContext prod = this.cache.get(ContextKey.of(ProfileConfig.class).withActiveProfiles("prod"));
+        assertEquals("prod", prod.getBean("name"));
+
+        // 容量是2，最久没用的AppConfig被关闭
+        assertEquals(2, this.cache.size());
+        assertEquals(1, this.cache.getEvictionCount());
+        assertFalse(appConfig.isActive());
+        assertTrue(dev.isActive());
+        assertSame(dev, this.cache.get(ContextKey.of(ProfileConfig.class).withActiveProfiles("dev")));
+    }
+
+    @Test
+    public void testRegisteringBeanDefinitionMarksDirty() {
+        AnnotationConfigApplicationContext context = this.cache.get(AppConfig.class);
+        new AnnotatedBeanDefinitionReader(context).register(UserService.class);
+        assertFalse(this.cache.contains(ContextKey.of(AppConfig.class)));
+        // 当前测试还能继续用
+        assertNotNull(context.getBean("userService"));
+
+        AnnotationConfigApplicationContext fresh = this.cache.get(AppConfig.class);
+        assertNotSame(context, fresh);
+        assertFalse(context.isActive());
+        assertFalse(fresh.containsBeanDefinition("userService"));
+
+        this.cache.markDirty(fresh);
+        assertNotSame(fresh, this.cache.get(AppConfig.class));
+
+        // 测试自己关掉的容器也不会再被拿出来
+        AnnotationConfigApplicationContext closed = this.cache.get(AppConfig.class);
+        closed.close();
+        assertNotSame(closed, this.cache.get(AppConfig.class));
+    }
+
+
+    /**
+     * 不加@Configuration，否则会被组件索引收进test-classes的spring.components
+     */
+    static class ProfileConfig {
+
+        @Bean
+        @Profile("dev")
+        public String name() {
+            return "dev";
+        }
+
+        @Bean(name = "name")
+        @Profile("prod")
+        public String prodName() {
+            return "prod";
+        }
+    }
+}
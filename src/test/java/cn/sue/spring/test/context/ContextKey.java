@@ -0,0 +1,98 @@
+package cn.sue.spring.test.context;
+
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * {@link ContextCache}的key：配置类、XML资源位置、激活的profile三者都相同的容器可以共用。
+ * 配置类和资源按给出的顺序比较(注册顺序会影响Bean覆盖)，profile不分顺序
+ * </p>
+ *
+ * @author Sue
+ * @className ContextKey
+ * @create 2023/5/28
+ **/
+public final class ContextKey {
+
+    private static final Class<?>[] NO_CLASSES = new Class<?>[0];
+
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final Class<?>[] componentClasses;
+
+    private final String[] locations;
+
+    private final String[] activeProfiles;
+
+    private final int hashCode;
+
+    private ContextKey(Class<?>[] componentClasses, String[] locations, String[] activeProfiles) {
+        Assert.noNullElements(componentClasses, "Component classes must not contain null elements");
+        Assert.noNullElements(locations, "Locations must not contain null elements");
+        Assert.noNullElements(activeProfiles, "Active profiles must not contain null elements");
+        this.componentClasses = componentClasses;
+        this.locations = locations;
+        this.activeProfiles = new TreeSet<>(Arrays.asList(activeProfiles)).toArray(NO_STRINGS);
+        this.hashCode = (Arrays.hashCode(this.componentClasses) * 31 + Arrays.hashCode(this.locations)) * 31 +
+                Arrays.hashCode(this.activeProfiles);
+    }
+
+    public static ContextKey of(Class<?>... componentClasses) {
+        return new ContextKey(componentClasses.clone(), NO_STRINGS, NO_STRINGS);
+    }
+
+    public static ContextKey ofLocations(String... locations) {
+        return new ContextKey(NO_CLASSES, locations.clone(), NO_STRINGS);
+    }
+
+    /**
+     * 在当前key的基础上再加载一些XML资源
+     */
+    public ContextKey withLocations(String... locations) {
+        return new ContextKey(this.componentClasses, locations.clone(), this.activeProfiles);
+    }
+
+    public ContextKey withActiveProfiles(String... activeProfiles) {
+        return new ContextKey(this.componentClasses, this.locations, activeProfiles.clone());
+    }
+
+    Class<?>[] getComponentClasses() {
+        return this.componentClasses;
+    }
+
+    String[] getLocations() {
+        return this.locations;
+    }
+
+    String[] getActiveProfiles() {
+        return this.activeProfiles;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ContextKey)) {
+            return false;
+        }
+        ContextKey otherKey = (ContextKey) other;
+        return (Arrays.equals(this.componentClasses, otherKey.componentClasses) &&
+                Arrays.equals(this.locations, otherKey.locations) &&
+                Arrays.equals(this.activeProfiles, otherKey.activeProfiles));
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextKey[classes=" + Arrays.toString(this.componentClasses) + ", locations=" +
+                Arrays.toString(this.locations) + ", profiles=" + Arrays.toString(this.activeProfiles) + "]";
+    }
+}
@@ -0,0 +1,117 @@
+package cn.sue.spring.test.convert;
+
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.ImmutableUser;
+import cn.sue.spring.test.core.StringToUserConverter;
+import cn.sue.spring.test.core.User;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.GenericConverter;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CachingConverterTest {
+
+    @Test
+    public void testSharedInstances() {
+        CachingConverter converter = new CachingConverter(new StringToBigDecimalConverter(), 16);
+        converter.setShareableTypes(BigDecimal.class);
+        DefaultConversionService conversionService = new DefaultConversionService();
+        conversionService.addConverter(converter);
+
+        BigDecimal first = conversionService.convert("1.50", BigDecimal.class);
+        BigDecimal second = conversionService.convert("1.50", BigDecimal.class);
+        assertSame(first, second);
+        assertEquals(new BigDecimal("1.50"), first);
+        assertNotSame(first, conversionService.convert("2", BigDecimal.class));
+        assertEquals(1, converter.getHitCount());
+        assertEquals(2, converter.getMissCount());
+    }
+
+    @Test
+    public void testNotShareableByDefault() {
+        CachingConverter converter = new CachingConverter(new StringToUserConverter(), 16);
+        DefaultConversionService conversionService = new DefaultConversionService();
+        conversionService.addConverter(converter);
+        assertNotSame(conversionService.convert("1", User.class), conversionService.convert("1", User.class));
+        assertEquals(0, converter.getMissCount());
+    }
+
+    @Test
+    public void testAppConfigSharesImmutableUsers() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        ConversionService conversionService = context.getBean(ConversionService.class);
+        ImmutableUser shared = conversionService.convert("sue", ImmutableUser.class);
+        assertSame(shared, conversionService.convert("sue", ImmutableUser.class));
+        assertEquals("sue", shared.getUserName());
+        try {
+            shared.setUserName("other");
+            fail();
+        }
+        catch (UnsupportedOperationException ex) {
+            // expected
+        }
+        // 转成User还是每次一个新的
+        User user = conversionService.convert("sue", User.class);
+        assertFalse(user instanceof ImmutableUser);
+        assertNotSame(user, conversionService.convert("sue", User.class));
+        context.close();
+    }
+
+    @Test
+    public void testAnnotatedTargetIsCachedSeparately() throws Exception {
+        CachingConverter converter = new CachingConverter(new StringToBigDecimalConverter(), 16);
+        converter.setShareableTypes(BigDecimal.class);
+        DefaultConversionService conversionService = new DefaultConversionService();
+        conversionService.addConverter(converter);
+
+        TypeDescriptor annotated = new TypeDescriptor(getClass().getDeclaredField("annotatedAmount"));
+        Object plain = conversionService.convert("1", TypeDescriptor.valueOf(BigDecimal.class));
+        Object first = conversionService.convert("1", annotated);
+        assertNotSame(plain, first);
+        assertSame(first, conversionService.convert("1", annotated));
+        assertEquals(2, converter.getMissCount());
+    }
+
+    @Test
+    public void testEviction() {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(2);
+        cache.get("a", String::toUpperCase);
+        cache.get("b", String::toUpperCase);
+        // a被访问过，淘汰时会跳过a，淘汰b
+        cache.get("a");
+        cache.get("c", String::toUpperCase);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+
+    @Deprecated
+    BigDecimal annotatedAmount;
+
+
+    /**
+     * 每次都创建新的BigDecimal，用来看出有没有共享
+     */
+    static class StringToBigDecimalConverter implements GenericConverter {
+
+        @Override
+        public Set<ConvertiblePair> getConvertibleTypes() {
+            return Collections.singleton(new ConvertiblePair(String.class, BigDecimal.class));
+        }
+
+        @Override
+        public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+            return new BigDecimal((String) source);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cn.sue.spring.test.convert;
+
+import cn.sue.spring.test.core.StringToUserConverter;
+import cn.sue.spring.test.core.User;
+import org.junit.Test;
+import org.springframework.core.convert.ConversionFailedException;
+import org.springframework.core.convert.ConverterNotFoundException;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.GenericConverter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DispatchingConversionServiceTest {
+
+    @Test
+    public void testConvertAll() {
+        DispatchingConversionService conversionService = new DispatchingConversionService();
+        conversionService.addDirectConverter(String.class, User.class, new StringToUserConverter());
+
+        User[] users = conversionService.convertAll(new Object[] {"sue", null, "zhouyu"}, User.class);
+        assertEquals("sue", users[0].getUserName());
+        assertNull(users[1]);
+        assertEquals("zhouyu", users[2].getUserName());
+
+        // 没有直接分发的类型走父类的转化器，元素类型不同时分别查找
+        List<Integer> numbers = conversionService.convertAll(new LinkedHashSet<>(Arrays.asList("1", 2L, "3")), int.class);
+        assertEquals(Arrays.asList(1, 2, 3), numbers);
+
+        List<String> names = conversionService.convertAll(Stream.of("a", "b").parallel(), User.class)
+                .map(User::getUserName).collect(Collectors.toList());
+        assertEquals(Arrays.asList("a", "b"), names);
+
+        try {
+            conversionService.convertAll(new Object[] {"sue"}, DispatchingConversionServiceTest.class);
+            fail();
+        }
+        catch (ConverterNotFoundException expected) {
+        }
+        try {
+            conversionService.convertAll(Arrays.asList("1", "x"), Integer.class);
+            fail();
+        }
+        catch (ConversionFailedException expected) {
+        }
+    }
+
+    /**
+     * 转化结果是null、目标是基本类型时，和convert一样抛ConversionFailedException
+     */
+    @Test
+    public void testNullResultForPrimitiveTarget() {
+        DispatchingConversionService conversionService = new DispatchingConversionService();
+        try {
+            conversionService.convert("", int.class);
+            fail();
+        }
+        catch (ConversionFailedException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            conversionService.convertAll(new Object[] {"1", ""}, int.class);
+            fail();
+        }
+        catch (ConversionFailedException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+        // 直接分发同样检查
+        conversionService.addDirectConverter(String.class, Integer.class, new GenericConverter() {
+            @Override
+            public Set<ConvertiblePair> getConvertibleTypes() {
+                return Collections.singleton(new ConvertiblePair(String.class, Integer.class));
+            }
+
+            @Override
+            public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+                return null;
+            }
+        });
+        assertNull(conversionService.convert("x", TypeDescriptor.valueOf(String.class), TypeDescriptor.valueOf(Integer.class)));
+        try {
+            conversionService.convert("x", TypeDescriptor.valueOf(String.class), TypeDescriptor.valueOf(int.class));
+            fail();
+        }
+        catch (ConversionFailedException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testConvertAllInParallel() {
+        DispatchingConversionService conversionService = new DispatchingConversionService();
+        conversionService.addDirectConverter(String.class, User.class, new StringToUserConverter());
+        conversionService.setParallelThreshold(1_000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        conversionService.setForkJoinPool(pool);
+        try {
+            Object[] sources = IntStream.range(0, 50_000).mapToObj(Integer::toString).toArray();
+            User[] users = conversionService.convertAll(sources, User.class);
+            for (int i = 0; i < sources.length; i++) {
+                assertEquals(sources[i], users[i].getUserName());
+            }
+            List<User> list = conversionService.convertAll(Arrays.asList(sources), User.class);
+            assertEquals(sources.length, list.size());
+            assertEquals("49999", list.get(49_999).getUserName());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
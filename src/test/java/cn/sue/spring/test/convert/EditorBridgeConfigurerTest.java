@@ -0,0 +1,66 @@
+package cn.sue.spring.test.convert;
+
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.StringToUserConverter;
+import cn.sue.spring.test.core.User;
+import cn.sue.spring.test.core.UserService;
+import org.junit.Test;
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.AbstractBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import static org.junit.Assert.*;
+
+public class EditorBridgeConfigurerTest {
+
+    @Test
+    public void testEditorReplacedByDispatchTable() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        context.register(UserService.class);
+        AbstractBeanFactory beanFactory = (AbstractBeanFactory) context.getBeanFactory();
+        assertFalse(beanFactory.getCustomEditors().containsKey(User.class));
+        DispatchingConversionService conversionService = (DispatchingConversionService) beanFactory.getConversionService();
+        assertTrue(conversionService.hasDirectConverter(String.class, User.class));
+        // @Value("name") 走分发表转化成User
+        assertNotNull(context.getBean(UserService.class));
+        context.close();
+    }
+
+    /**
+     * BeanPostProcessor在conversionService之前创建，这时编辑器还不能拿掉
+     */
+    @Test
+    public void testBeanCreatedBeforeConversionService() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.register(AppConfig.class);
+        context.registerBeanDefinition("userHolder", BeanDefinitionBuilder.genericBeanDefinition(UserHolder.class)
+                .addPropertyValue("user", "early").getBeanDefinition());
+        context.refresh();
+        assertEquals("early", context.getBean(UserHolder.class).user.getUserName());
+        assertFalse(((AbstractBeanFactory) context.getBeanFactory()).getCustomEditors().containsKey(User.class));
+        context.close();
+    }
+
+    @Test
+    public void testSharedTypeConverter() {
+        DispatchingConversionService conversionService = new DispatchingConversionService();
+        conversionService.addDirectConverter(String.class, User.class, new StringToUserConverter());
+        SimpleTypeConverter typeConverter = new SimpleTypeConverter();
+        typeConverter.setConversionService(conversionService);
+        User value = typeConverter.convertIfNecessary("1", User.class);
+        assertEquals("1", value.getUserName());
+        assertEquals(Integer.valueOf(2), conversionService.convert("2", Integer.class));
+    }
+
+
+    public static class UserHolder implements BeanPostProcessor {
+
+        private User user;
+
+        public void setUser(User user) {
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cn.sue.spring.test.env;
+
+import cn.sue.spring.test.core.AppConfig;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SnapshotEnvironmentTest {
+
+    @Test
+    public void testLookupsComeFromSnapshot() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("app.name", "sue");
+        source.put("app.port", "8080");
+        SnapshotEnvironment environment = new SnapshotEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("app", source));
+
+        assertEquals("sue", environment.getProperty("app.name"));
+        assertEquals(Integer.valueOf(8080), environment.getProperty("app.port", Integer.class));
+        assertNull(environment.getProperty("zhouyu"));
+        assertFalse(environment.containsProperty("zhouyu"));
+        assertEquals(System.getProperty("java.version"), environment.getProperty("java.version"));
+
+        // 快照里已经有了，PropertySource内部的修改看不到
+        source.put("app.name", "changed");
+        source.put("zhouyu", "found");
+        assertEquals("sue", environment.getProperty("app.name"));
+        assertNull(environment.getProperty("zhouyu"));
+        assertFalse(environment.containsProperty("zhouyu"));
+
+        environment.invalidateSnapshot();
+        assertEquals("changed", environment.getProperty("app.name"));
+        assertEquals("found", environment.getProperty("zhouyu"));
+        assertTrue(environment.containsProperty("zhouyu"));
+    }
+
+    @Test
+    public void testMutatingPropertySourcesReplacesSnapshot() {
+        SnapshotEnvironment environment = new SnapshotEnvironment();
+        assertNull(environment.getProperty("zhouyu"));
+        assertEquals("fallback", environment.getProperty("zhouyu", "fallback"));
+
+        Map<String, Object> source = new HashMap<>();
+        source.put("zhouyu", "${user.name}");
+        environment.getPropertySources().addFirst(new MapPropertySource("overrides", source));
+        assertEquals(System.getProperty("user.name"), environment.getProperty("zhouyu"));
+
+        environment.getPropertySources().remove("overrides");
+        assertNull(environment.getProperty("zhouyu"));
+        try {
+            environment.getRequiredProperty("zhouyu");
+            fail();
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testApplicationContextWithSnapshotEnvironment() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.setEnvironment(new SnapshotEnvironment());
+        context.register(AppConfig.class);
+        context.refresh();
+        assertTrue(context.getEnvironment() instanceof SnapshotEnvironment);
+        assertEquals(System.getProperty("sun.jnu.encoding"), context.getEnvironment().getProperty("sun.jnu.encoding"));
+        context.close();
+    }
+}
@@ -0,0 +1,164 @@
+package cn.sue.spring.test.event;
+
+import org.junit.Test;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.AbstractApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class AsyncApplicationEventMulticasterTest {
+
+    @Test
+    public void testBatchingKeepsOrder() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        AsyncApplicationEventMulticaster multicaster = new AsyncApplicationEventMulticaster(context.getBeanFactory());
+        multicaster.setWorkerCount(2);
+        context.getBeanFactory().registerSingleton(AbstractApplicationContext.APPLICATION_EVENT_MULTICASTER_BEAN_NAME, multicaster);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        context.addApplicationListener(new BatchingApplicationListener<PayloadApplicationEvent<String>>() {
+            @Override
+            public void onApplicationEvents(List<PayloadApplicationEvent<String>> events) {
+                batchSizes.add(events.size());
+                for (PayloadApplicationEvent<String> event : events) {
+                    received.add(event.getPayload());
+                }
+            }
+        });
+        context.refresh();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("event-" + i);
+            context.publishEvent("event-" + i);
+        }
+        assertTrue(multicaster.flush(5000));
+        assertEquals(expected, received);
+        assertEquals(1000, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, multicaster.getQueueDepth());
+        context.close();
+    }
+
+    @Test
+    public void testPublisherDoesNotWaitForSlowListener() throws Exception {
+        AsyncApplicationEventMulticaster multicaster = new AsyncApplicationEventMulticaster();
+        multicaster.setWorkerCount(1);
+        multicaster.setQueueCapacity(1);
+        multicaster.setBackpressurePolicy(BackpressurePolicy.DROP);
+        CountDownLatch release = new CountDownLatch(1);
+        multicaster.addApplicationListener((ApplicationListener<PayloadApplicationEvent<String>>) event -> {
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "event-" + i));
+        }
+        // 监听器还卡在latch上，发布已经全部返回
+        assertEquals(0, multicaster.getDeliveredCount());
+        assertTrue(multicaster.getDroppedCount() > 0);
+        release.countDown();
+        assertTrue(multicaster.flush(5000));
+        assertEquals(10, multicaster.getPublishedCount());
+        assertEquals(10, multicaster.getDeliveredCount() + multicaster.getDroppedCount());
+        multicaster.destroy();
+    }
+
+    /**
+     * BLOCK策略下发布线程等队列空位时被中断：事件计入丢弃并打warn日志，中断标记保留
+     */
+    @Test
+    public void testInterruptedBlockingPublisher() throws Exception {
+        AsyncApplicationEventMulticaster multicaster = new AsyncApplicationEventMulticaster();
+        multicaster.setWorkerCount(1);
+        multicaster.setQueueCapacity(1);
+        multicaster.setBackpressurePolicy(BackpressurePolicy.BLOCK);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        multicaster.addApplicationListener((ApplicationListener<PayloadApplicationEvent<String>>) event -> {
+            started.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        List<LogRecord> warnings = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(AsyncApplicationEventMulticaster.class.getName());
+        logger.addHandler(handler);
+        try {
+            multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "event-0"));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "event-1"));
+            // 队列已满，发布线程带着中断标记进入put
+            Thread.currentThread().interrupt();
+            multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "event-2"));
+            assertTrue(Thread.interrupted());
+        }
+        finally {
+            logger.removeHandler(handler);
+        }
+        assertEquals(1, multicaster.getDroppedCount());
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).getMessage().startsWith("Interrupted while waiting for queue space"));
+        release.countDown();
+        assertTrue(multicaster.flush(5000));
+        assertEquals(2, multicaster.getDeliveredCount());
+        multicaster.destroy();
+    }
+
+    @Test
+    public void testListenerPublishingIntoFullQueue() {
+        AsyncApplicationEventMulticaster multicaster = new AsyncApplicationEventMulticaster();
+        multicaster.setWorkerCount(1);
+        multicaster.setQueueCapacity(1);
+        multicaster.setBackpressurePolicy(BackpressurePolicy.BLOCK);
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        multicaster.addApplicationListener((ApplicationListener<PayloadApplicationEvent<Integer>>) event -> {
+            int depth = event.getPayload();
+            received.add(depth);
+            // 在工作线程里连发两个，第二个放不进自己的队列
+            if (depth < 3) {
+                multicaster.multicastEvent(new PayloadApplicationEvent<>(this, depth + 1));
+                multicaster.multicastEvent(new PayloadApplicationEvent<>(this, depth + 1));
+            }
+        });
+        multicaster.multicastEvent(new PayloadApplicationEvent<>(this, 0));
+        assertTrue(multicaster.flush(5000));
+        assertEquals(15, received.size());
+        assertTrue(multicaster.getCallerRunsCount() > 0);
+        multicaster.destroy();
+    }
+}
@@ -0,0 +1,85 @@
+package cn.sue.spring.test.event;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRollsSegmentsAndRecovers() throws Exception {
+        Path directory = this.folder.newFolder("journal").toPath();
+        EventJournal journal = new EventJournal(directory, 1024, 10);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add("event-" + i);
+            journal.append("event-" + i);
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        assertEquals(expected, events(journal.read(0, 1000)));
+        List<EventJournal.Entry> firstTwo = journal.read(0, 2);
+        assertEquals("event-2", journal.read(firstTwo.get(1).getNextOffset(), 1).get(0).getEvent());
+        long end = journal.getEndOffset();
+        journal.close();
+
+        // 模拟写到一半崩溃：结尾多出一个长度，内容和校验和都不对
+        Path last = Files.list(directory).filter(file -> file.toString().endsWith(".log")).sorted()
+                .reduce((first, second) -> second).get();
+        long base = Long.parseLong(last.getFileName().toString().replace(".log", ""));
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(12).putInt(40).putInt(12345).putInt(1).flip(), end - base);
+        }
+
+        EventJournal reopened = new EventJournal(directory, 1024, 10);
+        assertEquals(end, reopened.getEndOffset());
+        assertEquals(expected, events(reopened.read(0, 1000)));
+        reopened.append("event-100");
+        assertEquals("event-100", reopened.read(end, 1).get(0).getEvent());
+        reopened.close();
+    }
+
+    @Test
+    public void testCommittedOffsetsAndCompaction() throws Exception {
+        Path directory = this.folder.newFolder("journal").toPath();
+        EventJournal journal = new EventJournal(directory, 1024, 0);
+        for (int i = 0; i < 100; i++) {
+            journal.append("event-" + i);
+        }
+        int segments = journal.getSegmentCount();
+        // 还没有消费者时不删
+        assertEquals(0, journal.compact());
+
+        List<EventJournal.Entry> entries = journal.read(journal.getCommittedOffset("reader"), 60);
+        journal.commit("reader", entries.get(59).getNextOffset());
+        journal.close();
+
+        EventJournal reopened = new EventJournal(directory, 1024, 0);
+        assertEquals(entries.get(59).getNextOffset(), reopened.getCommittedOffset("reader"));
+        int deleted = reopened.compact();
+        assertTrue(deleted > 0);
+        assertEquals(segments - deleted, reopened.getSegmentCount());
+        assertTrue(reopened.getStartOffset() > 0);
+        assertEquals("event-60", reopened.read(reopened.getCommittedOffset("reader"), 1).get(0).getEvent());
+        // 早于被删掉的段的偏移量从最早的一条开始读
+        assertEquals(reopened.getStartOffset(), reopened.read(0, 1).get(0).getOffset());
+        reopened.close();
+    }
+
+    private static List<Object> events(List<EventJournal.Entry> entries) {
+        return entries.stream().map(EventJournal.Entry::getEvent).collect(Collectors.toList());
+    }
+}
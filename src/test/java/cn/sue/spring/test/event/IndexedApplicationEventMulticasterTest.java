@@ -0,0 +1,106 @@
+package cn.sue.spring.test.event;
+
+import cn.sue.spring.test.core.AppConfig;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.core.Ordered;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexedApplicationEventMulticasterTest {
+
+    @Test
+    public void testDispatchByEventAndPayloadType() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        IndexedApplicationEventMulticaster multicaster = new IndexedApplicationEventMulticaster(context.getBeanFactory());
+        context.getBeanFactory().registerSingleton(AbstractApplicationContext.APPLICATION_EVENT_MULTICASTER_BEAN_NAME, multicaster);
+        context.register(AppConfig.class);
+        List<String> received = new ArrayList<>();
+        context.addApplicationListener(new StringPayloadListener(received));
+        context.addApplicationListener(new ApplicationListener<PayloadApplicationEvent<Integer>>() {
+            @Override
+            public void onApplicationEvent(PayloadApplicationEvent<Integer> event) {
+                received.add("int:" + event.getPayload());
+            }
+        });
+        context.addApplicationListener(new ApplicationListener<ContextRefreshedEvent>() {
+            @Override
+            public void onApplicationEvent(ContextRefreshedEvent event) {
+                received.add("refreshed");
+            }
+        });
+        context.refresh();
+
+        context.publishEvent("a");
+        context.publishEvent(1);
+        context.publishEvent("b");
+        assertEquals("[refreshed, string:a, int:1, string:b]", received.toString());
+        context.close();
+    }
+
+    @Test
+    public void testIndexInvalidatedOnRegistration() {
+        IndexedApplicationEventMulticaster multicaster = new IndexedApplicationEventMulticaster();
+        List<String> received = new ArrayList<>();
+        multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "a"));
+        assertEquals(1, multicaster.getIndexedTypeCount());
+        multicaster.addApplicationListener(new StringPayloadListener(received));
+        assertEquals(0, multicaster.getIndexedTypeCount());
+        multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "b"));
+        multicaster.multicastEvent(new ApplicationEvent(this) {
+        });
+        assertEquals("[string:b]", received.toString());
+    }
+
+    @Test
+    public void testPayloadEventSubclass() {
+        IndexedApplicationEventMulticaster multicaster = new IndexedApplicationEventMulticaster();
+        List<String> received = new ArrayList<>();
+        multicaster.addApplicationListener(new StringPayloadListener(received));
+        multicaster.addApplicationListener(new ApplicationListener<AuditEvent<String>>() {
+            @Override
+            public void onApplicationEvent(AuditEvent<String> event) {
+                received.add("audit:" + event.getPayload());
+            }
+        });
+        multicaster.multicastEvent(new AuditEvent<>(this, "a"));
+        multicaster.multicastEvent(new PayloadApplicationEvent<>(this, "b"));
+        assertEquals("[string:a, audit:a, string:b]", received.toString());
+    }
+
+
+    static class AuditEvent<T> extends PayloadApplicationEvent<T> {
+
+        AuditEvent(Object source, T payload) {
+            super(source, payload);
+        }
+    }
+
+
+    static class StringPayloadListener implements ApplicationListener<PayloadApplicationEvent<String>>, Ordered {
+
+        private final List<String> received;
+
+        StringPayloadListener(List<String> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onApplicationEvent(PayloadApplicationEvent<String> event) {
+            received.add("string:" + event.getPayload());
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cn.sue.spring.test.event;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.AbstractApplicationContext;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournalingApplicationEventMulticasterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUndeliveredEventsAreReplayedAfterRestart() throws Exception {
+        Path directory = this.folder.newFolder("events").toPath();
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        List<Object> refreshed = new ArrayList<>();
+
+        // 发布以后还没开始投递就"崩溃"了
+        EventJournal journal = new EventJournal(directory, 4096, 10);
+        JournalingApplicationEventMulticaster crashed = new JournalingApplicationEventMulticaster(journal);
+        crashed.addApplicationListener((ApplicationListener<PayloadApplicationEvent<String>>) event -> received.add(event.getPayload()));
+        for (int i = 0; i < 5; i++) {
+            crashed.multicastEvent(new PayloadApplicationEvent<>(this, "event-" + i));
+        }
+        assertTrue(received.isEmpty());
+        assertFalse(crashed.flush(0));
+        journal.close();
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        EventJournal reopened = new EventJournal(directory, 4096, 10);
+        JournalingApplicationEventMulticaster multicaster = new JournalingApplicationEventMulticaster(context.getBeanFactory(), reopened);
+        context.getBeanFactory().registerSingleton(AbstractApplicationContext.APPLICATION_EVENT_MULTICASTER_BEAN_NAME, multicaster);
+        context.addApplicationListener((ApplicationListener<PayloadApplicationEvent<String>>) event -> received.add(event.getPayload()));
+        context.addApplicationListener((ApplicationListener<ContextRefreshedEvent>) refreshed::add);
+        context.refresh();
+        // 容器事件照常同步广播
+        assertEquals(1, refreshed.size());
+
+        for (int i = 5; i < 10; i++) {
+            context.publishEvent("event-" + i);
+        }
+        assertTrue(multicaster.flush(5000));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add("event-" + i);
+        }
+        assertEquals(expected, received);
+        assertEquals(0, multicaster.getLag());
+        context.close();
+        reopened.close();
+    }
+
+    @Test
+    public void testCustomEvents() throws Exception {
+        List<OrderEvent> received = Collections.synchronizedList(new ArrayList<>());
+        Thread publisher = Thread.currentThread();
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        try (EventJournal journal = new EventJournal(this.folder.newFolder("events").toPath(), 4096, 10)) {
+            JournalingApplicationEventMulticaster multicaster = new JournalingApplicationEventMulticaster(journal);
+            multicaster.addApplicationListener((ApplicationListener<OrderEvent>) event -> {
+                received.add(event);
+                threads.add(Thread.currentThread());
+            });
+            multicaster.start();
+
+            // 带着不能序列化的内容：不写日志，在发布线程里同步广播
+            long end = journal.getEndOffset();
+            OrderEvent unserializable = new OrderEvent(this, "order-1", new Object());
+            multicaster.multicastEvent(unserializable);
+            assertEquals(Collections.singletonList(unserializable), received);
+            assertSame(publisher, threads.get(0));
+            assertEquals(end, journal.getEndOffset());
+
+            multicaster.multicastEvent(new OrderEvent(this, "order-2", null));
+            assertTrue(multicaster.flush(5000));
+            assertEquals(2, received.size());
+            assertEquals("order-2", received.get(1).orderId);
+            assertSame(journal, received.get(1).getSource());
+            assertNotSame(publisher, threads.get(1));
+            multicaster.destroy();
+        }
+    }
+
+
+    static class OrderEvent extends ApplicationEvent implements ReplayableEvent {
+
+        final String orderId;
+
+        // 不为null时事件不能序列化
+        final Object attachment;
+
+        OrderEvent(Object source, String orderId, Object attachment) {
+            super(source);
+            this.orderId = orderId;
+            this.attachment = attachment;
+        }
+
+        @Override
+        public ApplicationEvent withSource(Object source) {
+            return new OrderEvent(source, this.orderId, this.attachment);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cn.sue.spring.test.factory;
+
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import javax.annotation.Resource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BeanDependencyGraphTest {
+
+    @Test
+    public void testComponentsAreOrderedDependenciesFirst() {
+        BeanDependencyGraph graph = new BeanDependencyGraph();
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            graph.addNode(name);
+        }
+        graph.addEdge("a", "b");
+        graph.addEdge("b", "c");
+        graph.addEdge("c", "b");
+        graph.addEdge("c", "d");
+        graph.addEdge("e", "e");
+
+        List<List<String>> components = graph.stronglyConnectedComponents();
+        assertEquals(Arrays.asList(
+                Collections.singletonList("d"), Arrays.asList("b", "c"), Collections.singletonList("a"),
+                Collections.singletonList("e")), components);
+        assertEquals(Arrays.asList(Arrays.asList("b", "c"), Collections.singletonList("e")), graph.cycles());
+    }
+
+    @Test
+    public void testResourceNameSelectsDependency() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("first", new RootBeanDefinition(Target.class));
+        beanFactory.registerBeanDefinition("second", new RootBeanDefinition(Target.class));
+        beanFactory.registerBeanDefinition("holder", new RootBeanDefinition(Holder.class));
+
+        BeanDependencyGraph graph = new DependencyGraphBuilder(beanFactory)
+                .build(Arrays.asList("first", "second", "holder"));
+        assertEquals(Collections.singleton("second"), graph.getDependencies("holder"));
+    }
+
+
+    static class Target {
+    }
+
+
+    static class Holder {
+
+        @Resource(name = "second")
+        Target target;
+    }
+}
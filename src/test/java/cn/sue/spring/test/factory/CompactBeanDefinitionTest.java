@@ -0,0 +1,69 @@
+package cn.sue.spring.test.factory;
+
+import cn.sue.spring.test.core.User;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import static org.junit.Assert.*;
+
+public class CompactBeanDefinitionTest {
+
+    @Test
+    public void testRoundTrip() {
+        AbstractBeanDefinition original = BeanDefinitionBuilder.genericBeanDefinition(new String("cn.sue.spring.test.core.User"))
+                .setScope(BeanDefinition.SCOPE_PROTOTYPE)
+                .setInitMethodName("init")
+                .setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE)
+                .addPropertyValue("userName", "sue")
+                .addDependsOn("other")
+                .getBeanDefinition();
+        original.setPrimary(true);
+        original.setAttribute("tenant", "t1");
+
+        CompactBeanDefinition compact = (CompactBeanDefinition) CompactBeanDefinition.compact(original);
+        assertSame("cn.sue.spring.test.core.User", compact.getBeanClassName());
+        assertTrue(compact.isPrototype());
+        assertTrue(compact.isPrimary());
+        assertFalse(compact.isLazyInit());
+        assertTrue(compact.isAutowireCandidate());
+        assertEquals("t1", compact.getAttribute("tenant"));
+        assertArrayEquals(new String[] {"other"}, compact.getDependsOn());
+        assertNull(compact.getDestroyMethodName());
+
+        GenericBeanDefinition expanded = compact.toBeanDefinition();
+        assertEquals(original, expanded);
+
+        compact.setDependsOn();
+        compact.setInitMethodName(null);
+        compact.removeAttribute("tenant");
+        assertNull(compact.getDependsOn());
+        assertNull(compact.getInitMethodName());
+        assertEquals(0, compact.attributeNames().length);
+        assertEquals("sue", compact.getPropertyValues().get("userName"));
+
+        // 带qualifier、不是GenericBeanDefinition的不转换
+        RootBeanDefinition root = new RootBeanDefinition(User.class);
+        assertSame(root, CompactBeanDefinition.compact(root));
+    }
+
+    @Test
+    public void testHoldersAreLive() {
+        CompactBeanDefinition compact = (CompactBeanDefinition) CompactBeanDefinition.compact(
+                BeanDefinitionBuilder.genericBeanDefinition(User.class).getBeanDefinition());
+        assertFalse(compact.hasPropertyValues());
+        assertFalse(compact.hasConstructorArgumentValues());
+
+        // 像PropertyOverrideConfigurer一样直接往返回的对象里加
+        compact.getPropertyValues().addPropertyValue("userName", "sue");
+        compact.getConstructorArgumentValues().addGenericArgumentValue("arg");
+        assertTrue(compact.hasPropertyValues());
+        assertTrue(compact.hasConstructorArgumentValues());
+        assertSame(compact.getPropertyValues(), compact.getPropertyValues());
+        assertEquals("sue", compact.toBeanDefinition().getPropertyValues().get("userName"));
+        assertEquals(1, compact.toBeanDefinition().getConstructorArgumentValues().getArgumentCount());
+    }
+}
@@ -0,0 +1,638 @@
+package cn.sue.spring.test.factory;
+
+import cn.sue.spring.test.metrics.LifecycleMetrics;
+import cn.sue.spring.test.metrics.LifecyclePhase;
+import cn.sue.spring.test.metrics.StartupReport;
+import cn.sue.spring.test.core.AppConfig;
+import cn.sue.spring.test.core.User;
+import org.junit.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanCreationNotAllowedException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.config.Scope;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionOverrideException;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.lang.Nullable;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExtendedBeanFactoryTest {
+
+    @Test
+    public void testLifecycleMetrics() {
+        LifecycleMetrics metrics = new LifecycleMetrics();
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setLifecycleMetrics(metrics);
+        GenericApplicationContext context = new GenericApplicationContext(beanFactory);
+        new XmlBeanDefinitionReader(context).loadBeanDefinitions("spring.xml");
+        context.refresh();
+        context.close();
+
+        StartupReport report = metrics.getReport();
+        StartupReport.BeanTiming testBeanA = report.getBean("testBeanA");
+        assertNotNull(testBeanA);
+        assertEquals(1, testBeanA.getCreations());
+        for (LifecyclePhase phase : new LifecyclePhase[]{LifecyclePhase.INSTANTIATION, LifecyclePhase.POPULATION,
+                LifecyclePhase.AWARE, LifecyclePhase.POST_CONSTRUCT, LifecyclePhase.AFTER_PROPERTIES_SET,
+                LifecyclePhase.INIT_METHOD, LifecyclePhase.AFTER_INITIALIZATION, LifecyclePhase.DESTROY}) {
+            assertNotNull(phase.name(), testBeanA.getPhase(phase));
+        }
+        assertNull(report.getBean("testBeanB").getPhase(LifecyclePhase.INIT_METHOD));
+        assertTrue(report.getPhase(LifecyclePhase.INSTANTIATION).getCount() >= 2);
+        assertTrue(report.toJson().contains("{\"name\":\"testBeanA\",\"creations\":1,"));
+        assertTrue(report.toString().contains("testBeanA"));
+    }
+
+    @Test
+    public void testNestedCreationIsNotChargedToDependent() {
+        LifecycleMetrics metrics = new LifecycleMetrics();
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setLifecycleMetrics(metrics);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.registerBean("slow", SlowBean.class);
+        context.registerBean("dependent", DependentBean.class);
+        context.refresh();
+
+        StartupReport report = metrics.getReport();
+        long slow = report.getBean("slow").getTotalNanos();
+        assertTrue(slow >= 50_000_000L);
+        // dependent的耗时不包括创建slow的时间
+        assertTrue(report.getBean("dependent").getTotalNanos() < slow / 2);
+        context.close();
+    }
+
+    @Test
+    public void testParallelPreInstantiation() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setPreInstantiationParallelism(8);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        // 8个Bean要同时到达栅栏才能初始化完，串行创建时会超时失败
+        SlowInitBean.barrier = new CyclicBarrier(8);
+        for (int i = 0; i < 8; i++) {
+            context.registerBean("slowInit" + i, SlowInitBean.class);
+        }
+        context.registerBean("dependent", DependentOnSlowInitBean.class);
+        context.refresh();
+
+        assertTrue(context.getBean(DependentOnSlowInitBean.class).dependencyInitialized);
+        context.close();
+    }
+
+    @Test
+    public void testParallelPreInstantiationWithCircularFields() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setPreInstantiationParallelism(4);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.registerBean("left", CircularLeft.class);
+        context.registerBean("right", CircularRight.class);
+        context.refresh();
+
+        assertSame(context.getBean(CircularRight.class), context.getBean(CircularLeft.class).right);
+        assertSame(context.getBean(CircularLeft.class), context.getBean(CircularRight.class).left);
+        context.close();
+    }
+
+    @Test
+    public void testParallelPreInstantiationReportsConstructorCycleDeterministically() {
+        for (int i = 0; i < 3; i++) {
+            ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+            beanFactory.setPreInstantiationParallelism(4);
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+            context.registerBean("first", ConstructorCycleFirst.class);
+            context.registerBean("second", ConstructorCycleSecond.class);
+            try {
+                context.refresh();
+                fail();
+            }
+            catch (BeanCreationException ex) {
+                assertEquals("first", ex.getBeanName());
+                assertTrue(ex.contains(BeanCurrentlyInCreationException.class));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelPreInstantiationResolvesUndeclaredCycle() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setPreInstantiationParallelism(2);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.registerBean("lookupA", LookupBean.class, () -> new LookupBean("lookupB"));
+        context.registerBean("lookupB", LookupBean.class, () -> new LookupBean("lookupA"));
+        context.refresh();
+
+        assertNotNull(context.getBean("lookupA", LookupBean.class).other);
+        assertNotNull(context.getBean("lookupB", LookupBean.class).other);
+        context.close();
+    }
+
+    /**
+     * 并行创建时和父类一样：构造方法都失败时，前面被压下的失败附在最后抛出的异常上
+     */
+    @Test
+    public void testParallelPreInstantiationKeepsSuppressedExceptions() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setPreInstantiationParallelism(2);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.registerBean("slow", SlowBean.class);
+        context.registerBean("unsatisfiable", UnsatisfiableBean.class,
+                bd -> ((AbstractBeanDefinition) bd).setAutowireMode(AbstractBeanDefinition.AUTOWIRE_CONSTRUCTOR));
+        try {
+            context.refresh();
+            fail();
+        }
+        catch (BeanCreationException ex) {
+            assertEquals("unsatisfiable", ex.getBeanName());
+            assertNotNull(ex.getRelatedCauses());
+            assertEquals(1, ex.getRelatedCauses().length);
+        }
+    }
+
+    /**
+     * 并行创建期间开始销毁单例(比如另一个线程关闭了容器)，销毁回调里不能再创建单例
+     */
+    @Test
+    public void testParallelCreationNotAllowedDuringDestruction() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setPreInstantiationParallelism(2);
+        List<Exception> failures = new ArrayList<>();
+        beanFactory.registerBeanDefinition("lazy", BeanDefinitionBuilder.genericBeanDefinition(Object.class)
+                .setLazyInit(true).getBeanDefinition());
+        beanFactory.registerBeanDefinition("closer", BeanDefinitionBuilder.genericBeanDefinition(DisposableBean.class,
+                () -> () -> {
+                    try {
+                        beanFactory.getBean("lazy");
+                    }
+                    catch (BeansException ex) {
+                        failures.add(ex);
+                    }
+                }).getBeanDefinition());
+        beanFactory.registerBeanDefinition("trigger", BeanDefinitionBuilder.genericBeanDefinition(Object.class, () -> {
+            beanFactory.destroySingletons();
+            return new Object();
+        }).addDependsOn("closer").getBeanDefinition());
+        beanFactory.preInstantiateSingletons();
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof BeanCreationNotAllowedException);
+        assertFalse(beanFactory.containsSingleton("lazy"));
+    }
+
+    @Test
+    public void testTypeTargetedPostProcessorOnlySeesTargetTypes() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(new ExtendedBeanFactory());
+        context.registerBean(TargetedProcessor.class);
+        context.registerBean("slow", SlowBean.class);
+        context.registerBean("lookup", LookupBean.class, () -> new LookupBean("slow"), bd -> bd.setScope("prototype"));
+        context.refresh();
+        context.getBean("lookup");
+        context.getBean("lookup");
+
+        TargetedProcessor processor = context.getBean(TargetedProcessor.class);
+        assertEquals(Arrays.asList("afterInstantiation:lookup", "before:lookup", "after:lookup",
+                "afterInstantiation:lookup", "before:lookup", "after:lookup"), processor.calls);
+        context.close();
+    }
+
+    /**
+     * 直接替换getBeanPostProcessors()里的元素，个数没变，缓存的分组也要作废
+     */
+    @Test
+    public void testPostProcessorReplacedInPlace() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        List<String> calls = new ArrayList<>();
+        beanFactory.addBeanPostProcessor(new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                calls.add("first:" + beanName);
+                return bean;
+            }
+        });
+        beanFactory.registerBeanDefinition("prototype", BeanDefinitionBuilder.genericBeanDefinition(Object.class)
+                .setScope(BeanDefinition.SCOPE_PROTOTYPE).getBeanDefinition());
+        beanFactory.getBean("prototype");
+        beanFactory.getBeanPostProcessors().set(0, new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                calls.add("second:" + beanName);
+                return bean;
+            }
+        });
+        beanFactory.getBean("prototype");
+        assertEquals(Arrays.asList("first:prototype", "second:prototype"), calls);
+    }
+
+    @Test
+    public void testPrototypeInjectionPlan() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setCacheInjectionPlans(true);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("plan.name", "sue")));
+        context.register(AppConfig.class);
+        context.registerBean("slow", SlowBean.class);
+        context.registerBean("plan", PlanBean.class, bd -> {
+            bd.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+            ((AbstractBeanDefinition) bd).setInitMethodName("init");
+        });
+        context.refresh();
+
+        PlanBean first = context.getBean(PlanBean.class);
+        InjectionPlan plan = beanFactory.getInjectionPlan("plan");
+        assertNotNull(plan);
+        assertNotNull(plan.getConstructor());
+        PlanBean second = context.getBean(PlanBean.class);
+        PlanBean third = context.getBean(PlanBean.class);
+
+        for (PlanBean bean : Arrays.asList(first, second, third)) {
+            assertSame(context, bean.context);
+            assertSame(context.getBean("slow"), bean.slowBean);
+            assertEquals("sue", bean.name);
+            assertEquals("sue", bean.user.getUserName());
+            assertTrue(bean.initialized);
+        }
+        // 转换出来的对象和SpEL的结果每次都是新的
+        assertNotSame(second.user, third.user);
+        assertNotEquals(second.createdAt, third.createdAt);
+        context.close();
+    }
+
+    @Test
+    public void testBulkRegistration() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(beanFactory);
+        context.registerBean("slow", SlowBean.class);
+        context.registerBean("plan", PlanBean.class);
+        context.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("plan.name", "sue")));
+        context.register(AppConfig.class);
+        context.refresh();
+        PlanBean original = context.getBean(PlanBean.class);
+
+        Map<String, BeanDefinition> definitions = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            definitions.put("user" + i, CompactBeanDefinition.compact(BeanDefinitionBuilder.genericBeanDefinition(User.class)
+                    .addPropertyValue("userName", "user" + i).setLazyInit(true).getBeanDefinition()));
+        }
+        // 覆盖已经创建的单例，要被重置
+        definitions.put("plan", CompactBeanDefinition.compact(BeanDefinitionBuilder.genericBeanDefinition(PlanBean.class)
+                .setInitMethodName("init").getBeanDefinition()));
+        beanFactory.registerBeanDefinitions(definitions);
+
+        assertTrue(beanFactory.getBeanDefinition("user7") instanceof CompactBeanDefinition);
+        assertEquals(1000, context.getBeanNamesForType(User.class).length);
+        assertEquals("user999", context.getBean("user999", User.class).getUserName());
+        PlanBean replaced = context.getBean(PlanBean.class);
+        assertNotSame(original, replaced);
+        assertTrue(replaced.initialized);
+
+        beanFactory.setAllowBeanDefinitionOverriding(false);
+        try {
+            beanFactory.registerBeanDefinitions(Collections.singletonMap("user1", new CompactBeanDefinition(User.class)));
+            fail();
+        }
+        catch (BeanDefinitionOverrideException expected) {
+        }
+        context.close();
+    }
+
+    /**
+     * 自定义作用域的Bean：销毁回调和DisposableBean一起登记到作用域里
+     */
+    @Test
+    public void testScopedDestroyCallback() {
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        Map<String, Runnable> destructionCallbacks = new LinkedHashMap<>();
+        beanFactory.registerScope("recording", new Scope() {
+            @Override
+            public Object get(String name, ObjectFactory<?> objectFactory) {
+                return objectFactory.getObject();
+            }
+
+            @Override
+            public Object remove(String name) {
+                return null;
+            }
+
+            @Override
+            public void registerDestructionCallback(String name, Runnable callback) {
+                destructionCallbacks.put(name, callback);
+            }
+
+            @Override
+            public Object resolveContextualObject(String key) {
+                return null;
+            }
+
+            @Override
+            public String getConversationId() {
+                return null;
+            }
+        });
+        List<String> destroyed = new ArrayList<>();
+        AbstractBeanDefinition bd = BeanDefinitionBuilder.genericBeanDefinition(ClosingBean.class,
+                () -> new ClosingBean("scoped", null, destroyed)).setScope("recording").getBeanDefinition();
+        bd.setAttribute(ExtendedBeanFactory.DESTROY_CALLBACK_ATTRIBUTE, (BeanLifecycleCallback) bean -> destroyed.add("callback"));
+        beanFactory.registerBeanDefinition("scoped", bd);
+
+        beanFactory.getBean("scoped");
+        assertEquals(Collections.singleton("scoped"), destructionCallbacks.keySet());
+        destructionCallbacks.get("scoped").run();
+        assertEquals(Arrays.asList("scoped", "callback"), destroyed);
+    }
+
+    @Test
+    public void testParallelShutdown() {
+        List<String> destroyed = Collections.synchronizedList(new ArrayList<>());
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setDestructionParallelism(4);
+        GenericApplicationContext context = new GenericApplicationContext(beanFactory);
+        // 两个慢的Bean要同时在销毁回调里才能结束，串行销毁时回调会失败
+        CountDownLatch overlap = new CountDownLatch(2);
+        context.registerBean("slow1", ClosingBean.class, () -> new ClosingBean("slow1", overlap, destroyed));
+        context.registerBean("slow2", ClosingBean.class, () -> new ClosingBean("slow2", overlap, destroyed));
+        context.registerBean("client", ClosingBean.class, () -> new ClosingBean("client", null, destroyed),
+                bd -> bd.setDependsOn("slow1"));
+        // 销毁期间不能再创建单例
+        context.registerBean("late", StringBuilder.class, () -> new StringBuilder(), bd -> bd.setLazyInit(true));
+        List<Throwable> failures = new ArrayList<>();
+        context.registerBean("creator", DisposableBean.class, () -> () -> {
+            try {
+                beanFactory.getBean("late");
+            }
+            catch (BeanCreationNotAllowedException ex) {
+                failures.add(ex);
+            }
+        });
+        context.refresh();
+
+        context.close();
+        assertTrue(destroyed.indexOf("client") < destroyed.indexOf("slow1"));
+        assertEquals(1, failures.size());
+        ShutdownReport report = beanFactory.getShutdownReport();
+        assertEquals(4, report.getBeanNames(ShutdownReport.Outcome.DESTROYED).size());
+    }
+
+    @Test
+    public void testShutdownDeadlines() {
+        List<String> destroyed = Collections.synchronizedList(new ArrayList<>());
+        // 每个latch只有一个Bean在等，stuck的销毁回调一直卡住，直到测试结束时放开
+        CountDownLatch stuck = new CountDownLatch(2);
+        CountDownLatch stuckAgain = new CountDownLatch(2);
+        try {
+            ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+            beanFactory.setDestroyTimeoutMillis(100);
+            GenericApplicationContext context = new GenericApplicationContext(beanFactory);
+            context.registerBean("store", ClosingBean.class, () -> new ClosingBean("store", null, destroyed));
+            context.registerBean("stuck", ClosingBean.class, () -> new ClosingBean("stuck", stuck, destroyed),
+                    bd -> bd.setDependsOn("store"));
+            context.refresh();
+            long start = System.nanoTime();
+            context.close();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            // 不再等超时的Bean，它依赖的Bean照常销毁
+            assertEquals(Collections.singletonList("store"), destroyed);
+            ShutdownReport report = beanFactory.getShutdownReport();
+            assertEquals(Collections.singletonList("stuck"), report.getBeanNames(ShutdownReport.Outcome.TIMED_OUT));
+
+            destroyed.clear();
+            beanFactory = new ExtendedBeanFactory();
+            beanFactory.setShutdownTimeoutMillis(100);
+            context = new GenericApplicationContext(beanFactory);
+            context.registerBean("store", ClosingBean.class, () -> new ClosingBean("store", null, destroyed));
+            context.registerBean("stuck", ClosingBean.class, () -> new ClosingBean("stuck", stuckAgain, destroyed),
+                    bd -> bd.setDependsOn("store"));
+            context.refresh();
+            start = System.nanoTime();
+            context.close();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            // 时限到了还没轮到的Bean不再调用销毁回调
+            assertTrue(destroyed.isEmpty());
+            report = beanFactory.getShutdownReport();
+            assertEquals(Collections.singletonList("store"), report.getBeanNames(ShutdownReport.Outcome.SKIPPED));
+            assertFalse(beanFactory.containsSingleton("store"));
+        }
+        finally {
+            for (CountDownLatch latch : Arrays.asList(stuck, stuckAgain)) {
+                latch.countDown();
+                latch.countDown();
+            }
+        }
+    }
+
+
+    static class ClosingBean implements DisposableBean {
+
+        private final String name;
+
+        @Nullable
+        private final CountDownLatch latch;
+
+        private final List<String> destroyed;
+
+        /**
+         * latch不为null时，销毁回调先countDown，再等latch归零
+         */
+        ClosingBean(String name, @Nullable CountDownLatch latch, List<String> destroyed) {
+            this.name = name;
+            this.latch = latch;
+            this.destroyed = destroyed;
+        }
+
+        @Override
+        public void destroy() throws InterruptedException {
+            if (this.latch != null) {
+                this.latch.countDown();
+                if (!this.latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException(this.name + " was not destroyed concurrently");
+                }
+            }
+            this.destroyed.add(this.name);
+        }
+    }
+
+
+    static class UnsatisfiableBean {
+
+        UnsatisfiableBean(Runnable runnable) {
+        }
+
+        UnsatisfiableBean(Thread thread) {
+        }
+    }
+
+
+    static class TargetedProcessor implements InstantiationAwareBeanPostProcessor, TypeTargetedBeanPostProcessor {
+
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public Class<?>[] getTargetTypes() {
+            return new Class<?>[] {LookupBean.class};
+        }
+
+        @Override
+        public boolean postProcessAfterInstantiation(Object bean, String beanName) {
+            this.calls.add("afterInstantiation:" + beanName);
+            return true;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            this.calls.add("before:" + beanName);
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            this.calls.add("after:" + beanName);
+            return bean;
+        }
+    }
+
+
+    static class LookupBean {
+
+        private final String otherName;
+
+        @Autowired
+        private BeanFactory beanFactory;
+
+        Object other;
+
+        LookupBean(String otherName) {
+            this.otherName = otherName;
+        }
+
+        @PostConstruct
+        public void init() throws InterruptedException {
+            // 两个Bean都先实例化好，再互相查找，依赖图里看不到这种依赖
+            Thread.sleep(50);
+            other = beanFactory.getBean(otherName);
+        }
+    }
+
+
+    static class SlowInitBean {
+
+        static volatile CyclicBarrier barrier;
+
+        volatile boolean initialized;
+
+        @PostConstruct
+        public void init() throws Exception {
+            barrier.await(10, TimeUnit.SECONDS);
+            initialized = true;
+        }
+    }
+
+
+    static class DependentOnSlowInitBean {
+
+        @Autowired
+        private SlowInitBean slowInit3;
+
+        boolean dependencyInitialized;
+
+        @PostConstruct
+        public void init() {
+            dependencyInitialized = slowInit3.initialized;
+        }
+    }
+
+
+    static class CircularLeft {
+
+        @Autowired
+        CircularRight right;
+    }
+
+
+    static class CircularRight {
+
+        @Autowired
+        CircularLeft left;
+    }
+
+
+    static class ConstructorCycleFirst {
+
+        ConstructorCycleFirst(ConstructorCycleSecond second) {
+        }
+    }
+
+
+    static class ConstructorCycleSecond {
+
+        ConstructorCycleSecond(ConstructorCycleFirst first) {
+        }
+    }
+
+
+    static class SlowBean {
+
+        SlowBean() throws InterruptedException {
+            Thread.sleep(60);
+        }
+    }
+
+
+    static class PlanBean {
+
+        final ApplicationContext context;
+
+        @Autowired
+        SlowBean slowBean;
+
+        @Value("${plan.name}")
+        String name;
+
+        @Value("${plan.name}")
+        User user;
+
+        @Value("#{T(java.lang.System).nanoTime()}")
+        long createdAt;
+
+        boolean initialized;
+
+        PlanBean(ApplicationContext context) {
+            this.context = context;
+        }
+
+        public void init() {
+            initialized = true;
+        }
+    }
+
+
+    static class DependentBean {
+
+        DependentBean(SlowBean slowBean) {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package cn.sue.spring.test.factory;
+
+import cn.sue.spring.test.metrics.LifecycleMetrics;
+import org.junit.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import javax.annotation.PostConstruct;
+
+import static org.junit.Assert.*;
+
+public class LazyInitAnalyzerTest {
+
+    @Test
+    public void testDefersBeansNoEagerBeanDependsOn() {
+        LazyInitAnalyzer analyzer = new LazyInitAnalyzer();
+        AnnotationConfigApplicationContext context = createContext(analyzer);
+        context.refresh();
+
+        assertTrue(context.getBeanFactory().containsSingleton("listener"));
+        assertTrue(context.getBeanFactory().containsSingleton("greeter"));
+        assertFalse(context.getBeanFactory().containsSingleton("unused"));
+        assertEquals(2, analyzer.getReport().getEagerBeanCount() - infrastructureBeans(context));
+        assertTrue(analyzer.getReport().getDeferredBeanNames().contains("unused"));
+        assertTrue(analyzer.getReport().getCreatedDuringStartup().isEmpty());
+        // 推迟的Bean用到时照常创建
+        assertNotNull(context.getBean("unused"));
+        context.close();
+    }
+
+    /**
+     * 有初始化/销毁回调的Bean默认在启动时创建，打开deferLifecycleCallbacks后才推迟
+     */
+    @Test
+    public void testLifecycleCallbacksStayEager() {
+        LazyInitAnalyzer analyzer = new LazyInitAnalyzer();
+        AnnotationConfigApplicationContext context = createContext(analyzer);
+        context.registerBean("initializing", InitializingUnusedBean.class);
+        context.registerBean("disposable", UnusedBean.class, bd -> bd.setDestroyMethodName("toString"));
+        context.refresh();
+        assertTrue(context.getBeanFactory().containsSingleton("initializing"));
+        assertTrue(context.getBeanFactory().containsSingleton("disposable"));
+        assertFalse(context.getBeanFactory().containsSingleton("unused"));
+        context.close();
+
+        analyzer = new LazyInitAnalyzer();
+        analyzer.setDeferLifecycleCallbacks(true);
+        context = createContext(analyzer);
+        context.registerBean("initializing", InitializingUnusedBean.class);
+        context.registerBean("disposable", UnusedBean.class, bd -> bd.setDestroyMethodName("toString"));
+        context.refresh();
+        assertFalse(context.getBeanFactory().containsSingleton("initializing"));
+        assertFalse(context.getBeanFactory().containsSingleton("disposable"));
+        context.close();
+    }
+
+    @Test
+    public void testLazyResolutionProxies() {
+        LazyInitAnalyzer analyzer = new LazyInitAnalyzer();
+        analyzer.setLazyResolutionProxies(true);
+        AnnotationConfigApplicationContext context = createContext(analyzer);
+        context.refresh();
+
+        assertFalse(context.getBeanFactory().containsSingleton("greeter"));
+        Listener listener = context.getBean(Listener.class);
+        assertTrue(AopUtils.isAopProxy(listener.greeter));
+        assertEquals("hello", listener.greeter.greet());
+        assertTrue(context.getBeanFactory().containsSingleton("greeter"));
+        context.close();
+    }
+
+    @Test
+    public void testEstimateFromBaselineReport() {
+        LifecycleMetrics metrics = new LifecycleMetrics();
+        ExtendedBeanFactory beanFactory = new ExtendedBeanFactory();
+        beanFactory.setLifecycleMetrics(metrics);
+        AnnotationConfigApplicationContext baseline = new AnnotationConfigApplicationContext(beanFactory);
+        baseline.registerBean("unused", SlowUnusedBean.class);
+        baseline.refresh();
+        baseline.close();
+
+        LazyInitAnalyzer analyzer = new LazyInitAnalyzer();
+        analyzer.setBaselineReport(metrics.getReport());
+        AnnotationConfigApplicationContext context = createContext(analyzer);
+        context.registerBean("unused", SlowUnusedBean.class);
+        context.refresh();
+
+        assertEquals(1, analyzer.getReport().getEstimatedBeanCount());
+        assertTrue(analyzer.getReport().getEstimatedSavedNanos() >= 20_000_000L);
+        context.close();
+    }
+
+    private static AnnotationConfigApplicationContext createContext(LazyInitAnalyzer analyzer) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.addBeanFactoryPostProcessor(analyzer);
+        context.addApplicationListener(analyzer);
+        context.registerBean("listener", Listener.class);
+        context.registerBean("greeter", GreeterImpl.class);
+        context.registerBean("unused", UnusedBean.class);
+        return context;
+    }
+
+    private static int infrastructureBeans(AnnotationConfigApplicationContext context) {
+        int count = 0;
+        for (String beanName : context.getBeanDefinitionNames()) {
+            if (context.getBeanFactory().getBeanDefinition(beanName).getRole() != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public interface Greeter {
+
+        String greet();
+    }
+
+
+    static class GreeterImpl implements Greeter {
+
+        @Override
+        public String greet() {
+            return "hello";
+        }
+    }
+
+
+    static class UnusedBean {
+    }
+
+
+    static class InitializingUnusedBean {
+
+        @PostConstruct
+        void init() {
+        }
+    }
+
+
+    static class SlowUnusedBean {
+
+        SlowUnusedBean() throws InterruptedException {
+            Thread.sleep(25);
+        }
+    }
+
+
+    static class Listener implements ApplicationListener<ContextRefreshedEvent> {
+
+        @Autowired
+        Greeter greeter;
+
+        @Override
+        public void onApplicationEvent(ContextRefreshedEvent event) {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cn.sue.spring.test.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+public class IndexedResourcePatternResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * jar和目录里的结果都和PathMatchingResourcePatternResolver一样
+     */
+    @Test
+    public void testSameResultsAsPathMatchingResolver() throws Exception {
+        IndexedResourcePatternResolver indexed = new IndexedResourcePatternResolver();
+        PathMatchingResourcePatternResolver pathMatching = new PathMatchingResourcePatternResolver();
+        String[] patterns = {
+                "classpath*:org/springframework/core/io/*.class",
+                "classpath:org/springframework/core/io/**/*Resolver.class",
+                "classpath*:cn/sue/spring/test/lifecycle/*.class",
+                "classpath*:cn/sue/spring/**/Test*.class",
+                "classpath*:META-INF/spring.*",
+                "classpath*:no/such/dir/*.xml"};
+        for (String pattern : patterns) {
+            assertEquals(pattern, urls(pathMatching.getResources(pattern)), urls(indexed.getResources(pattern)));
+            assertEquals(pattern, urls(pathMatching.getResources(pattern)), urls(indexed.getResources(pattern)));
+        }
+        assertFalse(urls(indexed.getResources("classpath*:org/springframework/core/io/*.class")).isEmpty());
+    }
+
+    @Test
+    public void testJarEntriesFromCentralDirectory() throws Exception {
+        File jar = this.folder.newFile("plugins.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String name : new String[] {"plugins/", "plugins/a/", "plugins/a/plugin.xml", "plugins/b.xml", "other/c.xml"}) {
+                out.putNextEntry(new JarEntry(name));
+                out.closeEntry();
+            }
+        }
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+        Resource[] resources = new IndexedResourcePatternResolver(classLoader).getResources("classpath*:plugins/**/*.xml");
+        assertEquals(urls(new PathMatchingResourcePatternResolver(classLoader).getResources("classpath*:plugins/**/*.xml")), urls(resources));
+        assertEquals(2, resources.length);
+        assertTrue(resources[0].exists());
+    }
+
+    /**
+     * 目录里新加的文件，下一次查询就能看到
+     */
+    @Test
+    public void testDirectoryChangesInvalidateCachedResult() throws Exception {
+        File root = this.folder.newFolder("classes");
+        File plugins = new File(root, "plugins");
+        assertTrue(plugins.mkdir());
+        touch(new File(plugins, "a.xml"));
+        IndexedResourcePatternResolver resolver =
+                new IndexedResourcePatternResolver(new URLClassLoader(new URL[] {root.toURI().toURL()}, null));
+
+        assertEquals(1, resolver.getResources("classpath*:plugins/**/*.xml").length);
+        assertEquals(0, resolver.getResources("classpath*:extensions/*.xml").length);
+
+        File nested = new File(plugins, "nested");
+        assertTrue(nested.mkdir());
+        touch(new File(nested, "b.xml"));
+        File extensions = new File(root, "extensions");
+        assertTrue(extensions.mkdir());
+        touch(new File(extensions, "c.xml"));
+
+        assertEquals(2, resolver.getResources("classpath*:plugins/**/*.xml").length);
+        assertEquals(1, resolver.getResources("classpath*:extensions/*.xml").length);
+    }
+
+    @Test
+    public void testApplicationContextDelegatesToResolver() throws Exception {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.setResourceLoader(new IndexedResourcePatternResolver());
+        context.refresh();
+        assertEquals(urls(new PathMatchingResourcePatternResolver().getResources("classpath:cn/sue/spring/test/*/*.class")),
+                urls(context.getResources("classpath:cn/sue/spring/test/*/*.class")));
+        assertTrue(context.getResource("classpath:spring.xml").exists());
+        context.close();
+    }
+
+    private static Set<String> urls(Resource[] resources) throws IOException {
+        Set<String> urls = new TreeSet<>();
+        for (Resource resource : resources) {
+            urls.add(resource.getURL().toString().replaceAll("/$", ""));
+        }
+        return urls;
+    }
+
+    private static void touch(File file) throws IOException {
+        assertTrue(file.createNewFile());
+    }
+}
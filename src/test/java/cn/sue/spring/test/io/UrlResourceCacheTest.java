@@ -0,0 +1,223 @@
+package cn.sue.spring.test.io;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UrlResourceCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private final Map<String, String> bodies = new ConcurrentHashMap<>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private volatile long delayMillis;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", exchange -> {
+            this.requests.incrementAndGet();
+            try {
+                Thread.sleep(this.delayMillis);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            String body = this.bodies.get(exchange.getRequestURI().getPath());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                this.notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        this.server.start();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testCachesAndRevalidates() throws Exception {
+        this.bodies.put("/config.properties", "name=sue");
+        Path directory = this.folder.getRoot().toPath();
+        UrlResourceCache cache = new UrlResourceCache(directory);
+        DefaultResourceLoader loader = new DefaultResourceLoader();
+        loader.addProtocolResolver(cache);
+
+        Resource resource = loader.getResource(url("/config.properties"));
+        assertEquals(8, resource.contentLength());
+        assertEquals("name=sue", read(resource));
+        assertEquals("name=sue", read(loader.getResource(url("/config.properties"))));
+        assertEquals(1, this.requests.get());
+        assertEquals(2, cache.getHitCount());
+
+        // 过期以后带ETag验证，内容没变时服务器返回304
+        cache.setRevalidateAfterMillis(0);
+        assertEquals("name=sue", read(resource));
+        assertEquals(2, this.requests.get());
+        assertEquals(1, this.notModified.get());
+        assertEquals(1, cache.getDownloadCount());
+
+        this.bodies.put("/config.properties", "name=spring");
+        assertEquals("name=spring", read(resource));
+        assertEquals(2, cache.getDownloadCount());
+
+        // 不存在的资源
+        assertFalse(loader.getResource(url("/missing.xml")).exists());
+        assertTrue(resource.createRelative("other.xml").getDescription().contains("/other.xml"));
+
+        // 重启以后直接用磁盘上的内容
+        UrlResourceCache restarted = new UrlResourceCache(directory);
+        assertEquals(1, restarted.getEntryCount());
+        assertEquals("name=spring", read(restarted.resolve(url("/config.properties"), loader)));
+        assertEquals(1, restarted.getHitCount());
+        int before = this.requests.get();
+
+        // 服务器停了，验证失败时用旧的内容
+        restarted.setRevalidateAfterMillis(0);
+        this.server.stop(0);
+        assertEquals("name=spring", read(restarted.resolve(url("/config.properties"), loader)));
+        assertEquals(1, restarted.getStaleHitCount());
+        assertEquals(before, this.requests.get());
+    }
+
+    @Test
+    public void testSharesConcurrentFetchesAndEvicts() throws Exception {
+        this.bodies.put("/a.xml", repeat('a', 1000));
+        this.bodies.put("/b.xml", repeat('b', 1000));
+        this.bodies.put("/c.xml", repeat('c', 1000));
+        UrlResourceCache cache = new UrlResourceCache(this.folder.getRoot().toPath());
+        cache.setMaxSize(2500);
+        DefaultResourceLoader loader = new DefaultResourceLoader();
+        loader.addProtocolResolver(cache);
+
+        this.delayMillis = 300;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return read(loader.getResource(url("/a.xml")));
+                }));
+            }
+            start.countDown();
+            for (Future<String> future : futures) {
+                assertEquals(1000, future.get().length());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, this.requests.get());
+        assertEquals(7, cache.getSharedFetchCount());
+
+        this.delayMillis = 0;
+        read(loader.getResource(url("/b.xml")));
+        read(loader.getResource(url("/c.xml")));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2000, cache.getSize());
+        assertEquals(4, this.folder.getRoot().list().length);
+
+        // 被删掉的要重新下载
+        read(loader.getResource(url("/a.xml")));
+        assertEquals(4, this.requests.get());
+    }
+
+    /**
+     * 已经拿到的Entry，之后文件被新版本替换、或者被淘汰删掉，读到的还是它自己那个版本
+     */
+    @Test
+    public void testEntryOutlivesReplacementAndEviction() throws Exception {
+        this.bodies.put("/a.xml", repeat('a', 1000));
+        this.bodies.put("/b.xml", repeat('b', 1000));
+        UrlResourceCache cache = new UrlResourceCache(this.folder.getRoot().toPath());
+        cache.setRevalidateAfterMillis(0);
+        UrlResourceCache.Entry old = cache.obtain(new URL(url("/a.xml")));
+
+        this.bodies.put("/a.xml", "short");
+        UrlResourceCache.Entry replaced = cache.obtain(new URL(url("/a.xml")));
+        assertNotSame(old, replaced);
+        assertEquals("short", read(replaced));
+        assertEquals(repeat('a', 1000), read(old));
+
+        cache.setMaxSize(1000);
+        cache.obtain(new URL(url("/b.xml")));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("short", read(replaced));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    private static String read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String read(UrlResourceCache.Entry entry) throws IOException {
+        try (InputStream in = entry.openStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package cn.sue.spring.test.message;
+
+import cn.sue.spring.test.core.AppConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.DefaultMessageSourceResolvable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class PrecompiledMessageSourceTest {
+
+    private File dir;
+
+    private PrecompiledMessageSource messageSource;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("messages").toFile();
+        write("message.properties", "greeting=hello {0}\nprice=price {0,number,#.00}\nquoted=it''s '{0}' {0}\nonly.base=base\n");
+        write("message_zh.properties", "greeting=ni hao {0}\n");
+        write("message_zh_CN.properties", "only.cn=cn\n");
+        messageSource = new PrecompiledMessageSource();
+        messageSource.setBasename("file:" + dir.getAbsolutePath() + "/message");
+        messageSource.setFallbackToSystemLocale(false);
+        messageSource.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        messageSource.destroy();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testLocaleFallbackAndFormatting() {
+        assertEquals("hello sue", messageSource.getMessage("greeting", new Object[]{"sue"}, Locale.ENGLISH));
+        assertEquals("ni hao sue", messageSource.getMessage("greeting", new Object[]{"sue"}, Locale.CHINA));
+        assertEquals("cn", messageSource.getMessage("only.cn", null, Locale.CHINA));
+        assertEquals("base", messageSource.getMessage("only.base", null, Locale.CHINA));
+        assertEquals("price 3.50", messageSource.getMessage("price", new Object[]{3.5}, Locale.ENGLISH));
+        assertEquals("it's {0} x", messageSource.getMessage("quoted", new Object[]{"x"}, Locale.ENGLISH));
+        assertEquals("hello {0}", messageSource.getMessage("greeting", null, Locale.ENGLISH));
+        assertEquals("hello hello sue", messageSource.getMessage("greeting",
+                new Object[]{new DefaultMessageSourceResolvable(new String[]{"greeting"}, new Object[]{"sue"})}, Locale.ENGLISH));
+        assertEquals("default 1", messageSource.getMessage("missing", new Object[]{"1"}, "default {0}", Locale.ENGLISH));
+        try {
+            messageSource.getMessage("missing", null, Locale.ENGLISH);
+            fail();
+        }
+        catch (NoSuchMessageException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReloadSwapsTable() throws IOException {
+        write("message_zh.properties", "greeting=zai jian {0}\n");
+        messageSource.reload();
+        assertEquals("zai jian sue", messageSource.getMessage("greeting", new Object[]{"sue"}, Locale.CHINA));
+    }
+
+    @Test
+    public void testFileWatchReload() throws Exception {
+        PrecompiledMessageSource watching = new PrecompiledMessageSource();
+        watching.setBasename("file:" + dir.getAbsolutePath() + "/message");
+        watching.setReloadable(true);
+        watching.afterPropertiesSet();
+        try {
+            write("message.properties", "greeting=bye {0}\n");
+            long deadline = System.currentTimeMillis() + 10_000;
+            String message = null;
+            while (System.currentTimeMillis() < deadline) {
+                // 可能在文件写到一半时重新加载，这时暂时没有这条消息，下次变化还会再加载
+                message = watching.getMessage("greeting", new Object[]{"sue"}, null, Locale.ENGLISH);
+                if ("bye sue".equals(message)) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+            assertEquals("bye sue", message);
+        }
+        finally {
+            watching.destroy();
+        }
+    }
+
+    @Test
+    public void testAppConfigMessages() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class);
+        assertEquals("en", context.getMessage("test", null, new Locale("en")));
+        assertEquals("zh", context.getMessage("test", null, Locale.CHINA));
+        context.close();
+    }
+
+    private void write(String name, String content) throws IOException {
+        try (OutputStream os = new FileOutputStream(new File(dir, name))) {
+            os.write(content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package cn.sue.spring.test.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000L, histogram.getMaxNanos());
+        assertEquals(500_500L, histogram.getMeanNanos());
+        assertWithin(500_000L, histogram.getPercentileNanos(50));
+        assertWithin(990_000L, histogram.getPercentileNanos(99));
+        assertEquals(1_000_000L, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram even = new LatencyHistogram();
+        LatencyHistogram odd = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            (i % 2 == 0 ? even : odd).record(i * 1000L);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(even);
+        merged.add(odd);
+        assertEquals(1000, merged.getCount());
+        assertEquals(1_000_000L, merged.getMaxNanos());
+        assertEquals(500_500L, merged.getMeanNanos());
+        assertWithin(990_000L, merged.getPercentileNanos(99));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 1023, 1024, 123_456_789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value + " above its bucket", value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value + " below its bucket", value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,110 @@
+package cn.sue.spring.test.scan;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.index.CandidateComponentsIndexLoader;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class IndexedClassPathBeanDefinitionScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path classes;
+
+    /**
+     * 编译两个@Component到临时类路径根，索引里只写Listed，这样能看出扫描结果到底来自索引还是ASM扫描
+     */
+    @Before
+    public void compileComponents() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        this.classes = this.folder.newFolder("classes").toPath();
+        Path sources = this.folder.newFolder("src", "indexed").toPath();
+        Path listed = write(sources.resolve("Listed.java"), "package indexed; @org.springframework.stereotype.Component public class Listed {}");
+        Path unlisted = write(sources.resolve("Unlisted.java"), "package indexed; @org.springframework.stereotype.Component public class Unlisted {}");
+        assertEquals(0, compiler.run(null, null, null, "-proc:none", "-d", this.classes.toString(),
+                "-cp", System.getProperty("java.class.path"), listed.toString(), unlisted.toString()));
+        Path index = this.classes.resolve(CandidateComponentsIndexLoader.COMPONENTS_RESOURCE_LOCATION);
+        Files.createDirectories(index.getParent());
+        write(index, "indexed.Listed=org.springframework.stereotype.Component");
+        ComponentIndexManifest.write(this.classes.toFile());
+    }
+
+    /**
+     * class文件和清单一致，扫描直接读索引
+     */
+    @Test
+    public void testScanFromIndex() throws Exception {
+        try (URLClassLoader classLoader = classLoader()) {
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+            IndexedClassPathBeanDefinitionScanner scanner = scanner(context, classLoader);
+            scanner.scan("indexed");
+            assertFalse(scanner.isScanningFallback());
+            assertTrue(context.containsBeanDefinition("listed"));
+            assertFalse(context.containsBeanDefinition("unlisted"));
+        }
+    }
+
+    /**
+     * 生成索引之后class文件被重新编译过(修改时间变了)，不管隔了多久都退回到扫描
+     */
+    @Test
+    public void testFallbackWhenClassIsRecompiled() throws Exception {
+        File unlisted = this.classes.resolve("indexed/Unlisted.class").toFile();
+        assertTrue(unlisted.setLastModified(unlisted.lastModified() + 1000L));
+        try (URLClassLoader classLoader = classLoader()) {
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+            IndexedClassPathBeanDefinitionScanner scanner = scanner(context, classLoader);
+            scanner.scan("indexed");
+            assertTrue(scanner.isScanningFallback());
+            assertTrue(context.containsBeanDefinition("listed"));
+            assertTrue(context.containsBeanDefinition("unlisted"));
+        }
+    }
+
+    /**
+     * 有索引但没有清单(不是 mvn -Pindex 生成的)，同样不信任索引
+     */
+    @Test
+    public void testFallbackWithoutManifest() throws Exception {
+        Files.delete(this.classes.resolve(ComponentIndexManifest.MANIFEST_RESOURCE_LOCATION));
+        try (URLClassLoader classLoader = classLoader()) {
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+            IndexedClassPathBeanDefinitionScanner scanner = scanner(context, classLoader);
+            scanner.scan("indexed");
+            assertTrue(scanner.isScanningFallback());
+            assertTrue(context.containsBeanDefinition("unlisted"));
+        }
+    }
+
+    private URLClassLoader classLoader() throws Exception {
+        return new URLClassLoader(new URL[] {this.classes.toUri().toURL()}, getClass().getClassLoader());
+    }
+
+    private static IndexedClassPathBeanDefinitionScanner scanner(AnnotationConfigApplicationContext context, ClassLoader classLoader) {
+        IndexedClassPathBeanDefinitionScanner scanner = new IndexedClassPathBeanDefinitionScanner(context);
+        scanner.setResourceLoader(new DefaultResourceLoader(classLoader));
+        return scanner;
+    }
+
+    private static Path write(Path file, String content) throws Exception {
+        return Files.write(file, Collections.singletonList(content), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+package cn.sue.spring.test.scope;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PooledScopeTest {
+
+    private static final AtomicInteger DESTROYED = new AtomicInteger();
+
+    private final PooledScope scope = new PooledScope();
+
+    private GenericApplicationContext context;
+
+    @After
+    public void close() {
+        this.context.close();
+    }
+
+    @Test
+    public void testReusesAndValidates() {
+        refresh();
+        Connection first = this.context.getBean(Connection.class);
+        first.dirty = true;
+        assertTrue(this.scope.release(first));
+        Connection second = this.context.getBean(Connection.class);
+        assertSame(first, second);
+        assertFalse(second.dirty);
+        assertNotSame(second, this.context.getBean(Connection.class));
+
+        // 检查不通过的实例被销毁，换一个新的
+        second.broken = true;
+        this.scope.release(second);
+        Connection third = this.context.getBean(Connection.class);
+        assertNotSame(second, third);
+        assertEquals(1, DESTROYED.get());
+
+        PooledScope.PoolStats stats = this.scope.getStats("connection");
+        assertEquals(4, stats.getBorrows());
+        assertEquals(2, stats.getThreadHits());
+        assertEquals(3, stats.getCreations());
+        assertEquals(1, stats.getInvalidations());
+        assertFalse(this.scope.release(new Connection()));
+
+        // 重复还回只算一次
+        assertTrue(this.scope.release(third));
+        assertTrue(this.scope.release(third));
+        assertEquals(1, this.scope.getStats("connection").getIdle());
+        assertSame(third, this.context.getBean(Connection.class));
+        assertEquals(3, this.scope.getStats("connection").getThreadHits());
+    }
+
+    @Test
+    public void testBoundedWaitAndIdleEviction() throws Exception {
+        this.scope.setMaxSize(1);
+        this.scope.setMaxWaitMillis(100);
+        this.scope.setIdleTimeoutMillis(50);
+        refresh();
+        Connection held = this.context.getBean(Connection.class);
+        try {
+            this.context.getBean(Connection.class);
+            fail();
+        }
+        catch (BeanCreationException expected) {
+        }
+
+        // 别的线程还回来以后等待的线程拿到同一个实例
+        this.scope.setMaxWaitMillis(5000);
+        CountDownLatch borrowed = new CountDownLatch(1);
+        Connection[] waited = new Connection[1];
+        Thread waiter = new Thread(() -> {
+            waited[0] = this.context.getBean(Connection.class);
+            borrowed.countDown();
+        });
+        waiter.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.scope.getStats("connection").getWaits() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        this.scope.release(held);
+        assertTrue(borrowed.await(5, TimeUnit.SECONDS));
+        assertSame(held, waited[0]);
+        PooledScope.PoolStats stats = this.scope.getStats("connection");
+        assertEquals(2, stats.getWaits());
+        assertEquals(1, stats.getTimeouts());
+        assertEquals(1, stats.getSharedHits());
+
+        // 空闲超时被回收
+        this.scope.release(waited[0]);
+        deadline = System.currentTimeMillis() + 5000;
+        while (this.scope.getStats("connection").getSize() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, this.scope.getStats("connection").getEvictions());
+        assertEquals(1, DESTROYED.get());
+    }
+
+    @Test
+    public void testClosingContextDestroysPool() throws Exception {
+        refresh();
+        Connection idle = this.context.getBean(Connection.class);
+        Connection borrowed = this.context.getBean(Connection.class);
+        this.scope.release(idle);
+        this.context.close();
+        assertEquals(1, DESTROYED.get());
+        // 关闭以后还回来的直接销毁
+        assertTrue(this.scope.release(borrowed));
+        assertEquals(2, DESTROYED.get());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (evictorRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(evictorRunning());
+    }
+
+    private static boolean evictorRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("pooled-scope-evictor".equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void refresh() {
+        DESTROYED.set(0);
+        this.context = new GenericApplicationContext();
+        this.context.addBeanFactoryPostProcessor(this.scope);
+        this.context.registerBean("connection", Connection.class, bd -> bd.setScope(PooledScope.SCOPE_NAME));
+        this.context.refresh();
+    }
+
+
+    static class Connection implements PooledBean, DisposableBean {
+
+        boolean dirty;
+
+        boolean broken;
+
+        @Override
+        public void resetForReuse() {
+            this.dirty = false;
+        }
+
+        @Override
+        public boolean isReusable() {
+            return !this.broken;
+        }
+
+        @Override
+        public void destroy() {
+            DESTROYED.incrementAndGet();
+        }
+    }
+}
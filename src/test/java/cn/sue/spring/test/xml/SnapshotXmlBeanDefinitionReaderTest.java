@@ -0,0 +1,215 @@
+package cn.sue.spring.test.xml;
+
+import cn.sue.spring.test.lifecycle.TestBeanA;
+import cn.sue.spring.test.lifecycle.TestBeanB;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SnapshotXmlBeanDefinitionReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSecondLoadReadsSnapshot() throws Exception {
+        Path snapshots = this.folder.newFolder("snapshots").toPath();
+        DefaultListableBeanFactory parsed = new DefaultListableBeanFactory();
+        SnapshotXmlBeanDefinitionReader first = reader(parsed, snapshots);
+        first.loadBeanDefinitions("classpath:spring.xml");
+        assertEquals(0, first.getSnapshotHits());
+        assertEquals(1, Files.list(snapshots).count());
+
+        GenericApplicationContext context = new GenericApplicationContext();
+        SnapshotXmlBeanDefinitionReader second = reader(context.getDefaultListableBeanFactory(), snapshots);
+        int count = second.loadBeanDefinitions("classpath:spring.xml");
+        assertEquals(1, second.getSnapshotHits());
+        assertEquals(parsed.getBeanDefinitionCount(), count);
+        assertEquals(Arrays.asList(parsed.getBeanDefinitionNames()), Arrays.asList(context.getBeanDefinitionNames()));
+
+        BeanDefinition testBeanA = context.getBeanDefinition("testBeanA");
+        assertEquals("Sue.test", ((TypedStringValue) testBeanA.getPropertyValues().get("name")).getValue());
+        assertEquals("myInit", ((AbstractBeanDefinition) testBeanA).getInitMethodName());
+
+        context.refresh();
+        assertEquals("Sue.test", context.getBean(TestBeanA.class).getName());
+        assertNotNull(context.getBean(TestBeanB.class));
+        context.close();
+    }
+
+    @Test
+    public void testChangedXmlIsParsedAgain() throws Exception {
+        Path snapshots = this.folder.newFolder("snapshots").toPath();
+        File xml = this.folder.newFile("beans.xml");
+        writeBeans(xml, "first");
+        reader(new DefaultListableBeanFactory(), snapshots).loadBeanDefinitions(new FileSystemResource(xml));
+
+        writeBeans(xml, "second");
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SnapshotXmlBeanDefinitionReader reader = reader(beanFactory, snapshots);
+        reader.loadBeanDefinitions(new FileSystemResource(xml));
+        assertEquals(0, reader.getSnapshotHits());
+        TypedStringValue value = (TypedStringValue) beanFactory.getBeanDefinition("name").getConstructorArgumentValues()
+                .getIndexedArgumentValue(0, String.class).getValue();
+        assertEquals("second", value.getValue());
+    }
+
+    @Test
+    public void testOverridingDefinitionsAreSnapshotted() throws Exception {
+        Path snapshots = this.folder.newFolder("snapshots").toPath();
+        File xml = this.folder.newFile("beans.xml");
+        writeBeans(xml, "xml");
+        DefaultListableBeanFactory existing = new DefaultListableBeanFactory();
+        existing.registerBeanDefinition("name", new RootBeanDefinition(String.class));
+        reader(existing, snapshots).loadBeanDefinitions(new FileSystemResource(xml));
+
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SnapshotXmlBeanDefinitionReader reader = reader(beanFactory, snapshots);
+        assertEquals(1, reader.loadBeanDefinitions(new FileSystemResource(xml)));
+        assertEquals(1, reader.getSnapshotHits());
+        assertEquals("xml", beanFactory.getBean("name"));
+    }
+
+    @Test
+    public void testProfilesSelectSnapshot() throws Exception {
+        Path snapshots = this.folder.newFolder("snapshots").toPath();
+        File xml = this.folder.newFile("profiles.xml");
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<beans xmlns=\"http://www.springframework.org/schema/beans\"\n" +
+                "       xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                "       xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans.xsd\">\n" +
+                "    <beans profile=\"dev\"><bean id=\"dev\" class=\"java.lang.Object\"/></beans>\n" +
+                "</beans>\n";
+        Files.write(xml.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        StandardEnvironment dev = new StandardEnvironment();
+        dev.setActiveProfiles("dev");
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SnapshotXmlBeanDefinitionReader reader = reader(beanFactory, snapshots);
+        reader.setEnvironment(dev);
+        reader.loadBeanDefinitions(new FileSystemResource(xml));
+        assertTrue(beanFactory.containsBeanDefinition("dev"));
+
+        // 没有激活dev，不能用上面的快照
+        beanFactory = new DefaultListableBeanFactory();
+        reader = reader(beanFactory, snapshots);
+        reader.loadBeanDefinitions(new FileSystemResource(xml));
+        assertEquals(0, reader.getSnapshotHits());
+        assertFalse(beanFactory.containsBeanDefinition("dev"));
+
+        beanFactory = new DefaultListableBeanFactory();
+        reader = reader(beanFactory, snapshots);
+        reader.setEnvironment(dev);
+        reader.loadBeanDefinitions(new FileSystemResource(xml));
+        assertEquals(1, reader.getSnapshotHits());
+        assertTrue(beanFactory.containsBeanDefinition("dev"));
+    }
+
+    @Test
+    public void testClassGainingComponentInvalidatesSnapshot() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        Path snapshots = this.folder.newFolder("snapshots").toPath();
+        Path classes = this.folder.newFolder("classes").toPath();
+        Path source = this.folder.newFolder("src", "scanned", "sub").toPath().resolve("Plain.java");
+        File xml = this.folder.newFile("scan.xml");
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<beans xmlns=\"http://www.springframework.org/schema/beans\"\n" +
+                "       xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                "       xmlns:context=\"http://www.springframework.org/schema/context\"\n" +
+                "       xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans.xsd " +
+                "http://www.springframework.org/schema/context http://www.springframework.org/schema/context/spring-context.xsd\">\n" +
+                "    <context:component-scan base-package=\"scanned\"/>\n" +
+                "</beans>\n";
+        Files.write(xml.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        // 子包里一个普通的类，第一次扫描什么都没有
+        Files.write(source, "package scanned.sub; public class Plain {}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(), source.toString()));
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader())) {
+            DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+            scanningReader(beanFactory, snapshots, classLoader).loadBeanDefinitions(new FileSystemResource(xml));
+            assertFalse(beanFactory.containsBeanDefinition("plain"));
+        }
+
+        // 加上@Component，文件名没变，快照也要失效
+        Files.write(source, "package scanned.sub; @org.springframework.stereotype.Component public class Plain {}"
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(),
+                "-cp", System.getProperty("java.class.path"), source.toString()));
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader())) {
+            DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+            SnapshotXmlBeanDefinitionReader reader = scanningReader(beanFactory, snapshots, classLoader);
+            reader.loadBeanDefinitions(new FileSystemResource(xml));
+            assertEquals(0, reader.getSnapshotHits());
+            assertTrue(beanFactory.containsBeanDefinition("plain"));
+        }
+    }
+
+    @Test
+    public void testSharedDirectoryIsNotUsed() throws Exception {
+        Path shared = this.folder.newFolder("shared").toPath();
+        Assume.assumeTrue(shared.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        SnapshotXmlBeanDefinitionReader reader = reader(beanFactory, shared);
+        reader.loadBeanDefinitions("classpath:spring.xml");
+        reader.loadBeanDefinitions("classpath:spring.xml");
+        assertEquals(0, reader.getSnapshotHits());
+        assertEquals(0, Files.list(shared).count());
+        assertTrue(beanFactory.containsBeanDefinition("testBeanA"));
+
+        // 不存在的目录只给当前用户权限
+        Path created = this.folder.getRoot().toPath().resolve("created");
+        reader(new DefaultListableBeanFactory(), created).loadBeanDefinitions("classpath:spring.xml");
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(created));
+        assertEquals(1, Files.list(created).count());
+    }
+
+    private static SnapshotXmlBeanDefinitionReader reader(DefaultListableBeanFactory beanFactory, Path snapshots) {
+        SnapshotXmlBeanDefinitionReader reader = new SnapshotXmlBeanDefinitionReader(beanFactory);
+        reader.setSnapshotDirectory(snapshots);
+        return reader;
+    }
+
+    private static SnapshotXmlBeanDefinitionReader scanningReader(DefaultListableBeanFactory beanFactory, Path snapshots,
+                                                                  ClassLoader classLoader) {
+        SnapshotXmlBeanDefinitionReader reader = reader(beanFactory, snapshots);
+        reader.setBeanClassLoader(classLoader);
+        reader.setResourceLoader(new DefaultResourceLoader(classLoader));
+        return reader;
+    }
+
+    private static void writeBeans(File xml, String value) throws Exception {
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<beans xmlns=\"http://www.springframework.org/schema/beans\"\n" +
+                "       xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                "       xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans.xsd\">\n" +
+                "    <bean id=\"name\" class=\"java.lang.String\"><constructor-arg index=\"0\" value=\"" + value + "\"/></bean>\n" +
+                "</beans>\n";
+        Files.write(xml.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
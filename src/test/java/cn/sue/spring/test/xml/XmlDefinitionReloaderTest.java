@@ -0,0 +1,74 @@
+package cn.sue.spring.test.xml;
+
+import cn.sue.spring.test.factory.ExtendedBeanFactory;
+import cn.sue.spring.test.factory.IncrementalRefresher;
+import cn.sue.spring.test.lifecycle.MyBeanPostProcessor;
+import cn.sue.spring.test.lifecycle.TestBeanA;
+import cn.sue.spring.test.lifecycle.TestBeanB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class XmlDefinitionReloaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadRecreatesOnlyAffectedBeans() throws Exception {
+        File xml = this.folder.newFile("spring.xml");
+        Files.copy(new ClassPathResource("spring.xml").getInputStream(), xml.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        String location = "file:" + xml.getAbsolutePath();
+
+        GenericApplicationContext context = new GenericApplicationContext(new ExtendedBeanFactory());
+        new XmlBeanDefinitionReader(context).loadBeanDefinitions(location);
+        context.refresh();
+        XmlDefinitionReloader reloader = new XmlDefinitionReloader(context, location);
+        TestBeanA testBeanA = context.getBean(TestBeanA.class);
+        TestBeanB testBeanB = context.getBean(TestBeanB.class);
+        MyBeanPostProcessor postProcessor = context.getBean(MyBeanPostProcessor.class);
+
+        // 没改文件什么都不做
+        assertTrue(reloader.reload().isEmpty());
+        assertSame(testBeanA, context.getBean(TestBeanA.class));
+
+        String content = new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8);
+        Files.write(xml.toPath(), content.replace("value=\"Sue.test\"", "value=\"Sue.reloaded\"").getBytes(StandardCharsets.UTF_8));
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        IncrementalRefresher.Result result;
+        System.setOut(new PrintStream(captured, true, "UTF-8"));
+        try {
+            result = reloader.reload();
+        }
+        finally {
+            System.setOut(out);
+        }
+
+        assertEquals(Arrays.asList("testBeanA"), Arrays.asList(result.getChanged().toArray()));
+        assertTrue(result.getDestroyed().containsAll(Arrays.asList("testBeanA", "testBeanB")));
+        assertTrue(result.getRecreated().containsAll(Arrays.asList("testBeanA", "testBeanB")));
+        String log = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(log.contains("DiposibleBean.destory() 来自TestBeanA"));
+        assertTrue(log.contains("TestBeanA.destroy-method()"));
+
+        assertEquals("Sue.reloaded", context.getBean(TestBeanA.class).getName());
+        assertNotSame(testBeanA, context.getBean(TestBeanA.class));
+        assertNotSame(testBeanB, context.getBean(TestBeanB.class));
+        assertSame(postProcessor, context.getBean(MyBeanPostProcessor.class));
+        context.close();
+    }
+}